@@ -3,6 +3,23 @@ package com.hekta.chdynmap;
 import com.hekta.chdynmap.abstraction.CHDynmapStaticLayer;
 import com.hekta.chdynmap.abstraction.MCDynmapAPI;
 import com.hekta.chdynmap.abstraction.bukkit.events.drivers.BukkitDynmapListener;
+import com.hekta.chdynmap.core.CHDynmapChangeFeed;
+import com.hekta.chdynmap.core.CHDynmapDescriptionTemplate;
+import com.hekta.chdynmap.core.CHDynmapExpiryWheel;
+import com.hekta.chdynmap.core.CHDynmapIconIndex;
+import com.hekta.chdynmap.core.CHDynmapIdAllocator;
+import com.hekta.chdynmap.core.CHDynmapIdIndex;
+import com.hekta.chdynmap.core.CHDynmapJobRunner;
+import com.hekta.chdynmap.core.CHDynmapJournal;
+import com.hekta.chdynmap.core.CHDynmapMarkerDefinitions;
+import com.hekta.chdynmap.core.CHDynmapMarkerGroup;
+import com.hekta.chdynmap.core.CHDynmapMarkerHistory;
+import com.hekta.chdynmap.core.CHDynmapMarkerMeta;
+import com.hekta.chdynmap.core.CHDynmapMarkerQuota;
+import com.hekta.chdynmap.core.CHDynmapPlayerIndex;
+import com.hekta.chdynmap.core.CHDynmapStyleTheme;
+import com.hekta.chdynmap.core.CHDynmapTextIndex;
+import com.hekta.chdynmap.core.CHDynmapTransaction;
 import com.laytonsmith.PureUtilities.SimpleVersion;
 import com.laytonsmith.PureUtilities.Version;
 import com.laytonsmith.core.Static;
@@ -34,6 +51,31 @@ public final class CHDynmap extends AbstractExtension {
 		_dynmap = CHDynmapStaticLayer.getDynmap();
 		if (_dynmap != null) {
 			BukkitDynmapListener.register();
+			CHDynmapStaticLayer.addMarkerListener(CHDynmapStyleTheme.LISTENER);
+			CHDynmapStaticLayer.addMarkerListener(CHDynmapExpiryWheel.LISTENER);
+			CHDynmapStaticLayer.addMarkerListener(CHDynmapMarkerQuota.LISTENER);
+			CHDynmapStaticLayer.addMarkerListener(CHDynmapIdAllocator.LISTENER);
+			CHDynmapStaticLayer.addMarkerListener(CHDynmapMarkerGroup.LISTENER);
+			CHDynmapStaticLayer.addMarkerListener(CHDynmapIdIndex.LISTENER);
+			CHDynmapStaticLayer.addMarkerListener(CHDynmapTextIndex.LISTENER);
+			CHDynmapStaticLayer.addMarkerListener(CHDynmapIconIndex.LISTENER);
+			CHDynmapStaticLayer.addMarkerListener(CHDynmapPlayerIndex.LISTENER);
+			CHDynmapStaticLayer.addMarkerListener(CHDynmapDescriptionTemplate.LISTENER);
+			CHDynmapStaticLayer.addMarkerListener(CHDynmapJournal.LISTENER);
+			CHDynmapStaticLayer.addMarkerListener(CHDynmapChangeFeed.LISTENER);
+			CHDynmapStaticLayer.addMarkerListener(CHDynmapTransaction.LISTENER);
+			CHDynmapStaticLayer.addMarkerListener(CHDynmapMarkerHistory.LISTENER);
+			CHDynmapStaticLayer.addMarkerListener(CHDynmapMarkerMeta.LISTENER);
+			CHDynmapIdIndex.start();
+			CHDynmapTextIndex.start();
+			CHDynmapIconIndex.start();
+			CHDynmapPlayerIndex.start();
+			CHDynmapExpiryWheel.start();
+			CHDynmapMarkerGroup.start();
+			CHDynmapMarkerMeta.start();
+			CHDynmapJournal.start();
+			CHDynmapMarkerDefinitions.start();
+			CHDynmapMarkerHistory.start();
 			Static.getLogger().log(Level.INFO, String.format("%s %s loaded.", getName(), VERSION));
 		} else {
 			Static.getLogger().severe(String.format("Plugin %s seems to be missing, none of the %s functions will work.", DYNMAP_NAME, getName()));
@@ -44,6 +86,32 @@ public final class CHDynmap extends AbstractExtension {
 	public void onShutdown() {
 		if (_dynmap != null) {
 			BukkitDynmapListener.unregister();
+			CHDynmapStaticLayer.removeMarkerListener(CHDynmapStyleTheme.LISTENER);
+			CHDynmapStaticLayer.removeMarkerListener(CHDynmapExpiryWheel.LISTENER);
+			CHDynmapStaticLayer.removeMarkerListener(CHDynmapMarkerQuota.LISTENER);
+			CHDynmapStaticLayer.removeMarkerListener(CHDynmapIdAllocator.LISTENER);
+			CHDynmapStaticLayer.removeMarkerListener(CHDynmapMarkerGroup.LISTENER);
+			CHDynmapStaticLayer.removeMarkerListener(CHDynmapIdIndex.LISTENER);
+			CHDynmapStaticLayer.removeMarkerListener(CHDynmapTextIndex.LISTENER);
+			CHDynmapStaticLayer.removeMarkerListener(CHDynmapIconIndex.LISTENER);
+			CHDynmapStaticLayer.removeMarkerListener(CHDynmapPlayerIndex.LISTENER);
+			CHDynmapStaticLayer.removeMarkerListener(CHDynmapDescriptionTemplate.LISTENER);
+			CHDynmapStaticLayer.removeMarkerListener(CHDynmapJournal.LISTENER);
+			CHDynmapStaticLayer.removeMarkerListener(CHDynmapChangeFeed.LISTENER);
+			CHDynmapStaticLayer.removeMarkerListener(CHDynmapTransaction.LISTENER);
+			CHDynmapStaticLayer.removeMarkerListener(CHDynmapMarkerHistory.LISTENER);
+			CHDynmapStaticLayer.removeMarkerListener(CHDynmapMarkerMeta.LISTENER);
+			CHDynmapExpiryWheel.stop();
+			CHDynmapMarkerGroup.stop();
+			CHDynmapMarkerMeta.stop();
+			CHDynmapJournal.stop();
+			CHDynmapMarkerDefinitions.stop();
+			CHDynmapMarkerHistory.stop();
+			CHDynmapJobRunner.shutdown();
+			CHDynmapIdIndex.stop();
+			CHDynmapTextIndex.stop();
+			CHDynmapIconIndex.stop();
+			CHDynmapPlayerIndex.stop();
 			Static.getLogger().log(Level.INFO, String.format("%s unloaded.", getName()));
 		}
 	}
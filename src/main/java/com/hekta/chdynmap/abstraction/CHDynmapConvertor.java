@@ -1,6 +1,7 @@
 package com.hekta.chdynmap.abstraction;
 
 import com.laytonsmith.abstraction.MCColor;
+import java.io.File;
 
 /**
  *
@@ -17,4 +18,14 @@ public interface CHDynmapConvertor {
 	public MCDynmapMarkerLineStyle getLineStyle(MCColor color, double opacity, int weight);
 
 	public MCDynmapMarkerLineStyle getLineStyle(int color, double opacity, int weight);
+
+	public int scheduleRepeatingTask(Runnable task, long delay, long period);
+
+	public void cancelTask(int taskID);
+
+	public void addMarkerListener(MCDynmapMarkerListener listener);
+
+	public void removeMarkerListener(MCDynmapMarkerListener listener);
+
+	public File getDataFolder();
 }
\ No newline at end of file
@@ -5,6 +5,7 @@ import com.laytonsmith.abstraction.Implementation;
 import com.laytonsmith.abstraction.MCColor;
 import com.laytonsmith.PureUtilities.ClassLoading.ClassDiscovery;
 import com.laytonsmith.core.Static;
+import java.io.File;
 
 /**
  *
@@ -60,4 +61,30 @@ public final class CHDynmapStaticLayer {
 	public static MCDynmapMarkerLineStyle getLineStyle(int color, double opacity, int weight) {
 		return convertor.getLineStyle(color, opacity, weight);
 	}
+
+	/**
+	 * Schedules a task run on the main thread, delay and period are in server ticks. Returns the task ID.
+	 */
+	public static int scheduleRepeatingTask(Runnable task, long delay, long period) {
+		return convertor.scheduleRepeatingTask(task, delay, period);
+	}
+
+	public static void cancelTask(int taskID) {
+		convertor.cancelTask(taskID);
+	}
+
+	public static void addMarkerListener(MCDynmapMarkerListener listener) {
+		convertor.addMarkerListener(listener);
+	}
+
+	public static void removeMarkerListener(MCDynmapMarkerListener listener) {
+		convertor.removeMarkerListener(listener);
+	}
+
+	/**
+	 * Returns the folder the CHDynmap data is stored in (it may not exist yet).
+	 */
+	public static File getDataFolder() {
+		return convertor.getDataFolder();
+	}
 }
\ No newline at end of file
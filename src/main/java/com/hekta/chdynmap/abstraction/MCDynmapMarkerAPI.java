@@ -25,4 +25,16 @@ public interface MCDynmapMarkerAPI extends AbstractionObject {
 	public MCDynmapPlayerSet getPlayerSet(String id);
 	public MCDynmapPlayerSet createPlayerSet(String id, boolean isSymmetric, MCOfflinePlayer[] players, boolean isPersistent);
 	public MCDynmapPlayerSet createPlayerSet(String id, boolean isSymmetric, Iterable<MCOfflinePlayer> players, boolean isPersistent);
+
+	public boolean isWriteElisionEnabled();
+	public void setWriteElisionEnabled(boolean enabled);
+	public long getElidedWrites();
+	public void resetElidedWrites();
+
+	public boolean isInterningEnabled();
+	public void setInterningEnabled(boolean enabled);
+	public int getInternedStrings();
+	public long getInterningHits();
+	public long getInterningSavedBytes();
+	public void resetInterningStats();
 }
\ No newline at end of file
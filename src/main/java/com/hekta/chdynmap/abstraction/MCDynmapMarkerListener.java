@@ -0,0 +1,84 @@
+package com.hekta.chdynmap.abstraction;
+
+/**
+ * Receives the changes made to the markers, markersets, playersets and icons through the abstraction layer. The changes made by other
+ * plugins or by the Dynmap commands are not seen.
+ *
+ * @author Hekta
+ */
+public interface MCDynmapMarkerListener {
+
+	public default void markerCreated(MCDynmapMarker marker) {
+	}
+
+	/**
+	 * Called before a property or the geometry of the marker changes.
+	 */
+	public default void markerChanging(MCDynmapMarker marker) {
+	}
+
+	/**
+	 * Called after a property or the geometry of the marker changed.
+	 */
+	public default void markerChanged(MCDynmapMarker marker) {
+	}
+
+	/**
+	 * Called after a property or the geometry of the marker changed, with the name of what changed (the one of the
+	 * dm_create_marker option, like "label" or "corners"). Calls markerChanged(marker) by default.
+	 */
+	public default void markerChanged(MCDynmapMarker marker, String property) {
+		markerChanged(marker);
+	}
+
+	public default void markerMoved(MCDynmapMarker marker, String oldSetID) {
+	}
+
+	/**
+	 * Called before the marker is deleted.
+	 */
+	public default void markerDeleted(MCDynmapMarker marker) {
+	}
+
+	public default void markerSetCreated(MCDynmapMarkerSet set) {
+	}
+
+	/**
+	 * Called before a property of the markerset changes.
+	 */
+	public default void markerSetChanging(MCDynmapMarkerSet set) {
+	}
+
+	/**
+	 * Called after a property of the markerset (like its allowed or default icons) changed.
+	 */
+	public default void markerSetChanged(MCDynmapMarkerSet set) {
+	}
+
+	/**
+	 * Called before the markerset is deleted, its markers are not notified one by one.
+	 */
+	public default void markerSetDeleted(MCDynmapMarkerSet set) {
+	}
+
+	public default void playerSetCreated(MCDynmapPlayerSet set) {
+	}
+
+	/**
+	 * Called after the players or a property of the playerset changed.
+	 */
+	public default void playerSetChanged(MCDynmapPlayerSet set) {
+	}
+
+	/**
+	 * Called before the playerset is deleted.
+	 */
+	public default void playerSetDeleted(MCDynmapPlayerSet set) {
+	}
+
+	/**
+	 * Called before the icon is deleted.
+	 */
+	public default void iconDeleted(MCDynmapIcon icon) {
+	}
+}
\ No newline at end of file
@@ -54,12 +54,17 @@ public class BukkitMCDynmapAreaMarker extends BukkitMCDynmapMarker implements MC
 
 	@Override
 	public void setRangeY(double yTop, double yBottom) {
+		if (BukkitMCDynmapWriteElision.elide(BukkitMCDynmapWriteElision.same(yTop, _marker.getTopY()) && BukkitMCDynmapWriteElision.same(yBottom, _marker.getBottomY()))) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerChanging(this);
 		_marker.setRangeY(yTop, yBottom);
+		BukkitMCDynmapMarkerListeners.markerChanged(this, "range_y");
 	}
 
 	@Override
 	public void setRangeY(MCLocation top, MCLocation bottom) {
-		_marker.setRangeY(top.getY(), bottom.getY());
+		setRangeY(top.getY(), bottom.getY());
 	}
 
 	@Override
@@ -85,7 +90,12 @@ public class BukkitMCDynmapAreaMarker extends BukkitMCDynmapMarker implements MC
 
 	@Override
 	public void setCorner(int n, MCLocation location) {
+		if (BukkitMCDynmapWriteElision.elide((n < _marker.getCornerCount()) && BukkitMCDynmapWriteElision.same(location.getX(), _marker.getCornerX(n)) && BukkitMCDynmapWriteElision.same(location.getZ(), _marker.getCornerZ(n)))) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerChanging(this);
 		_marker.setCornerLocation(n, location.getX(), location.getZ());
+		BukkitMCDynmapMarkerListeners.markerChanged(this, "corners");
 	}
 
 	@Override
@@ -98,7 +108,7 @@ public class BukkitMCDynmapAreaMarker extends BukkitMCDynmapMarker implements MC
 			Zs[i] = location.getZ();
 			i++;
 		}
-		_marker.setCornerLocations(Xs, Zs);
+		setCornerLocations(Xs, Zs);
 	}
 
 	@Override
@@ -112,12 +122,36 @@ public class BukkitMCDynmapAreaMarker extends BukkitMCDynmapMarker implements MC
 			Zs[i] = location.getZ();
 			i++;
 		}
+		setCornerLocations(Xs, Zs);
+	}
+
+	private void setCornerLocations(double[] Xs, double[] Zs) {
+		if (BukkitMCDynmapWriteElision.elide(hasCorners(Xs, Zs))) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerChanging(this);
 		_marker.setCornerLocations(Xs, Zs);
+		BukkitMCDynmapMarkerListeners.markerChanged(this, "corners");
+	}
+
+	private boolean hasCorners(double[] Xs, double[] Zs) {
+		int count = _marker.getCornerCount();
+		if (Xs.length != count) {
+			return false;
+		}
+		for (int i = 0 ; i < count ; i++) {
+			if (!BukkitMCDynmapWriteElision.same(Xs[i], _marker.getCornerX(i)) || !BukkitMCDynmapWriteElision.same(Zs[i], _marker.getCornerZ(i))) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	@Override
 	public void deleteCorner(int n) {
+		BukkitMCDynmapMarkerListeners.markerChanging(this);
 		_marker.deleteCorner(n);
+		BukkitMCDynmapMarkerListeners.markerChanged(this, "corners");
 	}
 
 	@Override
@@ -127,7 +161,12 @@ public class BukkitMCDynmapAreaMarker extends BukkitMCDynmapMarker implements MC
 
 	@Override
 	public void setLineStyle(MCDynmapMarkerLineStyle style) {
+		if (BukkitMCDynmapWriteElision.elide((style.getWeight() == _marker.getLineWeight()) && BukkitMCDynmapWriteElision.same(style.getOpacity(), _marker.getLineOpacity()) && BukkitMCDynmapWriteElision.sameColor(style.getIntColor(), _marker.getLineColor()))) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerChanging(this);
 		_marker.setLineStyle(style.getWeight(), style.getOpacity(), style.getIntColor());
+		BukkitMCDynmapMarkerListeners.markerChanged(this, "line_style");
 	}
 
 	@Override
@@ -137,7 +176,12 @@ public class BukkitMCDynmapAreaMarker extends BukkitMCDynmapMarker implements MC
 
 	@Override
 	public void setFillStyle(MCDynmapMarkerFillStyle style) {
+		if (BukkitMCDynmapWriteElision.elide(BukkitMCDynmapWriteElision.same(style.getOpacity(), _marker.getFillOpacity()) && BukkitMCDynmapWriteElision.sameColor(style.getIntColor(), _marker.getFillColor()))) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerChanging(this);
 		_marker.setFillStyle(style.getOpacity(), style.getIntColor());
+		BukkitMCDynmapMarkerListeners.markerChanged(this, "fill_style");
 	}
 
 	@Override
@@ -147,6 +191,11 @@ public class BukkitMCDynmapAreaMarker extends BukkitMCDynmapMarker implements MC
 
 	@Override
 	public void setBoosted(boolean isBoosted) {
+		if (BukkitMCDynmapWriteElision.elide(isBoosted == _marker.getBoostFlag())) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerChanging(this);
 		_marker.setBoostFlag(isBoosted);
+		BukkitMCDynmapMarkerListeners.markerChanged(this, "boosted");
 	}
 }
\ No newline at end of file
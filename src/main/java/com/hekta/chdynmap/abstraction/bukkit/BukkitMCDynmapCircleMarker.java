@@ -47,7 +47,12 @@ public class BukkitMCDynmapCircleMarker extends BukkitMCDynmapMarker implements
 
 	@Override
 	public void setCenter(MCLocation location) {
-		_marker.setCenter(location.getWorld().getName(), location.getX(), location.getY(), location.getZ());
+		if (BukkitMCDynmapWriteElision.elide(location.getWorld().getName().equals(_marker.getWorld()) && BukkitMCDynmapWriteElision.same(location.getX(), _marker.getCenterX()) && BukkitMCDynmapWriteElision.same(location.getY(), _marker.getCenterY()) && BukkitMCDynmapWriteElision.same(location.getZ(), _marker.getCenterZ()))) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerChanging(this);
+		_marker.setCenter(BukkitMCDynmapStringPool.intern(location.getWorld().getName()), location.getX(), location.getY(), location.getZ());
+		BukkitMCDynmapMarkerListeners.markerChanged(this, "center");
 	}
 
 	@Override
@@ -62,7 +67,12 @@ public class BukkitMCDynmapCircleMarker extends BukkitMCDynmapMarker implements
 
 	@Override
 	public void setRadius(double radiusX, double radiusZ) {
+		if (BukkitMCDynmapWriteElision.elide(BukkitMCDynmapWriteElision.same(radiusX, _marker.getRadiusX()) && BukkitMCDynmapWriteElision.same(radiusZ, _marker.getRadiusZ()))) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerChanging(this);
 		_marker.setRadius(radiusX, radiusZ);
+		BukkitMCDynmapMarkerListeners.markerChanged(this, "radius");
 	}
 
 	@Override
@@ -72,7 +82,12 @@ public class BukkitMCDynmapCircleMarker extends BukkitMCDynmapMarker implements
 
 	@Override
 	public void setLineStyle(MCDynmapMarkerLineStyle style) {
+		if (BukkitMCDynmapWriteElision.elide((style.getWeight() == _marker.getLineWeight()) && BukkitMCDynmapWriteElision.same(style.getOpacity(), _marker.getLineOpacity()) && BukkitMCDynmapWriteElision.sameColor(style.getIntColor(), _marker.getLineColor()))) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerChanging(this);
 		_marker.setLineStyle(style.getWeight(), style.getOpacity(), style.getIntColor());
+		BukkitMCDynmapMarkerListeners.markerChanged(this, "line_style");
 	}
 
 	@Override
@@ -82,7 +97,12 @@ public class BukkitMCDynmapCircleMarker extends BukkitMCDynmapMarker implements
 
 	@Override
 	public void setFillStyle(MCDynmapMarkerFillStyle style) {
+		if (BukkitMCDynmapWriteElision.elide(BukkitMCDynmapWriteElision.same(style.getOpacity(), _marker.getFillOpacity()) && BukkitMCDynmapWriteElision.sameColor(style.getIntColor(), _marker.getFillColor()))) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerChanging(this);
 		_marker.setFillStyle(style.getOpacity(), style.getIntColor());
+		BukkitMCDynmapMarkerListeners.markerChanged(this, "fill_style");
 	}
 
 	@Override
@@ -92,6 +112,11 @@ public class BukkitMCDynmapCircleMarker extends BukkitMCDynmapMarker implements
 
 	@Override
 	public void setBoosted(boolean isBoosted) {
+		if (BukkitMCDynmapWriteElision.elide(isBoosted == _marker.getBoostFlag())) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerChanging(this);
 		_marker.setBoostFlag(isBoosted);
+		BukkitMCDynmapMarkerListeners.markerChanged(this, "boosted");
 	}
 }
\ No newline at end of file
@@ -52,6 +52,7 @@ public class BukkitMCDynmapIcon implements MCDynmapIcon {
 
 	@Override
 	public void delete() {
+		BukkitMCDynmapMarkerListeners.iconDeleted(this);
 		_icon.deleteIcon();
 	}
 
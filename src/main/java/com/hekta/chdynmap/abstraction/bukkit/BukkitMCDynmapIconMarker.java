@@ -8,6 +8,7 @@ import com.laytonsmith.abstraction.MCLocation;
 import com.laytonsmith.abstraction.StaticLayer;
 import com.laytonsmith.annotations.abstraction;
 import org.dynmap.markers.Marker;
+import org.dynmap.markers.MarkerIcon;
 
 /**
  *
@@ -46,7 +47,12 @@ public class BukkitMCDynmapIconMarker extends BukkitMCDynmapMarker implements MC
 
 	@Override
 	public void setLocation(MCLocation location) {
-		_marker.setLocation(location.getWorld().getName(), location.getX(), location.getY(), location.getZ());
+		if (BukkitMCDynmapWriteElision.elide(location.getWorld().getName().equals(_marker.getWorld()) && BukkitMCDynmapWriteElision.same(location.getX(), _marker.getX()) && BukkitMCDynmapWriteElision.same(location.getY(), _marker.getY()) && BukkitMCDynmapWriteElision.same(location.getZ(), _marker.getZ()))) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerChanging(this);
+		_marker.setLocation(BukkitMCDynmapStringPool.intern(location.getWorld().getName()), location.getX(), location.getY(), location.getZ());
+		BukkitMCDynmapMarkerListeners.markerChanged(this, "location");
 	}
 
 	@Override
@@ -56,6 +62,16 @@ public class BukkitMCDynmapIconMarker extends BukkitMCDynmapMarker implements MC
 
 	@Override
 	public boolean setIcon(MCDynmapIcon icon) {
-		return _marker.setMarkerIcon(((BukkitMCDynmapIcon) icon).getHandle());
+		MarkerIcon current = _marker.getMarkerIcon();
+		if (BukkitMCDynmapWriteElision.elide((current != null) && current.getMarkerIconID().equals(icon.getId()))) {
+			return true;
+		}
+		BukkitMCDynmapMarkerListeners.markerChanging(this);
+		if (_marker.setMarkerIcon(((BukkitMCDynmapIcon) icon).getHandle())) {
+			BukkitMCDynmapMarkerListeners.markerChanged(this, "icon");
+			return true;
+		} else {
+			return false;
+		}
 	}
 }
\ No newline at end of file
@@ -41,11 +41,17 @@ public abstract class BukkitMCDynmapMarker implements MCDynmapMarker {
 
 	@Override
 	public void setSet(MCDynmapMarkerSet newSet) {
+		if (BukkitMCDynmapWriteElision.elide(_marker.getMarkerSet().getMarkerSetID().equals(newSet.getId()))) {
+			return;
+		}
+		String oldSetID = _marker.getMarkerSet().getMarkerSetID();
 		_marker.setMarkerSet(((BukkitMCDynmapMarkerSet) newSet).getHandle());
+		BukkitMCDynmapMarkerListeners.markerMoved(this, oldSetID);
 	}
 
 	@Override
 	public void delete() {
+		BukkitMCDynmapMarkerListeners.markerDeleted(this);
 		_marker.deleteMarker();
 	}
 
@@ -71,12 +77,22 @@ public abstract class BukkitMCDynmapMarker implements MCDynmapMarker {
 
 	@Override
 	public void setLabel(String label) {
-		_marker.setLabel(label);
+		if (BukkitMCDynmapWriteElision.elide(!_marker.isLabelMarkup() && BukkitMCDynmapWriteElision.same(label, _marker.getLabel()))) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerChanging(this);
+		_marker.setLabel(BukkitMCDynmapStringPool.intern(label));
+		BukkitMCDynmapMarkerListeners.markerChanged(this, "label");
 	}
 
 	@Override
 	public void setLabel(String label, boolean isHTMLMarkup) {
-		_marker.setLabel(label, isHTMLMarkup);
+		if (BukkitMCDynmapWriteElision.elide((isHTMLMarkup == _marker.isLabelMarkup()) && BukkitMCDynmapWriteElision.same(label, _marker.getLabel()))) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerChanging(this);
+		_marker.setLabel(BukkitMCDynmapStringPool.intern(label), isHTMLMarkup);
+		BukkitMCDynmapMarkerListeners.markerChanged(this, "label");
 	}
 
 	@Override
@@ -91,7 +107,12 @@ public abstract class BukkitMCDynmapMarker implements MCDynmapMarker {
 
 	@Override
 	public void setDescription(String description) {
-		_marker.setDescription(description);
+		if (BukkitMCDynmapWriteElision.elide(BukkitMCDynmapWriteElision.same(description, _marker.getDescription()))) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerChanging(this);
+		_marker.setDescription(BukkitMCDynmapStringPool.intern(description));
+		BukkitMCDynmapMarkerListeners.markerChanged(this, "description");
 	}
 
 	@Override
@@ -101,16 +122,26 @@ public abstract class BukkitMCDynmapMarker implements MCDynmapMarker {
 
 	@Override
 	public void setMinZoom(int zoom) {
+		if (BukkitMCDynmapWriteElision.elide(zoom == _marker.getMinZoom())) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerChanging(this);
 		_marker.setMinZoom(zoom);
+		BukkitMCDynmapMarkerListeners.markerChanged(this, "min_zoom");
 	}
 
 	@Override
 	public int getMaxZoom() {
-		return _marker.getMinZoom();
+		return _marker.getMaxZoom();
 	}
 
 	@Override
 	public void setMaxZoom(int zoom) {
+		if (BukkitMCDynmapWriteElision.elide(zoom == _marker.getMaxZoom())) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerChanging(this);
 		_marker.setMaxZoom(zoom);
+		BukkitMCDynmapMarkerListeners.markerChanged(this, "max_zoom");
 	}
 }
\ No newline at end of file
@@ -75,9 +75,9 @@ public class BukkitMCDynmapMarkerAPI implements MCDynmapMarkerAPI {
 		} else {
 			icons = null;
 		}
-		MarkerSet markerSet = _api.createMarkerSet(id, label, icons, isPersistent);
+		MarkerSet markerSet = _api.createMarkerSet(BukkitMCDynmapStringPool.intern(id), BukkitMCDynmapStringPool.intern(label), icons, isPersistent);
 		if (markerSet != null) {
-			return new BukkitMCDynmapMarkerSet(markerSet);
+			return BukkitMCDynmapMarkerListeners.markerSetCreated(new BukkitMCDynmapMarkerSet(markerSet));
 		} else {
 			return null;
 		}
@@ -94,9 +94,9 @@ public class BukkitMCDynmapMarkerAPI implements MCDynmapMarkerAPI {
 		} else {
 			icons = null;
 		}
-		MarkerSet markerSet = _api.createMarkerSet(id, label, icons, isPersistent);
+		MarkerSet markerSet = _api.createMarkerSet(BukkitMCDynmapStringPool.intern(id), BukkitMCDynmapStringPool.intern(label), icons, isPersistent);
 		if (markerSet != null) {
-			return new BukkitMCDynmapMarkerSet(markerSet);
+			return BukkitMCDynmapMarkerListeners.markerSetCreated(new BukkitMCDynmapMarkerSet(markerSet));
 		} else {
 			return null;
 		}
@@ -164,7 +164,7 @@ public class BukkitMCDynmapMarkerAPI implements MCDynmapMarkerAPI {
 		}
 		PlayerSet playerSet = _api.createPlayerSet(id, isSymmetric, playerNames, isPersistent);
 		if (playerSet != null) {
-			return new BukkitMCDynmapPlayerSet(playerSet);
+			return BukkitMCDynmapMarkerListeners.playerSetCreated(new BukkitMCDynmapPlayerSet(playerSet));
 		} else {
 			return null;
 		}
@@ -178,9 +178,59 @@ public class BukkitMCDynmapMarkerAPI implements MCDynmapMarkerAPI {
 		}
 		PlayerSet playerSet = _api.createPlayerSet(id, isSymmetric, playerNames, isPersistent);
 		if (playerSet != null) {
-			return new BukkitMCDynmapPlayerSet(playerSet);
+			return BukkitMCDynmapMarkerListeners.playerSetCreated(new BukkitMCDynmapPlayerSet(playerSet));
 		} else {
 			return null;
 		}
 	}
+
+	@Override
+	public boolean isWriteElisionEnabled() {
+		return BukkitMCDynmapWriteElision.isEnabled();
+	}
+
+	@Override
+	public void setWriteElisionEnabled(boolean enabled) {
+		BukkitMCDynmapWriteElision.setEnabled(enabled);
+	}
+
+	@Override
+	public long getElidedWrites() {
+		return BukkitMCDynmapWriteElision.getElidedWrites();
+	}
+
+	@Override
+	public void resetElidedWrites() {
+		BukkitMCDynmapWriteElision.resetElidedWrites();
+	}
+
+	@Override
+	public boolean isInterningEnabled() {
+		return BukkitMCDynmapStringPool.isEnabled();
+	}
+
+	@Override
+	public void setInterningEnabled(boolean enabled) {
+		BukkitMCDynmapStringPool.setEnabled(enabled);
+	}
+
+	@Override
+	public int getInternedStrings() {
+		return BukkitMCDynmapStringPool.getSize();
+	}
+
+	@Override
+	public long getInterningHits() {
+		return BukkitMCDynmapStringPool.getHits();
+	}
+
+	@Override
+	public long getInterningSavedBytes() {
+		return BukkitMCDynmapStringPool.getSavedBytes();
+	}
+
+	@Override
+	public void resetInterningStats() {
+		BukkitMCDynmapStringPool.resetStats();
+	}
 }
\ No newline at end of file
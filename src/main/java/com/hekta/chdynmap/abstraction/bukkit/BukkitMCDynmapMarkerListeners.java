@@ -0,0 +1,111 @@
+package com.hekta.chdynmap.abstraction.bukkit;
+
+import com.hekta.chdynmap.abstraction.MCDynmapIcon;
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerListener;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import com.hekta.chdynmap.abstraction.MCDynmapPlayerSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Dispatches the changes made through the Bukkit wrappers to the registered listeners.
+ *
+ * @author Hekta
+ */
+final class BukkitMCDynmapMarkerListeners {
+
+	private static final List<MCDynmapMarkerListener> LISTENERS = new CopyOnWriteArrayList<>();
+
+	private BukkitMCDynmapMarkerListeners() {
+	}
+
+	static void add(MCDynmapMarkerListener listener) {
+		LISTENERS.add(listener);
+	}
+
+	static void remove(MCDynmapMarkerListener listener) {
+		LISTENERS.remove(listener);
+	}
+
+	static <T extends MCDynmapMarker> T markerCreated(T marker) {
+		for (MCDynmapMarkerListener listener : LISTENERS) {
+			listener.markerCreated(marker);
+		}
+		return marker;
+	}
+
+	static void markerChanging(MCDynmapMarker marker) {
+		for (MCDynmapMarkerListener listener : LISTENERS) {
+			listener.markerChanging(marker);
+		}
+	}
+
+	static void markerChanged(MCDynmapMarker marker, String property) {
+		for (MCDynmapMarkerListener listener : LISTENERS) {
+			listener.markerChanged(marker, property);
+		}
+	}
+
+	static void markerMoved(MCDynmapMarker marker, String oldSetID) {
+		for (MCDynmapMarkerListener listener : LISTENERS) {
+			listener.markerMoved(marker, oldSetID);
+		}
+	}
+
+	static void markerDeleted(MCDynmapMarker marker) {
+		for (MCDynmapMarkerListener listener : LISTENERS) {
+			listener.markerDeleted(marker);
+		}
+	}
+
+	static MCDynmapMarkerSet markerSetCreated(MCDynmapMarkerSet set) {
+		for (MCDynmapMarkerListener listener : LISTENERS) {
+			listener.markerSetCreated(set);
+		}
+		return set;
+	}
+
+	static void markerSetChanging(MCDynmapMarkerSet set) {
+		for (MCDynmapMarkerListener listener : LISTENERS) {
+			listener.markerSetChanging(set);
+		}
+	}
+
+	static void markerSetChanged(MCDynmapMarkerSet set) {
+		for (MCDynmapMarkerListener listener : LISTENERS) {
+			listener.markerSetChanged(set);
+		}
+	}
+
+	static void markerSetDeleted(MCDynmapMarkerSet set) {
+		for (MCDynmapMarkerListener listener : LISTENERS) {
+			listener.markerSetDeleted(set);
+		}
+	}
+
+	static MCDynmapPlayerSet playerSetCreated(MCDynmapPlayerSet set) {
+		for (MCDynmapMarkerListener listener : LISTENERS) {
+			listener.playerSetCreated(set);
+		}
+		return set;
+	}
+
+	static void playerSetChanged(MCDynmapPlayerSet set) {
+		for (MCDynmapMarkerListener listener : LISTENERS) {
+			listener.playerSetChanged(set);
+		}
+	}
+
+	static void playerSetDeleted(MCDynmapPlayerSet set) {
+		for (MCDynmapMarkerListener listener : LISTENERS) {
+			listener.playerSetDeleted(set);
+		}
+	}
+
+	static void iconDeleted(MCDynmapIcon icon) {
+		for (MCDynmapMarkerListener listener : LISTENERS) {
+			listener.iconDeleted(icon);
+		}
+	}
+}
\ No newline at end of file
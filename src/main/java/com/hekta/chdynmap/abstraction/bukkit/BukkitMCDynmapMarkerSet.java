@@ -12,6 +12,7 @@ import com.laytonsmith.abstraction.MCLocation;
 import com.laytonsmith.abstraction.MCWorld;
 import com.laytonsmith.annotations.abstraction;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import org.dynmap.markers.AreaMarker;
 import org.dynmap.markers.CircleMarker;
@@ -250,9 +251,9 @@ public class BukkitMCDynmapMarkerSet implements MCDynmapMarkerSet {
 			Zs[i] = location.getZ();
 			i++;
 		}
-		AreaMarker marker = _set.createAreaMarker(id, label, isHTML, world.getName(), Xs, Zs, isPersistent);
+		AreaMarker marker = _set.createAreaMarker(id, BukkitMCDynmapStringPool.intern(label), isHTML, BukkitMCDynmapStringPool.intern(world.getName()), Xs, Zs, isPersistent);
 		if (marker != null) {
-			return new BukkitMCDynmapAreaMarker(marker);
+			return BukkitMCDynmapMarkerListeners.markerCreated(new BukkitMCDynmapAreaMarker(marker));
 		} else {
 			return null;
 		}
@@ -269,9 +270,9 @@ public class BukkitMCDynmapMarkerSet implements MCDynmapMarkerSet {
 			Zs[i] = location.getZ();
 			i++;
 		}
-		AreaMarker marker = _set.createAreaMarker(id, label, isHTML, world.getName(), Xs, Zs, isPersistent);
+		AreaMarker marker = _set.createAreaMarker(id, BukkitMCDynmapStringPool.intern(label), isHTML, BukkitMCDynmapStringPool.intern(world.getName()), Xs, Zs, isPersistent);
 		if (marker != null) {
-			return new BukkitMCDynmapAreaMarker(marker);
+			return BukkitMCDynmapMarkerListeners.markerCreated(new BukkitMCDynmapAreaMarker(marker));
 		} else {
 			return null;
 		}
@@ -279,9 +280,9 @@ public class BukkitMCDynmapMarkerSet implements MCDynmapMarkerSet {
 
 	@Override
 	public MCDynmapCircleMarker createCircleMarker(String id, String label, boolean isHTML, MCLocation center, double radiusX, double radiusZ, boolean isPersistent) {
-		CircleMarker marker = _set.createCircleMarker(id, label, isHTML, center.getWorld().getName(), center.getX(), center.getY(), center.getZ(), radiusX, radiusZ, isPersistent);
+		CircleMarker marker = _set.createCircleMarker(id, BukkitMCDynmapStringPool.intern(label), isHTML, BukkitMCDynmapStringPool.intern(center.getWorld().getName()), center.getX(), center.getY(), center.getZ(), radiusX, radiusZ, isPersistent);
 		if (marker != null) {
-			return new BukkitMCDynmapCircleMarker(marker);
+			return BukkitMCDynmapMarkerListeners.markerCreated(new BukkitMCDynmapCircleMarker(marker));
 		} else {
 			return null;
 		}
@@ -289,9 +290,9 @@ public class BukkitMCDynmapMarkerSet implements MCDynmapMarkerSet {
 
 	@Override
 	public MCDynmapIconMarker createIconMarker(String id, String label, boolean isHTML, MCLocation location, MCDynmapIcon icon, boolean isPersistent) {
-		Marker marker = _set.createMarker(id, label, isHTML, location.getWorld().getName(), location.getX(), location.getY(), location.getZ(), ((BukkitMCDynmapIcon) icon).getHandle(), isPersistent);
+		Marker marker = _set.createMarker(id, BukkitMCDynmapStringPool.intern(label), isHTML, BukkitMCDynmapStringPool.intern(location.getWorld().getName()), location.getX(), location.getY(), location.getZ(), ((BukkitMCDynmapIcon) icon).getHandle(), isPersistent);
 		if (marker != null) {
-			return new BukkitMCDynmapIconMarker(marker);
+			return BukkitMCDynmapMarkerListeners.markerCreated(new BukkitMCDynmapIconMarker(marker));
 		} else {
 			return null;
 		}
@@ -309,9 +310,9 @@ public class BukkitMCDynmapMarkerSet implements MCDynmapMarkerSet {
 			Zs[i] = location.getZ();
 			i++;
 		}
-		PolyLineMarker marker = _set.createPolyLineMarker(id, label, isHTML, world.getName(), Xs, Ys, Zs, isPersistent);
+		PolyLineMarker marker = _set.createPolyLineMarker(id, BukkitMCDynmapStringPool.intern(label), isHTML, BukkitMCDynmapStringPool.intern(world.getName()), Xs, Ys, Zs, isPersistent);
 		if (marker != null) {
-			return new BukkitMCDynmapPolyLineMarker(marker);
+			return BukkitMCDynmapMarkerListeners.markerCreated(new BukkitMCDynmapPolyLineMarker(marker));
 		} else {
 			return null;
 		}
@@ -330,9 +331,9 @@ public class BukkitMCDynmapMarkerSet implements MCDynmapMarkerSet {
 			Zs[i] = location.getZ();
 			i++;
 		}
-		PolyLineMarker marker = _set.createPolyLineMarker(id, label, isHTML, world.getName(), Xs, Ys, Zs, isPersistent);
+		PolyLineMarker marker = _set.createPolyLineMarker(id, BukkitMCDynmapStringPool.intern(label), isHTML, BukkitMCDynmapStringPool.intern(world.getName()), Xs, Ys, Zs, isPersistent);
 		if (marker != null) {
-			return new BukkitMCDynmapPolyLineMarker(marker);
+			return BukkitMCDynmapMarkerListeners.markerCreated(new BukkitMCDynmapPolyLineMarker(marker));
 		} else {
 			return null;
 		}
@@ -350,7 +351,12 @@ public class BukkitMCDynmapMarkerSet implements MCDynmapMarkerSet {
 
 	@Override
 	public void setLabel(String label) {
-		_set.setMarkerSetLabel(label);
+		if (BukkitMCDynmapWriteElision.elide(BukkitMCDynmapWriteElision.same(label, _set.getMarkerSetLabel()))) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerSetChanging(this);
+		_set.setMarkerSetLabel(BukkitMCDynmapStringPool.intern(label));
+		BukkitMCDynmapMarkerListeners.markerSetChanged(this);
 	}
 
 	@Override
@@ -386,12 +392,24 @@ public class BukkitMCDynmapMarkerSet implements MCDynmapMarkerSet {
 
 	@Override
 	public void addAllowedIcon(MCDynmapIcon icon) {
+		Set<MarkerIcon> allowed = _set.getAllowedMarkerIcons();
+		if (BukkitMCDynmapWriteElision.elide((allowed != null) && allowed.contains(((BukkitMCDynmapIcon) icon).getHandle()))) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerSetChanging(this);
 		_set.addAllowedMarkerIcon(((BukkitMCDynmapIcon) icon).getHandle());
+		BukkitMCDynmapMarkerListeners.markerSetChanged(this);
 	}
 
 	@Override
 	public void removeAllowedIcon(MCDynmapIcon icon) {
+		Set<MarkerIcon> allowed = _set.getAllowedMarkerIcons();
+		if (BukkitMCDynmapWriteElision.elide((allowed != null) && !allowed.contains(((BukkitMCDynmapIcon) icon).getHandle()))) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerSetChanging(this);
 		_set.removeAllowedMarkerIcon(((BukkitMCDynmapIcon) icon).getHandle());
+		BukkitMCDynmapMarkerListeners.markerSetChanged(this);
 	}
 
 	@Override
@@ -408,6 +426,7 @@ public class BukkitMCDynmapMarkerSet implements MCDynmapMarkerSet {
 
 	@Override
 	public void delete() {
+		BukkitMCDynmapMarkerListeners.markerSetDeleted(this);
 		_set.deleteMarkerSet();
 	}
 
@@ -418,7 +437,12 @@ public class BukkitMCDynmapMarkerSet implements MCDynmapMarkerSet {
 
 	@Override
 	public void setHiddenByDefault(boolean isHidden) {
+		if (BukkitMCDynmapWriteElision.elide(isHidden == _set.getHideByDefault())) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerSetChanging(this);
 		_set.setHideByDefault(isHidden);
+		BukkitMCDynmapMarkerListeners.markerSetChanged(this);
 	}
 
 	@Override
@@ -428,7 +452,12 @@ public class BukkitMCDynmapMarkerSet implements MCDynmapMarkerSet {
 
 	@Override
 	public void setLayerPriority(int priority) {
+		if (BukkitMCDynmapWriteElision.elide(priority == _set.getLayerPriority())) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerSetChanging(this);
 		_set.setLayerPriority(priority);
+		BukkitMCDynmapMarkerListeners.markerSetChanged(this);
 	}
 
 	@Override
@@ -438,7 +467,12 @@ public class BukkitMCDynmapMarkerSet implements MCDynmapMarkerSet {
 
 	@Override
 	public void setMinZoom(int minZoom) {
+		if (BukkitMCDynmapWriteElision.elide(minZoom == _set.getMinZoom())) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerSetChanging(this);
 		_set.setMinZoom(minZoom);
+		BukkitMCDynmapMarkerListeners.markerSetChanged(this);
 	}
 
 	@Override
@@ -447,8 +481,13 @@ public class BukkitMCDynmapMarkerSet implements MCDynmapMarkerSet {
 	}
 
 	@Override
-	public void setMaxZoom(int minZoom) {
-		_set.setMaxZoom(minZoom);
+	public void setMaxZoom(int maxZoom) {
+		if (BukkitMCDynmapWriteElision.elide(maxZoom == _set.getMaxZoom())) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerSetChanging(this);
+		_set.setMaxZoom(maxZoom);
+		BukkitMCDynmapMarkerListeners.markerSetChanged(this);
 	}
 
 	@Override
@@ -458,7 +497,12 @@ public class BukkitMCDynmapMarkerSet implements MCDynmapMarkerSet {
 
 	@Override
 	public void setlabelIsShown(Boolean labelShown) {
+		if (BukkitMCDynmapWriteElision.elide(Objects.equals(labelShown, _set.getLabelShow()))) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerSetChanging(this);
 		_set.setLabelShow(labelShown);
+		BukkitMCDynmapMarkerListeners.markerSetChanged(this);
 	}
 
 	@Override
@@ -468,6 +512,12 @@ public class BukkitMCDynmapMarkerSet implements MCDynmapMarkerSet {
 
 	@Override
 	public void setDefaultIcon(MCDynmapIcon icon) {
+		MarkerIcon current = _set.getDefaultMarkerIcon();
+		if (BukkitMCDynmapWriteElision.elide((current != null) && current.getMarkerIconID().equals(icon.getId()))) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerSetChanging(this);
 		_set.setDefaultMarkerIcon(((BukkitMCDynmapIcon) icon).getHandle());
+		BukkitMCDynmapMarkerListeners.markerSetChanged(this);
 	}
 }
\ No newline at end of file
@@ -55,6 +55,7 @@ public class BukkitMCDynmapPlayerSet implements MCDynmapPlayerSet {
 			playerNames.add(player.getName());
 		}
 		_set.setPlayers(playerNames);
+		BukkitMCDynmapMarkerListeners.playerSetChanged(this);
 	}
 
 	@Override
@@ -64,16 +65,19 @@ public class BukkitMCDynmapPlayerSet implements MCDynmapPlayerSet {
 			playerNames.add(player.getName());
 		}
 		_set.setPlayers(playerNames);
+		BukkitMCDynmapMarkerListeners.playerSetChanged(this);
 	}
 
 	@Override
 	public void addPlayer(MCOfflinePlayer player) {
 		_set.addPlayer(player.getName());
+		BukkitMCDynmapMarkerListeners.playerSetChanged(this);
 	}
 
 	@Override
 	public void removePlayer(MCOfflinePlayer player) {
 		_set.removePlayer(player.getName());
+		BukkitMCDynmapMarkerListeners.playerSetChanged(this);
 	}
 
 	@Override
@@ -83,6 +87,7 @@ public class BukkitMCDynmapPlayerSet implements MCDynmapPlayerSet {
 
 	@Override
 	public void delete() {
+		BukkitMCDynmapMarkerListeners.playerSetDeleted(this);
 		_set.deleteSet();
 	}
 
@@ -94,6 +99,7 @@ public class BukkitMCDynmapPlayerSet implements MCDynmapPlayerSet {
 	@Override
 	public void setSymmetric(boolean isSymmetric) {
 		_set.setSymmetricSet(isSymmetric);
+		BukkitMCDynmapMarkerListeners.playerSetChanged(this);
 	}
 
 	@Override
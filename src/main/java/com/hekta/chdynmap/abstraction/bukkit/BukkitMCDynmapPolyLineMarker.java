@@ -64,7 +64,12 @@ public class BukkitMCDynmapPolyLineMarker extends BukkitMCDynmapMarker implement
 
 	@Override
 	public void setCorner(int n, MCLocation location) {
+		if (BukkitMCDynmapWriteElision.elide((n < _marker.getCornerCount()) && BukkitMCDynmapWriteElision.same(location.getX(), _marker.getCornerX(n)) && BukkitMCDynmapWriteElision.same(location.getY(), _marker.getCornerY(n)) && BukkitMCDynmapWriteElision.same(location.getZ(), _marker.getCornerZ(n)))) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerChanging(this);
 		_marker.setCornerLocation(n, location.getX(), location.getY(), location.getZ());
+		BukkitMCDynmapMarkerListeners.markerChanged(this, "corners");
 	}
 
 	@Override
@@ -79,7 +84,7 @@ public class BukkitMCDynmapPolyLineMarker extends BukkitMCDynmapMarker implement
 			Zs[i] = location.getZ();
 			i++;
 		}
-		_marker.setCornerLocations(Xs, Ys, Zs);
+		setCornerLocations(Xs, Ys, Zs);
 	}
 
 	@Override
@@ -95,12 +100,36 @@ public class BukkitMCDynmapPolyLineMarker extends BukkitMCDynmapMarker implement
 			Zs[i] = location.getZ();
 			i++;
 		}
+		setCornerLocations(Xs, Ys, Zs);
+	}
+
+	private void setCornerLocations(double[] Xs, double[] Ys, double[] Zs) {
+		if (BukkitMCDynmapWriteElision.elide(hasCorners(Xs, Ys, Zs))) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerChanging(this);
 		_marker.setCornerLocations(Xs, Ys, Zs);
+		BukkitMCDynmapMarkerListeners.markerChanged(this, "corners");
+	}
+
+	private boolean hasCorners(double[] Xs, double[] Ys, double[] Zs) {
+		int count = _marker.getCornerCount();
+		if (Xs.length != count) {
+			return false;
+		}
+		for (int i = 0 ; i < count ; i++) {
+			if (!BukkitMCDynmapWriteElision.same(Xs[i], _marker.getCornerX(i)) || !BukkitMCDynmapWriteElision.same(Ys[i], _marker.getCornerY(i)) || !BukkitMCDynmapWriteElision.same(Zs[i], _marker.getCornerZ(i))) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	@Override
 	public void deleteCorner(int n) {
+		BukkitMCDynmapMarkerListeners.markerChanging(this);
 		_marker.deleteCorner(n);
+		BukkitMCDynmapMarkerListeners.markerChanged(this, "corners");
 	}
 
 	@Override
@@ -110,6 +139,11 @@ public class BukkitMCDynmapPolyLineMarker extends BukkitMCDynmapMarker implement
 
 	@Override
 	public void setLineStyle(MCDynmapMarkerLineStyle style) {
+		if (BukkitMCDynmapWriteElision.elide((style.getWeight() == _marker.getLineWeight()) && BukkitMCDynmapWriteElision.same(style.getOpacity(), _marker.getLineOpacity()) && BukkitMCDynmapWriteElision.sameColor(style.getIntColor(), _marker.getLineColor()))) {
+			return;
+		}
+		BukkitMCDynmapMarkerListeners.markerChanging(this);
 		_marker.setLineStyle(style.getWeight(), style.getOpacity(), style.getIntColor());
+		BukkitMCDynmapMarkerListeners.markerChanged(this, "line_style");
 	}
 }
\ No newline at end of file
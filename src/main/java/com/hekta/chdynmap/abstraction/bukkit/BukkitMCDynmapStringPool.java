@@ -0,0 +1,77 @@
+package com.hekta.chdynmap.abstraction.bukkit;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A weak canonical pool of the labels, descriptions, world names and set IDs given to Dynmap, so the equal strings
+ * kept by thousands of markers share a single instance. A string stays pooled as long as something (like a marker)
+ * still references it.
+ *
+ * @author Hekta
+ */
+final class BukkitMCDynmapStringPool {
+
+	//object header, hash and array reference of a String, plus the header and length of its array
+	private static final int STRING_OVERHEAD = 40;
+
+	private static boolean _enabled = false;
+	private static final Map<String, WeakReference<String>> POOL = new WeakHashMap<>();
+	private static long _hits = 0;
+	private static long _savedBytes = 0;
+
+	private BukkitMCDynmapStringPool() {
+	}
+
+	static synchronized boolean isEnabled() {
+		return _enabled;
+	}
+
+	static synchronized void setEnabled(boolean enabled) {
+		_enabled = enabled;
+		if (!enabled) {
+			POOL.clear();
+		}
+	}
+
+	static synchronized long getHits() {
+		return _hits;
+	}
+
+	/**
+	 * Returns an estimation of the bytes of the duplicate strings not retained, counting two bytes by character.
+	 */
+	static synchronized long getSavedBytes() {
+		return _savedBytes;
+	}
+
+	static synchronized int getSize() {
+		return POOL.size();
+	}
+
+	static synchronized void resetStats() {
+		_hits = 0;
+		_savedBytes = 0;
+	}
+
+	/**
+	 * Returns the canonical instance of the string, or the string itself if the pool is disabled.
+	 */
+	static synchronized String intern(String string) {
+		if (!_enabled || (string == null)) {
+			return string;
+		}
+		WeakReference<String> reference = POOL.get(string);
+		String canonical = (reference != null) ? reference.get() : null;
+		if (canonical == null) {
+			POOL.put(string, new WeakReference<>(string));
+			return string;
+		}
+		if (canonical != string) {
+			_hits++;
+			_savedBytes += STRING_OVERHEAD + 2L * string.length();
+		}
+		return canonical;
+	}
+}
\ No newline at end of file
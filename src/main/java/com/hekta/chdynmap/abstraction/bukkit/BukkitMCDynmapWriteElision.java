@@ -0,0 +1,62 @@
+package com.hekta.chdynmap.abstraction.bukkit;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the values given to the setters with the current ones, so the writes that change nothing never reach
+ * Dynmap (each write marks the marker dirty, pushes an update to the web clients, and schedules a save for the
+ * persistent markers).
+ *
+ * @author Hekta
+ */
+final class BukkitMCDynmapWriteElision {
+
+	static final double EPSILON = 1e-6;
+
+	private static volatile boolean _enabled = true;
+	private static final AtomicLong _elided = new AtomicLong();
+
+	private BukkitMCDynmapWriteElision() {
+	}
+
+	static boolean isEnabled() {
+		return _enabled;
+	}
+
+	static void setEnabled(boolean enabled) {
+		_enabled = enabled;
+	}
+
+	static long getElidedWrites() {
+		return _elided.get();
+	}
+
+	static void resetElidedWrites() {
+		_elided.set(0);
+	}
+
+	/**
+	 * Returns true (and counts the skipped write) if the elision is enabled and the write changes nothing.
+	 */
+	static boolean elide(boolean unchanged) {
+		if (unchanged && _enabled) {
+			_elided.incrementAndGet();
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	static boolean same(double a, double b) {
+		return Math.abs(a - b) <= EPSILON;
+	}
+
+	static boolean same(String a, String b) {
+		return Objects.equals(a, b);
+	}
+
+	static boolean sameColor(int a, int b) {
+		return (a & 0xFFFFFF) == (b & 0xFFFFFF);
+	}
+}
\ No newline at end of file
@@ -5,11 +5,14 @@ import com.hekta.chdynmap.abstraction.CHDynmapConvertor;
 import com.hekta.chdynmap.abstraction.MCDynmapAPI;
 import com.hekta.chdynmap.abstraction.MCDynmapMarkerFillStyle;
 import com.hekta.chdynmap.abstraction.MCDynmapMarkerLineStyle;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerListener;
 import com.hekta.chdynmap.annotations.CHDynmapConvert;
 import com.laytonsmith.abstraction.Implementation;
 import com.laytonsmith.abstraction.MCColor;
 import com.laytonsmith.abstraction.MCPlugin;
 import com.laytonsmith.commandhelper.CommandHelperPlugin;
+import java.io.File;
+import org.bukkit.Bukkit;
 
 /**
  *
@@ -47,4 +50,29 @@ public class CHDynmapBukkitConvertor implements CHDynmapConvertor {
 	public MCDynmapMarkerLineStyle getLineStyle(int color, double opacity, int weight) {
 		return new BukkitMCDynmapMarkerLineStyle(color, opacity, weight);
 	}
+
+	@Override
+	public int scheduleRepeatingTask(Runnable task, long delay, long period) {
+		return Bukkit.getScheduler().scheduleSyncRepeatingTask(CommandHelperPlugin.self, task, delay, period);
+	}
+
+	@Override
+	public void cancelTask(int taskID) {
+		Bukkit.getScheduler().cancelTask(taskID);
+	}
+
+	@Override
+	public void addMarkerListener(MCDynmapMarkerListener listener) {
+		BukkitMCDynmapMarkerListeners.add(listener);
+	}
+
+	@Override
+	public void removeMarkerListener(MCDynmapMarkerListener listener) {
+		BukkitMCDynmapMarkerListeners.remove(listener);
+	}
+
+	@Override
+	public File getDataFolder() {
+		return new File(CommandHelperPlugin.self.getDataFolder(), "CHDynmap");
+	}
 }
\ No newline at end of file
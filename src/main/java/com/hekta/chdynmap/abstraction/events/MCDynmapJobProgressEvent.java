@@ -0,0 +1,20 @@
+package com.hekta.chdynmap.abstraction.events;
+
+import com.laytonsmith.core.events.BindableEvent;
+
+/**
+ *
+ * @author Hekta
+ */
+public interface MCDynmapJobProgressEvent extends BindableEvent {
+
+	public int getJobId();
+
+	public String getJobType();
+
+	public long getDone();
+
+	public long getTotal();
+
+	public String getState();
+}
\ No newline at end of file
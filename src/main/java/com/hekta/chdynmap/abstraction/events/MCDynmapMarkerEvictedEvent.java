@@ -0,0 +1,18 @@
+package com.hekta.chdynmap.abstraction.events;
+
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.laytonsmith.core.events.BindableEvent;
+
+/**
+ *
+ * @author Hekta
+ */
+public interface MCDynmapMarkerEvictedEvent extends BindableEvent {
+
+	public MCDynmapMarker getMarker();
+
+	/**
+	 * Returns the exceeded limit, "markers" or "vertices".
+	 */
+	public String getReason();
+}
\ No newline at end of file
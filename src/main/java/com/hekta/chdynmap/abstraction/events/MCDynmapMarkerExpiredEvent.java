@@ -0,0 +1,13 @@
+package com.hekta.chdynmap.abstraction.events;
+
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.laytonsmith.core.events.BindableEvent;
+
+/**
+ *
+ * @author Hekta
+ */
+public interface MCDynmapMarkerExpiredEvent extends BindableEvent {
+
+	public MCDynmapMarker getMarker();
+}
\ No newline at end of file
@@ -0,0 +1,215 @@
+package com.hekta.chdynmap.core;
+
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerListener;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Gives each markerset a version, incremented by each change made to its markers, and keeps its last changes in a
+ * bounded ring buffer, so a consumer can fetch only the changes made since the version it last saw. A consumer which
+ * fell behind the oldest kept change is told to read the whole markerset again.
+ * <p>
+ * The versions are only kept in memory, and are dropped with their markerset: they start again from 0 after a restart
+ * or when a markerset is created again. So each feed also has a random epoch, given with its versions, and a consumer
+ * whose epoch is not the current one is told to read the whole markerset again.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapChangeFeed {
+
+	//the number of changes kept by markerset
+	public static final int CAPACITY = 1024;
+
+	public enum Type {
+		CREATED,
+		UPDATED,
+		DELETED,
+		MOVED
+	}
+
+	/**
+	 * A change of a marker. The successive updates of a marker are merged in the same change, which takes the
+	 * version of the last one.
+	 */
+	public static final class Change {
+
+		private long _version;
+		private final Type _type;
+		private final String _markerID;
+		private final Set<String> _properties;
+		private final String _from;
+		private final String _to;
+		private long _time;
+
+		private Change(long version, Type type, String markerID, String property, String from, String to) {
+			_version = version;
+			_type = type;
+			_markerID = markerID;
+			_properties = (property != null) ? new LinkedHashSet<>() : Collections.emptySet();
+			if (property != null) {
+				_properties.add(property);
+			}
+			_from = from;
+			_to = to;
+			_time = System.currentTimeMillis();
+		}
+
+		public long getVersion() {
+			return _version;
+		}
+
+		public Type getType() {
+			return _type;
+		}
+
+		public String getMarkerID() {
+			return _markerID;
+		}
+
+		/**
+		 * Returns the names of the changed properties of an update.
+		 */
+		public Set<String> getProperties() {
+			return Collections.unmodifiableSet(_properties);
+		}
+
+		/**
+		 * Returns the markerset the marker was moved from.
+		 */
+		public String getFrom() {
+			return _from;
+		}
+
+		/**
+		 * Returns the markerset the marker was moved to.
+		 */
+		public String getTo() {
+			return _to;
+		}
+
+		public long getTime() {
+			return _time;
+		}
+	}
+
+	private static final class Feed {
+
+		private final long _epoch = ThreadLocalRandom.current().nextLong(Long.MAX_VALUE);
+		private final Change[] _changes = new Change[CAPACITY];
+		//the index of the oldest change, and the number of changes
+		private int _start = 0;
+		private int _size = 0;
+		private long _version = 0;
+		//the consumers which saw a version below this one must read the markerset again
+		private long _floor = 0;
+
+		private void add(Type type, String markerID, String property, String from, String to) {
+			_version++;
+			if ((type == Type.UPDATED) && (_size > 0)) {
+				Change last = _changes[(_start + _size - 1) % CAPACITY];
+				if ((last._type == Type.UPDATED) && last._markerID.equals(markerID)) {
+					last._version = _version;
+					last._time = System.currentTimeMillis();
+					last._properties.add(property);
+					return;
+				}
+			}
+			Change change = new Change(_version, type, markerID, property, from, to);
+			if (_size < CAPACITY) {
+				_changes[(_start + _size) % CAPACITY] = change;
+				_size++;
+			} else {
+				_floor = _changes[_start]._version;
+				_changes[_start] = change;
+				_start = (_start + 1) % CAPACITY;
+			}
+		}
+	}
+
+	//setID -> feed
+	private static final Map<String, Feed> FEEDS = new HashMap<>();
+
+	public static final MCDynmapMarkerListener LISTENER = new MCDynmapMarkerListener() {
+
+		@Override
+		public void markerCreated(MCDynmapMarker marker) {
+			getFeed(marker.getSet().getId()).add(Type.CREATED, marker.getId(), null, null, null);
+		}
+
+		@Override
+		public void markerChanged(MCDynmapMarker marker, String property) {
+			getFeed(marker.getSet().getId()).add(Type.UPDATED, marker.getId(), property, null, null);
+		}
+
+		@Override
+		public void markerMoved(MCDynmapMarker marker, String oldSetID) {
+			String newSetID = marker.getSet().getId();
+			getFeed(oldSetID).add(Type.MOVED, marker.getId(), null, oldSetID, newSetID);
+			getFeed(newSetID).add(Type.MOVED, marker.getId(), null, oldSetID, newSetID);
+		}
+
+		@Override
+		public void markerDeleted(MCDynmapMarker marker) {
+			getFeed(marker.getSet().getId()).add(Type.DELETED, marker.getId(), null, null, null);
+		}
+
+		@Override
+		public void markerSetDeleted(MCDynmapMarkerSet set) {
+			FEEDS.remove(set.getId());
+		}
+	};
+
+	private CHDynmapChangeFeed() {
+	}
+
+	private static Feed getFeed(String setID) {
+		Feed feed = FEEDS.get(setID);
+		if (feed == null) {
+			feed = new Feed();
+			FEEDS.put(setID, feed);
+		}
+		return feed;
+	}
+
+	/**
+	 * Returns the current version of the markerset, 0 if its markers never changed since the start of its epoch.
+	 */
+	public static long getVersion(String setID) {
+		return getFeed(setID)._version;
+	}
+
+	/**
+	 * Returns the epoch of the versions of the markerset, which changes when its versions start again from 0.
+	 */
+	public static long getEpoch(String setID) {
+		return getFeed(setID)._epoch;
+	}
+
+	/**
+	 * Returns the changes of the markerset made after the given version of the given epoch, oldest first, or null if
+	 * they are no longer all kept (or if the epoch or the version is unknown), in which case the markerset must be
+	 * read again.
+	 */
+	public static List<Change> getChangesSince(String setID, long epoch, long version) {
+		Feed feed = getFeed(setID);
+		if ((epoch != feed._epoch) || (version > feed._version) || (version < feed._floor)) {
+			return null;
+		}
+		List<Change> changes = new ArrayList<>();
+		for (int i = 0; i < feed._size; i++) {
+			Change change = feed._changes[(feed._start + i) % CAPACITY];
+			if (change._version > version) {
+				changes.add(change);
+			}
+		}
+		return changes;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,309 @@
+package com.hekta.chdynmap.core;
+
+import com.hekta.chdynmap.abstraction.MCDynmapIcon;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerAPI;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import com.hekta.chdynmap.abstraction.MCDynmapPlayerSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Finds the garbage of the marker API: the custom icons referenced by no marker and no markerset, the empty
+ * non-persistent markersets, and the empty playersets. An object is only collected once it has been seen as garbage
+ * for the grace period of its kind (Dynmap does not keep creation dates, so the period starts at the first scan that
+ * sees it), and never if it is protected.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapCollector {
+
+	public enum Kind {
+		ICON,
+		MARKERSET,
+		PLAYERSET
+	}
+
+	public static final long DEFAULT_GRACE = 3600000;
+
+	private static final class Settings {
+
+		private boolean _enabled = true;
+		private long _grace = DEFAULT_GRACE;
+		private final Set<String> _protected = new TreeSet<>();
+
+		private boolean isProtected(String id) {
+			for (String entry : _protected) {
+				if (entry.endsWith("*") ? id.startsWith(entry.substring(0, entry.length() - 1)) : id.equals(entry)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static final Map<Kind, Settings> SETTINGS = new EnumMap<>(Kind.class);
+	//kind -> ID -> time it was first seen as garbage
+	private static final Map<Kind, Map<String, Long>> SEEN = new EnumMap<>(Kind.class);
+
+	static {
+		for (Kind kind : Kind.values()) {
+			SETTINGS.put(kind, new Settings());
+			SEEN.put(kind, new HashMap<>());
+		}
+	}
+
+	/**
+	 * The garbage found by a scan, by kind: the objects that can be collected, and the ones still in their grace
+	 * period with the remaining time (in milliseconds).
+	 */
+	public static final class Report {
+
+		private final Map<Kind, List<String>> _collectable = new EnumMap<>(Kind.class);
+		private final Map<Kind, Map<String, Long>> _pending = new EnumMap<>(Kind.class);
+
+		private Report() {
+			for (Kind kind : Kind.values()) {
+				_collectable.put(kind, new ArrayList<>());
+				_pending.put(kind, new TreeMap<>());
+			}
+		}
+
+		public List<String> getCollectable(Kind kind) {
+			return _collectable.get(kind);
+		}
+
+		public Map<String, Long> getPending(Kind kind) {
+			return _pending.get(kind);
+		}
+
+		public int getCollectableCount() {
+			int count = 0;
+			for (List<String> ids : _collectable.values()) {
+				count += ids.size();
+			}
+			return count;
+		}
+	}
+
+	private static final class CollectionJob extends CHDynmapJob {
+
+		private final Kind[] _kinds;
+		private final String[][] _ids;
+		private int _kind;
+		private int _index;
+
+		private CollectionJob(Report report) {
+			super("gc", report.getCollectableCount());
+			//the markersets first, as deleting one may free its default icon for the next collection
+			_kinds = new Kind[]{Kind.MARKERSET, Kind.PLAYERSET, Kind.ICON};
+			_ids = new String[_kinds.length][];
+			for (int i = 0; i < _kinds.length; i++) {
+				List<String> ids = report.getCollectable(_kinds[i]);
+				_ids[i] = ids.toArray(new String[ids.size()]);
+			}
+			_kind = 0;
+			_index = 0;
+		}
+
+		@Override
+		protected boolean step() {
+			while ((_kind < _kinds.length) && (_index >= _ids[_kind].length)) {
+				_kind++;
+				_index = 0;
+			}
+			if (_kind >= _kinds.length) {
+				return false;
+			}
+			MCDynmapMarkerAPI api = CHDynmapStatic.findMarkerAPI();
+			if (api == null) {
+				return false;
+			}
+			Kind kind = _kinds[_kind];
+			String id = _ids[_kind][_index];
+			_index++;
+			//the object is checked again, it may have been used since the scan
+			if (collect(api, kind, id)) {
+				SEEN.get(kind).remove(id);
+			}
+			return true;
+		}
+	}
+
+	private CHDynmapCollector() {
+	}
+
+	public static boolean isEnabled(Kind kind) {
+		return SETTINGS.get(kind)._enabled;
+	}
+
+	public static void setEnabled(Kind kind, boolean enabled) {
+		SETTINGS.get(kind)._enabled = enabled;
+	}
+
+	/**
+	 * Returns the grace period of the kind, in milliseconds.
+	 */
+	public static long getGrace(Kind kind) {
+		return SETTINGS.get(kind)._grace;
+	}
+
+	public static void setGrace(Kind kind, long grace) {
+		SETTINGS.get(kind)._grace = grace;
+	}
+
+	/**
+	 * Returns the protected IDs of the kind, an ID ending with * protects all the IDs starting with it.
+	 */
+	public static Set<String> getProtected(Kind kind) {
+		return Collections.unmodifiableSet(SETTINGS.get(kind)._protected);
+	}
+
+	public static void setProtected(Kind kind, Iterable<String> ids) {
+		Set<String> entries = SETTINGS.get(kind)._protected;
+		entries.clear();
+		for (String id : ids) {
+			entries.add(id);
+		}
+	}
+
+	private static boolean isGarbage(MCDynmapMarkerAPI api, MCDynmapIcon icon) {
+		if (icon.isBuiltIn()) {
+			return false;
+		}
+		CHDynmapIconIndex.Usage usage = CHDynmapIconIndex.getUsage(api, icon.getId());
+		return !usage.isInUse() && usage.getAllowingSets().isEmpty();
+	}
+
+	/**
+	 * Checks the icon against the markersets themselves, right before it is deleted: the icon index does not see the
+	 * markers created by the other plugins or by the Dynmap commands, and a deleted icon can not be brought back.
+	 */
+	private static boolean isUsed(MCDynmapMarkerAPI api, MCDynmapIcon icon) {
+		String id = icon.getId();
+		for (MCDynmapMarkerSet set : api.getMarkerSets()) {
+			MCDynmapIcon defaultIcon = set.getDefaultIcon();
+			if ((defaultIcon != null) && id.equals(defaultIcon.getId())) {
+				return true;
+			}
+			if (set.isRestricted() && set.iconIsAllowed(icon)) {
+				return true;
+			}
+			for (MCDynmapIcon used : set.getIconsInUse()) {
+				if (id.equals(used.getId())) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean isGarbage(MCDynmapMarkerSet set) {
+		return !set.isPersistent() && (set.getMarkers().length == 0);
+	}
+
+	private static boolean isGarbage(MCDynmapPlayerSet set) {
+		return set.getPlayers().length == 0;
+	}
+
+	private static boolean collect(MCDynmapMarkerAPI api, Kind kind, String id) {
+		if (SETTINGS.get(kind).isProtected(id)) {
+			return false;
+		}
+		switch (kind) {
+			case ICON:
+				MCDynmapIcon icon = api.getIcon(id);
+				if ((icon != null) && isGarbage(api, icon) && !isUsed(api, icon)) {
+					icon.delete();
+					return true;
+				}
+				return false;
+			case MARKERSET:
+				MCDynmapMarkerSet markerSet = api.getMarkerSet(id);
+				if ((markerSet != null) && isGarbage(markerSet)) {
+					markerSet.delete();
+					return true;
+				}
+				return false;
+			case PLAYERSET:
+				MCDynmapPlayerSet playerSet = api.getPlayerSet(id);
+				if ((playerSet != null) && isGarbage(playerSet)) {
+					playerSet.delete();
+					return true;
+				}
+				return false;
+			default:
+				return false;
+		}
+	}
+
+	private static void track(Report report, Kind kind, Set<String> garbage, long now) {
+		Settings settings = SETTINGS.get(kind);
+		Map<String, Long> seen = SEEN.get(kind);
+		Iterator<String> iterator = seen.keySet().iterator();
+		while (iterator.hasNext()) {
+			if (!garbage.contains(iterator.next())) {
+				iterator.remove();
+			}
+		}
+		if (!settings._enabled) {
+			return;
+		}
+		for (String id : garbage) {
+			if (settings.isProtected(id)) {
+				continue;
+			}
+			long remaining = seen.computeIfAbsent(id, k -> now) + settings._grace - now;
+			if (remaining <= 0) {
+				report._collectable.get(kind).add(id);
+			} else {
+				report._pending.get(kind).put(id, remaining);
+			}
+		}
+	}
+
+	/**
+	 * Scans the icons, markersets and playersets, and returns what can be collected without deleting anything. This
+	 * starts the grace period of the new garbage.
+	 */
+	public static Report scan(MCDynmapMarkerAPI api) {
+		long now = System.currentTimeMillis();
+		Report report = new Report();
+		Set<String> garbage = new TreeSet<>();
+		for (MCDynmapIcon icon : api.getIcons()) {
+			if (isGarbage(api, icon)) {
+				garbage.add(icon.getId());
+			}
+		}
+		track(report, Kind.ICON, garbage, now);
+		garbage = new TreeSet<>();
+		for (MCDynmapMarkerSet set : api.getMarkerSets()) {
+			if (isGarbage(set)) {
+				garbage.add(set.getId());
+			}
+		}
+		track(report, Kind.MARKERSET, garbage, now);
+		garbage = new TreeSet<>();
+		for (MCDynmapPlayerSet set : api.getPlayerSets()) {
+			if (isGarbage(set)) {
+				garbage.add(set.getId());
+			}
+		}
+		track(report, Kind.PLAYERSET, garbage, now);
+		return report;
+	}
+
+	/**
+	 * Scans the garbage, and submits a job deleting what can be collected over the next ticks.
+	 */
+	public static CHDynmapJob collect(MCDynmapMarkerAPI api) {
+		return CHDynmapJobRunner.submit(new CollectionJob(scan(api)));
+	}
+}
\ No newline at end of file
@@ -0,0 +1,465 @@
+package com.hekta.chdynmap.core;
+
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerListener;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import com.laytonsmith.core.constructs.Target;
+import com.laytonsmith.core.exceptions.CRE.CREFormatException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A named HTML template the marker descriptions are rendered from. The template is compiled once into a render plan
+ * (the literal parts and the variables between them), {{name}} being replaced by the escaped value of the variable,
+ * and {{{name}}} by its raw value. The bound markers keep their variables, so a description is only rendered again
+ * when a variable actually changes, or when the template is redefined.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapDescriptionTemplate {
+
+	private static final Map<String, CHDynmapDescriptionTemplate> TEMPLATES = new TreeMap<>();
+	//setID -> markerID -> binding
+	private static final Map<String, Map<String, Binding>> BINDINGS = new HashMap<>();
+
+	public static final MCDynmapMarkerListener LISTENER = new MCDynmapMarkerListener() {
+
+		@Override
+		public void markerMoved(MCDynmapMarker marker, String oldSetID) {
+			Binding binding = unbind(oldSetID, marker.getId());
+			if (binding != null) {
+				bind(marker.getSet().getId(), marker.getId(), binding);
+			}
+		}
+
+		@Override
+		public void markerDeleted(MCDynmapMarker marker) {
+			unbind(marker.getSet().getId(), marker.getId());
+		}
+
+		@Override
+		public void markerSetDeleted(MCDynmapMarkerSet set) {
+			Map<String, Binding> bindings = BINDINGS.remove(set.getId());
+			if (bindings != null) {
+				for (Map.Entry<String, Binding> entry : bindings.entrySet()) {
+					recordUndo(set.getId(), entry.getKey(), entry.getValue());
+					entry.getValue()._template.removeMarker(set.getId(), entry.getKey());
+				}
+			}
+		}
+	};
+
+	private static final class Binding {
+
+		private final CHDynmapDescriptionTemplate _template;
+		private final Map<String, String> _variables;
+
+		private Binding(CHDynmapDescriptionTemplate template, Map<String, String> variables) {
+			_template = template;
+			_variables = variables;
+		}
+	}
+
+	private final String _name;
+	private String _html;
+	//the literals surround the variables, so there is one more literal than variables
+	private String[] _literals;
+	private String[] _variables;
+	private boolean[] _escaped;
+	private int _literalLength;
+	//setID -> markerIDs
+	private final Map<String, Set<String>> _markers;
+	private int _markerCount;
+	private CHDynmapJob _job;
+
+	private CHDynmapDescriptionTemplate(String name) {
+		_name = name;
+		_markers = new HashMap<>();
+		_markerCount = 0;
+	}
+
+	private void compile(String html, Target t) {
+		List<String> literals = new ArrayList<>();
+		List<String> variables = new ArrayList<>();
+		List<Boolean> escaped = new ArrayList<>();
+		int literalLength = 0;
+		int start = 0;
+		int open;
+		while ((open = html.indexOf("{{", start)) != -1) {
+			boolean raw = html.startsWith("{{{", open);
+			String closing = raw ? "}}}" : "}}";
+			int nameStart = open + (raw ? 3 : 2);
+			int close = html.indexOf(closing, nameStart);
+			if (close == -1) {
+				throw new CREFormatException("The variable at " + open + " in the template is not closed.", t);
+			}
+			String variable = html.substring(nameStart, close).trim();
+			if (variable.isEmpty()) {
+				throw new CREFormatException("The variable at " + open + " in the template has no name.", t);
+			}
+			String literal = html.substring(start, open);
+			literals.add(literal);
+			literalLength += literal.length();
+			variables.add(variable);
+			escaped.add(!raw);
+			start = close + closing.length();
+		}
+		String literal = html.substring(start);
+		literals.add(literal);
+		literalLength += literal.length();
+		_html = html;
+		_literals = literals.toArray(new String[literals.size()]);
+		_variables = variables.toArray(new String[variables.size()]);
+		_escaped = new boolean[escaped.size()];
+		for (int i = 0; i < _escaped.length; i++) {
+			_escaped[i] = escaped.get(i);
+		}
+		_literalLength = literalLength;
+	}
+
+	public String getName() {
+		return _name;
+	}
+
+	public String getHTML() {
+		return _html;
+	}
+
+	public int getMarkerCount() {
+		return _markerCount;
+	}
+
+	/**
+	 * Returns the IDs of the bound markers, by markerset ID.
+	 */
+	public Map<String, Set<String>> getMarkers() {
+		return Collections.unmodifiableMap(_markers);
+	}
+
+	/**
+	 * Renders the template, the missing variables are rendered as empty strings.
+	 */
+	public String render(Map<String, String> variables) {
+		StringBuilder builder = new StringBuilder(_literalLength + 16 * _variables.length);
+		builder.append(_literals[0]);
+		for (int i = 0; i < _variables.length; i++) {
+			String value = variables.get(_variables[i]);
+			if (value != null) {
+				if (_escaped[i]) {
+					escape(value, builder);
+				} else {
+					builder.append(value);
+				}
+			}
+			builder.append(_literals[i + 1]);
+		}
+		return builder.toString();
+	}
+
+	private static void escape(String value, StringBuilder builder) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '&':
+					builder.append("&amp;");
+					break;
+				case '<':
+					builder.append("&lt;");
+					break;
+				case '>':
+					builder.append("&gt;");
+					break;
+				case '"':
+					builder.append("&quot;");
+					break;
+				case '\'':
+					builder.append("&#39;");
+					break;
+				default:
+					builder.append(c);
+			}
+		}
+	}
+
+	/**
+	 * Renders the description of all the bound markers again, in a job spread over the ticks. A previous rendering
+	 * still running is cancelled, as this one covers it. Returns null if the template has no marker.
+	 */
+	private CHDynmapJob rerender() {
+		if (_job != null) {
+			_job.cancel();
+			_job = null;
+		}
+		if (_markerCount == 0) {
+			return null;
+		}
+		String[] setIDs = new String[_markerCount];
+		String[] markerIDs = new String[_markerCount];
+		int i = 0;
+		for (Map.Entry<String, Set<String>> entry : _markers.entrySet()) {
+			for (String markerID : entry.getValue()) {
+				setIDs[i] = entry.getKey();
+				markerIDs[i] = markerID;
+				i++;
+			}
+		}
+		_job = CHDynmapJobRunner.submit(new RenderJob(setIDs, markerIDs));
+		return _job;
+	}
+
+	private final class RenderJob extends CHDynmapJob {
+
+		private final String[] _setIDs;
+		private final String[] _markerIDs;
+		private int _index;
+		private MCDynmapMarkerSet _set;
+
+		private RenderJob(String[] setIDs, String[] markerIDs) {
+			super("description", setIDs.length);
+			_setIDs = setIDs;
+			_markerIDs = markerIDs;
+			_index = 0;
+		}
+
+		@Override
+		protected boolean step() {
+			if (_index >= _setIDs.length) {
+				return false;
+			}
+			String setID = _setIDs[_index];
+			String markerID = _markerIDs[_index];
+			_index++;
+			//the markers are sorted by set, so the set is only resolved when it changes
+			if ((_set == null) || !_set.getId().equals(setID)) {
+				_set = CHDynmapStatic.findMarkerSet(setID);
+				if (_set == null) {
+					return true;
+				}
+			}
+			Binding binding = getBinding(setID, markerID);
+			if ((binding != null) && (binding._template == CHDynmapDescriptionTemplate.this)) {
+				MCDynmapMarker marker = _set.getMarker(markerID);
+				if (marker != null) {
+					marker.setDescription(render(binding._variables));
+				} else {
+					unbind(setID, markerID);
+				}
+			}
+			return true;
+		}
+
+		@Override
+		protected void finished() {
+			if (_job == this) {
+				_job = null;
+			}
+		}
+	}
+
+	/**
+	 * Defines a template, or updates it and renders the descriptions of its markers again. Returns the rendering job,
+	 * or null if there is nothing to render. If a transaction is open and fails, the template is removed, or its
+	 * previous HTML is rendered again.
+	 */
+	public static CHDynmapJob define(String name, String html, Target t) {
+		CHDynmapDescriptionTemplate template = TEMPLATES.get(name);
+		if (template == null) {
+			CHDynmapDescriptionTemplate created = new CHDynmapDescriptionTemplate(name);
+			created.compile(html, t);
+			TEMPLATES.put(name, created);
+			CHDynmapTransaction.record(() -> {
+				if (TEMPLATES.get(name) == created) {
+					remove(name);
+				}
+			});
+			return null;
+		} else {
+			String previous = template._html;
+			template.compile(html, t);
+			CHDynmapDescriptionTemplate updated = template;
+			CHDynmapTransaction.record(() -> {
+				updated.compile(previous, t);
+				updated.rerender();
+			});
+			return template.rerender();
+		}
+	}
+
+	public static CHDynmapDescriptionTemplate get(String name) {
+		return TEMPLATES.get(name);
+	}
+
+	/**
+	 * Removes a template and its bindings, the markers keep their current description.
+	 */
+	public static boolean remove(String name) {
+		CHDynmapDescriptionTemplate template = TEMPLATES.remove(name);
+		if (template == null) {
+			return false;
+		}
+		if (template._job != null) {
+			template._job.cancel();
+		}
+		for (Map.Entry<String, Set<String>> entry : template._markers.entrySet()) {
+			Map<String, Binding> bindings = BINDINGS.get(entry.getKey());
+			if (bindings != null) {
+				for (String markerID : entry.getValue()) {
+					Binding binding = bindings.get(markerID);
+					if (binding != null) {
+						recordUndo(entry.getKey(), markerID, binding);
+					}
+				}
+				bindings.keySet().removeAll(entry.getValue());
+				if (bindings.isEmpty()) {
+					BINDINGS.remove(entry.getKey());
+				}
+			}
+		}
+		//reverted before the bindings, the removed template still knows its markers
+		CHDynmapTransaction.record(() -> {
+			template._markers.clear();
+			template._markerCount = 0;
+			TEMPLATES.put(name, template);
+		});
+		return true;
+	}
+
+	public static Set<String> getNames() {
+		return TEMPLATES.keySet();
+	}
+
+	private static Binding getBinding(String setID, String markerID) {
+		Map<String, Binding> bindings = BINDINGS.get(setID);
+		if (bindings != null) {
+			return bindings.get(markerID);
+		} else {
+			return null;
+		}
+	}
+
+	public static CHDynmapDescriptionTemplate getTemplate(String setID, String markerID) {
+		Binding binding = getBinding(setID, markerID);
+		return (binding != null) ? binding._template : null;
+	}
+
+	/**
+	 * Returns the variables of the marker, or null if it is not bound to a template.
+	 */
+	public static Map<String, String> getVariables(String setID, String markerID) {
+		Binding binding = getBinding(setID, markerID);
+		return (binding != null) ? Collections.unmodifiableMap(binding._variables) : null;
+	}
+
+	/**
+	 * If a transaction is open, records the binding of the marker (its variables are copied, they are updated in
+	 * place), so it is set back if the transaction fails.
+	 */
+	private static void recordUndo(String setID, String markerID, Binding binding) {
+		if (!CHDynmapTransaction.isRecording()) {
+			return;
+		}
+		if (binding != null) {
+			Binding copy = new Binding(binding._template, new HashMap<>(binding._variables));
+			CHDynmapTransaction.record(() -> bind(setID, markerID, copy));
+		} else {
+			CHDynmapTransaction.record(() -> unbind(setID, markerID));
+		}
+	}
+
+	private static void bind(String setID, String markerID, Binding binding) {
+		recordUndo(setID, markerID, getBinding(setID, markerID));
+		Binding previous = BINDINGS.computeIfAbsent(setID, k -> new HashMap<>()).put(markerID, binding);
+		if ((previous == null) || (previous._template != binding._template)) {
+			if (previous != null) {
+				previous._template.removeMarker(setID, markerID);
+			}
+			binding._template._markers.computeIfAbsent(setID, k -> new LinkedHashSet<>()).add(markerID);
+			binding._template._markerCount++;
+		}
+	}
+
+	/**
+	 * Binds a marker to a template with the given variables, and renders its description. If the variables are null,
+	 * the ones of the previous binding of the marker are kept.
+	 */
+	public static void bind(MCDynmapMarker marker, CHDynmapDescriptionTemplate template, Map<String, String> variables) {
+		String setID = marker.getSet().getId();
+		if (variables == null) {
+			Binding previous = getBinding(setID, marker.getId());
+			variables = (previous != null) ? previous._variables : new HashMap<>();
+		} else {
+			variables = new HashMap<>(variables);
+			variables.values().removeIf(Objects::isNull);
+		}
+		bind(setID, marker.getId(), new Binding(template, variables));
+		marker.setDescription(template.render(variables));
+	}
+
+	/**
+	 * Updates the variables of a bound marker (a null value removes the variable), and renders its description only if
+	 * a variable changed. Returns true if the description was rendered.
+	 */
+	public static boolean setVariables(MCDynmapMarker marker, Map<String, String> changes) {
+		Binding binding = getBinding(marker.getSet().getId(), marker.getId());
+		if (binding == null) {
+			return false;
+		}
+		recordUndo(marker.getSet().getId(), marker.getId(), binding);
+		boolean changed = false;
+		for (Map.Entry<String, String> entry : changes.entrySet()) {
+			String previous = (entry.getValue() != null) ? binding._variables.put(entry.getKey(), entry.getValue()) : binding._variables.remove(entry.getKey());
+			if (!Objects.equals(previous, entry.getValue())) {
+				changed = true;
+			}
+		}
+		if (changed) {
+			marker.setDescription(binding._template.render(binding._variables));
+		}
+		return changed;
+	}
+
+	/**
+	 * Unbinds a marker from its template, the marker keeps its current description.
+	 */
+	private static Binding unbind(String setID, String markerID) {
+		Map<String, Binding> bindings = BINDINGS.get(setID);
+		if (bindings == null) {
+			return null;
+		}
+		Binding binding = bindings.remove(markerID);
+		if (bindings.isEmpty()) {
+			BINDINGS.remove(setID);
+		}
+		if (binding != null) {
+			recordUndo(setID, markerID, binding);
+			binding._template.removeMarker(setID, markerID);
+		}
+		return binding;
+	}
+
+	/**
+	 * Unbinds a marker from its template, and returns the template (or null if the marker was not bound). The marker
+	 * keeps its current description.
+	 */
+	public static CHDynmapDescriptionTemplate unbindMarker(String setID, String markerID) {
+		Binding binding = unbind(setID, markerID);
+		return (binding != null) ? binding._template : null;
+	}
+
+	private void removeMarker(String setID, String markerID) {
+		Set<String> markerIDs = _markers.get(setID);
+		if ((markerIDs != null) && markerIDs.remove(markerID)) {
+			_markerCount--;
+			if (markerIDs.isEmpty()) {
+				_markers.remove(setID);
+			}
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,269 @@
+package com.hekta.chdynmap.core;
+
+import com.hekta.chdynmap.abstraction.CHDynmapStaticLayer;
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerListener;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import com.hekta.chdynmap.abstraction.events.MCDynmapMarkerExpiredEvent;
+import com.laytonsmith.core.Static;
+import com.laytonsmith.core.events.Driver;
+import com.laytonsmith.core.events.EventUtils;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Expires the markers having a time to live, with a hashed timer wheel: each marker is put in the slot of its
+ * expiration tick (modulo the wheel size), and each tick only walks the slot of the tick. Scheduling, rescheduling
+ * and cancelling are O(1), and the expired markers of a tick are deleted in a single batch.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapExpiryWheel {
+
+	public static final int TICKS_PER_SECOND = 20;
+
+	private static final int SLOTS = 512;
+	private static final int MASK = SLOTS - 1;
+
+	private static final Entry[] WHEEL = new Entry[SLOTS];
+	//setID -> markerID -> entry
+	private static final Map<String, Map<String, Entry>> ENTRIES = new HashMap<>();
+
+	private static long _tick = 0;
+	private static int _size = 0;
+	private static int _taskID = -1;
+
+	public static final MCDynmapMarkerListener LISTENER = new MCDynmapMarkerListener() {
+
+		@Override
+		public void markerMoved(MCDynmapMarker marker, String oldSetID) {
+			recordUndo(oldSetID, marker.getId());
+			Entry entry = remove(oldSetID, marker.getId());
+			if (entry != null) {
+				schedule(marker.getSet().getId(), marker.getId(), entry._deadline - _tick);
+			}
+		}
+
+		@Override
+		public void markerDeleted(MCDynmapMarker marker) {
+			recordUndo(marker.getSet().getId(), marker.getId());
+			remove(marker.getSet().getId(), marker.getId());
+		}
+
+		@Override
+		public void markerSetDeleted(MCDynmapMarkerSet set) {
+			Map<String, Entry> entries = ENTRIES.remove(set.getId());
+			if (entries != null) {
+				for (Entry entry : entries.values()) {
+					recordUndo(entry);
+					unlink(entry);
+				}
+			}
+		}
+	};
+
+	private static final class Entry {
+
+		private final String _setID;
+		private final String _markerID;
+		private final long _deadline;
+		private Entry _previous;
+		private Entry _next;
+
+		private Entry(String setID, String markerID, long deadline) {
+			_setID = setID;
+			_markerID = markerID;
+			_deadline = deadline;
+		}
+	}
+
+	private static final class ExpiredEvent implements MCDynmapMarkerExpiredEvent {
+
+		private final MCDynmapMarker _marker;
+
+		private ExpiredEvent(MCDynmapMarker marker) {
+			_marker = marker;
+		}
+
+		@Override
+		public Object _GetObject() {
+			return _marker;
+		}
+
+		@Override
+		public MCDynmapMarker getMarker() {
+			return _marker;
+		}
+	}
+
+	private CHDynmapExpiryWheel() {
+	}
+
+	/**
+	 * Converts a time to live in seconds to ticks, at least one.
+	 */
+	public static long toTicks(double seconds) {
+		return Math.max((long) Math.ceil(seconds * TICKS_PER_SECOND), 1);
+	}
+
+	/**
+	 * If a transaction is open, records the expiration of the marker, so it is set back if the transaction fails.
+	 */
+	private static void recordUndo(String setID, String markerID) {
+		if (CHDynmapTransaction.isRecording()) {
+			Map<String, Entry> entries = ENTRIES.get(setID);
+			Entry entry = (entries != null) ? entries.get(markerID) : null;
+			if (entry != null) {
+				recordUndo(entry);
+			} else {
+				CHDynmapTransaction.record(() -> remove(setID, markerID));
+			}
+		}
+	}
+
+	private static void recordUndo(Entry entry) {
+		String setID = entry._setID;
+		String markerID = entry._markerID;
+		long deadline = entry._deadline;
+		CHDynmapTransaction.record(() -> schedule(setID, markerID, deadline - _tick));
+	}
+
+	/**
+	 * Schedules (or reschedules) the expiration of a marker in the given number of ticks.
+	 */
+	public static void schedule(String setID, String markerID, long ticks) {
+		recordUndo(setID, markerID);
+		remove(setID, markerID);
+		Entry entry = new Entry(setID, markerID, _tick + Math.max(ticks, 1));
+		ENTRIES.computeIfAbsent(setID, k -> new HashMap<>()).put(markerID, entry);
+		int slot = (int) (entry._deadline & MASK);
+		entry._next = WHEEL[slot];
+		if (entry._next != null) {
+			entry._next._previous = entry;
+		}
+		WHEEL[slot] = entry;
+		_size++;
+		start();
+	}
+
+	/**
+	 * Cancels the expiration of a marker, returns false if it had none.
+	 */
+	public static boolean cancel(String setID, String markerID) {
+		recordUndo(setID, markerID);
+		return remove(setID, markerID) != null;
+	}
+
+	/**
+	 * Returns the number of ticks before the expiration of the marker, or -1 if it has none.
+	 */
+	public static long getRemainingTicks(String setID, String markerID) {
+		Map<String, Entry> entries = ENTRIES.get(setID);
+		Entry entry = (entries != null) ? entries.get(markerID) : null;
+		if (entry != null) {
+			return entry._deadline - _tick;
+		} else {
+			return -1;
+		}
+	}
+
+	public static int size() {
+		return _size;
+	}
+
+	private static Entry remove(String setID, String markerID) {
+		Map<String, Entry> entries = ENTRIES.get(setID);
+		if (entries == null) {
+			return null;
+		}
+		Entry entry = entries.remove(markerID);
+		if (entries.isEmpty()) {
+			ENTRIES.remove(setID);
+		}
+		if (entry != null) {
+			unlink(entry);
+		}
+		return entry;
+	}
+
+	private static void unlink(Entry entry) {
+		if (entry._previous != null) {
+			entry._previous._next = entry._next;
+		} else {
+			WHEEL[(int) (entry._deadline & MASK)] = entry._next;
+		}
+		if (entry._next != null) {
+			entry._next._previous = entry._previous;
+		}
+		entry._previous = null;
+		entry._next = null;
+		_size--;
+	}
+
+	private static void tick() {
+		_tick++;
+		List<Entry> expired = null;
+		Entry entry = WHEEL[(int) (_tick & MASK)];
+		while (entry != null) {
+			Entry next = entry._next;
+			//the entries of the later turns of the wheel stay in the slot
+			if (entry._deadline <= _tick) {
+				if (expired == null) {
+					expired = new ArrayList<>();
+				}
+				remove(entry._setID, entry._markerID);
+				expired.add(entry);
+			}
+			entry = next;
+		}
+		if (expired != null) {
+			expire(expired);
+		}
+		if (_size == 0) {
+			stop();
+		}
+	}
+
+	private static void expire(List<Entry> expired) {
+		MCDynmapMarkerSet set = null;
+		for (Entry entry : expired) {
+			if ((set == null) || !set.getId().equals(entry._setID)) {
+				set = CHDynmapStatic.findMarkerSet(entry._setID);
+				if (set == null) {
+					continue;
+				}
+			}
+			MCDynmapMarker marker = set.getMarker(entry._markerID);
+			if (marker != null) {
+				try {
+					EventUtils.TriggerListener(Driver.EXTENSION, "dm_marker_expired", new ExpiredEvent(marker));
+				} catch (RuntimeException exception) {
+					Static.getLogger().log(Level.SEVERE, "[CHDynmap] An error occured in a dm_marker_expired event.", exception);
+				}
+				marker.delete();
+			}
+		}
+	}
+
+	/**
+	 * Starts the wheel again if some markers are waiting for their expiration.
+	 */
+	public static void start() {
+		if ((_size > 0) && (_taskID == -1)) {
+			_taskID = CHDynmapStaticLayer.scheduleRepeatingTask(CHDynmapExpiryWheel::tick, 1, 1);
+		}
+	}
+
+	/**
+	 * Stops the wheel, the markers waiting for their expiration are kept.
+	 */
+	public static void stop() {
+		if (_taskID != -1) {
+			CHDynmapStaticLayer.cancelTask(_taskID);
+			_taskID = -1;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,550 @@
+package com.hekta.chdynmap.core;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import com.hekta.chdynmap.abstraction.enums.MCDynmapMarkerType;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Imports and exports markersets as GeoJSON, streaming the files so the memory used does not depend on their size.
+ * <p>
+ * The GeoJSON positions are read as [x, z] or [x, z, y] Minecraft coordinates. The Polygons become area markers (with
+ * the outer ring as corners, the holes are ignored), the LineStrings polylines, and the Points icon markers, or circle
+ * markers when they have a "radius" property. The Multi geometries and the GeometryCollections give a marker by part.
+ * The label and the description are taken from the properties, and the styles from the simplestyle properties
+ * ("stroke", "stroke-opacity", "stroke-width", "fill" and "fill-opacity").
+ * <p>
+ * The file is parsed on a background thread, which hands the parsed markers to the import job through a bounded
+ * queue, while the job creates them on the main thread within the job budget. The export works the other way.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapGeoJson {
+
+	//the parsed markers waiting to be created, the parser waits when it is full
+	private static final int QUEUE_CAPACITY = 1024;
+
+	/**
+	 * How the features are converted to markers.
+	 */
+	public static final class Options {
+
+		private final String _world;
+		private double _y = 64;
+		private String _idProperty = null;
+		private String _labelProperty = "name";
+		private String _descriptionProperty = "description";
+		private String _icon = null;
+		private boolean _persistent = false;
+
+		public Options(String world) {
+			_world = world;
+		}
+
+		public void setY(double y) {
+			_y = y;
+		}
+
+		/**
+		 * Sets the property giving the marker IDs, if it is null the feature IDs are used.
+		 */
+		public void setIdProperty(String property) {
+			_idProperty = property;
+		}
+
+		public void setLabelProperty(String property) {
+			_labelProperty = property;
+		}
+
+		public void setDescriptionProperty(String property) {
+			_descriptionProperty = property;
+		}
+
+		public void setIcon(String iconID) {
+			_icon = iconID;
+		}
+
+		public void setPersistent(boolean persistent) {
+			_persistent = persistent;
+		}
+	}
+
+	/**
+	 * The end of the markers handed to the export writer.
+	 */
+	private static final Object END = new Object();
+
+	private static final class ImportJob extends CHDynmapJob {
+
+		private final String _setID;
+		private final boolean _persistent;
+		private final BlockingQueue<Object> _queue;
+		private final Future<Void> _parse;
+
+		private ImportJob(String setID, File file, Options options) {
+			super("geojson_import", -1);
+			_setID = setID;
+			_persistent = options._persistent;
+			_queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+			//the parser does not hand an end to the queue, it could wait forever for a cancelled job to make room
+			_parse = CHDynmapJobRunner.execute(() -> {
+				parse(file, options, _queue);
+				return null;
+			});
+		}
+
+		@Override
+		protected boolean isReady() {
+			return !_queue.isEmpty() || _parse.isDone();
+		}
+
+		@Override
+		protected boolean step() {
+			Object next = _queue.poll();
+			if (next == null) {
+				//the parser is done, and all its markers are created
+				getResult(_parse);
+				return false;
+			}
+			MCDynmapMarkerSet set = CHDynmapStatic.findMarkerSet(_setID);
+			if (set == null) {
+				return false;
+			}
+			CHDynmapMarkerState state = (CHDynmapMarkerState) next;
+			MCDynmapMarker marker = (state.getId() != null) ? set.getMarker(state.getId()) : null;
+			boolean persistent = _persistent && set.isPersistent() && !CHDynmapJournal.isJournaled(_setID);
+			if ((marker != null) && (marker.getType() == state.getType())) {
+				state.apply(marker);
+			} else {
+				if (marker != null) {
+					marker.delete();
+				}
+				state.create(set, persistent);
+			}
+			return true;
+		}
+
+		@Override
+		protected void finished() {
+			if (!_parse.isDone()) {
+				_parse.cancel(true);
+			}
+		}
+	}
+
+	private static final class ExportJob extends CHDynmapJob {
+
+		private final String _setID;
+		private final String[] _markerIDs;
+		private final BlockingQueue<Object> _queue;
+		private final Future<Void> _write;
+		private int _index;
+		private MCDynmapMarkerSet _set;
+
+		private ExportJob(MCDynmapMarkerSet set, File file) {
+			super("geojson_export", set.getMarkers().length);
+			_setID = set.getId();
+			MCDynmapMarker[] markers = set.getMarkers();
+			_markerIDs = new String[markers.length];
+			for (int i = 0; i < markers.length; i++) {
+				_markerIDs[i] = markers[i].getId();
+			}
+			_index = 0;
+			_set = null;
+			_queue = new LinkedBlockingQueue<>();
+			if (_markerIDs.length == 0) {
+				_queue.add(END);
+			}
+			_write = CHDynmapJobRunner.execute(() -> {
+				write(file, _queue);
+				return null;
+			});
+		}
+
+		@Override
+		protected boolean isReady() {
+			//once all the markers are handed to the writer, the job waits for the end of the file
+			return (_index < _markerIDs.length) || _write.isDone();
+		}
+
+		@Override
+		protected boolean step() {
+			if (_index >= _markerIDs.length) {
+				getResult(_write);
+				return false;
+			}
+			if (_set == null) {
+				_set = CHDynmapStatic.findMarkerSet(_setID);
+			}
+			MCDynmapMarker marker = (_set != null) ? _set.getMarker(_markerIDs[_index]) : null;
+			_index++;
+			if (marker != null) {
+				_queue.add(CHDynmapMarkerState.of(marker));
+			}
+			if (_index >= _markerIDs.length) {
+				_queue.add(END);
+			}
+			return true;
+		}
+
+		@Override
+		protected void finished() {
+			if (!_write.isDone()) {
+				_write.cancel(true);
+			}
+		}
+	}
+
+	private CHDynmapGeoJson() {
+	}
+
+	/**
+	 * Submits a job importing the features of the GeoJSON file in the markerset. The existing markers with the same
+	 * IDs are updated.
+	 */
+	public static CHDynmapJob load(MCDynmapMarkerSet set, File file, Options options) {
+		return CHDynmapJobRunner.submit(new ImportJob(set.getId(), file, options));
+	}
+
+	/**
+	 * Submits a job exporting the markers of the markerset to a GeoJSON file.
+	 */
+	public static CHDynmapJob export(MCDynmapMarkerSet set, File file) {
+		return CHDynmapJobRunner.submit(new ExportJob(set, file));
+	}
+
+	/**
+	 * Reads any JSON value: the objects as maps, the arrays as lists, and the numbers as doubles.
+	 */
+	static Object readValue(JsonReader reader) throws IOException {
+		switch (reader.peek()) {
+			case BEGIN_OBJECT:
+				Map<String, Object> object = new LinkedHashMap<>();
+				reader.beginObject();
+				while (reader.hasNext()) {
+					object.put(reader.nextName(), readValue(reader));
+				}
+				reader.endObject();
+				return object;
+			case BEGIN_ARRAY:
+				List<Object> array = new ArrayList<>();
+				reader.beginArray();
+				while (reader.hasNext()) {
+					array.add(readValue(reader));
+				}
+				reader.endArray();
+				return array;
+			case NUMBER:
+				return reader.nextDouble();
+			case BOOLEAN:
+				return reader.nextBoolean();
+			case NULL:
+				reader.nextNull();
+				return null;
+			default:
+				return reader.nextString();
+		}
+	}
+
+	/**
+	 * Parses the file one feature at a time, and puts the markers in the queue (waiting while it is full).
+	 */
+	private static void parse(File file, Options options, BlockingQueue<Object> queue) throws IOException, InterruptedException {
+		try (JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)))) {
+			reader.beginObject();
+			Map<String, Object> members = new LinkedHashMap<>();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if (name.equals("features") && (reader.peek() == JsonToken.BEGIN_ARRAY)) {
+					//the features are converted as soon as they are read, the collection is never held in memory
+					reader.beginArray();
+					while (reader.hasNext()) {
+						Object feature = readValue(reader);
+						if (feature instanceof Map) {
+							for (CHDynmapMarkerState state : toStates((Map<?, ?>) feature, options)) {
+								queue.put(state);
+							}
+						}
+					}
+					reader.endArray();
+				} else {
+					members.put(name, readValue(reader));
+				}
+			}
+			reader.endObject();
+			//a single feature
+			if ("Feature".equals(members.get("type"))) {
+				for (CHDynmapMarkerState state : toStates(members, options)) {
+					queue.put(state);
+				}
+			}
+		}
+	}
+
+	private static String getString(Map<?, ?> properties, String key) {
+		if ((key == null) || (properties == null)) {
+			return null;
+		}
+		Object value = properties.get(key);
+		if (value instanceof Double) {
+			double number = (Double) value;
+			return (number == Math.rint(number)) ? Long.toString((long) number) : value.toString();
+		}
+		return (value != null) ? value.toString() : null;
+	}
+
+	private static double getDouble(Map<?, ?> properties, String key, double defaultValue) {
+		Object value = (properties != null) ? properties.get(key) : null;
+		return (value instanceof Double) ? (Double) value : defaultValue;
+	}
+
+	private static int getColor(Map<?, ?> properties, String key, int defaultValue) {
+		String value = getString(properties, key);
+		if ((value == null) || !value.startsWith("#")) {
+			return defaultValue;
+		}
+		String hex = value.substring(1);
+		if (hex.length() == 3) {
+			hex = new String(new char[]{hex.charAt(0), hex.charAt(0), hex.charAt(1), hex.charAt(1), hex.charAt(2), hex.charAt(2)});
+		}
+		try {
+			return Integer.parseInt(hex, 16);
+		} catch (NumberFormatException exception) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Converts a feature to the marker states of its geometry parts.
+	 */
+	private static List<CHDynmapMarkerState> toStates(Map<?, ?> feature, Options options) {
+		List<CHDynmapMarkerState> states = new ArrayList<>();
+		Object properties = feature.get("properties");
+		Map<?, ?> propertyMap = (properties instanceof Map) ? (Map<?, ?>) properties : null;
+		String id = (options._idProperty != null) ? getString(propertyMap, options._idProperty) : getString(feature, "id");
+		Object geometry = feature.get("geometry");
+		if (geometry instanceof Map) {
+			addStates(states, (Map<?, ?>) geometry, propertyMap, id, options);
+		}
+		return states;
+	}
+
+	private static void addStates(List<CHDynmapMarkerState> states, Map<?, ?> geometry, Map<?, ?> properties, String id, Options options) {
+		Object type = geometry.get("type");
+		Object coordinates = geometry.get("coordinates");
+		if ("GeometryCollection".equals(type)) {
+			Object geometries = geometry.get("geometries");
+			if (geometries instanceof List) {
+				for (Object part : (List<?>) geometries) {
+					if (part instanceof Map) {
+						addStates(states, (Map<?, ?>) part, properties, partID(id, states.size()), options);
+					}
+				}
+			}
+			return;
+		}
+		if (!(coordinates instanceof List)) {
+			return;
+		}
+		List<?> list = (List<?>) coordinates;
+		if ("Point".equals(type)) {
+			addState(states, MCDynmapMarkerType.ICON, list, properties, id, options);
+		} else if ("LineString".equals(type)) {
+			addState(states, MCDynmapMarkerType.POLYLINE, list, properties, id, options);
+		} else if ("Polygon".equals(type)) {
+			if (!list.isEmpty() && (list.get(0) instanceof List)) {
+				addState(states, MCDynmapMarkerType.AREA, (List<?>) list.get(0), properties, id, options);
+			}
+		} else if ("MultiPoint".equals(type) || "MultiLineString".equals(type) || "MultiPolygon".equals(type)) {
+			String partType = ((String) type).substring(5);
+			for (Object part : list) {
+				Map<String, Object> partGeometry = new LinkedHashMap<>();
+				partGeometry.put("type", partType);
+				partGeometry.put("coordinates", part);
+				addStates(states, partGeometry, properties, partID(id, states.size()), options);
+			}
+		}
+	}
+
+	private static String partID(String id, int index) {
+		return ((id != null) && (index > 0)) ? id + "_" + index : id;
+	}
+
+	private static void addState(List<CHDynmapMarkerState> states, MCDynmapMarkerType type, List<?> coordinates, Map<?, ?> properties, String id, Options options) {
+		List<?> positions = (type == MCDynmapMarkerType.ICON) ? Collections.singletonList(coordinates) : coordinates;
+		List<double[]> points = new ArrayList<>();
+		for (Object position : positions) {
+			if ((position instanceof List) && (((List<?>) position).size() >= 2)) {
+				List<?> values = (List<?>) position;
+				if ((values.get(0) instanceof Double) && (values.get(1) instanceof Double)) {
+					double y = ((values.size() >= 3) && (values.get(2) instanceof Double)) ? (Double) values.get(2) : options._y;
+					points.add(new double[]{(Double) values.get(0), y, (Double) values.get(1)});
+				}
+			}
+		}
+		//the rings of the polygons are closed by repeating the first position
+		if ((type == MCDynmapMarkerType.AREA) && (points.size() > 1)
+				&& (points.get(0)[0] == points.get(points.size() - 1)[0]) && (points.get(0)[2] == points.get(points.size() - 1)[2])) {
+			points.remove(points.size() - 1);
+		}
+		if (points.isEmpty()) {
+			return;
+		}
+		double radius = getDouble(properties, "radius", -1);
+		double radiusX = getDouble(properties, "radius_x", radius);
+		double radiusZ = getDouble(properties, "radius_z", radius);
+		if ((type == MCDynmapMarkerType.ICON) && (radiusX >= 0) && (radiusZ >= 0)) {
+			type = MCDynmapMarkerType.CIRCLE;
+		}
+		double[] x = new double[points.size()];
+		double[] y = new double[points.size()];
+		double[] z = new double[points.size()];
+		for (int i = 0; i < x.length; i++) {
+			x[i] = points.get(i)[0];
+			y[i] = points.get(i)[1];
+			z[i] = points.get(i)[2];
+		}
+		String label = getString(properties, options._labelProperty);
+		if (label == null) {
+			label = (id != null) ? id : "";
+		}
+		states.add(new CHDynmapMarkerState(type, id, label, false, getString(properties, options._descriptionProperty), options._world,
+				-1, -1, x, y, z, radiusX, radiusZ, y[0], y[0],
+				getColor(properties, "fill", CHDynmapMarkerTemplate.DEFAULT_FILL_COLOR),
+				getDouble(properties, "fill-opacity", CHDynmapMarkerTemplate.DEFAULT_FILL_OPACITY),
+				getColor(properties, "stroke", CHDynmapMarkerTemplate.DEFAULT_LINE_COLOR),
+				getDouble(properties, "stroke-opacity", CHDynmapMarkerTemplate.DEFAULT_LINE_OPACITY),
+				(int) getDouble(properties, "stroke-width", CHDynmapMarkerTemplate.DEFAULT_LINE_WEIGHT), false,
+				(options._icon != null) ? options._icon : getString(properties, "icon")));
+	}
+
+	/**
+	 * Writes the markers taken from the queue as a FeatureCollection, until the end of the queue.
+	 */
+	private static void write(File file, BlockingQueue<Object> queue) throws IOException, InterruptedException {
+		File temp = new File(file.getPath() + ".tmp");
+		Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+		try {
+			try (JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)))) {
+				writer.beginObject();
+				writer.name("type").value("FeatureCollection");
+				writer.name("features").beginArray();
+				Object next;
+				while ((next = queue.take()) != END) {
+					writeFeature(writer, (CHDynmapMarkerState) next);
+				}
+				writer.endArray();
+				writer.endObject();
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			//the partial file of a failed or cancelled export is not kept (it was moved if the export succeeded)
+			temp.delete();
+		}
+	}
+
+	private static String toHex(int color) {
+		return String.format("#%06x", color & 0xFFFFFF);
+	}
+
+	private static void writePosition(JsonWriter writer, CHDynmapMarkerState state, int index, boolean withY) throws IOException {
+		writer.beginArray();
+		writer.value(state.getXs()[index]);
+		writer.value(state.getZs()[index]);
+		if (withY) {
+			writer.value(state.getYs()[index]);
+		}
+		writer.endArray();
+	}
+
+	private static void writeFeature(JsonWriter writer, CHDynmapMarkerState state) throws IOException {
+		int count = state.getXs().length;
+		if (count == 0) {
+			return;
+		}
+		writer.beginObject();
+		writer.name("type").value("Feature");
+		writer.name("id").value(state.getId());
+		writer.name("geometry").beginObject();
+		switch (state.getType()) {
+			case AREA:
+				writer.name("type").value("Polygon");
+				writer.name("coordinates").beginArray().beginArray();
+				for (int i = 0; i < count; i++) {
+					writePosition(writer, state, i, false);
+				}
+				writePosition(writer, state, 0, false);
+				writer.endArray().endArray();
+				break;
+			case POLYLINE:
+				writer.name("type").value("LineString");
+				writer.name("coordinates").beginArray();
+				for (int i = 0; i < count; i++) {
+					writePosition(writer, state, i, true);
+				}
+				writer.endArray();
+				break;
+			default:
+				writer.name("type").value("Point");
+				writer.name("coordinates");
+				writePosition(writer, state, 0, true);
+				break;
+		}
+		writer.endObject();
+		writer.name("properties").beginObject();
+		writer.name("name").value(state.getLabel());
+		if (state.getDescription() != null) {
+			writer.name("description").value(state.getDescription());
+		}
+		writer.name("world").value(state.getWorld());
+		switch (state.getType()) {
+			case AREA:
+			case CIRCLE:
+				if (state.getType() == MCDynmapMarkerType.CIRCLE) {
+					writer.name("radius_x").value(state.getRadiusX());
+					writer.name("radius_z").value(state.getRadiusZ());
+					writer.name("radius").value(Math.max(state.getRadiusX(), state.getRadiusZ()));
+				}
+				writer.name("fill").value(toHex(state.getFillColor()));
+				writer.name("fill-opacity").value(state.getFillOpacity());
+				writer.name("stroke").value(toHex(state.getLineColor()));
+				writer.name("stroke-opacity").value(state.getLineOpacity());
+				writer.name("stroke-width").value(state.getLineWeight());
+				break;
+			case POLYLINE:
+				writer.name("stroke").value(toHex(state.getLineColor()));
+				writer.name("stroke-opacity").value(state.getLineOpacity());
+				writer.name("stroke-width").value(state.getLineWeight());
+				break;
+			case ICON:
+				writer.name("icon").value(state.getIcon());
+				break;
+			default:
+				break;
+		}
+		writer.endObject();
+		writer.endObject();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,337 @@
+package com.hekta.chdynmap.core;
+
+import com.hekta.chdynmap.abstraction.MCDynmapIcon;
+import com.hekta.chdynmap.abstraction.MCDynmapIconMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerAPI;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerListener;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The reverse indexes of the icons: the markersets allowing an icon, the markersets having it as default icon, and the
+ * markers using it. The indexes are built by a single scan of the markersets when they are first queried, then kept
+ * up to date by the marker listener.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapIconIndex {
+
+	private static boolean built = false;
+
+	//iconID -> setIDs
+	private static final Map<String, Set<String>> ALLOWED = new HashMap<>();
+	//setID -> allowed iconIDs (only for the restricted sets)
+	private static final Map<String, Set<String>> SET_ALLOWED = new HashMap<>();
+	//setID -> default iconID
+	private static final Map<String, String> DEFAULTS = new HashMap<>();
+	//iconID -> setID -> markerIDs
+	private static final Map<String, Map<String, Set<String>>> MARKERS = new HashMap<>();
+	//setID -> markerID -> iconID
+	private static final Map<String, Map<String, String>> MARKER_ICONS = new HashMap<>();
+
+	public static final MCDynmapMarkerListener LISTENER = new MCDynmapMarkerListener() {
+
+		@Override
+		public void markerCreated(MCDynmapMarker marker) {
+			if (built && (marker instanceof MCDynmapIconMarker)) {
+				addMarker(marker.getSet().getId(), marker.getId(), getId(((MCDynmapIconMarker) marker).getIcon()));
+			}
+		}
+
+		@Override
+		public void markerChanged(MCDynmapMarker marker) {
+			if (built && (marker instanceof MCDynmapIconMarker)) {
+				String setID = marker.getSet().getId();
+				String iconID = getId(((MCDynmapIconMarker) marker).getIcon());
+				Map<String, String> icons = MARKER_ICONS.get(setID);
+				if ((icons == null) || !Objects.equals(icons.get(marker.getId()), iconID)) {
+					removeMarker(setID, marker.getId());
+					addMarker(setID, marker.getId(), iconID);
+				}
+			}
+		}
+
+		@Override
+		public void markerMoved(MCDynmapMarker marker, String oldSetID) {
+			if (built) {
+				removeMarker(oldSetID, marker.getId());
+				markerCreated(marker);
+			}
+		}
+
+		@Override
+		public void markerDeleted(MCDynmapMarker marker) {
+			if (built) {
+				removeMarker(marker.getSet().getId(), marker.getId());
+			}
+		}
+
+		@Override
+		public void markerSetCreated(MCDynmapMarkerSet set) {
+			if (built) {
+				indexSet(set);
+			}
+		}
+
+		@Override
+		public void markerSetChanged(MCDynmapMarkerSet set) {
+			if (built) {
+				indexIcons(set);
+			}
+		}
+
+		@Override
+		public void markerSetDeleted(MCDynmapMarkerSet set) {
+			if (built) {
+				unindexSet(set.getId());
+			}
+		}
+
+		@Override
+		public void iconDeleted(MCDynmapIcon icon) {
+			//the markers and the default icons still reference the deleted icon, only the allowed icons are updated
+			Set<String> setIDs = ALLOWED.remove(icon.getId());
+			if (setIDs != null) {
+				for (String setID : setIDs) {
+					SET_ALLOWED.get(setID).remove(icon.getId());
+				}
+			}
+		}
+	};
+
+	/**
+	 * A snapshot of the usage of an icon.
+	 */
+	public static final class Usage {
+
+		private final List<String> _allowingSets;
+		private final List<String> _defaultSets;
+		private final Map<String, List<String>> _markers;
+		private final int _markerCount;
+
+		private Usage(String iconID) {
+			_allowingSets = sorted(ALLOWED.get(iconID));
+			List<String> defaultSets = new ArrayList<>();
+			for (Map.Entry<String, String> entry : DEFAULTS.entrySet()) {
+				if (entry.getValue().equals(iconID)) {
+					defaultSets.add(entry.getKey());
+				}
+			}
+			Collections.sort(defaultSets);
+			_defaultSets = defaultSets;
+			_markers = new TreeMap<>();
+			int count = 0;
+			Map<String, Set<String>> markers = MARKERS.get(iconID);
+			if (markers != null) {
+				for (Map.Entry<String, Set<String>> entry : markers.entrySet()) {
+					_markers.put(entry.getKey(), sorted(entry.getValue()));
+					count += entry.getValue().size();
+				}
+			}
+			_markerCount = count;
+		}
+
+		/**
+		 * Returns the IDs of the markersets allowing the icon (the unrestricted markersets are not listed).
+		 */
+		public List<String> getAllowingSets() {
+			return _allowingSets;
+		}
+
+		/**
+		 * Returns the IDs of the markersets having the icon as default icon.
+		 */
+		public List<String> getDefaultSets() {
+			return _defaultSets;
+		}
+
+		/**
+		 * Returns the IDs of the markers using the icon, by markerset ID.
+		 */
+		public Map<String, List<String>> getMarkers() {
+			return _markers;
+		}
+
+		public int getMarkerCount() {
+			return _markerCount;
+		}
+
+		/**
+		 * Returns if the icon is used by a marker or as a default icon, being allowed by a markerset is not a use.
+		 */
+		public boolean isInUse() {
+			return (_markerCount > 0) || !_defaultSets.isEmpty();
+		}
+	}
+
+	private CHDynmapIconIndex() {
+	}
+
+	private static String getId(MCDynmapIcon icon) {
+		return ((icon == null) || (icon.getHandle() == null)) ? null : icon.getId();
+	}
+
+	private static List<String> sorted(Set<String> ids) {
+		return (ids == null) ? new ArrayList<>() : new ArrayList<>(new TreeSet<>(ids));
+	}
+
+	private static void addMarker(String setID, String markerID, String iconID) {
+		if (iconID != null) {
+			MARKER_ICONS.computeIfAbsent(setID, k -> new HashMap<>()).put(markerID, iconID);
+			MARKERS.computeIfAbsent(iconID, k -> new HashMap<>()).computeIfAbsent(setID, k -> new HashSet<>()).add(markerID);
+		}
+	}
+
+	private static void removeMarker(String setID, String markerID) {
+		Map<String, String> icons = MARKER_ICONS.get(setID);
+		if (icons == null) {
+			return;
+		}
+		String iconID = icons.remove(markerID);
+		if (icons.isEmpty()) {
+			MARKER_ICONS.remove(setID);
+		}
+		if (iconID != null) {
+			Map<String, Set<String>> markers = MARKERS.get(iconID);
+			Set<String> markerIDs = markers.get(setID);
+			markerIDs.remove(markerID);
+			if (markerIDs.isEmpty()) {
+				markers.remove(setID);
+				if (markers.isEmpty()) {
+					MARKERS.remove(iconID);
+				}
+			}
+		}
+	}
+
+	private static void indexIcons(MCDynmapMarkerSet set) {
+		String setID = set.getId();
+		Set<String> old = SET_ALLOWED.remove(setID);
+		if (old != null) {
+			for (String iconID : old) {
+				Set<String> setIDs = ALLOWED.get(iconID);
+				setIDs.remove(setID);
+				if (setIDs.isEmpty()) {
+					ALLOWED.remove(iconID);
+				}
+			}
+		}
+		MCDynmapIcon[] allowed = set.getAllowedIcons();
+		if (allowed != null) {
+			Set<String> iconIDs = new HashSet<>();
+			for (MCDynmapIcon icon : allowed) {
+				iconIDs.add(icon.getId());
+				ALLOWED.computeIfAbsent(icon.getId(), k -> new HashSet<>()).add(setID);
+			}
+			SET_ALLOWED.put(setID, iconIDs);
+		}
+		String defaultID = getId(set.getDefaultIcon());
+		if (defaultID != null) {
+			DEFAULTS.put(setID, defaultID);
+		} else {
+			DEFAULTS.remove(setID);
+		}
+	}
+
+	private static void indexSet(MCDynmapMarkerSet set) {
+		indexIcons(set);
+		String setID = set.getId();
+		for (MCDynmapIconMarker marker : set.getIconMarkers()) {
+			addMarker(setID, marker.getId(), getId(marker.getIcon()));
+		}
+	}
+
+	private static void unindexSet(String setID) {
+		Map<String, String> icons = MARKER_ICONS.get(setID);
+		if (icons != null) {
+			for (String markerID : new ArrayList<>(icons.keySet())) {
+				removeMarker(setID, markerID);
+			}
+		}
+		Set<String> allowed = SET_ALLOWED.remove(setID);
+		if (allowed != null) {
+			for (String iconID : allowed) {
+				Set<String> setIDs = ALLOWED.get(iconID);
+				setIDs.remove(setID);
+				if (setIDs.isEmpty()) {
+					ALLOWED.remove(iconID);
+				}
+			}
+		}
+		DEFAULTS.remove(setID);
+	}
+
+	private static void ensureBuilt(MCDynmapMarkerAPI api) {
+		if (!built) {
+			for (MCDynmapMarkerSet set : api.getMarkerSets()) {
+				indexSet(set);
+			}
+			built = true;
+		}
+	}
+
+	public static Usage getUsage(MCDynmapMarkerAPI api, String iconID) {
+		ensureBuilt(api);
+		return new Usage(iconID);
+	}
+
+	/**
+	 * Makes the markers and the markersets using the icon use the replacement icon instead. Returns the number of
+	 * markers changed.
+	 */
+	public static int reassign(MCDynmapMarkerAPI api, String iconID, MCDynmapIcon replacement) {
+		Usage usage = getUsage(api, iconID);
+		int count = 0;
+		for (Map.Entry<String, List<String>> entry : usage.getMarkers().entrySet()) {
+			MCDynmapMarkerSet set = api.getMarkerSet(entry.getKey());
+			if (set != null) {
+				for (String markerID : entry.getValue()) {
+					MCDynmapIconMarker marker = set.getIconMarker(markerID);
+					if ((marker != null) && marker.setIcon(replacement)) {
+						count++;
+					}
+				}
+			}
+		}
+		for (String setID : usage.getDefaultSets()) {
+			MCDynmapMarkerSet set = api.getMarkerSet(setID);
+			if (set != null) {
+				set.setDefaultIcon(replacement);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Starts with empty indexes, they are built when they are first queried.
+	 */
+	public static void start() {
+		clear();
+	}
+
+	/**
+	 * Drops the indexes, as the markersets can change while the extension is not loaded.
+	 */
+	public static void stop() {
+		clear();
+	}
+
+	private static void clear() {
+		ALLOWED.clear();
+		SET_ALLOWED.clear();
+		DEFAULTS.clear();
+		MARKERS.clear();
+		MARKER_ICONS.clear();
+		built = false;
+	}
+}
\ No newline at end of file
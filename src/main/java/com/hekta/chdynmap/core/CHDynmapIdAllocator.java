@@ -0,0 +1,127 @@
+package com.hekta.chdynmap.core;
+
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerListener;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Allocates marker IDs made of a prefix and a number. Each markerset has a counter by prefix, seeded from the IDs of
+ * the set starting with the prefix (found in the sorted CHDynmapIdIndex) when the prefix is first used, and then only
+ * moving forward, also when a marker is created through CHDynmap with the prefix followed by a number. The counters
+ * are kept in memory: after a restart they are seeded again, so the numbers of the last deleted markers can be given
+ * again.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapIdAllocator {
+
+	private static final int MAX_DIGITS = 18;
+
+	//setID -> prefix -> next number
+	private static final Map<String, Map<String, long[]>> COUNTERS = new HashMap<>();
+	//setID -> default prefix
+	private static final Map<String, String> DEFAULT_PREFIXES = new HashMap<>();
+
+	public static final MCDynmapMarkerListener LISTENER = new MCDynmapMarkerListener() {
+
+		@Override
+		public void markerCreated(MCDynmapMarker marker) {
+			Map<String, long[]> counters = COUNTERS.get(marker.getSet().getId());
+			if (counters == null) {
+				return;
+			}
+			//the ID is a prefix followed by a number for each split of its trailing digits, as a prefix can end with digits
+			String id = marker.getId();
+			int end = id.length();
+			int start = end;
+			while ((start > 0) && Character.isDigit(id.charAt(start - 1))) {
+				start--;
+			}
+			for (int split = Math.max(start, end - MAX_DIGITS); split < end; split++) {
+				String prefix = id.substring(0, split);
+				long[] counter = counters.get(prefix);
+				if (counter != null) {
+					record(prefix, counter, id);
+				}
+			}
+		}
+
+		@Override
+		public void markerMoved(MCDynmapMarker marker, String oldSetID) {
+			markerCreated(marker);
+		}
+
+		@Override
+		public void markerSetDeleted(MCDynmapMarkerSet set) {
+			COUNTERS.remove(set.getId());
+			DEFAULT_PREFIXES.remove(set.getId());
+		}
+	};
+
+	private CHDynmapIdAllocator() {
+	}
+
+	/**
+	 * Reserves a range of count IDs for the prefix, after all the numbers of the IDs of the set made of the prefix
+	 * followed by digits, and returns the first number of the range.
+	 */
+	public static long allocate(MCDynmapMarkerSet set, String prefix, int count) {
+		Map<String, long[]> counters = COUNTERS.computeIfAbsent(set.getId(), k -> new HashMap<>());
+		long[] counter = counters.get(prefix);
+		if (counter == null) {
+			counter = new long[]{1};
+			for (String id : CHDynmapIdIndex.getIds(set, prefix, -1)) {
+				record(prefix, counter, id);
+			}
+			counters.put(prefix, counter);
+		}
+		long first = counter[0];
+		counter[0] = first + count;
+		return first;
+	}
+
+	/**
+	 * Returns a new ID for the prefix.
+	 */
+	public static String allocate(MCDynmapMarkerSet set, String prefix) {
+		return prefix + allocate(set, prefix, 1);
+	}
+
+	/**
+	 * Moves the counter of the prefix after the number of the ID, if the ID is the prefix followed by digits only.
+	 */
+	private static void record(String prefix, long[] counter, String id) {
+		int start = prefix.length();
+		int end = id.length();
+		if ((start == end) || (end - start > MAX_DIGITS) || !id.startsWith(prefix)) {
+			return;
+		}
+		for (int i = start; i < end; i++) {
+			if (!Character.isDigit(id.charAt(i))) {
+				return;
+			}
+		}
+		long number = Long.parseLong(id.substring(start));
+		if (number >= counter[0]) {
+			counter[0] = number + 1;
+		}
+	}
+
+	public static String getDefaultPrefix(String setID) {
+		return DEFAULT_PREFIXES.get(setID);
+	}
+
+	/**
+	 * Sets the prefix of the IDs allocated for the markers created without ID in the set, null to let Dynmap generate
+	 * them.
+	 */
+	public static void setDefaultPrefix(String setID, String prefix) {
+		if (prefix != null) {
+			DEFAULT_PREFIXES.put(setID, prefix);
+		} else {
+			DEFAULT_PREFIXES.remove(setID);
+		}
+	}
+}
\ No newline at end of file
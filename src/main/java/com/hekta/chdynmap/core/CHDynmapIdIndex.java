@@ -0,0 +1,135 @@
+package com.hekta.chdynmap.core;
+
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerListener;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * A sorted index of the marker IDs of each markerset, so the markers whose ID starts with a prefix are found in
+ * O(log n + k). The index of a set is built by a single scan when it is first queried, then kept up to date by the
+ * marker listener.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapIdIndex {
+
+	//setID -> sorted markerIDs
+	private static final Map<String, NavigableSet<String>> INDEX = new HashMap<>();
+
+	public static final MCDynmapMarkerListener LISTENER = new MCDynmapMarkerListener() {
+
+		@Override
+		public void markerCreated(MCDynmapMarker marker) {
+			NavigableSet<String> ids = INDEX.get(marker.getSet().getId());
+			if (ids != null) {
+				ids.add(marker.getId());
+			}
+		}
+
+		@Override
+		public void markerMoved(MCDynmapMarker marker, String oldSetID) {
+			NavigableSet<String> ids = INDEX.get(oldSetID);
+			if (ids != null) {
+				ids.remove(marker.getId());
+			}
+			markerCreated(marker);
+		}
+
+		@Override
+		public void markerDeleted(MCDynmapMarker marker) {
+			NavigableSet<String> ids = INDEX.get(marker.getSet().getId());
+			if (ids != null) {
+				ids.remove(marker.getId());
+			}
+		}
+
+		@Override
+		public void markerSetDeleted(MCDynmapMarkerSet set) {
+			INDEX.remove(set.getId());
+		}
+	};
+
+	private CHDynmapIdIndex() {
+	}
+
+	private static NavigableSet<String> getIndex(MCDynmapMarkerSet set) {
+		NavigableSet<String> ids = INDEX.get(set.getId());
+		if (ids == null) {
+			ids = new TreeSet<>();
+			for (MCDynmapMarker marker : set.getMarkers()) {
+				ids.add(marker.getId());
+			}
+			INDEX.put(set.getId(), ids);
+		}
+		return ids;
+	}
+
+	/**
+	 * Returns the IDs of the markers of the set starting with the prefix, in their natural order. A negative limit
+	 * means no limit.
+	 */
+	public static List<String> getIds(MCDynmapMarkerSet set, String prefix, int limit) {
+		List<String> ids = new ArrayList<>();
+		if (limit == 0) {
+			return ids;
+		}
+		for (String id : getIndex(set).tailSet(prefix, true)) {
+			if (!id.startsWith(prefix)) {
+				break;
+			}
+			ids.add(id);
+			if (ids.size() == limit) {
+				break;
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Returns the markers of the set whose ID starts with the prefix, up to the limit. The IDs of the markers that do
+	 * not exist anymore are removed from the index, and do not count in the limit.
+	 */
+	public static List<MCDynmapMarker> getMarkers(MCDynmapMarkerSet set, String prefix, int limit) {
+		List<MCDynmapMarker> markers = new ArrayList<>();
+		if (limit == 0) {
+			return markers;
+		}
+		for (Iterator<String> iterator = getIndex(set).tailSet(prefix, true).iterator(); iterator.hasNext();) {
+			String id = iterator.next();
+			if (!id.startsWith(prefix)) {
+				break;
+			}
+			MCDynmapMarker marker = set.getMarker(id);
+			if (marker == null) {
+				iterator.remove();
+				continue;
+			}
+			markers.add(marker);
+			if (markers.size() == limit) {
+				break;
+			}
+		}
+		return markers;
+	}
+
+	/**
+	 * Starts with an empty index, the index of a set is built when it is first queried.
+	 */
+	public static void start() {
+		INDEX.clear();
+	}
+
+	/**
+	 * Drops the index, as the markers can change while the extension is not loaded.
+	 */
+	public static void stop() {
+		INDEX.clear();
+	}
+}
\ No newline at end of file
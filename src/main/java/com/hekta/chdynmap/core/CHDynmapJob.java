@@ -0,0 +1,192 @@
+package com.hekta.chdynmap.core;
+
+import com.hekta.chdynmap.abstraction.events.MCDynmapJobProgressEvent;
+import com.laytonsmith.core.Static;
+import com.laytonsmith.core.events.Driver;
+import com.laytonsmith.core.events.EventUtils;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+
+/**
+ * A long work done on the main thread by the job runner, a few steps at each server tick. The progress is reported by
+ * a dm_job_progress event after each tick the job advanced, and once when it ends.
+ *
+ * @author Hekta
+ */
+public abstract class CHDynmapJob {
+
+	public enum State {
+		RUNNING,
+		DONE,
+		CANCELLED,
+		FAILED
+	}
+
+	private static int _nextID = 1;
+
+	private final int _id;
+	private final String _type;
+	private final long _total;
+	private long _done;
+	private long _reported;
+	private State _state;
+
+	/**
+	 * @param type The kind of the job, for display purpose.
+	 * @param total The number of steps of the job, or -1 if it is unknown.
+	 */
+	protected CHDynmapJob(String type, long total) {
+		_id = _nextID++;
+		_type = type;
+		_total = total;
+		_done = 0;
+		_reported = 0;
+		_state = State.RUNNING;
+	}
+
+	private final class ProgressEvent implements MCDynmapJobProgressEvent {
+
+		@Override
+		public Object _GetObject() {
+			return CHDynmapJob.this;
+		}
+
+		@Override
+		public int getJobId() {
+			return _id;
+		}
+
+		@Override
+		public String getJobType() {
+			return _type;
+		}
+
+		@Override
+		public long getDone() {
+			return _done;
+		}
+
+		@Override
+		public long getTotal() {
+			return _total;
+		}
+
+		@Override
+		public String getState() {
+			return _state.name();
+		}
+	}
+
+	/**
+	 * Does one step of the work, and returns false if there was nothing left to do.
+	 */
+	protected abstract boolean step();
+
+	/**
+	 * Returns if the job can do its next step, a job waiting for some work done on another thread (see
+	 * {@link CHDynmapJobRunner#execute}) returns false until it is done.
+	 */
+	protected boolean isReady() {
+		return true;
+	}
+
+	/**
+	 * Returns the result of some work done on another thread, which must be done. If the work failed, the exception
+	 * makes the job fail.
+	 */
+	protected static <T> T getResult(Future<T> future) {
+		try {
+			return future.get();
+		} catch (ExecutionException exception) {
+			throw new IllegalStateException(exception.getCause().getMessage(), exception.getCause());
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(exception);
+		}
+	}
+
+	/**
+	 * Called once when the job ends, whatever its final state is.
+	 */
+	protected void finished() {
+	}
+
+	public final int getId() {
+		return _id;
+	}
+
+	public final String getType() {
+		return _type;
+	}
+
+	public final long getTotal() {
+		return _total;
+	}
+
+	public final long getDone() {
+		return _done;
+	}
+
+	public final State getState() {
+		return _state;
+	}
+
+	public final boolean isRunning() {
+		return _state == State.RUNNING;
+	}
+
+	/**
+	 * Cancels the job, the steps already done are not reverted.
+	 */
+	public final void cancel() {
+		end(State.CANCELLED);
+	}
+
+	/**
+	 * Runs the steps until the given time or until the job is not ready (at least one step is done if it is ready),
+	 * returns false if the job ended.
+	 */
+	final boolean run(long deadline) {
+		try {
+			do {
+				if (!isReady()) {
+					break;
+				}
+				if (!step()) {
+					end(State.DONE);
+					return false;
+				}
+				_done++;
+			} while ((_state == State.RUNNING) && (System.nanoTime() < deadline));
+		} catch (RuntimeException exception) {
+			end(State.FAILED);
+			throw exception;
+		}
+		return _state == State.RUNNING;
+	}
+
+	final void end(State state) {
+		if (_state == State.RUNNING) {
+			_state = state;
+			CHDynmapJobRunner.remove(this);
+			finished();
+			report();
+		}
+	}
+
+	/**
+	 * Fires a dm_job_progress event if the job advanced since the last one, or if it ended.
+	 */
+	final void report() {
+		if ((_state == State.RUNNING) && (_done == _reported)) {
+			return;
+		}
+		_reported = _done;
+		try {
+			EventUtils.TriggerListener(Driver.EXTENSION, "dm_job_progress", new ProgressEvent());
+		} catch (RuntimeException exception) {
+			Static.getLogger().log(Level.SEVERE, "[CHDynmap] An error occured in a dm_job_progress event.", exception);
+		}
+	}
+}
\ No newline at end of file
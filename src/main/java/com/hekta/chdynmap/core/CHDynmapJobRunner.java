@@ -0,0 +1,135 @@
+package com.hekta.chdynmap.core;
+
+import com.hekta.chdynmap.abstraction.CHDynmapStaticLayer;
+import com.laytonsmith.core.Static;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Runs the jobs on the main thread, a slice of each job at each server tick, without using more than the time budget.
+ * The budget is shared equally between the running jobs, and the task is only scheduled while there are some.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapJobRunner {
+
+	public static final double DEFAULT_BUDGET = 5;
+
+	private static final Map<Integer, CHDynmapJob> JOBS = new LinkedHashMap<>();
+
+	private static long _budget = toNanos(DEFAULT_BUDGET);
+	private static int _taskID = -1;
+	private static ExecutorService _executor = null;
+
+	private CHDynmapJobRunner() {
+	}
+
+	public static <T extends CHDynmapJob> T submit(T job) {
+		if (job.isRunning()) {
+			JOBS.put(job.getId(), job);
+			if (_taskID == -1) {
+				_taskID = CHDynmapStaticLayer.scheduleRepeatingTask(CHDynmapJobRunner::tick, 1, 1);
+			}
+		}
+		return job;
+	}
+
+	/**
+	 * Runs a task on a background thread, for the work of the jobs which does not use the server or Dynmap (like
+	 * reading, decoding and writing files).
+	 */
+	public static <T> Future<T> execute(Callable<T> task) {
+		if (_executor == null) {
+			_executor = Executors.newCachedThreadPool((Runnable runnable) -> {
+				Thread thread = new Thread(runnable, "CHDynmap worker");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return _executor.submit(task);
+	}
+
+	public static CHDynmapJob get(int id) {
+		return JOBS.get(id);
+	}
+
+	public static Collection<CHDynmapJob> getJobs() {
+		return Collections.unmodifiableCollection(JOBS.values());
+	}
+
+	/**
+	 * Returns the budget by tick, in milliseconds.
+	 */
+	public static double getBudget() {
+		return _budget / 1000000.0;
+	}
+
+	/**
+	 * Sets the budget by tick, in milliseconds. Each job still does at least one step by tick.
+	 */
+	public static void setBudget(double milliseconds) {
+		_budget = toNanos(milliseconds);
+	}
+
+	private static long toNanos(double milliseconds) {
+		return (long) (milliseconds * TimeUnit.MILLISECONDS.toNanos(1));
+	}
+
+	static void remove(CHDynmapJob job) {
+		JOBS.remove(job.getId());
+	}
+
+	private static void tick() {
+		long deadline = System.nanoTime() + _budget;
+		//jobs can be submitted or cancelled by the running ones
+		CHDynmapJob[] jobs = JOBS.values().toArray(new CHDynmapJob[JOBS.size()]);
+		int remaining = jobs.length;
+		for (CHDynmapJob job : jobs) {
+			long now = System.nanoTime();
+			long slice = Math.max(deadline - now, 0) / remaining;
+			remaining--;
+			if (job.isRunning()) {
+				try {
+					if (job.run(now + slice)) {
+						job.report();
+					}
+				} catch (RuntimeException exception) {
+					Static.getLogger().log(Level.SEVERE, "[CHDynmap] The job " + job.getId() + " (" + job.getType() + ") failed.", exception);
+				}
+			}
+		}
+		if (JOBS.isEmpty()) {
+			stopTask();
+		}
+	}
+
+	private static void stopTask() {
+		if (_taskID != -1) {
+			CHDynmapStaticLayer.cancelTask(_taskID);
+			_taskID = -1;
+		}
+	}
+
+	/**
+	 * Cancels all the jobs, and stops the background threads once their current task is done.
+	 */
+	public static void shutdown() {
+		for (CHDynmapJob job : new ArrayList<>(JOBS.values())) {
+			job.cancel();
+		}
+		stopTask();
+		if (_executor != null) {
+			_executor.shutdown();
+			_executor = null;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,694 @@
+package com.hekta.chdynmap.core;
+
+import com.hekta.chdynmap.CHDynmap;
+import com.hekta.chdynmap.abstraction.CHDynmapStaticLayer;
+import com.hekta.chdynmap.abstraction.MCDynmapAPI;
+import com.hekta.chdynmap.abstraction.MCDynmapIcon;
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerAPI;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerListener;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import com.laytonsmith.core.Static;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+/**
+ * Persists the markers of the journaled markersets without Dynmap: the markers live as non-persistent ones in Dynmap
+ * (so a change does not make it rewrite its whole marker file), and every creation, change and deletion is appended as
+ * a small record to a binary journal. The journal is periodically compacted into a snapshot, and both are replayed at
+ * startup. The records are written by a background thread which commits all the records queued since its last write
+ * together, so the main thread never waits for the disk.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapJournal {
+
+	private static final String SNAPSHOT_FILE = "journal.dat";
+	private static final String LOG_FILE = "journal.log";
+	private static final int FILE_VERSION = 1;
+	//the journal is compacted once it has more records than this, and more records than the snapshot has markers
+	private static final int COMPACTION_THRESHOLD = 10000;
+	private static final long REPLAY_PERIOD = 20;
+
+	private static final byte SET_ADD = 1;
+	private static final byte SET_REMOVE = 2;
+	private static final byte PUT = 3;
+	private static final byte DELETE = 4;
+
+	//journaled setID -> label, to create the non-persistent sets again at startup
+	private static final Map<String, String> SETS = new TreeMap<>();
+	//setID -> markerID -> last recorded state
+	private static final Map<String, Map<String, CHDynmapMarkerState>> STATE = new HashMap<>();
+	private static int _markerCount = 0;
+	private static int _records = 0;
+	private static boolean _replaying = false;
+	private static Writer _writer = null;
+	private static int _taskID = -1;
+
+	public static final MCDynmapMarkerListener LISTENER = new MCDynmapMarkerListener() {
+
+		@Override
+		public void markerCreated(MCDynmapMarker marker) {
+			record(marker);
+		}
+
+		@Override
+		public void markerChanged(MCDynmapMarker marker) {
+			record(marker);
+		}
+
+		@Override
+		public void markerMoved(MCDynmapMarker marker, String oldSetID) {
+			if (!_replaying && SETS.containsKey(oldSetID)) {
+				delete(oldSetID, marker.getId());
+			}
+			record(marker);
+		}
+
+		@Override
+		public void markerDeleted(MCDynmapMarker marker) {
+			String setID = marker.getSet().getId();
+			if (!_replaying && SETS.containsKey(setID)) {
+				delete(setID, marker.getId());
+			}
+		}
+
+		@Override
+		public void markerSetChanged(MCDynmapMarkerSet set) {
+			String label = SETS.get(set.getId());
+			if (!_replaying && (label != null) && !label.equals(set.getLabel())) {
+				addSet(set.getId(), set.getLabel());
+			}
+		}
+
+		@Override
+		public void markerSetDeleted(MCDynmapMarkerSet set) {
+			if (!_replaying) {
+				removeSet(set.getId());
+			}
+		}
+	};
+
+	/**
+	 * The snapshot of the journaled sets and markers, taken on the main thread and written by the writer.
+	 */
+	private static final class Snapshot {
+
+		private final Map<String, String> _sets;
+		private final Map<String, Map<String, CHDynmapMarkerState>> _markers;
+
+		private Snapshot() {
+			_sets = new TreeMap<>(SETS);
+			_markers = new HashMap<>();
+			for (Map.Entry<String, Map<String, CHDynmapMarkerState>> entry : STATE.entrySet()) {
+				_markers.put(entry.getKey(), new HashMap<>(entry.getValue()));
+			}
+		}
+
+		private void write(DataOutputStream out) throws IOException {
+			out.writeInt(FILE_VERSION);
+			out.writeInt(_sets.size());
+			for (Map.Entry<String, String> entry : _sets.entrySet()) {
+				out.writeUTF(entry.getKey());
+				CHDynmapMarkerState.writeString(out, entry.getValue());
+				Map<String, CHDynmapMarkerState> markers = _markers.get(entry.getKey());
+				if (markers == null) {
+					out.writeInt(0);
+					continue;
+				}
+				out.writeInt(markers.size());
+				for (CHDynmapMarkerState state : markers.values()) {
+					state.write(out);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The thread appending the records to the journal. It takes everything queued at once, writes it, and forces it
+	 * to the disk a single time for the whole batch. A batch which could not be written is kept, and written again as
+	 * a whole with the next one once the journal is truncated back to its last synced record.
+	 */
+	private static final class Writer extends Thread {
+
+		private static final Object STOP = new Object();
+
+		private final BlockingQueue<Object> _queue = new LinkedBlockingQueue<>();
+		private final CRC32 _crc = new CRC32();
+		private FileOutputStream _file = null;
+		private DataOutputStream _out = null;
+		private volatile long _size = 0;
+		private long _synced = 0;
+		private boolean _dirty = false;
+		private volatile int _compactions = 0;
+
+		private Writer() {
+			super("CHDynmap journal writer");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			List<Object> batch = new ArrayList<>();
+			boolean running = true;
+			while (running) {
+				try {
+					batch.add(_queue.take());
+				} catch (InterruptedException exception) {
+					break;
+				}
+				_queue.drainTo(batch);
+				running = !batch.remove(STOP);
+				//on stop, the batch is tried once more instead of waiting for the next records
+				if (write(batch) || (!running && write(batch))) {
+					batch.clear();
+				} else if (!running) {
+					Static.getLogger().log(Level.SEVERE, "[CHDynmap] " + batch.size() + " marker journal records could not be written.");
+				}
+			}
+			close();
+		}
+
+		/**
+		 * Writes the batch, returns false if it failed. In this case the journal is closed, and is truncated before the
+		 * next write, so no record is appended after a half-written one (which would stop the replay there). The records
+		 * queued before a snapshot of the batch are dropped from it, as the snapshot holds them.
+		 */
+		private boolean write(List<Object> batch) {
+			try {
+				if (_dirty) {
+					truncate();
+					_dirty = false;
+				}
+				for (Object task : batch) {
+					if (task instanceof byte[]) {
+						append((byte[]) task);
+					} else {
+						compact((Snapshot) task);
+					}
+				}
+				sync();
+				return true;
+			} catch (IOException exception) {
+				Static.getLogger().log(Level.SEVERE, "[CHDynmap] Could not write the marker journal, the records will be written again with the next ones.", exception);
+				close();
+				_dirty = true;
+				for (int i = batch.size() - 1; i > 0; i--) {
+					if (batch.get(i) instanceof Snapshot) {
+						batch.subList(0, i).clear();
+						break;
+					}
+				}
+				return false;
+			}
+		}
+
+		private void truncate() throws IOException {
+			File file = CHDynmapStorage.getFile(LOG_FILE);
+			if (file.isFile() && (file.length() > _synced)) {
+				try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+					out.setLength(_synced);
+				}
+			}
+			_size = _synced;
+		}
+
+		private void open(boolean append) throws IOException {
+			File file = CHDynmapStorage.getFile(LOG_FILE);
+			file.getParentFile().mkdirs();
+			_file = new FileOutputStream(file, append);
+			_out = new DataOutputStream(new BufferedOutputStream(_file));
+			_size = file.length();
+			_synced = _size;
+		}
+
+		private void append(byte[] record) throws IOException {
+			if (_out == null) {
+				open(true);
+			}
+			_crc.reset();
+			_crc.update(record);
+			_out.writeInt(record.length);
+			_out.write(record);
+			_out.writeInt((int) _crc.getValue());
+			_size += record.length + 8;
+		}
+
+		private void sync() throws IOException {
+			if (_out != null) {
+				_out.flush();
+				_file.getFD().sync();
+				_synced = _size;
+			}
+		}
+
+		/**
+		 * Writes the snapshot, then starts a new journal. If the server stops between both, the old journal is replayed
+		 * over the new snapshot, which gives the same result as its records are only upserts and deletions.
+		 */
+		private void compact(Snapshot snapshot) throws IOException {
+			sync();
+			if (CHDynmapStorage.save(SNAPSHOT_FILE, snapshot::write)) {
+				close();
+				open(false);
+				_compactions++;
+			}
+		}
+
+		private void close() {
+			if (_out != null) {
+				try {
+					_out.close();
+				} catch (IOException exception) {
+					Static.getLogger().log(Level.WARNING, "[CHDynmap] Could not close the marker journal.", exception);
+				}
+				_out = null;
+				_file = null;
+			}
+		}
+	}
+
+	/**
+	 * Replays the journaled markers once the marker API is loaded, within the job budget: the missing sets are
+	 * created, the existing markers are updated, and the missing ones are created as non-persistent markers.
+	 */
+	private static final class ReplayJob extends CHDynmapJob {
+
+		private final String[] _setIDs;
+		private final String[] _markerIDs;
+		private int _index;
+		private int _failed;
+
+		private ReplayJob() {
+			super("journal", _markerCount);
+			_setIDs = new String[_markerCount];
+			_markerIDs = new String[_markerCount];
+			int i = 0;
+			for (Map.Entry<String, Map<String, CHDynmapMarkerState>> entry : STATE.entrySet()) {
+				for (String markerID : entry.getValue().keySet()) {
+					_setIDs[i] = entry.getKey();
+					_markerIDs[i] = markerID;
+					i++;
+				}
+			}
+			_index = 0;
+			_failed = 0;
+		}
+
+		@Override
+		protected boolean step() {
+			if (_index >= _setIDs.length) {
+				return false;
+			}
+			String setID = _setIDs[_index];
+			String markerID = _markerIDs[_index];
+			_index++;
+			Map<String, CHDynmapMarkerState> markers = STATE.get(setID);
+			CHDynmapMarkerState state = (markers != null) ? markers.get(markerID) : null;
+			MCDynmapMarkerSet set = CHDynmapStatic.findMarkerSet(setID);
+			if ((state == null) || (set == null)) {
+				return true;
+			}
+			_replaying = true;
+			try {
+				MCDynmapMarker marker = set.getMarker(markerID);
+				if ((marker != null) && (marker.getType() == state.getType())) {
+					state.apply(marker);
+				} else {
+					if (marker != null) {
+						marker.delete();
+					}
+					//the state is kept if the creation fails (the world may be loaded at the next startup)
+					if (state.create(set, false) == null) {
+						_failed++;
+					}
+				}
+			} finally {
+				_replaying = false;
+			}
+			return true;
+		}
+
+		@Override
+		protected void finished() {
+			if (_failed > 0) {
+				Static.getLogger().log(Level.WARNING, "[CHDynmap] " + _failed + " journaled markers could not be created again.");
+			}
+		}
+	}
+
+	private CHDynmapJournal() {
+	}
+
+	public static boolean isJournaled(String setID) {
+		return SETS.containsKey(setID);
+	}
+
+	/**
+	 * Returns if the marker is in the journal, it may not be created again yet at startup.
+	 */
+	public static boolean isJournaled(String setID, String markerID) {
+		Map<String, CHDynmapMarkerState> markers = STATE.get(setID);
+		return (markers != null) && markers.containsKey(markerID);
+	}
+
+	/**
+	 * Returns if the markers being created or deleted are the journaled ones replayed at startup.
+	 */
+	public static boolean isReplaying() {
+		return _replaying;
+	}
+
+	public static Set<String> getJournaledSets() {
+		return Collections.unmodifiableSet(SETS.keySet());
+	}
+
+	/**
+	 * Starts or stops journaling the markerset. When it starts, its current markers are recorded. When it stops, its
+	 * records are dropped, so its non-persistent markers will not be created again at the next startup.
+	 */
+	public static void setJournaled(MCDynmapMarkerSet set, boolean journaled) {
+		if (journaled == isJournaled(set.getId())) {
+			return;
+		}
+		if (journaled) {
+			addSet(set.getId(), set.getLabel());
+			for (MCDynmapMarker marker : set.getMarkers()) {
+				record(marker);
+			}
+		} else {
+			removeSet(set.getId());
+		}
+	}
+
+	public static int getMarkerCount() {
+		return _markerCount;
+	}
+
+	/**
+	 * Returns the number of records appended since the last compaction.
+	 */
+	public static int getRecordCount() {
+		return _records;
+	}
+
+	/**
+	 * Returns the number of records and snapshots waiting to be written.
+	 */
+	public static int getPendingCount() {
+		return (_writer != null) ? _writer._queue.size() : 0;
+	}
+
+	public static long getJournalSize() {
+		return (_writer != null) ? _writer._size : 0;
+	}
+
+	public static int getCompactionCount() {
+		return (_writer != null) ? _writer._compactions : 0;
+	}
+
+	private static void record(MCDynmapMarker marker) {
+		String setID = marker.getSet().getId();
+		if (_replaying || !SETS.containsKey(setID)) {
+			return;
+		}
+		CHDynmapMarkerState state = CHDynmapMarkerState.of(marker);
+		Map<String, CHDynmapMarkerState> markers = STATE.computeIfAbsent(setID, k -> new HashMap<>());
+		if (markers.put(marker.getId(), state) == null) {
+			_markerCount++;
+		}
+		enqueue(PUT, setID, state, null);
+	}
+
+	private static void delete(String setID, String markerID) {
+		Map<String, CHDynmapMarkerState> markers = STATE.get(setID);
+		if ((markers != null) && (markers.remove(markerID) != null)) {
+			_markerCount--;
+			enqueue(DELETE, setID, null, markerID);
+		}
+	}
+
+	private static void addSet(String setID, String label) {
+		SETS.put(setID, label);
+		enqueue(SET_ADD, setID, null, label);
+	}
+
+	private static void removeSet(String setID) {
+		if (SETS.remove(setID) == null) {
+			return;
+		}
+		Map<String, CHDynmapMarkerState> markers = STATE.remove(setID);
+		if (markers != null) {
+			_markerCount -= markers.size();
+		}
+		enqueue(SET_REMOVE, setID, null, null);
+	}
+
+	private static void enqueue(byte type, String setID, CHDynmapMarkerState state, String value) {
+		if (_writer == null) {
+			return;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(type);
+			out.writeUTF(setID);
+			if (state != null) {
+				state.write(out);
+			} else if (value != null) {
+				CHDynmapMarkerState.writeString(out, value);
+			}
+		} catch (IOException exception) {
+			//can't happen in memory
+			throw new IllegalStateException(exception);
+		}
+		_writer._queue.add(bytes.toByteArray());
+		_records++;
+		if ((_records > COMPACTION_THRESHOLD) && (_records > _markerCount)) {
+			compact();
+		}
+	}
+
+	/**
+	 * Queues a snapshot of the journaled markers, the writer replaces the snapshot file with it and starts a new
+	 * journal.
+	 */
+	public static void compact() {
+		if (_writer != null) {
+			_writer._queue.add(new Snapshot());
+			_records = 0;
+		}
+	}
+
+	private static void apply(DataInputStream in) throws IOException {
+		byte type = in.readByte();
+		String setID = in.readUTF();
+		switch (type) {
+			case SET_ADD:
+				SETS.put(setID, CHDynmapMarkerState.readString(in));
+				break;
+			case SET_REMOVE:
+				SETS.remove(setID);
+				STATE.remove(setID);
+				break;
+			case PUT:
+				CHDynmapMarkerState state = CHDynmapMarkerState.read(in);
+				STATE.computeIfAbsent(setID, k -> new HashMap<>()).put(state.getId(), state);
+				break;
+			case DELETE:
+				Map<String, CHDynmapMarkerState> markers = STATE.get(setID);
+				if (markers != null) {
+					markers.remove(CHDynmapMarkerState.readString(in));
+				}
+				break;
+			default:
+				throw new IOException("Unknown record type: " + type + ".");
+		}
+	}
+
+	private static void readSnapshot(DataInputStream in) throws IOException {
+		int version = in.readInt();
+		if (version != FILE_VERSION) {
+			throw new IOException("Unsupported version: " + version + ".");
+		}
+		for (int i = in.readInt(); i > 0; i--) {
+			String setID = in.readUTF();
+			SETS.put(setID, CHDynmapMarkerState.readString(in));
+			Map<String, CHDynmapMarkerState> markers = new HashMap<>();
+			for (int j = in.readInt(); j > 0; j--) {
+				CHDynmapMarkerState state = CHDynmapMarkerState.read(in);
+				markers.put(state.getId(), state);
+			}
+			STATE.put(setID, markers);
+		}
+	}
+
+	/**
+	 * Replays the journal over the snapshot, up to the first truncated or corrupted record (the one being written when
+	 * the server stopped). Returns false if the journal could not be read to its end.
+	 */
+	private static boolean readLog() {
+		File file = CHDynmapStorage.getFile(LOG_FILE);
+		if (!file.isFile()) {
+			return true;
+		}
+		CRC32 crc = new CRC32();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			while (true) {
+				int length;
+				try {
+					length = in.readInt();
+				} catch (EOFException exception) {
+					return true;
+				}
+				if (length < 0) {
+					throw new IOException("Invalid record length: " + length + ".");
+				}
+				byte[] record = new byte[length];
+				in.readFully(record);
+				crc.reset();
+				crc.update(record);
+				if (in.readInt() != (int) crc.getValue()) {
+					throw new IOException("Invalid record checksum.");
+				}
+				apply(new DataInputStream(new ByteArrayInputStream(record)));
+			}
+		} catch (IOException exception) {
+			Static.getLogger().log(Level.WARNING, "[CHDynmap] The marker journal " + file + " is truncated, its last records are ignored.", exception);
+			return false;
+		}
+	}
+
+	/**
+	 * Copies the file aside before the compaction replaces it, so the records it holds can still be recovered.
+	 */
+	private static void keepAside(File file) {
+		File copy = new File(file.getPath() + ".corrupted");
+		try {
+			Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			Static.getLogger().log(Level.WARNING, "[CHDynmap] The marker journal was copied to " + copy + ".");
+		} catch (IOException exception) {
+			Static.getLogger().log(Level.SEVERE, "[CHDynmap] Could not copy the marker journal aside.", exception);
+		}
+	}
+
+	/**
+	 * Moves the unreadable file aside, so the records it holds can still be recovered.
+	 */
+	private static void moveAside(File file) {
+		File corrupted = new File(file.getPath() + ".corrupted");
+		try {
+			Files.move(file.toPath(), corrupted.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			Static.getLogger().log(Level.WARNING, "[CHDynmap] The unreadable marker journal file was moved to " + corrupted + ".");
+		} catch (IOException exception) {
+			Static.getLogger().log(Level.SEVERE, "[CHDynmap] Could not move the unreadable marker journal file " + file + " aside.", exception);
+		}
+	}
+
+	private static void replay() {
+		MCDynmapAPI dynmap = CHDynmap.getDynmapAPI();
+		if ((dynmap == null) || !dynmap.markerAPIInitialized()) {
+			return;
+		}
+		CHDynmapStaticLayer.cancelTask(_taskID);
+		_taskID = -1;
+		MCDynmapMarkerAPI markerAPI = dynmap.getMarkerAPI();
+		_replaying = true;
+		try {
+			for (Map.Entry<String, String> entry : SETS.entrySet()) {
+				if (markerAPI.getMarkerSet(entry.getKey()) == null) {
+					markerAPI.createMarkerSet(entry.getKey(), entry.getValue(), (MCDynmapIcon[]) null, false);
+				}
+			}
+		} finally {
+			_replaying = false;
+		}
+		if (_markerCount > 0) {
+			CHDynmapJobRunner.submit(new ReplayJob());
+		}
+	}
+
+	/**
+	 * Loads the snapshot and the journal, starts the writer, and replays the markers once the marker API is loaded.
+	 */
+	public static void start() {
+		if (_writer != null) {
+			return;
+		}
+		SETS.clear();
+		STATE.clear();
+		boolean compact = true;
+		File snapshot = CHDynmapStorage.getFile(SNAPSHOT_FILE);
+		File log = CHDynmapStorage.getFile(LOG_FILE);
+		if (snapshot.isFile() && !CHDynmapStorage.load(SNAPSHOT_FILE, CHDynmapJournal::readSnapshot)) {
+			//the records of the journal are not replayed over a partly read snapshot, and nothing is compacted: both
+			//files are moved aside and a new journal is started from an empty state
+			SETS.clear();
+			STATE.clear();
+			compact = false;
+			moveAside(snapshot);
+			if (log.isFile()) {
+				moveAside(log);
+			}
+		} else if (!readLog()) {
+			//the compaction below truncates the journal
+			keepAside(log);
+		}
+		_markerCount = 0;
+		for (Map<String, CHDynmapMarkerState> markers : STATE.values()) {
+			_markerCount += markers.size();
+		}
+		_writer = new Writer();
+		_writer.start();
+		if (compact) {
+			//a new journal is started right away, as the current one may end with a corrupted record
+			compact();
+		}
+		if (!SETS.isEmpty()) {
+			_taskID = CHDynmapStaticLayer.scheduleRepeatingTask(CHDynmapJournal::replay, 1, REPLAY_PERIOD);
+		}
+	}
+
+	/**
+	 * Compacts the journal, and waits for the writer to finish.
+	 */
+	public static void stop() {
+		if (_taskID != -1) {
+			CHDynmapStaticLayer.cancelTask(_taskID);
+			_taskID = -1;
+		}
+		if (_writer == null) {
+			return;
+		}
+		compact();
+		_writer._queue.add(Writer.STOP);
+		try {
+			_writer.join();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+		_writer = null;
+	}
+}
\ No newline at end of file
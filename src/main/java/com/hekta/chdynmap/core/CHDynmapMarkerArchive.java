@@ -0,0 +1,718 @@
+package com.hekta.chdynmap.core;
+
+import com.hekta.chdynmap.abstraction.MCDynmapIcon;
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerAPI;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import com.hekta.chdynmap.abstraction.enums.MCDynmapMarkerType;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Exports markersets to a compact binary archive, and imports them back.
+ * <p>
+ * An archive starts with an uncompressed directory (the IDs of the sets and their number of markers), followed by the
+ * body, optionally deflated: a table of all the strings (IDs, labels, descriptions, worlds and icons, each one written
+ * once), then the sets and their markers referencing the strings by index. The coordinates are written as variable
+ * length deltas from the previous location when they are multiples of 0.001, and as plain doubles otherwise.
+ * <p>
+ * The markers are read from Dynmap and created again on the main thread within the job budget, while the archive is
+ * encoded and written, or mapped in memory and decoded, on a background thread.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapMarkerArchive {
+
+	private static final int MAGIC = 0x4348444D;
+	private static final int VERSION = 1;
+	private static final int COMPRESSED = 1;
+	private static final double PRECISION = 1000;
+
+	private static final int MARKER_LABEL_HTML = 1;
+	private static final int MARKER_PERSISTENT = 2;
+	private static final int MARKER_BOOSTED = 4;
+	private static final int MARKER_RAW_COORDINATES = 8;
+
+	/**
+	 * A markerset of an archive: its properties, and its markers with their persistence.
+	 */
+	private static final class SetEntry {
+
+		private String _id;
+		private String _label;
+		private boolean _persistent;
+		private int _layerPriority;
+		private boolean _hidden;
+		private int _minZoom;
+		private int _maxZoom;
+		private Boolean _labelShown;
+		private String _defaultIcon;
+		private List<String> _allowedIcons;
+		private final List<CHDynmapMarkerState> _markers = new ArrayList<>();
+		private final List<Boolean> _persistentMarkers = new ArrayList<>();
+
+		private static SetEntry of(MCDynmapMarkerSet set) {
+			SetEntry entry = new SetEntry();
+			entry._id = set.getId();
+			entry._label = set.getLabel();
+			entry._persistent = set.isPersistent();
+			entry._layerPriority = set.getLayerPriority();
+			entry._hidden = set.isHiddenByDefault();
+			entry._minZoom = set.getMinZoom();
+			entry._maxZoom = set.getMaxZoom();
+			entry._labelShown = set.labelIsShown();
+			MCDynmapIcon defaultIcon = set.getDefaultIcon();
+			entry._defaultIcon = (defaultIcon != null) ? defaultIcon.getId() : null;
+			if (set.isRestricted()) {
+				entry._allowedIcons = new ArrayList<>();
+				for (MCDynmapIcon icon : set.getAllowedIcons()) {
+					entry._allowedIcons.add(icon.getId());
+				}
+			}
+			return entry;
+		}
+	}
+
+	/**
+	 * The strings of an archive being written, by index of first use.
+	 */
+	private static final class StringTable {
+
+		private final Map<String, Integer> _indexes = new LinkedHashMap<>();
+
+		private void write(DataOutputStream out, String string) throws IOException {
+			if (string == null) {
+				writeVarLong(out, 0);
+			} else {
+				Integer index = _indexes.get(string);
+				if (index == null) {
+					index = _indexes.size();
+					_indexes.put(string, index);
+				}
+				writeVarLong(out, index + 1);
+			}
+		}
+	}
+
+	/**
+	 * The previous location written or read, the coordinates are encoded as deltas from it.
+	 */
+	private static final class Cursor {
+
+		private long _x = 0;
+		private long _y = 0;
+		private long _z = 0;
+	}
+
+	private static final class ExportJob extends CHDynmapJob {
+
+		private final File _file;
+		private final boolean _compress;
+		private final List<SetEntry> _sets;
+		private final String[][] _markerIDs;
+		private int _set;
+		private int _index;
+		private MCDynmapMarkerSet _current;
+		private Future<Void> _write;
+
+		private ExportJob(List<SetEntry> sets, String[][] markerIDs, long total, File file, boolean compress) {
+			super("export", total);
+			_file = file;
+			_compress = compress;
+			_sets = sets;
+			_markerIDs = markerIDs;
+			_set = 0;
+			_index = 0;
+			_current = null;
+			_write = null;
+			if (total == 0) {
+				write();
+			}
+		}
+
+		private void write() {
+			_write = CHDynmapJobRunner.execute(() -> {
+				CHDynmapMarkerArchive.write(_sets, _file, _compress);
+				return null;
+			});
+		}
+
+		@Override
+		protected boolean isReady() {
+			return (_write == null) || _write.isDone();
+		}
+
+		@Override
+		protected boolean step() {
+			if (_write != null) {
+				getResult(_write);
+				return false;
+			}
+			while (_index >= _markerIDs[_set].length) {
+				_set++;
+				_index = 0;
+				_current = null;
+			}
+			SetEntry entry = _sets.get(_set);
+			if (_current == null) {
+				_current = CHDynmapStatic.findMarkerSet(entry._id);
+			}
+			String markerID = _markerIDs[_set][_index];
+			_index++;
+			MCDynmapMarker marker = (_current != null) ? _current.getMarker(markerID) : null;
+			if (marker != null) {
+				entry._markers.add(CHDynmapMarkerState.of(marker));
+				entry._persistentMarkers.add(marker.isPersistent());
+			}
+			if (getDone() + 1 >= getTotal()) {
+				write();
+			}
+			return true;
+		}
+
+		@Override
+		protected void finished() {
+			if ((_write != null) && !_write.isDone()) {
+				_write.cancel(true);
+			}
+		}
+	}
+
+	private static final class ImportJob extends CHDynmapJob {
+
+		private final boolean _overwrite;
+		private final Future<List<SetEntry>> _read;
+		private List<SetEntry> _sets;
+		private int _set;
+		private int _index;
+		private MCDynmapMarkerSet _current;
+
+		private ImportJob(File file, Set<String> setIDs, long total, boolean overwrite) {
+			super("import", total);
+			_overwrite = overwrite;
+			_read = CHDynmapJobRunner.execute(() -> read(file, setIDs));
+			_sets = null;
+			_set = -1;
+			_index = 0;
+			_current = null;
+		}
+
+		@Override
+		protected boolean isReady() {
+			return _read.isDone();
+		}
+
+		@Override
+		protected boolean step() {
+			if (_sets == null) {
+				_sets = getResult(_read);
+			}
+			MCDynmapMarkerAPI markerAPI = CHDynmapStatic.findMarkerAPI();
+			if (markerAPI == null) {
+				return false;
+			}
+			while ((_set < 0) || (_index >= _sets.get(_set)._markers.size())) {
+				_set++;
+				_index = 0;
+				if (_set >= _sets.size()) {
+					return false;
+				}
+				_current = findOrCreate(markerAPI, _sets.get(_set));
+			}
+			SetEntry entry = _sets.get(_set);
+			CHDynmapMarkerState state = entry._markers.get(_index);
+			boolean persistent = entry._persistentMarkers.get(_index);
+			_index++;
+			if (_current != null) {
+				MCDynmapMarker marker = _current.getMarker(state.getId());
+				if (marker == null) {
+					state.create(_current, persistent && _current.isPersistent() && !CHDynmapJournal.isJournaled(_current.getId()));
+				} else if (_overwrite) {
+					if (marker.getType() == state.getType()) {
+						state.apply(marker);
+					} else {
+						marker.delete();
+						state.create(_current, persistent && _current.isPersistent() && !CHDynmapJournal.isJournaled(_current.getId()));
+					}
+				}
+			}
+			return true;
+		}
+
+		@Override
+		protected void finished() {
+			if (!_read.isDone()) {
+				_read.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Reads an input stream from a byte buffer, like a file mapped in memory.
+	 */
+	private static final class BufferInputStream extends InputStream {
+
+		private final ByteBuffer _buffer;
+
+		private BufferInputStream(ByteBuffer buffer) {
+			_buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return _buffer.hasRemaining() ? (_buffer.get() & 0xFF) : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (!_buffer.hasRemaining()) {
+				return -1;
+			}
+			int count = Math.min(length, _buffer.remaining());
+			_buffer.get(bytes, offset, count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return _buffer.remaining();
+		}
+	}
+
+	private CHDynmapMarkerArchive() {
+	}
+
+	/**
+	 * Submits a job exporting the markersets to the file: the markers are read over the next ticks, then the archive
+	 * is written on a background thread.
+	 */
+	public static CHDynmapJob export(Collection<MCDynmapMarkerSet> sets, File file, boolean compress) {
+		List<SetEntry> entries = new ArrayList<>();
+		String[][] markerIDs = new String[sets.size()][];
+		long total = 0;
+		for (MCDynmapMarkerSet set : sets) {
+			MCDynmapMarker[] markers = set.getMarkers();
+			String[] ids = new String[markers.length];
+			for (int i = 0; i < markers.length; i++) {
+				ids[i] = markers[i].getId();
+			}
+			markerIDs[entries.size()] = ids;
+			entries.add(SetEntry.of(set));
+			total += ids.length;
+		}
+		return CHDynmapJobRunner.submit(new ExportJob(entries, markerIDs, total, file, compress));
+	}
+
+	/**
+	 * Reads the directory of an archive, and returns its set IDs with their number of markers.
+	 */
+	public static Map<String, Integer> readDirectory(File file) throws IOException {
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			return readHeader(in);
+		}
+	}
+
+	/**
+	 * Submits a job importing the given sets of the archive (or all of them if setIDs is null): the archive is mapped
+	 * and decoded on a background thread, then the missing sets are created (with their properties), and the markers
+	 * are created over the next ticks. If overwrite is true, the existing markers with the same IDs are updated,
+	 * otherwise they are skipped.
+	 */
+	public static CHDynmapJob load(File file, Set<String> setIDs, boolean overwrite) throws IOException {
+		long total = 0;
+		for (Map.Entry<String, Integer> entry : readDirectory(file).entrySet()) {
+			if ((setIDs == null) || setIDs.contains(entry.getKey())) {
+				total += entry.getValue();
+			}
+		}
+		return CHDynmapJobRunner.submit(new ImportJob(file, setIDs, total, overwrite));
+	}
+
+	private static MCDynmapMarkerSet findOrCreate(MCDynmapMarkerAPI markerAPI, SetEntry entry) {
+		MCDynmapMarkerSet set = markerAPI.getMarkerSet(entry._id);
+		if (set != null) {
+			return set;
+		}
+		List<MCDynmapIcon> allowedIcons = null;
+		if (entry._allowedIcons != null) {
+			allowedIcons = new ArrayList<>();
+			for (String iconID : entry._allowedIcons) {
+				MCDynmapIcon icon = markerAPI.getIcon(iconID);
+				if (icon != null) {
+					allowedIcons.add(icon);
+				}
+			}
+		}
+		set = markerAPI.createMarkerSet(entry._id, entry._label, allowedIcons, entry._persistent);
+		if (set == null) {
+			return null;
+		}
+		set.setLayerPriority(entry._layerPriority);
+		set.setHiddenByDefault(entry._hidden);
+		set.setMinZoom(entry._minZoom);
+		set.setMaxZoom(entry._maxZoom);
+		set.setlabelIsShown(entry._labelShown);
+		MCDynmapIcon defaultIcon = (entry._defaultIcon != null) ? markerAPI.getIcon(entry._defaultIcon) : null;
+		if (defaultIcon != null) {
+			set.setDefaultIcon(defaultIcon);
+		}
+		return set;
+	}
+
+	private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed variable length number.");
+	}
+
+	private static void writeSigned(DataOutputStream out, long value) throws IOException {
+		writeVarLong(out, (value << 1) ^ (value >> 63));
+	}
+
+	private static long readSigned(DataInputStream in) throws IOException {
+		long value = readVarLong(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static int readCount(DataInputStream in) throws IOException {
+		long count = readVarLong(in);
+		if ((count < 0) || (count > Integer.MAX_VALUE)) {
+			throw new IOException("Invalid count: " + count + ".");
+		}
+		return (int) count;
+	}
+
+	private static String readString(DataInputStream in, String[] strings) throws IOException {
+		long index = readVarLong(in);
+		if (index == 0) {
+			return null;
+		}
+		if ((index < 0) || (index > strings.length)) {
+			throw new IOException("Invalid string index: " + index + ".");
+		}
+		return strings[(int) index - 1];
+	}
+
+	private static boolean isQuantizable(double[] coordinates) {
+		for (double coordinate : coordinates) {
+			if (Math.round(coordinate * PRECISION) / PRECISION != coordinate) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void writeMarker(DataOutputStream out, StringTable strings, Cursor cursor, CHDynmapMarkerState state, boolean persistent) throws IOException {
+		double[] x = state.getXs();
+		double[] y = state.getYs();
+		double[] z = state.getZs();
+		boolean quantized = isQuantizable(x) && isQuantizable(y) && isQuantizable(z);
+		int flags = (state.isLabelHTML() ? MARKER_LABEL_HTML : 0) | (persistent ? MARKER_PERSISTENT : 0)
+				| (state.isBoosted() ? MARKER_BOOSTED : 0) | (quantized ? 0 : MARKER_RAW_COORDINATES);
+		out.writeByte(state.getType().ordinal());
+		out.writeByte(flags);
+		strings.write(out, state.getId());
+		strings.write(out, state.getLabel());
+		strings.write(out, state.getDescription());
+		strings.write(out, state.getWorld());
+		writeSigned(out, state.getMinZoom());
+		writeSigned(out, state.getMaxZoom());
+		writeVarLong(out, x.length);
+		for (int i = 0; i < x.length; i++) {
+			if (quantized) {
+				long qx = Math.round(x[i] * PRECISION);
+				long qy = Math.round(y[i] * PRECISION);
+				long qz = Math.round(z[i] * PRECISION);
+				writeSigned(out, qx - cursor._x);
+				writeSigned(out, qy - cursor._y);
+				writeSigned(out, qz - cursor._z);
+				cursor._x = qx;
+				cursor._y = qy;
+				cursor._z = qz;
+			} else {
+				out.writeDouble(x[i]);
+				out.writeDouble(y[i]);
+				out.writeDouble(z[i]);
+			}
+		}
+		switch (state.getType()) {
+			case AREA:
+				out.writeDouble(state.getTopY());
+				out.writeDouble(state.getBottomY());
+				out.writeInt(state.getFillColor());
+				out.writeDouble(state.getFillOpacity());
+				out.writeInt(state.getLineColor());
+				out.writeDouble(state.getLineOpacity());
+				writeVarLong(out, state.getLineWeight());
+				break;
+			case CIRCLE:
+				out.writeDouble(state.getRadiusX());
+				out.writeDouble(state.getRadiusZ());
+				out.writeInt(state.getFillColor());
+				out.writeDouble(state.getFillOpacity());
+				out.writeInt(state.getLineColor());
+				out.writeDouble(state.getLineOpacity());
+				writeVarLong(out, state.getLineWeight());
+				break;
+			case ICON:
+				strings.write(out, state.getIcon());
+				break;
+			case POLYLINE:
+				out.writeInt(state.getLineColor());
+				out.writeDouble(state.getLineOpacity());
+				writeVarLong(out, state.getLineWeight());
+				break;
+			default:
+				break;
+		}
+	}
+
+	private static void readMarker(DataInputStream in, String[] strings, Cursor cursor, SetEntry entry) throws IOException {
+		int type = in.readUnsignedByte();
+		if (type >= MCDynmapMarkerType.values().length) {
+			throw new IOException("Unknown marker type: " + type + ".");
+		}
+		MCDynmapMarkerType markerType = MCDynmapMarkerType.values()[type];
+		int flags = in.readUnsignedByte();
+		String id = readString(in, strings);
+		if (id == null) {
+			throw new IOException("Missing marker ID.");
+		}
+		String label = readString(in, strings);
+		String description = readString(in, strings);
+		String world = readString(in, strings);
+		int minZoom = (int) readSigned(in);
+		int maxZoom = (int) readSigned(in);
+		int count = readCount(in);
+		double[] x = new double[count];
+		double[] y = new double[count];
+		double[] z = new double[count];
+		for (int i = 0; i < count; i++) {
+			if ((flags & MARKER_RAW_COORDINATES) == 0) {
+				cursor._x += readSigned(in);
+				cursor._y += readSigned(in);
+				cursor._z += readSigned(in);
+				x[i] = cursor._x / PRECISION;
+				y[i] = cursor._y / PRECISION;
+				z[i] = cursor._z / PRECISION;
+			} else {
+				x[i] = in.readDouble();
+				y[i] = in.readDouble();
+				z[i] = in.readDouble();
+			}
+		}
+		double radiusX = 0;
+		double radiusZ = 0;
+		double topY = 0;
+		double bottomY = 0;
+		int fillColor = 0;
+		double fillOpacity = 0;
+		int lineColor = 0;
+		double lineOpacity = 0;
+		int lineWeight = 0;
+		String icon = null;
+		switch (markerType) {
+			case AREA:
+			case CIRCLE:
+				if (markerType == MCDynmapMarkerType.AREA) {
+					topY = in.readDouble();
+					bottomY = in.readDouble();
+				} else {
+					radiusX = in.readDouble();
+					radiusZ = in.readDouble();
+				}
+				fillColor = in.readInt();
+				fillOpacity = in.readDouble();
+				lineColor = in.readInt();
+				lineOpacity = in.readDouble();
+				lineWeight = (int) readVarLong(in);
+				break;
+			case ICON:
+				icon = readString(in, strings);
+				break;
+			case POLYLINE:
+				lineColor = in.readInt();
+				lineOpacity = in.readDouble();
+				lineWeight = (int) readVarLong(in);
+				break;
+			default:
+				break;
+		}
+		if (entry != null) {
+			entry._markers.add(new CHDynmapMarkerState(markerType, id, label, (flags & MARKER_LABEL_HTML) != 0, description, world,
+					minZoom, maxZoom, x, y, z, radiusX, radiusZ, topY, bottomY, fillColor, fillOpacity, lineColor, lineOpacity, lineWeight,
+					(flags & MARKER_BOOSTED) != 0, icon));
+			entry._persistentMarkers.add((flags & MARKER_PERSISTENT) != 0);
+		}
+	}
+
+	/**
+	 * Writes the archive to a temporary file, then moves it over the given one.
+	 */
+	private static void write(List<SetEntry> sets, File file, boolean compress) throws IOException {
+		//the body is written first, as the string table preceding it is only complete at the end
+		StringTable strings = new StringTable();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(body)) {
+			writeVarLong(out, sets.size());
+			for (SetEntry entry : sets) {
+				strings.write(out, entry._id);
+				strings.write(out, entry._label);
+				out.writeBoolean(entry._persistent);
+				writeSigned(out, entry._layerPriority);
+				out.writeBoolean(entry._hidden);
+				writeSigned(out, entry._minZoom);
+				writeSigned(out, entry._maxZoom);
+				out.writeByte((entry._labelShown == null) ? 0 : (entry._labelShown ? 2 : 1));
+				strings.write(out, entry._defaultIcon);
+				out.writeBoolean(entry._allowedIcons != null);
+				if (entry._allowedIcons != null) {
+					writeVarLong(out, entry._allowedIcons.size());
+					for (String iconID : entry._allowedIcons) {
+						strings.write(out, iconID);
+					}
+				}
+				writeVarLong(out, entry._markers.size());
+				Cursor cursor = new Cursor();
+				for (int i = 0; i < entry._markers.size(); i++) {
+					writeMarker(out, strings, cursor, entry._markers.get(i), entry._persistentMarkers.get(i));
+				}
+			}
+		}
+		File temp = new File(file.getPath() + ".tmp");
+		Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeByte(compress ? COMPRESSED : 0);
+			out.writeInt(sets.size());
+			for (SetEntry entry : sets) {
+				out.writeUTF(entry._id);
+				out.writeInt(entry._markers.size());
+			}
+			out.flush();
+			OutputStream stream = compress ? new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED), 65536) : out;
+			DataOutputStream bodyOut = new DataOutputStream(stream);
+			writeVarLong(bodyOut, strings._indexes.size());
+			for (String string : strings._indexes.keySet()) {
+				CHDynmapMarkerState.writeString(bodyOut, string);
+			}
+			body.writeTo(bodyOut);
+			bodyOut.close();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static Map<String, Integer> readHeader(DataInput in) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a marker archive.");
+		}
+		int version = in.readUnsignedShort();
+		if (version != VERSION) {
+			throw new IOException("Unsupported version: " + version + ".");
+		}
+		in.readByte();
+		Map<String, Integer> directory = new LinkedHashMap<>();
+		for (int i = in.readInt(); i > 0; i--) {
+			directory.put(in.readUTF(), in.readInt());
+		}
+		return directory;
+	}
+
+	/**
+	 * Maps the archive in memory, and decodes the given sets (or all of them if setIDs is null).
+	 */
+	private static List<SetEntry> read(File file, Set<String> setIDs) throws IOException {
+		MappedByteBuffer buffer;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		DataInputStream header = new DataInputStream(new BufferInputStream(buffer));
+		int flags = buffer.get(6);
+		readHeader(header);
+		InputStream stream = new BufferInputStream(buffer);
+		if ((flags & COMPRESSED) != 0) {
+			stream = new InflaterInputStream(stream, new Inflater(), 65536);
+		}
+		List<SetEntry> sets = new ArrayList<>();
+		try (DataInputStream in = new DataInputStream(stream)) {
+			String[] strings = new String[readCount(in)];
+			for (int i = 0; i < strings.length; i++) {
+				strings[i] = CHDynmapMarkerState.readString(in);
+			}
+			Map<String, SetEntry> entries = new HashMap<>();
+			for (int i = readCount(in); i > 0; i--) {
+				SetEntry entry = new SetEntry();
+				entry._id = readString(in, strings);
+				entry._label = readString(in, strings);
+				entry._persistent = in.readBoolean();
+				entry._layerPriority = (int) readSigned(in);
+				entry._hidden = in.readBoolean();
+				entry._minZoom = (int) readSigned(in);
+				entry._maxZoom = (int) readSigned(in);
+				int labelShown = in.readUnsignedByte();
+				entry._labelShown = (labelShown == 0) ? null : (labelShown == 2);
+				entry._defaultIcon = readString(in, strings);
+				if (in.readBoolean()) {
+					entry._allowedIcons = new ArrayList<>();
+					for (int j = readCount(in); j > 0; j--) {
+						entry._allowedIcons.add(readString(in, strings));
+					}
+				}
+				boolean selected = (entry._id != null) && ((setIDs == null) || setIDs.contains(entry._id)) && !entries.containsKey(entry._id);
+				if (selected) {
+					entries.put(entry._id, entry);
+					sets.add(entry);
+				}
+				Cursor cursor = new Cursor();
+				for (int j = readCount(in); j > 0; j--) {
+					readMarker(in, strings, cursor, selected ? entry : null);
+				}
+				if (Thread.currentThread().isInterrupted()) {
+					throw new IOException("The import was cancelled.");
+				}
+			}
+		}
+		return sets;
+	}
+}
\ No newline at end of file
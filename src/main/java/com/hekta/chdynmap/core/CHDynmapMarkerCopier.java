@@ -0,0 +1,168 @@
+package com.hekta.chdynmap.core;
+
+import com.hekta.chdynmap.abstraction.MCDynmapAreaMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapCircleMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapIcon;
+import com.hekta.chdynmap.abstraction.MCDynmapIconMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerAPI;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import com.hekta.chdynmap.abstraction.MCDynmapPolyLineMarker;
+import com.laytonsmith.abstraction.MCWorld;
+
+/**
+ * Copies markers and markersets, with their geometry, styles, zoom levels and descriptions, and moves markers between
+ * markersets.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapMarkerCopier {
+
+	private CHDynmapMarkerCopier() {
+	}
+
+	/**
+	 * Creates a copy of the marker in the given set, and returns it (or null if the creation failed, for example
+	 * because the world of the marker is not loaded or the icon is not allowed in the set).
+	 */
+	public static MCDynmapMarker copy(MCDynmapMarker source, MCDynmapMarkerSet target, String id, boolean isPersistent) {
+		MCWorld world = source.getWorld();
+		if (world == null) {
+			return null;
+		}
+		String label = source.getLabel();
+		boolean isHTML = source.isLabelMarkup();
+		MCDynmapMarker marker;
+		switch (source.getType()) {
+			case AREA:
+				MCDynmapAreaMarker sourceArea = (MCDynmapAreaMarker) source;
+				MCDynmapAreaMarker area = target.createAreaMarker(id, label, isHTML, world, sourceArea.getCorners(), isPersistent);
+				if (area != null) {
+					area.setRangeY(sourceArea.getTopY(), sourceArea.getBottomY());
+					area.setFillStyle(sourceArea.getFillStyle());
+					area.setLineStyle(sourceArea.getLineStyle());
+					area.setBoosted(sourceArea.isBoosted());
+				}
+				marker = area;
+				break;
+			case CIRCLE:
+				MCDynmapCircleMarker sourceCircle = (MCDynmapCircleMarker) source;
+				MCDynmapCircleMarker circle = target.createCircleMarker(id, label, isHTML, sourceCircle.getCenter(), sourceCircle.getRadiusX(), sourceCircle.getRadiusZ(), isPersistent);
+				if (circle != null) {
+					circle.setFillStyle(sourceCircle.getFillStyle());
+					circle.setLineStyle(sourceCircle.getLineStyle());
+					circle.setBoosted(sourceCircle.isBoosted());
+				}
+				marker = circle;
+				break;
+			case ICON:
+				MCDynmapIconMarker sourceIcon = (MCDynmapIconMarker) source;
+				marker = target.createIconMarker(id, label, isHTML, sourceIcon.getLocation(), sourceIcon.getIcon(), isPersistent);
+				break;
+			case POLYLINE:
+				MCDynmapPolyLineMarker sourcePolyLine = (MCDynmapPolyLineMarker) source;
+				MCDynmapPolyLineMarker polyLine = target.createPolyLineMarker(id, label, isHTML, world, sourcePolyLine.getCorners(), isPersistent);
+				if (polyLine != null) {
+					polyLine.setLineStyle(sourcePolyLine.getLineStyle());
+				}
+				marker = polyLine;
+				break;
+			default:
+				marker = null;
+				break;
+		}
+		if (marker != null) {
+			String description = source.getDescription();
+			if (description != null) {
+				marker.setDescription(description);
+			}
+			marker.setMinZoom(source.getMinZoom());
+			marker.setMaxZoom(source.getMaxZoom());
+		}
+		return marker;
+	}
+
+	/**
+	 * Returns an operation copying the markers to the given set with the same IDs, the IDs already used in the set are
+	 * skipped. The copies are persistent if isPersistent is true, and if the source marker and the set are persistent
+	 * (never in a journaled set, the journal saves its markers). The set is looked up for each marker, and a job
+	 * applying the operation ends once the set is deleted.
+	 */
+	public static CHDynmapMarkerJob.Operation copyTo(String setID, boolean isPersistent) {
+		return new CHDynmapMarkerJob.Operation() {
+
+			@Override
+			public boolean apply(MCDynmapMarker marker) {
+				MCDynmapMarkerSet target = CHDynmapStatic.findMarkerSet(setID);
+				if ((target == null) || (target.getMarker(marker.getId()) != null)) {
+					return false;
+				}
+				boolean persistent = isPersistent && marker.isPersistent() && target.isPersistent() && !CHDynmapJournal.isJournaled(setID);
+				return copy(marker, target, marker.getId(), persistent) != null;
+			}
+
+			@Override
+			public boolean isValid() {
+				return CHDynmapStatic.findMarkerSet(setID) != null;
+			}
+		};
+	}
+
+	/**
+	 * Returns an operation moving the markers to the given set, the IDs already used in the set are skipped. The set is
+	 * looked up for each marker, and a job applying the operation ends once the set is deleted.
+	 */
+	public static CHDynmapMarkerJob.Operation moveTo(String setID) {
+		return new CHDynmapMarkerJob.Operation() {
+
+			@Override
+			public boolean apply(MCDynmapMarker marker) {
+				MCDynmapMarkerSet target = CHDynmapStatic.findMarkerSet(setID);
+				if ((target == null) || (target.getMarker(marker.getId()) != null)) {
+					return false;
+				}
+				marker.setSet(target);
+				return true;
+			}
+
+			@Override
+			public boolean isValid() {
+				return CHDynmapStatic.findMarkerSet(setID) != null;
+			}
+		};
+	}
+
+	/**
+	 * Copies the properties of a markerset to another one: the allowed icons (if both are restricted), the default
+	 * icon, the layer priority, the zoom levels, and if the set is hidden by default and shows its labels.
+	 */
+	public static void copyProperties(MCDynmapMarkerSet source, MCDynmapMarkerSet target) {
+		if (source.isRestricted() && target.isRestricted()) {
+			for (MCDynmapIcon icon : source.getAllowedIcons()) {
+				target.addAllowedIcon(icon);
+			}
+		}
+		MCDynmapIcon defaultIcon = source.getDefaultIcon();
+		if ((defaultIcon != null) && (defaultIcon.getHandle() != null)) {
+			target.setDefaultIcon(defaultIcon);
+		}
+		target.setLayerPriority(source.getLayerPriority());
+		target.setHiddenByDefault(source.isHiddenByDefault());
+		target.setMinZoom(source.getMinZoom());
+		target.setMaxZoom(source.getMaxZoom());
+		target.setlabelIsShown(source.labelIsShown());
+	}
+
+	/**
+	 * Creates a markerset with the properties of another one (but not its markers), and returns it (or null if the
+	 * creation failed).
+	 */
+	public static MCDynmapMarkerSet cloneSet(MCDynmapMarkerAPI markerAPI, MCDynmapMarkerSet source, String id, String label, boolean isPersistent) {
+		MCDynmapIcon[] allowedIcons = source.isRestricted() ? source.getAllowedIcons() : null;
+		MCDynmapMarkerSet set = markerAPI.createMarkerSet(id, label, allowedIcons, isPersistent);
+		if (set != null) {
+			copyProperties(source, set);
+		}
+		return set;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,487 @@
+package com.hekta.chdynmap.core;
+
+import com.google.gson.stream.JsonReader;
+import com.hekta.chdynmap.CHDynmap;
+import com.hekta.chdynmap.abstraction.CHDynmapStaticLayer;
+import com.hekta.chdynmap.abstraction.MCDynmapAPI;
+import com.hekta.chdynmap.abstraction.MCDynmapIcon;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerAPI;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import com.laytonsmith.core.Static;
+import com.laytonsmith.core.constructs.CArray;
+import com.laytonsmith.core.constructs.CBoolean;
+import com.laytonsmith.core.constructs.CDouble;
+import com.laytonsmith.core.constructs.CInt;
+import com.laytonsmith.core.constructs.CNull;
+import com.laytonsmith.core.constructs.CString;
+import com.laytonsmith.core.constructs.Target;
+import com.laytonsmith.core.exceptions.ConfigRuntimeException;
+import com.laytonsmith.core.natives.interfaces.Mixed;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+/**
+ * Loads the markersets declared in the JSON files of the "definitions" folder of the extension, and keeps them in sync
+ * with the files. Each file is an object of markerset IDs to markerset definitions, each with its markers by ID (with
+ * the keys of the dm_create_marker options).
+ * <p>
+ * A background thread watches the folder, reads the changed files and parses them, skipping the files whose content
+ * did not change. The parsed definitions are then applied on the main thread, by comparing them to the live markersets
+ * and applying only the differences (see CHDynmapMarkerSync). The markersets which are no longer defined by their file
+ * are deleted.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapMarkerDefinitions {
+
+	private static final String DIRECTORY = "definitions";
+	private static final String EXTENSION = ".json";
+	private static final long APPLY_PERIOD = 10;
+	//the events of a burst of writes are coalesced, so a file is read once it is written
+	private static final long DEBOUNCE_MILLIS = 200;
+
+	/**
+	 * A file read by the watcher, with its content (or null if it was deleted).
+	 */
+	private static final class Change {
+
+		private final String _file;
+		private final Map<?, ?> _content;
+
+		private Change(String file, Map<?, ?> content) {
+			_file = file;
+			_content = content;
+		}
+	}
+
+	private static final class SetDefinition {
+
+		private String _label;
+		private boolean _persistent = false;
+		private int _priority = 0;
+		private boolean _hidden = false;
+		private int _minZoom = -1;
+		private int _maxZoom = -1;
+		private Boolean _showLabels = null;
+		private final Map<String, CHDynmapMarkerTemplate> _markers = new LinkedHashMap<>();
+	}
+
+	private static final Queue<Change> CHANGES = new ConcurrentLinkedQueue<>();
+	//file name -> IDs of the markersets it defines
+	private static final Map<String, Set<String>> FILES = new TreeMap<>();
+
+	private static Watcher _watcher = null;
+	private static int _taskID = -1;
+
+	private static final class Watcher extends Thread {
+
+		private final Path _directory;
+		private final WatchService _service;
+		//file name -> checksum of its last read content
+		private final Map<String, Long> _checksums = new HashMap<>();
+		private volatile boolean _rescan = true;
+
+		private Watcher(Path directory, WatchService service) {
+			super("CHDynmap definition watcher");
+			setDaemon(true);
+			_directory = directory;
+			_service = service;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					if (_rescan) {
+						_rescan = false;
+						scan();
+					}
+					WatchKey key = _service.poll(1, TimeUnit.SECONDS);
+					if (key == null) {
+						continue;
+					}
+					Set<String> names = new TreeSet<>();
+					do {
+						for (WatchEvent<?> event : key.pollEvents()) {
+							if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+								_rescan = true;
+							} else {
+								names.add(event.context().toString());
+							}
+						}
+						key.reset();
+						key = _service.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+					} while (key != null);
+					for (String name : names) {
+						if (name.endsWith(EXTENSION)) {
+							read(name);
+						}
+					}
+				}
+			} catch (InterruptedException | ClosedWatchServiceException exception) {
+				//stopped
+			}
+		}
+
+		/**
+		 * Reads all the files again, even the unchanged ones, so their markersets are compared again to the files.
+		 */
+		private void scan() {
+			Set<String> previous = new HashSet<>(_checksums.keySet());
+			_checksums.clear();
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(_directory, "*" + EXTENSION)) {
+				for (Path file : files) {
+					String name = file.getFileName().toString();
+					previous.remove(name);
+					read(name);
+				}
+			} catch (IOException exception) {
+				Static.getLogger().log(Level.WARNING, "[CHDynmap] Could not list the marker definitions in " + _directory + ".", exception);
+			}
+			for (String name : previous) {
+				CHANGES.add(new Change(name, null));
+			}
+		}
+
+		private void read(String name) {
+			Path file = _directory.resolve(name);
+			if (!Files.isRegularFile(file)) {
+				if (_checksums.remove(name) != null) {
+					CHANGES.add(new Change(name, null));
+				}
+				return;
+			}
+			byte[] bytes;
+			try {
+				bytes = Files.readAllBytes(file);
+			} catch (IOException exception) {
+				Static.getLogger().log(Level.WARNING, "[CHDynmap] Could not read the marker definitions " + file + ".", exception);
+				return;
+			}
+			CRC32 crc = new CRC32();
+			crc.update(bytes);
+			Long previous = _checksums.put(name, crc.getValue());
+			if ((previous != null) && (previous == crc.getValue())) {
+				return;
+			}
+			try (JsonReader reader = new JsonReader(new StringReader(new String(bytes, StandardCharsets.UTF_8)))) {
+				Object content = CHDynmapGeoJson.readValue(reader);
+				if (!(content instanceof Map)) {
+					throw new IOException("The definitions are not an object.");
+				}
+				CHANGES.add(new Change(name, (Map<?, ?>) content));
+			} catch (IOException | IllegalStateException exception) {
+				Static.getLogger().log(Level.WARNING, "[CHDynmap] Could not parse the marker definitions " + file + ": " + exception.getMessage());
+			}
+		}
+	}
+
+	private CHDynmapMarkerDefinitions() {
+	}
+
+	private static Mixed toMixed(Object value) {
+		if (value instanceof Map) {
+			CArray array = new CArray(Target.UNKNOWN);
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				array.set(entry.getKey().toString(), toMixed(entry.getValue()), Target.UNKNOWN);
+			}
+			return array;
+		} else if (value instanceof List) {
+			CArray array = new CArray(Target.UNKNOWN);
+			for (Object element : (List<?>) value) {
+				array.push(toMixed(element), Target.UNKNOWN);
+			}
+			return array;
+		} else if (value instanceof Double) {
+			double number = (Double) value;
+			return (number == Math.rint(number)) ? new CInt((long) number, Target.UNKNOWN) : new CDouble(number, Target.UNKNOWN);
+		} else if (value instanceof Boolean) {
+			return CBoolean.get((Boolean) value);
+		} else if (value == null) {
+			return CNull.NULL;
+		} else {
+			return new CString(value.toString(), Target.UNKNOWN);
+		}
+	}
+
+	private static int getInt(Map<?, ?> definition, String key, int defaultValue) {
+		Object value = definition.get(key);
+		if (value == null) {
+			return defaultValue;
+		} else if (value instanceof Double) {
+			return ((Double) value).intValue();
+		} else {
+			throw new IllegalArgumentException("\"" + key + "\" is not a number.");
+		}
+	}
+
+	private static Boolean getBoolean(Map<?, ?> definition, String key, Boolean defaultValue) {
+		Object value = definition.get(key);
+		if (value == null) {
+			return defaultValue;
+		} else if (value instanceof Boolean) {
+			return (Boolean) value;
+		} else {
+			throw new IllegalArgumentException("\"" + key + "\" is not a boolean.");
+		}
+	}
+
+	/**
+	 * Parses the markersets of a file, the worlds and the icons are resolved at this time.
+	 */
+	private static Map<String, SetDefinition> parse(Map<?, ?> content) {
+		Map<String, SetDefinition> sets = new LinkedHashMap<>();
+		for (Map.Entry<?, ?> entry : content.entrySet()) {
+			String setID = entry.getKey().toString();
+			if (!(entry.getValue() instanceof Map)) {
+				throw new IllegalArgumentException("The markerset \"" + setID + "\" is not an object.");
+			}
+			Map<?, ?> definition = (Map<?, ?>) entry.getValue();
+			SetDefinition set = new SetDefinition();
+			set._label = (definition.get("label") != null) ? definition.get("label").toString() : setID;
+			set._persistent = getBoolean(definition, "persistent", false);
+			set._priority = getInt(definition, "priority", 0);
+			set._hidden = getBoolean(definition, "hidden", false);
+			set._minZoom = getInt(definition, "min_zoom", -1);
+			set._maxZoom = getInt(definition, "max_zoom", -1);
+			set._showLabels = getBoolean(definition, "show_labels", null);
+			Object markers = definition.get("markers");
+			if (markers instanceof Map) {
+				for (Map.Entry<?, ?> marker : ((Map<?, ?>) markers).entrySet()) {
+					Mixed options = toMixed(marker.getValue());
+					if (!(options instanceof CArray)) {
+						throw new IllegalArgumentException("The marker \"" + marker.getKey() + "\" of \"" + setID + "\" is not an object.");
+					}
+					set._markers.put(marker.getKey().toString(), CHDynmapMarkerTemplate.parse((CArray) options, null, Target.UNKNOWN));
+				}
+			} else if (markers != null) {
+				throw new IllegalArgumentException("The markers of \"" + setID + "\" are not an object.");
+			}
+			sets.put(setID, set);
+		}
+		return sets;
+	}
+
+	/**
+	 * Brings a markerset to its definition, and returns false if it could not be created.
+	 */
+	private static boolean apply(MCDynmapMarkerAPI markerAPI, String setID, SetDefinition definition) {
+		MCDynmapMarkerSet set = markerAPI.getMarkerSet(setID);
+		if (set == null) {
+			set = markerAPI.createMarkerSet(setID, definition._label, (MCDynmapIcon[]) null, definition._persistent);
+			if (set == null) {
+				return false;
+			}
+		}
+		if (!definition._label.equals(set.getLabel())) {
+			set.setLabel(definition._label);
+		}
+		if (set.getLayerPriority() != definition._priority) {
+			set.setLayerPriority(definition._priority);
+		}
+		if (set.isHiddenByDefault() != definition._hidden) {
+			set.setHiddenByDefault(definition._hidden);
+		}
+		if (set.getMinZoom() != definition._minZoom) {
+			set.setMinZoom(definition._minZoom);
+		}
+		if (set.getMaxZoom() != definition._maxZoom) {
+			set.setMaxZoom(definition._maxZoom);
+		}
+		if (!Objects.equals(set.labelIsShown(), definition._showLabels)) {
+			set.setlabelIsShown(definition._showLabels);
+		}
+		List<CHDynmapMarkerState> states = new ArrayList<>(definition._markers.size());
+		for (Map.Entry<String, CHDynmapMarkerTemplate> marker : definition._markers.entrySet()) {
+			states.add(marker.getValue().toState(set, marker.getKey()));
+		}
+		CHDynmapMarkerSync sync = new CHDynmapMarkerSync(set, states, definition._persistent, true);
+		if (sync.getMutationCount() > 0) {
+			sync.submit();
+		}
+		return true;
+	}
+
+	/**
+	 * Applies the changed files together: the markersets of all the changed files are released before any of them is
+	 * claimed again, so a markerset moved from a file to another in the same burst is updated instead of being skipped
+	 * then deleted. The released markersets no file claims again are deleted.
+	 */
+	private static void apply(MCDynmapMarkerAPI markerAPI, Collection<Change> changes) {
+		Map<String, Map<String, SetDefinition>> parsed = new LinkedHashMap<>();
+		for (Change change : changes) {
+			if (change._content == null) {
+				//a deleted file
+				parsed.put(change._file, null);
+				continue;
+			}
+			try {
+				parsed.put(change._file, parse(change._content));
+			} catch (ConfigRuntimeException | IllegalArgumentException exception) {
+				//the markersets are kept as they are until the file is fixed
+				Static.getLogger().log(Level.WARNING, "[CHDynmap] Invalid marker definitions " + change._file + ": " + exception.getMessage());
+			}
+		}
+		Set<String> released = new LinkedHashSet<>();
+		for (String file : parsed.keySet()) {
+			Set<String> previous = FILES.remove(file);
+			if (previous != null) {
+				released.addAll(previous);
+			}
+		}
+		for (Map.Entry<String, Map<String, SetDefinition>> file : parsed.entrySet()) {
+			if (file.getValue() == null) {
+				continue;
+			}
+			Set<String> defined = new LinkedHashSet<>();
+			for (Map.Entry<String, SetDefinition> entry : file.getValue().entrySet()) {
+				String owner = getFile(entry.getKey());
+				if (owner != null) {
+					Static.getLogger().log(Level.WARNING, "[CHDynmap] The markerset \"" + entry.getKey() + "\" of " + file.getKey() + " is already defined by " + owner + ".");
+				} else if (apply(markerAPI, entry.getKey(), entry.getValue())) {
+					defined.add(entry.getKey());
+				} else {
+					Static.getLogger().log(Level.WARNING, "[CHDynmap] The markerset \"" + entry.getKey() + "\" of " + file.getKey() + " could not be created.");
+				}
+			}
+			FILES.put(file.getKey(), defined);
+		}
+		for (String setID : released) {
+			if (getFile(setID) == null) {
+				MCDynmapMarkerSet set = markerAPI.getMarkerSet(setID);
+				if (set != null) {
+					set.delete();
+				}
+			}
+		}
+	}
+
+	private static void applyChanges() {
+		if (CHANGES.isEmpty()) {
+			return;
+		}
+		MCDynmapAPI dynmap = CHDynmap.getDynmapAPI();
+		if ((dynmap == null) || !dynmap.markerAPIInitialized()) {
+			return;
+		}
+		//only the last change of each file is applied
+		Map<String, Change> changes = new LinkedHashMap<>();
+		Change change;
+		while ((change = CHANGES.poll()) != null) {
+			changes.remove(change._file);
+			changes.put(change._file, change);
+		}
+		apply(dynmap.getMarkerAPI(), changes.values());
+	}
+
+	/**
+	 * Returns the name of the file defining the markerset, or null if it is not defined by a file.
+	 */
+	public static String getFile(String setID) {
+		for (Map.Entry<String, Set<String>> entry : FILES.entrySet()) {
+			if (entry.getValue().contains(setID)) {
+				return entry.getKey();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the loaded files, with the IDs of the markersets they define.
+	 */
+	public static Map<String, Set<String>> getFiles() {
+		return Collections.unmodifiableMap(FILES);
+	}
+
+	public static File getDirectory() {
+		return CHDynmapStorage.getFile(DIRECTORY);
+	}
+
+	/**
+	 * Reads all the files again, and compares their markersets again to them (even if the files did not change), and
+	 * returns false if the folder is not watched.
+	 */
+	public static boolean reload() {
+		if (_watcher == null) {
+			return false;
+		}
+		_watcher._rescan = true;
+		return true;
+	}
+
+	/**
+	 * Starts to watch the folder, the files are loaded once the marker API is loaded.
+	 */
+	public static void start() {
+		if (_watcher != null) {
+			return;
+		}
+		Path directory = getDirectory().toPath();
+		try {
+			Files.createDirectories(directory);
+			WatchService service = directory.getFileSystem().newWatchService();
+			directory.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+			_watcher = new Watcher(directory, service);
+		} catch (IOException exception) {
+			Static.getLogger().log(Level.SEVERE, "[CHDynmap] Could not watch the marker definitions in " + directory + ".", exception);
+			return;
+		}
+		_watcher.start();
+		_taskID = CHDynmapStaticLayer.scheduleRepeatingTask(CHDynmapMarkerDefinitions::applyChanges, 1, APPLY_PERIOD);
+	}
+
+	/**
+	 * Stops to watch the folder, the defined markersets are kept.
+	 */
+	public static void stop() {
+		if (_taskID != -1) {
+			CHDynmapStaticLayer.cancelTask(_taskID);
+			_taskID = -1;
+		}
+		if (_watcher == null) {
+			return;
+		}
+		try {
+			_watcher._service.close();
+		} catch (IOException exception) {
+			Static.getLogger().log(Level.WARNING, "[CHDynmap] Could not close the definition watcher.", exception);
+		}
+		_watcher.interrupt();
+		try {
+			_watcher.join();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+		_watcher = null;
+		CHANGES.clear();
+		FILES.clear();
+	}
+}
\ No newline at end of file
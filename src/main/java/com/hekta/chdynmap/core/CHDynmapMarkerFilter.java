@@ -0,0 +1,332 @@
+package com.hekta.chdynmap.core;
+
+import com.hekta.chdynmap.abstraction.MCDynmapAreaMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapCircleMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapIconMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import com.hekta.chdynmap.abstraction.MCDynmapPolyLineMarker;
+import com.hekta.chdynmap.abstraction.enums.MCDynmapMarkerType;
+import com.laytonsmith.abstraction.MCLocation;
+import com.laytonsmith.core.ArgumentValidation;
+import com.laytonsmith.core.constructs.CArray;
+import com.laytonsmith.core.constructs.CNull;
+import com.laytonsmith.core.constructs.Target;
+import com.laytonsmith.core.exceptions.CRE.CREFormatException;
+import com.laytonsmith.core.exceptions.CRE.CRENotFoundException;
+import com.laytonsmith.core.exceptions.CRE.CREPluginInternalException;
+import com.laytonsmith.core.natives.interfaces.Mixed;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A parsed marker filter. The candidate markers are taken from the most selective source available (the given IDs,
+ * the ID index, the group or theme index, the markers of the given types, else all the markers of the set), then the
+ * other criteria are tested, the cheapest first.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapMarkerFilter {
+
+	public static final CHDynmapMarkerFilter ALL = new CHDynmapMarkerFilter();
+
+	private static final Set<String> KEYS = new LinkedHashSet<>(Arrays.asList("ids", "prefix", "group", "theme", "type", "world",
+			"persistent", "min_zoom", "max_zoom", "bounds", "label", "description"));
+
+	private Set<String> _ids;
+	private String _prefix;
+	private CHDynmapMarkerGroup _group;
+	private CHDynmapStyleTheme _theme;
+	private Set<MCDynmapMarkerType> _types;
+	private String _world;
+	private Boolean _isPersistent;
+	private int[] _minZoom;
+	private int[] _maxZoom;
+	private double[] _bounds;
+	private Pattern _label;
+	private String _description;
+
+	private CHDynmapMarkerFilter() {
+	}
+
+	/**
+	 * Parses a filter array, the keys are "ids" (an array of marker IDs), "prefix" (of the marker IDs), "group" (a
+	 * marker group, with its subgroups), "theme" (a style theme), "type" (a marker type or an array of them), "world",
+	 * "persistent", "min_zoom" and "max_zoom" (a zoom level, or an array with the optional "min" and "max" keys),
+	 * "bounds" (an array with the "x1", "z1", "x2" and "z2" keys, the markers must intersect), "label" (a regular
+	 * expression the label must match) and "description" (a text the description must contain, ignoring case). Null
+	 * matches all the markers. An unknown key is an error, as a mistyped key would otherwise match all the markers, the
+	 * other keys read by the caller from the filter array are given as allowed keys.
+	 */
+	public static CHDynmapMarkerFilter parse(Mixed filter, Target t, String... allowedKeys) {
+		if (filter instanceof CNull) {
+			return ALL;
+		}
+		CArray filterArray = ArgumentValidation.getArray(filter, t);
+		Set<String> keys = filterArray.stringKeySet();
+		for (String key : keys) {
+			if (!KEYS.contains(key) && !Arrays.asList(allowedKeys).contains(key)) {
+				throw new CREFormatException("Unknown marker filter key: \"" + key + "\".", t);
+			}
+		}
+		CHDynmapMarkerFilter markerFilter = new CHDynmapMarkerFilter();
+		//ids
+		if (keys.contains("ids")) {
+			CArray ids = ArgumentValidation.getArray(filterArray.get("ids", t), t);
+			markerFilter._ids = new LinkedHashSet<>();
+			for (Mixed id : ids.asList()) {
+				markerFilter._ids.add(id.val());
+			}
+		}
+		//prefix
+		if (keys.contains("prefix")) {
+			markerFilter._prefix = filterArray.get("prefix", t).val();
+		}
+		//group
+		if (keys.contains("group")) {
+			String name = filterArray.get("group", t).val();
+			markerFilter._group = CHDynmapMarkerGroup.get(name);
+			if (markerFilter._group == null) {
+				throw new CRENotFoundException("\"" + name + "\" is not an existing marker group.", t);
+			}
+		}
+		//theme
+		if (keys.contains("theme")) {
+			String name = filterArray.get("theme", t).val();
+			markerFilter._theme = CHDynmapStyleTheme.get(name);
+			if (markerFilter._theme == null) {
+				throw new CRENotFoundException("\"" + name + "\" is not an existing style theme.", t);
+			}
+		}
+		//type
+		if (keys.contains("type")) {
+			Mixed type = filterArray.get("type", t);
+			markerFilter._types = EnumSet.noneOf(MCDynmapMarkerType.class);
+			if (type instanceof CArray) {
+				for (Mixed value : ((CArray) type).asList()) {
+					markerFilter._types.add(getType(value, t));
+				}
+			} else {
+				markerFilter._types.add(getType(type, t));
+			}
+		}
+		//world
+		if (keys.contains("world")) {
+			markerFilter._world = filterArray.get("world", t).val();
+		}
+		//persistent
+		if (keys.contains("persistent")) {
+			markerFilter._isPersistent = ArgumentValidation.getBooleanObject(filterArray.get("persistent", t), t);
+		}
+		//min_zoom
+		if (keys.contains("min_zoom")) {
+			markerFilter._minZoom = getRange(filterArray.get("min_zoom", t), t);
+		}
+		//max_zoom
+		if (keys.contains("max_zoom")) {
+			markerFilter._maxZoom = getRange(filterArray.get("max_zoom", t), t);
+		}
+		//bounds
+		if (keys.contains("bounds")) {
+			CArray bounds = ArgumentValidation.getArray(filterArray.get("bounds", t), t);
+			double x1 = ArgumentValidation.getDouble(bounds.get("x1", t), t);
+			double z1 = ArgumentValidation.getDouble(bounds.get("z1", t), t);
+			double x2 = ArgumentValidation.getDouble(bounds.get("x2", t), t);
+			double z2 = ArgumentValidation.getDouble(bounds.get("z2", t), t);
+			markerFilter._bounds = new double[]{Math.min(x1, x2), Math.min(z1, z2), Math.max(x1, x2), Math.max(z1, z2)};
+		}
+		//label
+		if (keys.contains("label")) {
+			try {
+				markerFilter._label = Pattern.compile(filterArray.get("label", t).val());
+			} catch (PatternSyntaxException exception) {
+				throw new CREFormatException("Invalid label pattern: " + exception.getMessage(), t);
+			}
+		}
+		//description
+		if (keys.contains("description")) {
+			markerFilter._description = filterArray.get("description", t).val().toLowerCase(Locale.ROOT);
+		}
+		return markerFilter;
+	}
+
+	private static MCDynmapMarkerType getType(Mixed type, Target t) {
+		try {
+			return MCDynmapMarkerType.valueOf(type.val().toUpperCase());
+		} catch (IllegalArgumentException exception) {
+			throw new CREPluginInternalException("Invalid marker type: " + type.val() + ".", t);
+		}
+	}
+
+	private static int[] getRange(Mixed range, Target t) {
+		if (range instanceof CArray) {
+			CArray rangeArray = (CArray) range;
+			return new int[]{
+				rangeArray.containsKey("min") ? ArgumentValidation.getInt32(rangeArray.get("min", t), t) : Integer.MIN_VALUE,
+				rangeArray.containsKey("max") ? ArgumentValidation.getInt32(rangeArray.get("max", t), t) : Integer.MAX_VALUE
+			};
+		} else {
+			int value = ArgumentValidation.getInt32(range, t);
+			return new int[]{value, value};
+		}
+	}
+
+	public boolean matches(MCDynmapMarker marker) {
+		return ((_ids == null) || _ids.contains(marker.getId()))
+				&& ((_prefix == null) || marker.getId().startsWith(_prefix))
+				&& ((_types == null) || _types.contains(marker.getType()))
+				&& matchesIndexes(marker.getSet().getId(), marker.getId())
+				&& ((_isPersistent == null) || (_isPersistent == marker.isPersistent()))
+				&& ((_minZoom == null) || inRange(marker.getMinZoom(), _minZoom))
+				&& ((_maxZoom == null) || inRange(marker.getMaxZoom(), _maxZoom))
+				&& ((_world == null) || _world.equals(marker.getNormalizedWorld()))
+				&& ((_bounds == null) || intersects(marker))
+				&& ((_label == null) || _label.matcher(marker.getLabel()).find())
+				&& ((_description == null) || containsDescription(marker));
+	}
+
+	private boolean matchesIndexes(String setID, String markerID) {
+		if (_group != null) {
+			CHDynmapMarkerGroup group = CHDynmapMarkerGroup.getGroup(setID, markerID);
+			if ((group == null) || !_group.isAncestorOf(group)) {
+				return false;
+			}
+		}
+		return (_theme == null) || (CHDynmapStyleTheme.getTheme(setID, markerID) == _theme);
+	}
+
+	private static boolean inRange(int value, int[] range) {
+		return (value >= range[0]) && (value <= range[1]);
+	}
+
+	private boolean containsDescription(MCDynmapMarker marker) {
+		String description = marker.getDescription();
+		return (description != null) && description.toLowerCase(Locale.ROOT).contains(_description);
+	}
+
+	/**
+	 * Returns if the bounding box of the marker intersects the bounds.
+	 */
+	private boolean intersects(MCDynmapMarker marker) {
+		switch (marker.getType()) {
+			case ICON:
+				MCLocation location = ((MCDynmapIconMarker) marker).getLocation();
+				return intersects(location.getX(), location.getZ(), location.getX(), location.getZ());
+			case CIRCLE:
+				MCDynmapCircleMarker circle = (MCDynmapCircleMarker) marker;
+				MCLocation center = circle.getCenter();
+				return intersects(center.getX() - circle.getRadiusX(), center.getZ() - circle.getRadiusZ(),
+						center.getX() + circle.getRadiusX(), center.getZ() + circle.getRadiusZ());
+			case AREA:
+				return intersects(((MCDynmapAreaMarker) marker).getCorners());
+			case POLYLINE:
+				return intersects(((MCDynmapPolyLineMarker) marker).getCorners());
+			default:
+				return false;
+		}
+	}
+
+	private boolean intersects(MCLocation[] corners) {
+		if (corners.length == 0) {
+			return false;
+		}
+		double minX = Double.POSITIVE_INFINITY;
+		double minZ = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxZ = Double.NEGATIVE_INFINITY;
+		for (MCLocation corner : corners) {
+			minX = Math.min(minX, corner.getX());
+			minZ = Math.min(minZ, corner.getZ());
+			maxX = Math.max(maxX, corner.getX());
+			maxZ = Math.max(maxZ, corner.getZ());
+		}
+		return intersects(minX, minZ, maxX, maxZ);
+	}
+
+	private boolean intersects(double minX, double minZ, double maxX, double maxZ) {
+		return (minX <= _bounds[2]) && (maxX >= _bounds[0]) && (minZ <= _bounds[3]) && (maxZ >= _bounds[1]);
+	}
+
+	/**
+	 * Returns the markers of the set matching this filter.
+	 */
+	public List<MCDynmapMarker> select(MCDynmapMarkerSet set) {
+		List<MCDynmapMarker> markers = new ArrayList<>();
+		Collection<String> ids = getCandidateIDs(set);
+		if (ids != null) {
+			for (String id : ids) {
+				MCDynmapMarker marker = set.getMarker(id);
+				if ((marker != null) && matches(marker)) {
+					markers.add(marker);
+				}
+			}
+		} else {
+			for (MCDynmapMarker marker : getCandidates(set)) {
+				if (matches(marker)) {
+					markers.add(marker);
+				}
+			}
+		}
+		return markers;
+	}
+
+	/**
+	 * Returns the IDs of the candidate markers given by the most selective index, or null if no index applies.
+	 */
+	private Collection<String> getCandidateIDs(MCDynmapMarkerSet set) {
+		if (_ids != null) {
+			return _ids;
+		} else if (_prefix != null) {
+			return CHDynmapIdIndex.getIds(set, _prefix, -1);
+		} else if (_theme != null) {
+			Set<String> ids = _theme.getMarkers().get(set.getId());
+			return (ids != null) ? ids : Collections.emptySet();
+		} else if (_group != null) {
+			List<String> ids = new ArrayList<>();
+			for (CHDynmapMarkerGroup group : _group.getDescendants()) {
+				Set<String> markerIDs = group.getMarkers().get(set.getId());
+				if (markerIDs != null) {
+					ids.addAll(markerIDs);
+				}
+			}
+			return ids;
+		} else {
+			return null;
+		}
+	}
+
+	private List<? extends MCDynmapMarker> getCandidates(MCDynmapMarkerSet set) {
+		if ((_types == null) || (_types.size() == MCDynmapMarkerType.values().length)) {
+			return Arrays.asList(set.getMarkers());
+		}
+		List<MCDynmapMarker> markers = new ArrayList<>();
+		for (MCDynmapMarkerType type : _types) {
+			switch (type) {
+				case AREA:
+					markers.addAll(Arrays.asList(set.getAreaMarkers()));
+					break;
+				case CIRCLE:
+					markers.addAll(Arrays.asList(set.getCircleMarkers()));
+					break;
+				case ICON:
+					markers.addAll(Arrays.asList(set.getIconMarkers()));
+					break;
+				case POLYLINE:
+					markers.addAll(Arrays.asList(set.getPolyLineMarkers()));
+					break;
+				default:
+					break;
+			}
+		}
+		return markers;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,431 @@
+package com.hekta.chdynmap.core;
+
+import com.hekta.chdynmap.abstraction.CHDynmapStaticLayer;
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerListener;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A named group of markers, that can contain other groups. A marker belongs to one group at most, and the groups know
+ * their markers, so the group operations only look up their own markers. The groups and the membership of the
+ * persistent markers are saved in the data folder, and loaded again at startup.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapMarkerGroup {
+
+	private static final String FILE = "groups.dat";
+	private static final int FILE_VERSION = 1;
+	private static final long SAVE_PERIOD = 1200;
+
+	private static final Map<String, CHDynmapMarkerGroup> GROUPS = new TreeMap<>();
+	//setID -> markerID -> group
+	private static final Map<String, Map<String, CHDynmapMarkerGroup>> MEMBERSHIP = new HashMap<>();
+
+	private static boolean _dirty = false;
+	private static int _taskID = -1;
+
+	public static final MCDynmapMarkerListener LISTENER = new MCDynmapMarkerListener() {
+
+		@Override
+		public void markerMoved(MCDynmapMarker marker, String oldSetID) {
+			CHDynmapMarkerGroup group = unbind(oldSetID, marker.getId());
+			if (group != null) {
+				bind(marker, group);
+			}
+		}
+
+		@Override
+		public void markerDeleted(MCDynmapMarker marker) {
+			unbind(marker.getSet().getId(), marker.getId());
+		}
+
+		@Override
+		public void markerSetDeleted(MCDynmapMarkerSet set) {
+			Map<String, CHDynmapMarkerGroup> membership = MEMBERSHIP.remove(set.getId());
+			if (membership != null) {
+				for (Map.Entry<String, CHDynmapMarkerGroup> entry : membership.entrySet()) {
+					recordUndo(set.getId(), entry.getKey(), entry.getValue());
+					entry.getValue().removeMarker(set.getId(), entry.getKey());
+				}
+			}
+		}
+	};
+
+	private final String _name;
+	private CHDynmapMarkerGroup _parent;
+	private final Map<String, CHDynmapMarkerGroup> _children;
+	//setID -> markerID -> persistent
+	private final Map<String, Map<String, Boolean>> _markers;
+	private int _markerCount;
+
+	private CHDynmapMarkerGroup(String name) {
+		_name = name;
+		_children = new TreeMap<>();
+		_markers = new HashMap<>();
+		_markerCount = 0;
+	}
+
+	public String getName() {
+		return _name;
+	}
+
+	public CHDynmapMarkerGroup getParent() {
+		return _parent;
+	}
+
+	public Collection<CHDynmapMarkerGroup> getChildren() {
+		return Collections.unmodifiableCollection(_children.values());
+	}
+
+	/**
+	 * Returns the number of markers of this group, without the ones of its subgroups.
+	 */
+	public int getMarkerCount() {
+		return _markerCount;
+	}
+
+	/**
+	 * Returns the IDs of the markers of this group (without the ones of its subgroups), by markerset ID.
+	 */
+	public Map<String, Set<String>> getMarkers() {
+		Map<String, Set<String>> markers = new LinkedHashMap<>();
+		for (Map.Entry<String, Map<String, Boolean>> entry : _markers.entrySet()) {
+			markers.put(entry.getKey(), Collections.unmodifiableSet(entry.getValue().keySet()));
+		}
+		return markers;
+	}
+
+	/**
+	 * Returns this group followed by all its subgroups, the parents before their children.
+	 */
+	public List<CHDynmapMarkerGroup> getDescendants() {
+		List<CHDynmapMarkerGroup> groups = new ArrayList<>();
+		Deque<CHDynmapMarkerGroup> queue = new ArrayDeque<>();
+		queue.add(this);
+		while (!queue.isEmpty()) {
+			CHDynmapMarkerGroup group = queue.poll();
+			groups.add(group);
+			queue.addAll(group._children.values());
+		}
+		return groups;
+	}
+
+	public boolean isAncestorOf(CHDynmapMarkerGroup group) {
+		for (CHDynmapMarkerGroup parent = group; parent != null; parent = parent._parent) {
+			if (parent == this) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Resolves the markers of this group (and of its subgroups if recursive), each markerset being looked up once. The
+	 * markers that do not exist anymore are removed from the groups.
+	 */
+	public List<MCDynmapMarker> resolve(boolean recursive) {
+		List<MCDynmapMarker> markers = new ArrayList<>();
+		for (CHDynmapMarkerGroup group : recursive ? getDescendants() : Collections.singletonList(this)) {
+			List<String[]> missing = new ArrayList<>();
+			for (Map.Entry<String, Map<String, Boolean>> entry : group._markers.entrySet()) {
+				MCDynmapMarkerSet set = CHDynmapStatic.findMarkerSet(entry.getKey());
+				for (String markerID : entry.getValue().keySet()) {
+					MCDynmapMarker marker = (set != null) ? set.getMarker(markerID) : null;
+					if (marker != null) {
+						markers.add(marker);
+					} else {
+						missing.add(new String[]{entry.getKey(), markerID});
+					}
+				}
+			}
+			for (String[] marker : missing) {
+				unbind(marker[0], marker[1]);
+			}
+		}
+		return markers;
+	}
+
+	/**
+	 * Creates a group, as a subgroup of the given parent if it is not null. Returns null if the name is already used.
+	 */
+	public static CHDynmapMarkerGroup create(String name, CHDynmapMarkerGroup parent) {
+		if (GROUPS.containsKey(name)) {
+			return null;
+		}
+		CHDynmapMarkerGroup group = new CHDynmapMarkerGroup(name);
+		GROUPS.put(name, group);
+		CHDynmapTransaction.record(() -> {
+			if (GROUPS.get(name) == group) {
+				group.remove();
+			}
+		});
+		group.setParent(parent);
+		markDirty();
+		return group;
+	}
+
+	public static CHDynmapMarkerGroup get(String name) {
+		return GROUPS.get(name);
+	}
+
+	public static Set<String> getNames() {
+		return Collections.unmodifiableSet(GROUPS.keySet());
+	}
+
+	/**
+	 * Moves the group under the given parent (null for a top group). The caller must check the parent is not the
+	 * group itself or one of its subgroups.
+	 */
+	public void setParent(CHDynmapMarkerGroup parent) {
+		CHDynmapMarkerGroup previous = _parent;
+		CHDynmapTransaction.record(() -> setParent(previous));
+		if (_parent != null) {
+			_parent._children.remove(_name);
+		}
+		_parent = parent;
+		if (parent != null) {
+			parent._children.put(_name, this);
+		}
+		markDirty();
+	}
+
+	/**
+	 * Removes the group and its subgroups, their markers are kept but do not belong to a group anymore.
+	 */
+	public void remove() {
+		recordRemoval();
+		if (_parent != null) {
+			_parent._children.remove(_name);
+			_parent = null;
+		}
+		for (CHDynmapMarkerGroup group : getDescendants()) {
+			GROUPS.remove(group._name);
+			for (Map.Entry<String, Map<String, Boolean>> entry : group._markers.entrySet()) {
+				Map<String, CHDynmapMarkerGroup> membership = MEMBERSHIP.get(entry.getKey());
+				if (membership != null) {
+					membership.keySet().removeAll(entry.getValue().keySet());
+					if (membership.isEmpty()) {
+						MEMBERSHIP.remove(entry.getKey());
+					}
+				}
+			}
+			group._markers.clear();
+			group._markerCount = 0;
+		}
+		markDirty();
+	}
+
+	/**
+	 * If a transaction is open, records the group and its subgroups with their markers, so they are created again if
+	 * the transaction fails.
+	 */
+	private void recordRemoval() {
+		if (!CHDynmapTransaction.isRecording()) {
+			return;
+		}
+		CHDynmapMarkerGroup parent = _parent;
+		List<CHDynmapMarkerGroup> groups = getDescendants();
+		List<Map<String, Map<String, Boolean>>> markers = new ArrayList<>();
+		for (CHDynmapMarkerGroup group : groups) {
+			Map<String, Map<String, Boolean>> copy = new HashMap<>();
+			for (Map.Entry<String, Map<String, Boolean>> entry : group._markers.entrySet()) {
+				copy.put(entry.getKey(), new LinkedHashMap<>(entry.getValue()));
+			}
+			markers.add(copy);
+		}
+		CHDynmapTransaction.record(() -> {
+			//the subgroups kept their parent and children, only the group was detached
+			for (int i = 0; i < groups.size(); i++) {
+				CHDynmapMarkerGroup group = groups.get(i);
+				GROUPS.put(group._name, group);
+				for (Map.Entry<String, Map<String, Boolean>> entry : markers.get(i).entrySet()) {
+					for (Map.Entry<String, Boolean> marker : entry.getValue().entrySet()) {
+						bind(entry.getKey(), marker.getKey(), marker.getValue(), group);
+					}
+				}
+			}
+			setParent(parent);
+		});
+	}
+
+	/**
+	 * If a transaction is open, records the group of the marker, so it is set back if the transaction fails.
+	 */
+	private static void recordUndo(String setID, String markerID, CHDynmapMarkerGroup group) {
+		if (!CHDynmapTransaction.isRecording()) {
+			return;
+		}
+		if (group != null) {
+			boolean persistent = group._markers.get(setID).get(markerID);
+			CHDynmapTransaction.record(() -> bind(setID, markerID, persistent, group));
+		} else {
+			CHDynmapTransaction.record(() -> unbind(setID, markerID));
+		}
+	}
+
+	public static CHDynmapMarkerGroup getGroup(String setID, String markerID) {
+		Map<String, CHDynmapMarkerGroup> membership = MEMBERSHIP.get(setID);
+		if (membership != null) {
+			return membership.get(markerID);
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Puts a marker in a group, removing it from its previous group.
+	 */
+	public static void bind(MCDynmapMarker marker, CHDynmapMarkerGroup group) {
+		bind(marker.getSet().getId(), marker.getId(), marker.isPersistent(), group);
+	}
+
+	private static void bind(String setID, String markerID, boolean persistent, CHDynmapMarkerGroup group) {
+		recordUndo(setID, markerID, getGroup(setID, markerID));
+		CHDynmapMarkerGroup previous = MEMBERSHIP.computeIfAbsent(setID, k -> new HashMap<>()).put(markerID, group);
+		if (previous != null) {
+			previous.removeMarker(setID, markerID);
+		}
+		group._markers.computeIfAbsent(setID, k -> new LinkedHashMap<>()).put(markerID, persistent);
+		group._markerCount++;
+		if (persistent) {
+			markDirty();
+		}
+	}
+
+	/**
+	 * Removes a marker from its group, and returns the group (or null if the marker was not in a group).
+	 */
+	public static CHDynmapMarkerGroup unbind(String setID, String markerID) {
+		Map<String, CHDynmapMarkerGroup> membership = MEMBERSHIP.get(setID);
+		if (membership == null) {
+			return null;
+		}
+		CHDynmapMarkerGroup group = membership.remove(markerID);
+		if (membership.isEmpty()) {
+			MEMBERSHIP.remove(setID);
+		}
+		if (group != null) {
+			recordUndo(setID, markerID, group);
+			group.removeMarker(setID, markerID);
+		}
+		return group;
+	}
+
+	private void removeMarker(String setID, String markerID) {
+		Map<String, Boolean> markerIDs = _markers.get(setID);
+		if (markerIDs != null) {
+			Boolean persistent = markerIDs.remove(markerID);
+			if (persistent != null) {
+				_markerCount--;
+				if (persistent) {
+					markDirty();
+				}
+			}
+			if (markerIDs.isEmpty()) {
+				_markers.remove(setID);
+			}
+		}
+	}
+
+	private static void markDirty() {
+		_dirty = true;
+	}
+
+	/**
+	 * Loads the saved groups, and starts saving them periodically when they change.
+	 */
+	public static void start() {
+		CHDynmapStorage.load(FILE, CHDynmapMarkerGroup::read);
+		_dirty = false;
+		if (_taskID == -1) {
+			_taskID = CHDynmapStaticLayer.scheduleRepeatingTask(CHDynmapMarkerGroup::save, SAVE_PERIOD, SAVE_PERIOD);
+		}
+	}
+
+	/**
+	 * Stops the periodic saves, and saves the groups if they changed.
+	 */
+	public static void stop() {
+		if (_taskID != -1) {
+			CHDynmapStaticLayer.cancelTask(_taskID);
+			_taskID = -1;
+		}
+		save();
+	}
+
+	private static void save() {
+		if (_dirty && CHDynmapStorage.save(FILE, CHDynmapMarkerGroup::write)) {
+			_dirty = false;
+		}
+	}
+
+	/**
+	 * Writes the groups, the parents before their children, with their persistent markers only.
+	 */
+	private static void write(DataOutputStream out) throws IOException {
+		out.writeInt(FILE_VERSION);
+		out.writeInt(GROUPS.size());
+		for (CHDynmapMarkerGroup top : GROUPS.values()) {
+			if (top._parent != null) {
+				continue;
+			}
+			for (CHDynmapMarkerGroup group : top.getDescendants()) {
+				out.writeUTF(group._name);
+				out.writeBoolean(group._parent != null);
+				if (group._parent != null) {
+					out.writeUTF(group._parent._name);
+				}
+				out.writeInt(group._markers.size());
+				for (Map.Entry<String, Map<String, Boolean>> entry : group._markers.entrySet()) {
+					out.writeUTF(entry.getKey());
+					List<String> persistent = new ArrayList<>();
+					for (Map.Entry<String, Boolean> marker : entry.getValue().entrySet()) {
+						if (marker.getValue()) {
+							persistent.add(marker.getKey());
+						}
+					}
+					out.writeInt(persistent.size());
+					for (String markerID : persistent) {
+						out.writeUTF(markerID);
+					}
+				}
+			}
+		}
+	}
+
+	private static void read(DataInputStream in) throws IOException {
+		int version = in.readInt();
+		if (version != FILE_VERSION) {
+			throw new IOException("Unsupported version: " + version + ".");
+		}
+		for (int i = in.readInt(); i > 0; i--) {
+			String name = in.readUTF();
+			CHDynmapMarkerGroup parent = in.readBoolean() ? GROUPS.get(in.readUTF()) : null;
+			CHDynmapMarkerGroup group = GROUPS.get(name);
+			if (group == null) {
+				group = create(name, parent);
+			}
+			for (int j = in.readInt(); j > 0; j--) {
+				String setID = in.readUTF();
+				for (int k = in.readInt(); k > 0; k--) {
+					bind(setID, in.readUTF(), true, group);
+				}
+			}
+		}
+	}
+}
\ No newline at end of file
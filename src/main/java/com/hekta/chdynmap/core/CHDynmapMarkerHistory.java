@@ -0,0 +1,985 @@
+package com.hekta.chdynmap.core;
+
+import com.hekta.chdynmap.CHDynmap;
+import com.hekta.chdynmap.abstraction.CHDynmapStaticLayer;
+import com.hekta.chdynmap.abstraction.MCDynmapAPI;
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerListener;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import com.laytonsmith.core.Static;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+/**
+ * Records the history of the markers of the recorded markersets, so their past states can be read and restored.
+ * <p>
+ * The markers changed during a tick are compared at the end of the tick to their last recorded state, and only the
+ * changed properties are written (a marker changed many times in a tick gives a single record). The records of a
+ * markerset are appended to its own file by a background thread, with a checkpoint of all its markers every
+ * CHECKPOINT_INTERVAL records. The times and offsets of the checkpoints are written to an index file, so a state at a
+ * given time is rebuilt from the previous checkpoint instead of from the start of the history. A record partly written
+ * is cut off when the file is opened again, and after a failed write the records of the markerset are dropped until a
+ * new checkpoint is taken from its live markers.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapMarkerHistory {
+
+	private static final String DIRECTORY = "history";
+	private static final String SETS_FILE = "history.dat";
+	private static final String DATA_EXTENSION = ".dat";
+	private static final String INDEX_EXTENSION = ".idx";
+	private static final int FILE_VERSION = 1;
+	private static final int CHECKPOINT_INTERVAL = 1000;
+	private static final long SYNC_TIMEOUT = 10;
+
+	private static final byte CHECKPOINT = 1;
+	private static final byte PUT = 2;
+	private static final byte DELTA = 3;
+	private static final byte DELETE = 4;
+
+	//the properties of the delta records, in the order of their bits (the corners, center and location are the geometry)
+	private static final List<String> PROPERTIES = Arrays.asList("world", "geometry", "radius", "range_y", "fill_style",
+			"line_style", "boosted", "icon", "label", "description", "min_zoom", "max_zoom");
+
+	/**
+	 * A change of a marker read from the history.
+	 */
+	public static final class Entry {
+
+		private final long _time;
+		private final CHDynmapMarkerState _previous;
+		private final CHDynmapMarkerState _state;
+
+		private Entry(long time, CHDynmapMarkerState previous, CHDynmapMarkerState state) {
+			_time = time;
+			_previous = previous;
+			_state = state;
+		}
+
+		public long getTime() {
+			return _time;
+		}
+
+		/**
+		 * Returns the state of the marker before the change, or null if it was created.
+		 */
+		public CHDynmapMarkerState getPrevious() {
+			return _previous;
+		}
+
+		/**
+		 * Returns the state of the marker after the change, or null if it was deleted.
+		 */
+		public CHDynmapMarkerState getState() {
+			return _state;
+		}
+	}
+
+	private interface Visitor {
+
+		public void visit(long time, String markerID, CHDynmapMarkerState previous, CHDynmapMarkerState state);
+	}
+
+	private static final class Recorder {
+
+		//the last recorded states
+		private final Map<String, CHDynmapMarkerState> _states = new HashMap<>();
+		private final Set<String> _dirty = new LinkedHashSet<>();
+		private long _time = 0;
+		private int _records = 0;
+		//if the first checkpoint was taken from the live markerset
+		private boolean _started = false;
+	}
+
+	private static final class Frame {
+
+		private final String _setID;
+		//the time of a checkpoint, -1 for the other records
+		private final long _checkpoint;
+		private final byte[] _payload;
+
+		private Frame(String setID, long checkpoint, byte[] payload) {
+			_setID = setID;
+			_checkpoint = checkpoint;
+			_payload = payload;
+		}
+	}
+
+	private static final Map<String, Recorder> RECORDERS = new TreeMap<>();
+
+	private static Writer _writer = null;
+	private static int _taskID = -1;
+
+	public static final MCDynmapMarkerListener LISTENER = new MCDynmapMarkerListener() {
+
+		@Override
+		public void markerCreated(MCDynmapMarker marker) {
+			markDirty(marker.getSet().getId(), marker.getId());
+		}
+
+		@Override
+		public void markerChanged(MCDynmapMarker marker, String property) {
+			markDirty(marker.getSet().getId(), marker.getId());
+		}
+
+		@Override
+		public void markerMoved(MCDynmapMarker marker, String oldSetID) {
+			markDirty(oldSetID, marker.getId());
+			markDirty(marker.getSet().getId(), marker.getId());
+		}
+
+		@Override
+		public void markerDeleted(MCDynmapMarker marker) {
+			markDirty(marker.getSet().getId(), marker.getId());
+		}
+
+		@Override
+		public void markerSetDeleted(MCDynmapMarkerSet set) {
+			Recorder recorder = RECORDERS.get(set.getId());
+			if ((recorder != null) && recorder._started) {
+				recorder._dirty.addAll(recorder._states.keySet());
+			}
+		}
+	};
+
+	private static final class Writer extends Thread {
+
+		private static final Object STOP = new Object();
+
+		private final BlockingQueue<Object> _queue = new LinkedBlockingQueue<>();
+		private final Map<String, DataOutputStream> _files = new HashMap<>();
+		private final Map<String, DataOutputStream> _indexes = new HashMap<>();
+		private final Map<String, Long> _sizes = new HashMap<>();
+		//the markersets whose records are skipped until their next checkpoint, as a previous record was not written
+		private final Set<String> _skipped = new HashSet<>();
+		//the markersets which need a new checkpoint, taken by the main thread
+		private final Set<String> _damaged = ConcurrentHashMap.newKeySet();
+		private final CRC32 _crc = new CRC32();
+
+		private Writer() {
+			super("CHDynmap history writer");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			List<Object> batch = new ArrayList<>();
+			boolean running = true;
+			while (running) {
+				try {
+					batch.add(_queue.take());
+				} catch (InterruptedException exception) {
+					break;
+				}
+				_queue.drainTo(batch);
+				List<CountDownLatch> latches = new ArrayList<>();
+				for (Object item : batch) {
+					if (item == STOP) {
+						running = false;
+					} else if (item instanceof CountDownLatch) {
+						latches.add((CountDownLatch) item);
+					} else {
+						Frame frame = (Frame) item;
+						try {
+							write(frame);
+						} catch (IOException exception) {
+							fail(frame._setID, exception);
+						}
+					}
+				}
+				for (String setID : new ArrayList<>(_files.keySet())) {
+					try {
+						_files.get(setID).flush();
+						_indexes.get(setID).flush();
+					} catch (IOException exception) {
+						fail(setID, exception);
+					}
+				}
+				for (CountDownLatch latch : latches) {
+					latch.countDown();
+				}
+				batch.clear();
+			}
+			close();
+		}
+
+		/**
+		 * Closes the files of the markerset after a failed write, so they are repaired when they are opened again, and
+		 * skips its records until the new checkpoint asked to the main thread.
+		 */
+		private void fail(String setID, IOException exception) {
+			Static.getLogger().log(Level.SEVERE, "[CHDynmap] Could not write the marker history of " + setID + ".", exception);
+			close(setID);
+			_skipped.add(setID);
+			_damaged.add(setID);
+		}
+
+		private void write(Frame frame) throws IOException {
+			if (frame._checkpoint != -1) {
+				_skipped.remove(frame._setID);
+			} else if (_skipped.contains(frame._setID)) {
+				return;
+			}
+			DataOutputStream out = _files.get(frame._setID);
+			if (out == null) {
+				File file = getFile(frame._setID, DATA_EXTENSION);
+				file.getParentFile().mkdirs();
+				long size = repair(file, getFile(frame._setID, INDEX_EXTENSION));
+				out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+				_files.put(frame._setID, out);
+				_sizes.put(frame._setID, size);
+				_indexes.put(frame._setID, new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getFile(frame._setID, INDEX_EXTENSION), true))));
+			}
+			long offset = _sizes.get(frame._setID);
+			if (frame._checkpoint != -1) {
+				DataOutputStream index = _indexes.get(frame._setID);
+				index.writeLong(frame._checkpoint);
+				index.writeLong(offset);
+			}
+			_crc.reset();
+			_crc.update(frame._payload);
+			out.writeInt(frame._payload.length);
+			out.write(frame._payload);
+			out.writeInt((int) _crc.getValue());
+			_sizes.put(frame._setID, offset + frame._payload.length + 8);
+		}
+
+		/**
+		 * Truncates the file after its last valid record, and the index after its last checkpoint in the valid records,
+		 * so a record partly written (when the server stopped or when a write failed) is not followed by the next ones.
+		 * Returns the new size of the file.
+		 */
+		private long repair(File file, File indexFile) throws IOException {
+			if (!file.isFile()) {
+				if (indexFile.isFile()) {
+					truncate(indexFile, 0);
+				}
+				return 0;
+			}
+			long size = 0;
+			CRC32 crc = new CRC32();
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+				while (true) {
+					int length = in.readInt();
+					if (length < 0) {
+						break;
+					}
+					byte[] payload = new byte[length];
+					in.readFully(payload);
+					crc.reset();
+					crc.update(payload);
+					if (in.readInt() != (int) crc.getValue()) {
+						break;
+					}
+					size += length + 8;
+				}
+			} catch (EOFException exception) {
+				//the end of the valid records
+			}
+			if (size < file.length()) {
+				Static.getLogger().log(Level.WARNING, "[CHDynmap] The marker history " + file + " ends with a partly written record, it is truncated.");
+				truncate(file, size);
+			}
+			if (indexFile.isFile()) {
+				long indexSize = 0;
+				try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+					while (true) {
+						in.readLong();
+						if (in.readLong() >= size) {
+							break;
+						}
+						indexSize += 16;
+					}
+				} catch (EOFException exception) {
+					//the end of the valid checkpoints
+				}
+				if (indexSize < indexFile.length()) {
+					truncate(indexFile, indexSize);
+				}
+			}
+			return size;
+		}
+
+		private void truncate(File file, long size) throws IOException {
+			try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+				out.setLength(size);
+			}
+		}
+
+		private void close(String setID) {
+			try {
+				DataOutputStream out = _files.remove(setID);
+				if (out != null) {
+					out.close();
+				}
+				DataOutputStream index = _indexes.remove(setID);
+				if (index != null) {
+					index.close();
+				}
+			} catch (IOException exception) {
+				Static.getLogger().log(Level.WARNING, "[CHDynmap] Could not close the marker history of " + setID + ".", exception);
+			}
+			_sizes.remove(setID);
+		}
+
+		private void close() {
+			for (String setID : new ArrayList<>(_files.keySet())) {
+				close(setID);
+			}
+		}
+	}
+
+	private CHDynmapMarkerHistory() {
+	}
+
+	/**
+	 * Returns the file of the markerset. The ID is escaped, only the lower case letters, the digits, '_' and '-' are
+	 * kept, the other characters are written as %XX (their UTF-8 bytes), so the name is valid and distinct on all the
+	 * file systems, and stays in the history folder.
+	 */
+	private static File getFile(String setID, String extension) {
+		StringBuilder name = new StringBuilder();
+		for (byte b : setID.getBytes(StandardCharsets.UTF_8)) {
+			if (((b >= 'a') && (b <= 'z')) || ((b >= '0') && (b <= '9')) || (b == '_') || (b == '-')) {
+				name.append((char) b);
+			} else {
+				name.append(String.format("%%%02X", b & 0xFF));
+			}
+		}
+		return new File(CHDynmapStorage.getFile(DIRECTORY), name.append(extension).toString());
+	}
+
+	private static void markDirty(String setID, String markerID) {
+		Recorder recorder = RECORDERS.get(setID);
+		if ((recorder != null) && recorder._started) {
+			recorder._dirty.add(markerID);
+		}
+	}
+
+	private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint.");
+	}
+
+	private static int getBit(String property) {
+		switch (property) {
+			case "corners":
+			case "center":
+			case "location":
+				return 1 << PROPERTIES.indexOf("geometry");
+			default:
+				int index = PROPERTIES.indexOf(property);
+				return (index >= 0) ? 1 << index : 0;
+		}
+	}
+
+	private static boolean has(int mask, String property) {
+		return (mask & (1 << PROPERTIES.indexOf(property))) != 0;
+	}
+
+	/**
+	 * Writes only the properties of the state given by the mask.
+	 */
+	private static void writeDelta(DataOutputStream out, CHDynmapMarkerState state, int mask) throws IOException {
+		out.writeUTF(state.getId());
+		out.writeInt(mask);
+		if (has(mask, "world")) {
+			CHDynmapMarkerState.writeString(out, state.getWorld());
+		}
+		if (has(mask, "geometry")) {
+			double[] x = state.getXs();
+			out.writeInt(x.length);
+			for (int i = 0; i < x.length; i++) {
+				out.writeDouble(x[i]);
+				out.writeDouble(state.getYs()[i]);
+				out.writeDouble(state.getZs()[i]);
+			}
+		}
+		if (has(mask, "radius")) {
+			out.writeDouble(state.getRadiusX());
+			out.writeDouble(state.getRadiusZ());
+		}
+		if (has(mask, "range_y")) {
+			out.writeDouble(state.getTopY());
+			out.writeDouble(state.getBottomY());
+		}
+		if (has(mask, "fill_style")) {
+			out.writeInt(state.getFillColor());
+			out.writeDouble(state.getFillOpacity());
+		}
+		if (has(mask, "line_style")) {
+			out.writeInt(state.getLineColor());
+			out.writeDouble(state.getLineOpacity());
+			out.writeInt(state.getLineWeight());
+		}
+		if (has(mask, "boosted")) {
+			out.writeBoolean(state.isBoosted());
+		}
+		if (has(mask, "icon")) {
+			CHDynmapMarkerState.writeString(out, state.getIcon());
+		}
+		if (has(mask, "label")) {
+			CHDynmapMarkerState.writeString(out, state.getLabel());
+			out.writeBoolean(state.isLabelHTML());
+		}
+		if (has(mask, "description")) {
+			CHDynmapMarkerState.writeString(out, state.getDescription());
+		}
+		if (has(mask, "min_zoom")) {
+			out.writeInt(state.getMinZoom());
+		}
+		if (has(mask, "max_zoom")) {
+			out.writeInt(state.getMaxZoom());
+		}
+	}
+
+	/**
+	 * Reads the properties written by writeDelta, the others are taken from the previous state.
+	 */
+	private static CHDynmapMarkerState readDelta(DataInputStream in, int mask, CHDynmapMarkerState previous) throws IOException {
+		String world = has(mask, "world") ? CHDynmapMarkerState.readString(in) : previous.getWorld();
+		double[] x = previous.getXs();
+		double[] y = previous.getYs();
+		double[] z = previous.getZs();
+		if (has(mask, "geometry")) {
+			int count = in.readInt();
+			if (count < 0) {
+				throw new IOException("Invalid location count: " + count + ".");
+			}
+			x = new double[count];
+			y = new double[count];
+			z = new double[count];
+			for (int i = 0; i < count; i++) {
+				x[i] = in.readDouble();
+				y[i] = in.readDouble();
+				z[i] = in.readDouble();
+			}
+		}
+		double radiusX = has(mask, "radius") ? in.readDouble() : previous.getRadiusX();
+		double radiusZ = has(mask, "radius") ? in.readDouble() : previous.getRadiusZ();
+		double topY = has(mask, "range_y") ? in.readDouble() : previous.getTopY();
+		double bottomY = has(mask, "range_y") ? in.readDouble() : previous.getBottomY();
+		int fillColor = has(mask, "fill_style") ? in.readInt() : previous.getFillColor();
+		double fillOpacity = has(mask, "fill_style") ? in.readDouble() : previous.getFillOpacity();
+		int lineColor = has(mask, "line_style") ? in.readInt() : previous.getLineColor();
+		double lineOpacity = has(mask, "line_style") ? in.readDouble() : previous.getLineOpacity();
+		int lineWeight = has(mask, "line_style") ? in.readInt() : previous.getLineWeight();
+		boolean boosted = has(mask, "boosted") ? in.readBoolean() : previous.isBoosted();
+		String icon = has(mask, "icon") ? CHDynmapMarkerState.readString(in) : previous.getIcon();
+		String label = has(mask, "label") ? CHDynmapMarkerState.readString(in) : previous.getLabel();
+		boolean labelIsHTML = has(mask, "label") ? in.readBoolean() : previous.isLabelHTML();
+		String description = has(mask, "description") ? CHDynmapMarkerState.readString(in) : previous.getDescription();
+		int minZoom = has(mask, "min_zoom") ? in.readInt() : previous.getMinZoom();
+		int maxZoom = has(mask, "max_zoom") ? in.readInt() : previous.getMaxZoom();
+		return new CHDynmapMarkerState(previous.getType(), previous.getId(), label, labelIsHTML, description, world, minZoom, maxZoom,
+				x, y, z, radiusX, radiusZ, topY, bottomY, fillColor, fillOpacity, lineColor, lineOpacity, lineWeight, boosted, icon);
+	}
+
+	private static void emit(String setID, Recorder recorder, byte type, CHDynmapStorage.Writer body) {
+		long time = Math.max(System.currentTimeMillis(), recorder._time);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(type);
+			if (type == CHECKPOINT) {
+				out.writeLong(time);
+			} else {
+				writeVarLong(out, time - recorder._time);
+			}
+			body.write(out);
+		} catch (IOException exception) {
+			//not thrown by a byte array
+			throw new IllegalStateException(exception);
+		}
+		recorder._time = time;
+		if (type == CHECKPOINT) {
+			recorder._records = 0;
+		} else {
+			recorder._records++;
+		}
+		_writer._queue.add(new Frame(setID, (type == CHECKPOINT) ? time : -1, bytes.toByteArray()));
+	}
+
+	private static void checkpoint(String setID, Recorder recorder) {
+		List<CHDynmapMarkerState> states = new ArrayList<>(recorder._states.values());
+		emit(setID, recorder, CHECKPOINT, (DataOutputStream out) -> {
+			out.writeInt(states.size());
+			for (CHDynmapMarkerState state : states) {
+				state.write(out);
+			}
+		});
+	}
+
+	/**
+	 * Records the changes of the dirty markers of the markerset, compared to their last recorded states.
+	 */
+	private static void flush(String setID, Recorder recorder, MCDynmapMarkerSet set) {
+		for (String markerID : recorder._dirty) {
+			MCDynmapMarker marker = (set != null) ? set.getMarker(markerID) : null;
+			CHDynmapMarkerState previous = recorder._states.get(markerID);
+			if (marker == null) {
+				if (previous != null) {
+					recorder._states.remove(markerID);
+					emit(setID, recorder, DELETE, (DataOutputStream out) -> out.writeUTF(markerID));
+				}
+				continue;
+			}
+			CHDynmapMarkerState state = CHDynmapMarkerState.of(marker);
+			if ((previous == null) || (previous.getType() != state.getType())) {
+				emit(setID, recorder, PUT, state::write);
+			} else {
+				int mask = 0;
+				for (String property : state.diff(previous)) {
+					mask |= getBit(property);
+				}
+				if (mask == 0) {
+					continue;
+				}
+				int changed = mask;
+				emit(setID, recorder, DELTA, (DataOutputStream out) -> writeDelta(out, state, changed));
+			}
+			recorder._states.put(markerID, state);
+		}
+		recorder._dirty.clear();
+		if (recorder._records >= CHECKPOINT_INTERVAL) {
+			checkpoint(setID, recorder);
+		}
+	}
+
+	private static void tick() {
+		if (RECORDERS.isEmpty()) {
+			return;
+		}
+		MCDynmapAPI dynmap = CHDynmap.getDynmapAPI();
+		if ((dynmap == null) || !dynmap.markerAPIInitialized()) {
+			return;
+		}
+		for (String setID : _writer._damaged) {
+			_writer._damaged.remove(setID);
+			Recorder recorder = RECORDERS.get(setID);
+			if (recorder != null) {
+				recorder._started = false;
+				recorder._dirty.clear();
+			}
+		}
+		for (Map.Entry<String, Recorder> entry : RECORDERS.entrySet()) {
+			Recorder recorder = entry.getValue();
+			if (!recorder._started) {
+				//the history starts again from the live markers, which may have changed while they were not recorded
+				MCDynmapMarkerSet set = dynmap.getMarkerAPI().getMarkerSet(entry.getKey());
+				recorder._states.clear();
+				if (set != null) {
+					for (MCDynmapMarker marker : set.getMarkers()) {
+						recorder._states.put(marker.getId(), CHDynmapMarkerState.of(marker));
+					}
+				}
+				recorder._started = true;
+				checkpoint(entry.getKey(), recorder);
+			} else if (!recorder._dirty.isEmpty()) {
+				flush(entry.getKey(), recorder, dynmap.getMarkerAPI().getMarkerSet(entry.getKey()));
+			}
+		}
+	}
+
+	private static void saveSets() {
+		List<String> setIDs = new ArrayList<>(RECORDERS.keySet());
+		CHDynmapStorage.save(SETS_FILE, (DataOutputStream out) -> {
+			out.writeInt(FILE_VERSION);
+			out.writeInt(setIDs.size());
+			for (String setID : setIDs) {
+				out.writeUTF(setID);
+			}
+		});
+	}
+
+	private static void loadSets(DataInputStream in) throws IOException {
+		int version = in.readInt();
+		if (version != FILE_VERSION) {
+			throw new IOException("Unsupported history version: " + version + ".");
+		}
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			RECORDERS.put(in.readUTF(), new Recorder());
+		}
+	}
+
+	public static boolean isRecorded(String setID) {
+		return RECORDERS.containsKey(setID);
+	}
+
+	public static Set<String> getRecordedSets() {
+		return Collections.unmodifiableSet(RECORDERS.keySet());
+	}
+
+	/**
+	 * Starts or stops to record the history of the markerset. The history already written is kept.
+	 */
+	public static void setRecorded(MCDynmapMarkerSet set, boolean recorded) {
+		String setID = set.getId();
+		if (recorded == RECORDERS.containsKey(setID)) {
+			return;
+		}
+		if (recorded) {
+			RECORDERS.put(setID, new Recorder());
+		} else {
+			Recorder recorder = RECORDERS.remove(setID);
+			if (recorder._started && (_writer != null)) {
+				flush(setID, recorder, set);
+			}
+		}
+		saveSets();
+	}
+
+	/**
+	 * Returns if the markerset has a history, recorded now or before.
+	 */
+	public static boolean hasHistory(String setID) {
+		return RECORDERS.containsKey(setID) || getFile(setID, DATA_EXTENSION).isFile();
+	}
+
+	/**
+	 * Records the last changes, and returns a latch released once the writer wrote all the records queued so far.
+	 */
+	private static CountDownLatch sync() {
+		CountDownLatch latch = new CountDownLatch(1);
+		if (_writer == null) {
+			latch.countDown();
+			return latch;
+		}
+		tick();
+		_writer._queue.add(latch);
+		return latch;
+	}
+
+	/**
+	 * Reads the history on a background thread, once the records queued so far are written.
+	 */
+	private static <T> Future<T> read(Callable<T> reader) {
+		CountDownLatch latch = sync();
+		return CHDynmapJobRunner.execute(() -> {
+			if (!latch.await(SYNC_TIMEOUT, TimeUnit.SECONDS)) {
+				throw new IOException("The history writer did not answer.");
+			}
+			return reader.call();
+		});
+	}
+
+	/**
+	 * Returns the offset of the last checkpoint at or before the given time (or of the first one).
+	 */
+	private static long findCheckpoint(String setID, long time) throws IOException {
+		File index = getFile(setID, INDEX_EXTENSION);
+		long offset = 0;
+		if (!index.isFile()) {
+			return offset;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)))) {
+			boolean first = true;
+			while (true) {
+				long checkpointTime = in.readLong();
+				long checkpointOffset = in.readLong();
+				if (first || (checkpointTime <= time)) {
+					offset = checkpointOffset;
+				}
+				if (checkpointTime > time) {
+					break;
+				}
+				first = false;
+			}
+		} catch (EOFException exception) {
+			//the end of the index
+		}
+		return offset;
+	}
+
+	/**
+	 * Replays the history from the last checkpoint before the given time, until the end time, and returns the states
+	 * of the markers at the end time. The visitor is given each change of a marker.
+	 */
+	private static Map<String, CHDynmapMarkerState> replay(String setID, long from, long to, Visitor visitor) throws IOException {
+		Map<String, CHDynmapMarkerState> states = new HashMap<>();
+		File file = getFile(setID, DATA_EXTENSION);
+		if (!file.isFile()) {
+			return states;
+		}
+		long offset = findCheckpoint(setID, from);
+		CRC32 crc = new CRC32();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			long skipped = 0;
+			while (skipped < offset) {
+				long count = in.skip(offset - skipped);
+				if (count <= 0) {
+					return states;
+				}
+				skipped += count;
+			}
+			long time = 0;
+			boolean positioned = false;
+			while (true) {
+				byte[] payload;
+				try {
+					int length = in.readInt();
+					if (length < 0) {
+						break;
+					}
+					payload = new byte[length];
+					in.readFully(payload);
+					crc.reset();
+					crc.update(payload);
+					if (in.readInt() != (int) crc.getValue()) {
+						break;
+					}
+				} catch (EOFException exception) {
+					break;
+				}
+				DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+				byte type = record.readByte();
+				if (type == CHECKPOINT) {
+					time = record.readLong();
+					positioned = true;
+				} else {
+					time += readVarLong(record);
+				}
+				if (!positioned) {
+					continue;
+				}
+				if (time > to) {
+					break;
+				}
+				switch (type) {
+					case CHECKPOINT:
+						Map<String, CHDynmapMarkerState> checkpoint = new HashMap<>();
+						int count = record.readInt();
+						for (int i = 0; i < count; i++) {
+							CHDynmapMarkerState state = CHDynmapMarkerState.read(record);
+							checkpoint.put(state.getId(), state);
+						}
+						if (visitor != null) {
+							Set<String> markerIDs = new TreeSet<>(states.keySet());
+							markerIDs.addAll(checkpoint.keySet());
+							for (String markerID : markerIDs) {
+								CHDynmapMarkerState previous = states.get(markerID);
+								CHDynmapMarkerState state = checkpoint.get(markerID);
+								if ((previous == null) || (state == null) || !state.diff(previous).isEmpty()) {
+									visitor.visit(time, markerID, previous, state);
+								}
+							}
+						}
+						states = checkpoint;
+						break;
+					case PUT:
+						CHDynmapMarkerState put = CHDynmapMarkerState.read(record);
+						CHDynmapMarkerState replaced = states.put(put.getId(), put);
+						if (visitor != null) {
+							visitor.visit(time, put.getId(), replaced, put);
+						}
+						break;
+					case DELTA:
+						String markerID = record.readUTF();
+						int mask = record.readInt();
+						CHDynmapMarkerState previous = states.get(markerID);
+						if (previous != null) {
+							CHDynmapMarkerState state = readDelta(record, mask, previous);
+							states.put(markerID, state);
+							if (visitor != null) {
+								visitor.visit(time, markerID, previous, state);
+							}
+						}
+						break;
+					case DELETE:
+						String deletedID = record.readUTF();
+						CHDynmapMarkerState deleted = states.remove(deletedID);
+						if ((visitor != null) && (deleted != null)) {
+							visitor.visit(time, deletedID, deleted, null);
+						}
+						break;
+					default:
+						throw new IOException("Unknown history record: " + type + ".");
+				}
+			}
+		}
+		return states;
+	}
+
+	/**
+	 * Submits a job reading the changes of the marker between both times (in milliseconds) on a background thread,
+	 * then giving them to the callback on the main thread, the oldest first.
+	 */
+	public static CHDynmapJob readHistory(String setID, String markerID, long from, long to, Consumer<List<Entry>> callback) {
+		return CHDynmapJobRunner.submit(new HistoryJob(read(() -> {
+			List<Entry> entries = new ArrayList<>();
+			replay(setID, from, to, (long time, String id, CHDynmapMarkerState previous, CHDynmapMarkerState state) -> {
+				if ((time >= from) && id.equals(markerID)) {
+					entries.add(new Entry(time, previous, state));
+				}
+			});
+			return entries;
+		}), callback));
+	}
+
+	/**
+	 * Submits a job rebuilding the markers of the markerset at the given time (in milliseconds) on a background thread,
+	 * then bringing the markers of the target markerset to that state over the next ticks, with the fewest mutations.
+	 */
+	public static CHDynmapJob restore(String setID, long time, MCDynmapMarkerSet target, boolean persistent) {
+		return CHDynmapJobRunner.submit(new RestoreJob(read(() -> replay(setID, time, time, null)), target.getId(), persistent));
+	}
+
+	private static final class HistoryJob extends CHDynmapJob {
+
+		private final Future<List<Entry>> _read;
+		private final Consumer<List<Entry>> _callback;
+
+		private HistoryJob(Future<List<Entry>> read, Consumer<List<Entry>> callback) {
+			super("history", 1);
+			_read = read;
+			_callback = callback;
+		}
+
+		@Override
+		protected boolean isReady() {
+			return _read.isDone();
+		}
+
+		@Override
+		protected boolean step() {
+			_callback.accept(getResult(_read));
+			return false;
+		}
+
+		@Override
+		protected void finished() {
+			if (!_read.isDone()) {
+				_read.cancel(true);
+			}
+		}
+	}
+
+	private static final class RestoreJob extends CHDynmapJob {
+
+		private final Future<Map<String, CHDynmapMarkerState>> _read;
+		private final String _targetID;
+		private final boolean _persistent;
+		private CHDynmapMarkerSync _sync = null;
+		private int _index = 0;
+
+		private RestoreJob(Future<Map<String, CHDynmapMarkerState>> read, String targetID, boolean persistent) {
+			super("restore", -1);
+			_read = read;
+			_targetID = targetID;
+			_persistent = persistent;
+		}
+
+		@Override
+		protected boolean isReady() {
+			return (_sync != null) || _read.isDone();
+		}
+
+		@Override
+		protected boolean step() {
+			MCDynmapMarkerSet target = CHDynmapStatic.findMarkerSet(_targetID);
+			if (target == null) {
+				return false;
+			}
+			if (_sync == null) {
+				//compared to the live markers once the history is read, so the changes made meanwhile are not lost
+				_sync = new CHDynmapMarkerSync(target, getResult(_read).values(), _persistent, true);
+				return true;
+			}
+			if (_index >= _sync.getMutationCount()) {
+				return false;
+			}
+			_sync.mutate(target, _index);
+			_index++;
+			return true;
+		}
+
+		@Override
+		protected void finished() {
+			if (!_read.isDone()) {
+				_read.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Loads the recorded markersets, and starts the writer. The recording starts with a checkpoint once the marker API
+	 * is loaded.
+	 */
+	public static void start() {
+		if (_writer != null) {
+			return;
+		}
+		RECORDERS.clear();
+		CHDynmapStorage.load(SETS_FILE, CHDynmapMarkerHistory::loadSets);
+		_writer = new Writer();
+		_writer.start();
+		_taskID = CHDynmapStaticLayer.scheduleRepeatingTask(CHDynmapMarkerHistory::tick, 1, 1);
+	}
+
+	/**
+	 * Records the last changes, and waits for the writer to finish.
+	 */
+	public static void stop() {
+		if (_writer == null) {
+			return;
+		}
+		tick();
+		CHDynmapStaticLayer.cancelTask(_taskID);
+		_taskID = -1;
+		_writer._queue.add(Writer.STOP);
+		try {
+			_writer.join();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+		_writer = null;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,112 @@
+package com.hekta.chdynmap.core;
+
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import java.util.List;
+
+/**
+ * Applies an operation to a list of markers of a markerset, a marker by step. The markers are looked up again when
+ * their turn comes, so the ones deleted in the meantime are skipped. The job ends once the markerset is deleted, or
+ * once the operation can no longer be applied.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapMarkerJob extends CHDynmapJob {
+
+	public interface Operation {
+
+		/**
+		 * Returns true if the operation was applied to the marker, false if it was skipped.
+		 */
+		public boolean apply(MCDynmapMarker marker);
+
+		/**
+		 * Returns false once the operation can no longer be applied to any marker (for example because its target
+		 * markerset was deleted), which ends the job.
+		 */
+		public default boolean isValid() {
+			return true;
+		}
+	}
+
+	public static final Operation DELETE = marker -> {
+		marker.delete();
+		return true;
+	};
+
+	private final String _setID;
+	private final String[] _markerIDs;
+	private final Operation _operation;
+	private final Runnable _completion;
+	private int _index;
+	private long _applied;
+
+	private CHDynmapMarkerJob(String type, MCDynmapMarkerSet set, List<MCDynmapMarker> markers, Operation operation, Runnable completion) {
+		super(type, markers.size());
+		_setID = set.getId();
+		_markerIDs = new String[markers.size()];
+		for (int i = 0; i < _markerIDs.length; i++) {
+			_markerIDs[i] = markers.get(i).getId();
+		}
+		_operation = operation;
+		_completion = completion;
+		_index = 0;
+		_applied = 0;
+	}
+
+	/**
+	 * Applies the operation to the markers now, and returns the number of markers it was applied to.
+	 */
+	public static long run(List<MCDynmapMarker> markers, Operation operation) {
+		long applied = 0;
+		for (MCDynmapMarker marker : markers) {
+			if (operation.apply(marker)) {
+				applied++;
+			}
+		}
+		return applied;
+	}
+
+	/**
+	 * Submits a job applying the operation to the markers over the next ticks.
+	 */
+	public static CHDynmapMarkerJob submit(String type, MCDynmapMarkerSet set, List<MCDynmapMarker> markers, Operation operation) {
+		return submit(type, set, markers, operation, null);
+	}
+
+	/**
+	 * Submits a job applying the operation to the markers over the next ticks, then running the completion (only if
+	 * the job was neither cancelled nor failed).
+	 */
+	public static CHDynmapMarkerJob submit(String type, MCDynmapMarkerSet set, List<MCDynmapMarker> markers, Operation operation, Runnable completion) {
+		return CHDynmapJobRunner.submit(new CHDynmapMarkerJob(type, set, markers, operation, completion));
+	}
+
+	public long getApplied() {
+		return _applied;
+	}
+
+	@Override
+	protected boolean step() {
+		if (_index >= _markerIDs.length) {
+			return false;
+		}
+		MCDynmapMarkerSet set = CHDynmapStatic.findMarkerSet(_setID);
+		if ((set == null) || !_operation.isValid()) {
+			return false;
+		}
+		MCDynmapMarker marker = set.getMarker(_markerIDs[_index]);
+		_index++;
+		if ((marker != null) && _operation.apply(marker)) {
+			_applied++;
+		}
+		return true;
+	}
+
+	@Override
+	protected void finished() {
+		if ((_completion != null) && (getState() == State.DONE)) {
+			_completion.run();
+		}
+	}
+}
\ No newline at end of file
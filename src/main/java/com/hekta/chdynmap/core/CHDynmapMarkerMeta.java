@@ -0,0 +1,558 @@
+package com.hekta.chdynmap.core;
+
+import com.hekta.chdynmap.CHDynmap;
+import com.hekta.chdynmap.abstraction.CHDynmapStaticLayer;
+import com.hekta.chdynmap.abstraction.MCDynmapAPI;
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerAPI;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerListener;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A side-table of key-value metadata for the markers. The metadata of a marker follows it when it is moved to another
+ * markerset, and is removed with the marker or its markerset (and when a marker is created with its ID, so a new marker
+ * never inherits it, unless the marker is one replayed by the journal or restored by a failed transaction). The metadata of the persistent markers (and of the
+ * markers of the journaled markersets) is saved in the data folder, and loaded again at startup. The metadata changes
+ * and removals made in a transaction are reverted with the markers if it fails.
+ * <p>
+ * The keys can be indexed: an indexed key maps each value to the markers having it, by markerset, so the markers with
+ * a given value are found without reading the metadata of all the markers of the markerset. The values are strings,
+ * integers, doubles or booleans, and are compared by their string form.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapMarkerMeta {
+
+	private static final String FILE = "meta.dat";
+	private static final int FILE_VERSION = 1;
+	private static final long SAVE_PERIOD = 1200;
+	private static final long PRUNE_PERIOD = 20;
+
+	private static final byte STRING = 0;
+	private static final byte INTEGER = 1;
+	private static final byte DOUBLE = 2;
+	private static final byte BOOLEAN = 3;
+
+	private static final class Metadata {
+
+		private final boolean _persistent;
+		//the keys and the values, alternated (a marker usually has a few keys)
+		private Object[] _entries = new Object[0];
+
+		private Metadata(boolean persistent) {
+			_persistent = persistent;
+		}
+
+		private int indexOf(String key) {
+			for (int i = 0; i < _entries.length; i += 2) {
+				if (_entries[i].equals(key)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private Object get(String key) {
+			int index = indexOf(key);
+			return (index != -1) ? _entries[index + 1] : null;
+		}
+
+		/**
+		 * Sets the value of the key (removes it if the value is null), and returns its previous value.
+		 */
+		private Object put(String key, Object value) {
+			int index = indexOf(key);
+			if (index != -1) {
+				Object previous = _entries[index + 1];
+				if (value != null) {
+					_entries[index + 1] = value;
+				} else {
+					Object[] entries = new Object[_entries.length - 2];
+					System.arraycopy(_entries, 0, entries, 0, index);
+					System.arraycopy(_entries, index + 2, entries, index, _entries.length - index - 2);
+					_entries = entries;
+				}
+				return previous;
+			}
+			if (value != null) {
+				Object[] entries = new Object[_entries.length + 2];
+				System.arraycopy(_entries, 0, entries, 0, _entries.length);
+				entries[_entries.length] = key;
+				entries[_entries.length + 1] = value;
+				_entries = entries;
+			}
+			return null;
+		}
+
+		private boolean isEmpty() {
+			return _entries.length == 0;
+		}
+	}
+
+	//setID -> markerID -> metadata
+	private static final Map<String, Map<String, Metadata>> TABLES = new HashMap<>();
+	//key -> setID -> value -> markerIDs, for the indexed keys
+	private static final Map<String, Map<String, Map<String, Set<String>>>> INDEXES = new TreeMap<>();
+	//the keys in use, so the metadata of all the markers share the same key strings
+	private static final Map<String, String> KEYS = new HashMap<>();
+
+	private static boolean _dirty = false;
+	private static int _taskID = -1;
+	private static int _pruneTaskID = -1;
+
+	public static final MCDynmapMarkerListener LISTENER = new MCDynmapMarkerListener() {
+
+		@Override
+		public void markerCreated(MCDynmapMarker marker) {
+			if (!CHDynmapJournal.isReplaying() && !CHDynmapTransaction.isReverting()) {
+				recordUndo(marker.getSet().getId(), marker.getId());
+				remove(marker.getSet().getId(), marker.getId());
+			}
+		}
+
+		@Override
+		public void markerMoved(MCDynmapMarker marker, String oldSetID) {
+			Metadata metadata = remove(oldSetID, marker.getId());
+			if (metadata != null) {
+				Metadata moved = new Metadata(isPersistent(marker));
+				moved._entries = metadata._entries;
+				put(marker.getSet().getId(), marker.getId(), moved);
+			}
+		}
+
+		@Override
+		public void markerDeleted(MCDynmapMarker marker) {
+			//the journal deletes a marker to create it again with another type
+			if (!CHDynmapJournal.isReplaying()) {
+				recordUndo(marker.getSet().getId(), marker.getId());
+				remove(marker.getSet().getId(), marker.getId());
+			}
+		}
+
+		@Override
+		public void markerSetDeleted(MCDynmapMarkerSet set) {
+			Map<String, Metadata> table = TABLES.get(set.getId());
+			if (table != null) {
+				for (String markerID : table.keySet()) {
+					recordUndo(set.getId(), markerID);
+				}
+				TABLES.remove(set.getId());
+				for (Map<String, Map<String, Set<String>>> index : INDEXES.values()) {
+					index.remove(set.getId());
+				}
+				for (Metadata metadata : table.values()) {
+					if (metadata._persistent) {
+						markDirty();
+						break;
+					}
+				}
+			}
+		}
+	};
+
+	private CHDynmapMarkerMeta() {
+	}
+
+	private static boolean isPersistent(MCDynmapMarker marker) {
+		return marker.isPersistent() || CHDynmapJournal.isJournaled(marker.getSet().getId());
+	}
+
+	private static String getKey(String key) {
+		String shared = KEYS.get(key);
+		if (shared == null) {
+			KEYS.put(key, key);
+			shared = key;
+		}
+		return shared;
+	}
+
+	private static void addToIndex(String setID, String markerID, String key, Object value) {
+		Map<String, Map<String, Set<String>>> index = INDEXES.get(key);
+		if (index != null) {
+			index.computeIfAbsent(setID, k -> new HashMap<>()).computeIfAbsent(String.valueOf(value), k -> new LinkedHashSet<>()).add(markerID);
+		}
+	}
+
+	private static void removeFromIndex(String setID, String markerID, String key, Object value) {
+		Map<String, Map<String, Set<String>>> index = INDEXES.get(key);
+		Map<String, Set<String>> values = (index != null) ? index.get(setID) : null;
+		if (values == null) {
+			return;
+		}
+		String indexedValue = String.valueOf(value);
+		Set<String> markerIDs = values.get(indexedValue);
+		if (markerIDs != null) {
+			markerIDs.remove(markerID);
+			if (markerIDs.isEmpty()) {
+				values.remove(indexedValue);
+				if (values.isEmpty()) {
+					index.remove(setID);
+				}
+			}
+		}
+	}
+
+	private static void put(String setID, String markerID, Metadata metadata) {
+		TABLES.computeIfAbsent(setID, k -> new HashMap<>()).put(markerID, metadata);
+		for (int i = 0; i < metadata._entries.length; i += 2) {
+			addToIndex(setID, markerID, (String) metadata._entries[i], metadata._entries[i + 1]);
+		}
+		if (metadata._persistent) {
+			markDirty();
+		}
+	}
+
+	private static Metadata remove(String setID, String markerID) {
+		Map<String, Metadata> table = TABLES.get(setID);
+		if (table == null) {
+			return null;
+		}
+		Metadata metadata = table.remove(markerID);
+		if (table.isEmpty()) {
+			TABLES.remove(setID);
+		}
+		if (metadata != null) {
+			for (int i = 0; i < metadata._entries.length; i += 2) {
+				removeFromIndex(setID, markerID, (String) metadata._entries[i], metadata._entries[i + 1]);
+			}
+			if (metadata._persistent) {
+				markDirty();
+			}
+		}
+		return metadata;
+	}
+
+	private static Metadata getMetadata(String setID, String markerID) {
+		Map<String, Metadata> table = TABLES.get(setID);
+		return (table != null) ? table.get(markerID) : null;
+	}
+
+	/**
+	 * If a transaction is open, records the current metadata of the marker, so it is restored if the transaction fails.
+	 */
+	private static void recordUndo(String setID, String markerID) {
+		if (!CHDynmapTransaction.isRecording()) {
+			return;
+		}
+		Metadata metadata = getMetadata(setID, markerID);
+		Metadata saved;
+		if (metadata != null) {
+			saved = new Metadata(metadata._persistent);
+			saved._entries = metadata._entries.clone();
+		} else {
+			saved = null;
+		}
+		CHDynmapTransaction.record(() -> {
+			remove(setID, markerID);
+			if (saved != null) {
+				put(setID, markerID, saved);
+			}
+		});
+	}
+
+	/**
+	 * Returns the value of the key for the marker, or null if it is not set.
+	 */
+	public static Object get(String setID, String markerID, String key) {
+		Metadata metadata = getMetadata(setID, markerID);
+		return (metadata != null) ? metadata.get(key) : null;
+	}
+
+	/**
+	 * Returns all the keys and values of the marker, in the order they were first set.
+	 */
+	public static Map<String, Object> getAll(String setID, String markerID) {
+		Map<String, Object> values = new LinkedHashMap<>();
+		Metadata metadata = getMetadata(setID, markerID);
+		if (metadata != null) {
+			for (int i = 0; i < metadata._entries.length; i += 2) {
+				values.put((String) metadata._entries[i], metadata._entries[i + 1]);
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Sets the value of the key for the marker (a String, Long, Double or Boolean), or removes it if the value is null.
+	 * The change is reverted if the open transaction fails.
+	 */
+	public static void set(MCDynmapMarker marker, String key, Object value) {
+		String setID = marker.getSet().getId();
+		String markerID = marker.getId();
+		Metadata metadata = getMetadata(setID, markerID);
+		if ((metadata == null) && (value == null)) {
+			return;
+		}
+		recordUndo(setID, markerID);
+		if (metadata == null) {
+			metadata = new Metadata(isPersistent(marker));
+			TABLES.computeIfAbsent(setID, k -> new HashMap<>()).put(markerID, metadata);
+		}
+		key = getKey(key);
+		Object previous = metadata.put(key, value);
+		if (previous != null) {
+			removeFromIndex(setID, markerID, key, previous);
+		}
+		if (value != null) {
+			addToIndex(setID, markerID, key, value);
+		}
+		if (metadata.isEmpty()) {
+			remove(setID, markerID);
+		}
+		if (metadata._persistent) {
+			markDirty();
+		}
+	}
+
+	/**
+	 * Returns the IDs of the markers of the markerset whose key has the given value (compared by their string form).
+	 * The indexed keys are looked up directly, the others by reading the metadata of the markers of the markerset. The
+	 * markers that do not exist anymore are removed from the table.
+	 */
+	public static List<String> find(MCDynmapMarkerSet set, String key, String value) {
+		String setID = set.getId();
+		List<String> markerIDs = new ArrayList<>();
+		Map<String, Map<String, Set<String>>> index = INDEXES.get(key);
+		if (index != null) {
+			Map<String, Set<String>> values = index.get(setID);
+			Set<String> indexed = (values != null) ? values.get(value) : null;
+			if (indexed != null) {
+				markerIDs.addAll(indexed);
+			}
+		} else {
+			Map<String, Metadata> table = TABLES.get(setID);
+			if (table != null) {
+				for (Map.Entry<String, Metadata> entry : table.entrySet()) {
+					Object markerValue = entry.getValue().get(key);
+					if ((markerValue != null) && String.valueOf(markerValue).equals(value)) {
+						markerIDs.add(entry.getKey());
+					}
+				}
+			}
+		}
+		for (Iterator<String> iterator = markerIDs.iterator(); iterator.hasNext();) {
+			String markerID = iterator.next();
+			if (set.getMarker(markerID) == null) {
+				remove(setID, markerID);
+				iterator.remove();
+			}
+		}
+		return markerIDs;
+	}
+
+	public static boolean isIndexed(String key) {
+		return INDEXES.containsKey(key);
+	}
+
+	public static Set<String> getIndexedKeys() {
+		return Collections.unmodifiableSet(INDEXES.keySet());
+	}
+
+	/**
+	 * Indexes the key, and returns false if it was already indexed.
+	 */
+	public static boolean addIndex(String key) {
+		if (INDEXES.containsKey(key)) {
+			return false;
+		}
+		key = getKey(key);
+		INDEXES.put(key, new HashMap<>());
+		for (Map.Entry<String, Map<String, Metadata>> table : TABLES.entrySet()) {
+			for (Map.Entry<String, Metadata> entry : table.getValue().entrySet()) {
+				Object value = entry.getValue().get(key);
+				if (value != null) {
+					addToIndex(table.getKey(), entry.getKey(), key, value);
+				}
+			}
+		}
+		markDirty();
+		return true;
+	}
+
+	/**
+	 * Stops indexing the key, and returns false if it was not indexed. The metadata is kept.
+	 */
+	public static boolean removeIndex(String key) {
+		if (INDEXES.remove(key) == null) {
+			return false;
+		}
+		markDirty();
+		return true;
+	}
+
+	private static void markDirty() {
+		_dirty = true;
+	}
+
+	/**
+	 * Removes the metadata of the markers which do not exist anymore (deleted while the extension was not loaded), once
+	 * the marker API is loaded, so it is not given to new markers with the same IDs. The markers of the journaled
+	 * markersets are kept, as they are created again over the next ticks.
+	 */
+	private static void prune() {
+		MCDynmapAPI dynmap = CHDynmap.getDynmapAPI();
+		if ((dynmap == null) || !dynmap.markerAPIInitialized()) {
+			return;
+		}
+		CHDynmapStaticLayer.cancelTask(_pruneTaskID);
+		_pruneTaskID = -1;
+		MCDynmapMarkerAPI markerAPI = dynmap.getMarkerAPI();
+		List<String[]> missing = new ArrayList<>();
+		for (Map.Entry<String, Map<String, Metadata>> table : TABLES.entrySet()) {
+			MCDynmapMarkerSet set = markerAPI.getMarkerSet(table.getKey());
+			for (String markerID : table.getValue().keySet()) {
+				if (!CHDynmapJournal.isJournaled(table.getKey(), markerID) && ((set == null) || (set.getMarker(markerID) == null))) {
+					missing.add(new String[]{table.getKey(), markerID});
+				}
+			}
+		}
+		for (String[] marker : missing) {
+			remove(marker[0], marker[1]);
+		}
+	}
+
+	/**
+	 * Loads the saved metadata and indexes, and starts saving them periodically when they change. The metadata of the
+	 * markers which do not exist anymore is removed once the marker API is loaded.
+	 */
+	public static void start() {
+		TABLES.clear();
+		INDEXES.clear();
+		KEYS.clear();
+		CHDynmapStorage.load(FILE, CHDynmapMarkerMeta::read);
+		_dirty = false;
+		if (_taskID == -1) {
+			_taskID = CHDynmapStaticLayer.scheduleRepeatingTask(CHDynmapMarkerMeta::save, SAVE_PERIOD, SAVE_PERIOD);
+		}
+		if ((_pruneTaskID == -1) && !TABLES.isEmpty()) {
+			_pruneTaskID = CHDynmapStaticLayer.scheduleRepeatingTask(CHDynmapMarkerMeta::prune, 1, PRUNE_PERIOD);
+		}
+	}
+
+	/**
+	 * Stops the periodic saves, and saves the metadata if it changed.
+	 */
+	public static void stop() {
+		if (_taskID != -1) {
+			CHDynmapStaticLayer.cancelTask(_taskID);
+			_taskID = -1;
+		}
+		if (_pruneTaskID != -1) {
+			CHDynmapStaticLayer.cancelTask(_pruneTaskID);
+			_pruneTaskID = -1;
+		}
+		save();
+	}
+
+	private static void save() {
+		if (_dirty && CHDynmapStorage.save(FILE, CHDynmapMarkerMeta::write)) {
+			_dirty = false;
+		}
+	}
+
+	/**
+	 * Writes the indexed keys, then the metadata of the persistent markers only.
+	 */
+	private static void write(DataOutputStream out) throws IOException {
+		out.writeInt(FILE_VERSION);
+		out.writeInt(INDEXES.size());
+		for (String key : INDEXES.keySet()) {
+			out.writeUTF(key);
+		}
+		out.writeInt(TABLES.size());
+		for (Map.Entry<String, Map<String, Metadata>> table : TABLES.entrySet()) {
+			out.writeUTF(table.getKey());
+			List<Map.Entry<String, Metadata>> persistent = new ArrayList<>();
+			for (Map.Entry<String, Metadata> entry : table.getValue().entrySet()) {
+				if (entry.getValue()._persistent) {
+					persistent.add(entry);
+				}
+			}
+			out.writeInt(persistent.size());
+			for (Map.Entry<String, Metadata> entry : persistent) {
+				out.writeUTF(entry.getKey());
+				Object[] entries = entry.getValue()._entries;
+				out.writeInt(entries.length / 2);
+				for (int i = 0; i < entries.length; i += 2) {
+					out.writeUTF((String) entries[i]);
+					writeValue(out, entries[i + 1]);
+				}
+			}
+		}
+	}
+
+	private static void writeValue(DataOutputStream out, Object value) throws IOException {
+		if (value instanceof Long) {
+			out.writeByte(INTEGER);
+			out.writeLong((Long) value);
+		} else if (value instanceof Double) {
+			out.writeByte(DOUBLE);
+			out.writeDouble((Double) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte(BOOLEAN);
+			out.writeBoolean((Boolean) value);
+		} else {
+			out.writeByte(STRING);
+			CHDynmapMarkerState.writeString(out, (String) value);
+		}
+	}
+
+	private static Object readValue(DataInputStream in) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+			case STRING:
+				return CHDynmapMarkerState.readString(in);
+			case INTEGER:
+				return in.readLong();
+			case DOUBLE:
+				return in.readDouble();
+			case BOOLEAN:
+				return in.readBoolean();
+			default:
+				throw new IOException("Unknown value type: " + type + ".");
+		}
+	}
+
+	private static void read(DataInputStream in) throws IOException {
+		int version = in.readInt();
+		if (version != FILE_VERSION) {
+			throw new IOException("Unsupported version: " + version + ".");
+		}
+		for (int i = in.readInt(); i > 0; i--) {
+			INDEXES.put(getKey(in.readUTF()), new HashMap<>());
+		}
+		for (int i = in.readInt(); i > 0; i--) {
+			String setID = in.readUTF();
+			for (int j = in.readInt(); j > 0; j--) {
+				String markerID = in.readUTF();
+				Metadata metadata = new Metadata(true);
+				int count = in.readInt();
+				if (count < 0) {
+					throw new IOException("Invalid metadata size: " + count + ".");
+				}
+				Object[] entries = new Object[count * 2];
+				for (int k = 0; k < entries.length; k += 2) {
+					entries[k] = getKey(in.readUTF());
+					entries[k + 1] = readValue(in);
+				}
+				metadata._entries = entries;
+				if (!metadata.isEmpty()) {
+					put(setID, markerID, metadata);
+				}
+			}
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,280 @@
+package com.hekta.chdynmap.core;
+
+import com.hekta.chdynmap.abstraction.MCDynmapAreaMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerListener;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import com.hekta.chdynmap.abstraction.MCDynmapPolyLineMarker;
+import com.hekta.chdynmap.abstraction.events.MCDynmapMarkerEvictedEvent;
+import com.laytonsmith.core.Static;
+import com.laytonsmith.core.events.Driver;
+import com.laytonsmith.core.events.EventUtils;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * A limit of the marker count and vertex count of a markerset. The markers of the set are kept in an access-ordered
+ * (or insertion-ordered) index, updated when the markers are created, changed, moved or deleted, so the marker to
+ * evict is always the head of the index.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapMarkerQuota {
+
+	public enum Policy {
+		LRU,
+		OLDEST
+	}
+
+	private static final Map<String, CHDynmapMarkerQuota> QUOTAS = new HashMap<>();
+
+	public static final MCDynmapMarkerListener LISTENER = new MCDynmapMarkerListener() {
+
+		@Override
+		public void markerCreated(MCDynmapMarker marker) {
+			CHDynmapMarkerQuota quota = QUOTAS.get(marker.getSet().getId());
+			if (quota != null) {
+				quota.recordUndo();
+				quota.add(marker);
+			}
+		}
+
+		@Override
+		public void markerChanged(MCDynmapMarker marker) {
+			CHDynmapMarkerQuota quota = QUOTAS.get(marker.getSet().getId());
+			if (quota != null) {
+				quota.recordUndo();
+				quota.touch(marker);
+			}
+		}
+
+		@Override
+		public void markerMoved(MCDynmapMarker marker, String oldSetID) {
+			CHDynmapMarkerQuota quota = QUOTAS.get(oldSetID);
+			if (quota != null) {
+				quota.recordUndo();
+				quota.removeMarker(marker.getId());
+			}
+			markerCreated(marker);
+		}
+
+		@Override
+		public void markerDeleted(MCDynmapMarker marker) {
+			CHDynmapMarkerQuota quota = QUOTAS.get(marker.getSet().getId());
+			if (quota != null) {
+				quota.recordUndo();
+				quota.removeMarker(marker.getId());
+			}
+		}
+
+		@Override
+		public void markerSetDeleted(MCDynmapMarkerSet set) {
+			recordQuota(set.getId());
+			QUOTAS.remove(set.getId());
+		}
+	};
+
+	private final int _maxMarkers;
+	private final int _maxVertices;
+	private final Policy _policy;
+	//markerID -> vertex count
+	private final LinkedHashMap<String, Integer> _index;
+	private long _vertices;
+	//the transaction epoch the index was last recorded in
+	private long _recorded = -1;
+
+	private CHDynmapMarkerQuota(int maxMarkers, int maxVertices, Policy policy) {
+		_maxMarkers = maxMarkers;
+		_maxVertices = maxVertices;
+		_policy = policy;
+		_index = new LinkedHashMap<>(16, 0.75f, policy == Policy.LRU);
+		_vertices = 0;
+	}
+
+	private static final class EvictedEvent implements MCDynmapMarkerEvictedEvent {
+
+		private final MCDynmapMarker _marker;
+		private final String _reason;
+
+		private EvictedEvent(MCDynmapMarker marker, String reason) {
+			_marker = marker;
+			_reason = reason;
+		}
+
+		@Override
+		public Object _GetObject() {
+			return _marker;
+		}
+
+		@Override
+		public MCDynmapMarker getMarker() {
+			return _marker;
+		}
+
+		@Override
+		public String getReason() {
+			return _reason;
+		}
+	}
+
+	/**
+	 * If a transaction is open, records the quota of the markerset, so it is set back if the transaction fails.
+	 */
+	private static void recordQuota(String setID) {
+		if (CHDynmapTransaction.isRecording()) {
+			CHDynmapMarkerQuota previous = QUOTAS.get(setID);
+			CHDynmapTransaction.record(() -> {
+				if (previous != null) {
+					QUOTAS.put(setID, previous);
+				} else {
+					QUOTAS.remove(setID);
+				}
+			});
+		}
+	}
+
+	/**
+	 * If a transaction is open, records the index (its order included) at the first change of the transaction epoch,
+	 * so it is restored if the transaction fails. Recording each change would not do, an LRU access can not be undone.
+	 */
+	private void recordUndo() {
+		if (CHDynmapTransaction.isRecording() && (_recorded != CHDynmapTransaction.getEpoch())) {
+			_recorded = CHDynmapTransaction.getEpoch();
+			LinkedHashMap<String, Integer> index = new LinkedHashMap<>(_index);
+			long vertices = _vertices;
+			CHDynmapTransaction.record(() -> {
+				_index.clear();
+				_index.putAll(index);
+				_vertices = vertices;
+			});
+		}
+	}
+
+	/**
+	 * Sets the quota of a markerset (-1 meaning no limit), the markers of the set are indexed in their current order,
+	 * and the ones over the quota are evicted at once. Returns the number of evicted markers.
+	 */
+	public static int set(MCDynmapMarkerSet set, int maxMarkers, int maxVertices, Policy policy) {
+		CHDynmapMarkerQuota quota = new CHDynmapMarkerQuota(maxMarkers, maxVertices, policy);
+		for (MCDynmapMarker marker : set.getMarkers()) {
+			int vertices = getVertexCount(marker);
+			quota._index.put(marker.getId(), vertices);
+			quota._vertices += vertices;
+		}
+		recordQuota(set.getId());
+		QUOTAS.put(set.getId(), quota);
+		return quota.enforce(set, null);
+	}
+
+	public static CHDynmapMarkerQuota get(String setID) {
+		return QUOTAS.get(setID);
+	}
+
+	public static boolean remove(String setID) {
+		recordQuota(setID);
+		return QUOTAS.remove(setID) != null;
+	}
+
+	public int getMaxMarkers() {
+		return _maxMarkers;
+	}
+
+	public int getMaxVertices() {
+		return _maxVertices;
+	}
+
+	public Policy getPolicy() {
+		return _policy;
+	}
+
+	public int getMarkerCount() {
+		return _index.size();
+	}
+
+	public long getVertexCount() {
+		return _vertices;
+	}
+
+	private static int getVertexCount(MCDynmapMarker marker) {
+		switch (marker.getType()) {
+			case AREA:
+				return ((MCDynmapAreaMarker) marker).getCornerCount();
+			case POLYLINE:
+				return ((MCDynmapPolyLineMarker) marker).getCornerCount();
+			default:
+				return 1;
+		}
+	}
+
+	private void add(MCDynmapMarker marker) {
+		int vertices = getVertexCount(marker);
+		Integer previous = _index.put(marker.getId(), vertices);
+		_vertices += vertices - ((previous != null) ? previous : 0);
+		//the markers brought back by a failed transaction are not evicted, the index is restored after them
+		if (!CHDynmapTransaction.isReverting()) {
+			enforce(marker.getSet(), marker.getId());
+		}
+	}
+
+	private void touch(MCDynmapMarker marker) {
+		//in LRU mode, the put moves the marker to the tail of the index
+		if (_index.containsKey(marker.getId())) {
+			add(marker);
+		}
+	}
+
+	private void removeMarker(String markerID) {
+		Integer vertices = _index.remove(markerID);
+		if (vertices != null) {
+			_vertices -= vertices;
+		}
+	}
+
+	private String getExceededLimit() {
+		if ((_maxMarkers >= 0) && (_index.size() > _maxMarkers)) {
+			return "markers";
+		} else if ((_maxVertices >= 0) && (_vertices > _maxVertices)) {
+			return "vertices";
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Evicts the head markers of the index while the quota is exceeded, the kept marker (the one being created or
+	 * changed) is never evicted.
+	 */
+	private int enforce(MCDynmapMarkerSet set, String keptID) {
+		int evicted = 0;
+		String reason;
+		while ((reason = getExceededLimit()) != null) {
+			String markerID = null;
+			Iterator<String> iterator = _index.keySet().iterator();
+			while (iterator.hasNext()) {
+				String id = iterator.next();
+				if (!id.equals(keptID)) {
+					markerID = id;
+					break;
+				}
+			}
+			if (markerID == null) {
+				break;
+			}
+			removeMarker(markerID);
+			MCDynmapMarker marker = set.getMarker(markerID);
+			if (marker != null) {
+				try {
+					EventUtils.TriggerListener(Driver.EXTENSION, "dm_marker_evicted", new EvictedEvent(marker, reason));
+				} catch (RuntimeException exception) {
+					Static.getLogger().log(Level.SEVERE, "[CHDynmap] An error occured in a dm_marker_evicted event.", exception);
+				}
+				marker.delete();
+				evicted++;
+			}
+		}
+		return evicted;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,640 @@
+package com.hekta.chdynmap.core;
+
+import com.hekta.chdynmap.abstraction.CHDynmapStaticLayer;
+import com.hekta.chdynmap.abstraction.MCDynmapAreaMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapCircleMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapIcon;
+import com.hekta.chdynmap.abstraction.MCDynmapIconMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerAPI;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerFillStyle;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerLineStyle;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import com.hekta.chdynmap.abstraction.MCDynmapPolyLineMarker;
+import com.hekta.chdynmap.abstraction.enums.MCDynmapMarkerType;
+import com.laytonsmith.abstraction.MCLocation;
+import com.laytonsmith.abstraction.MCWorld;
+import com.laytonsmith.abstraction.StaticLayer;
+import com.laytonsmith.core.Static;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * An immutable copy of everything Dynmap keeps about a marker (its geometry, label, description, zoom levels, styles
+ * and icon), detached from the marker so it can be stored, compared, written and used to create the marker again.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapMarkerState {
+
+	private final MCDynmapMarkerType _type;
+	private final String _id;
+	private final String _label;
+	private final boolean _labelIsHTML;
+	private final String _description;
+	private final String _world;
+	private final int _minZoom;
+	private final int _maxZoom;
+	//the corners of the areas and polylines, the center of the circles, or the location of the icons
+	private final double[] _x;
+	private final double[] _y;
+	private final double[] _z;
+	private final double _radiusX;
+	private final double _radiusZ;
+	private final double _topY;
+	private final double _bottomY;
+	private final int _fillColor;
+	private final double _fillOpacity;
+	private final int _lineColor;
+	private final double _lineOpacity;
+	private final int _lineWeight;
+	private final boolean _boosted;
+	private final String _icon;
+
+	CHDynmapMarkerState(MCDynmapMarkerType type, String id, String label, boolean labelIsHTML, String description, String world,
+			int minZoom, int maxZoom, double[] x, double[] y, double[] z, double radiusX, double radiusZ, double topY, double bottomY,
+			int fillColor, double fillOpacity, int lineColor, double lineOpacity, int lineWeight, boolean boosted, String icon) {
+		_type = type;
+		_id = id;
+		_label = label;
+		_labelIsHTML = labelIsHTML;
+		_description = description;
+		_world = world;
+		_minZoom = minZoom;
+		_maxZoom = maxZoom;
+		_x = x;
+		_y = y;
+		_z = z;
+		_radiusX = radiusX;
+		_radiusZ = radiusZ;
+		_topY = topY;
+		_bottomY = bottomY;
+		_fillColor = fillColor;
+		_fillOpacity = fillOpacity;
+		_lineColor = lineColor;
+		_lineOpacity = lineOpacity;
+		_lineWeight = lineWeight;
+		_boosted = boosted;
+		_icon = icon;
+	}
+
+	/**
+	 * Returns the current state of the marker.
+	 */
+	public static CHDynmapMarkerState of(MCDynmapMarker marker) {
+		MCWorld world = marker.getWorld();
+		MCLocation[] locations;
+		double radiusX = 0;
+		double radiusZ = 0;
+		double topY = 0;
+		double bottomY = 0;
+		MCDynmapMarkerFillStyle fillStyle = null;
+		MCDynmapMarkerLineStyle lineStyle = null;
+		boolean boosted = false;
+		String icon = null;
+		switch (marker.getType()) {
+			case AREA:
+				MCDynmapAreaMarker area = (MCDynmapAreaMarker) marker;
+				locations = area.getCorners();
+				topY = area.getTopY();
+				bottomY = area.getBottomY();
+				fillStyle = area.getFillStyle();
+				lineStyle = area.getLineStyle();
+				boosted = area.isBoosted();
+				break;
+			case CIRCLE:
+				MCDynmapCircleMarker circle = (MCDynmapCircleMarker) marker;
+				locations = new MCLocation[]{circle.getCenter()};
+				radiusX = circle.getRadiusX();
+				radiusZ = circle.getRadiusZ();
+				fillStyle = circle.getFillStyle();
+				lineStyle = circle.getLineStyle();
+				boosted = circle.isBoosted();
+				break;
+			case ICON:
+				MCDynmapIconMarker iconMarker = (MCDynmapIconMarker) marker;
+				locations = new MCLocation[]{iconMarker.getLocation()};
+				MCDynmapIcon markerIcon = iconMarker.getIcon();
+				icon = (markerIcon != null) ? markerIcon.getId() : null;
+				break;
+			case POLYLINE:
+				MCDynmapPolyLineMarker polyLine = (MCDynmapPolyLineMarker) marker;
+				locations = polyLine.getCorners();
+				lineStyle = polyLine.getLineStyle();
+				break;
+			default:
+				locations = new MCLocation[0];
+				break;
+		}
+		double[] x = new double[locations.length];
+		double[] y = new double[locations.length];
+		double[] z = new double[locations.length];
+		for (int i = 0; i < locations.length; i++) {
+			x[i] = locations[i].getX();
+			y[i] = locations[i].getY();
+			z[i] = locations[i].getZ();
+		}
+		return new CHDynmapMarkerState(marker.getType(), marker.getId(), marker.getLabel(), marker.isLabelMarkup(), marker.getDescription(),
+				(world != null) ? world.getName() : marker.getNormalizedWorld(), marker.getMinZoom(), marker.getMaxZoom(), x, y, z,
+				radiusX, radiusZ, topY, bottomY,
+				(fillStyle != null) ? fillStyle.getIntColor() : 0, (fillStyle != null) ? fillStyle.getOpacity() : 0,
+				(lineStyle != null) ? lineStyle.getIntColor() : 0, (lineStyle != null) ? lineStyle.getOpacity() : 0,
+				(lineStyle != null) ? lineStyle.getWeight() : 0, boosted, icon);
+	}
+
+	public MCDynmapMarkerType getType() {
+		return _type;
+	}
+
+	public String getId() {
+		return _id;
+	}
+
+	public String getLabel() {
+		return _label;
+	}
+
+	public boolean isLabelHTML() {
+		return _labelIsHTML;
+	}
+
+	public String getDescription() {
+		return _description;
+	}
+
+	public String getWorld() {
+		return _world;
+	}
+
+	public int getMinZoom() {
+		return _minZoom;
+	}
+
+	public int getMaxZoom() {
+		return _maxZoom;
+	}
+
+	/**
+	 * Returns the X coordinates of the locations (the array is not copied, and must not be modified).
+	 */
+	double[] getXs() {
+		return _x;
+	}
+
+	double[] getYs() {
+		return _y;
+	}
+
+	double[] getZs() {
+		return _z;
+	}
+
+	/**
+	 * Returns the number of locations (the corners, or the center or location).
+	 */
+	public int getLocationCount() {
+		return _x.length;
+	}
+
+	public double getX(int index) {
+		return _x[index];
+	}
+
+	public double getY(int index) {
+		return _y[index];
+	}
+
+	public double getZ(int index) {
+		return _z[index];
+	}
+
+	public double getRadiusX() {
+		return _radiusX;
+	}
+
+	public double getRadiusZ() {
+		return _radiusZ;
+	}
+
+	public double getTopY() {
+		return _topY;
+	}
+
+	public double getBottomY() {
+		return _bottomY;
+	}
+
+	public int getFillColor() {
+		return _fillColor;
+	}
+
+	public double getFillOpacity() {
+		return _fillOpacity;
+	}
+
+	public int getLineColor() {
+		return _lineColor;
+	}
+
+	public double getLineOpacity() {
+		return _lineOpacity;
+	}
+
+	public int getLineWeight() {
+		return _lineWeight;
+	}
+
+	public boolean isBoosted() {
+		return _boosted;
+	}
+
+	public String getIcon() {
+		return _icon;
+	}
+
+	private MCLocation[] getLocations(MCWorld world) {
+		MCLocation[] locations = new MCLocation[_x.length];
+		for (int i = 0; i < locations.length; i++) {
+			locations[i] = StaticLayer.GetLocation(world, _x[i], _y[i], _z[i]);
+		}
+		return locations;
+	}
+
+	private MCDynmapIcon findIcon(MCDynmapMarkerSet set) {
+		MCDynmapMarkerAPI markerAPI = CHDynmapStatic.findMarkerAPI();
+		MCDynmapIcon icon = ((_icon != null) && (markerAPI != null)) ? markerAPI.getIcon(_icon) : null;
+		return (icon != null) ? icon : set.getDefaultIcon();
+	}
+
+	/**
+	 * Creates the marker in the given set with this state, and returns it (or null if the creation failed, for example
+	 * because the world is not loaded or the ID is already used in the set).
+	 */
+	public MCDynmapMarker create(MCDynmapMarkerSet set, boolean isPersistent) {
+		MCWorld world = Static.getServer().getWorld(_world);
+		if ((world == null) || ((_type != MCDynmapMarkerType.AREA) && (_type != MCDynmapMarkerType.POLYLINE) && (_x.length == 0))) {
+			return null;
+		}
+		MCLocation[] locations = getLocations(world);
+		MCDynmapMarker marker;
+		switch (_type) {
+			case AREA:
+				marker = set.createAreaMarker(_id, _label, _labelIsHTML, world, locations, isPersistent);
+				break;
+			case CIRCLE:
+				marker = set.createCircleMarker(_id, _label, _labelIsHTML, locations[0], _radiusX, _radiusZ, isPersistent);
+				break;
+			case ICON:
+				marker = set.createIconMarker(_id, _label, _labelIsHTML, locations[0], findIcon(set), isPersistent);
+				break;
+			case POLYLINE:
+				marker = set.createPolyLineMarker(_id, _label, _labelIsHTML, world, locations, isPersistent);
+				break;
+			default:
+				marker = null;
+				break;
+		}
+		if (marker != null) {
+			applyProperties(marker);
+		}
+		return marker;
+	}
+
+	/**
+	 * Sets this state to an existing marker of the same type.
+	 */
+	public void apply(MCDynmapMarker marker) {
+		MCWorld world = Static.getServer().getWorld(_world);
+		if (world != null) {
+			MCLocation[] locations = getLocations(world);
+			switch (_type) {
+				case AREA:
+					((MCDynmapAreaMarker) marker).setCorners(locations);
+					break;
+				case CIRCLE:
+					if (locations.length > 0) {
+						((MCDynmapCircleMarker) marker).setCenter(locations[0]);
+					}
+					((MCDynmapCircleMarker) marker).setRadius(_radiusX, _radiusZ);
+					break;
+				case ICON:
+					if (locations.length > 0) {
+						((MCDynmapIconMarker) marker).setLocation(locations[0]);
+					}
+					break;
+				case POLYLINE:
+					((MCDynmapPolyLineMarker) marker).setCorners(locations);
+					break;
+				default:
+					break;
+			}
+		}
+		if (_type == MCDynmapMarkerType.ICON) {
+			((MCDynmapIconMarker) marker).setIcon(findIcon(marker.getSet()));
+		}
+		marker.setLabel(_label, _labelIsHTML);
+		applyProperties(marker);
+	}
+
+	private String getLocationProperty() {
+		switch (_type) {
+			case CIRCLE:
+				return "center";
+			case ICON:
+				return "location";
+			default:
+				return "corners";
+		}
+	}
+
+	/**
+	 * Returns the names of the properties of this state which differ from the given state (the names are the ones of
+	 * the dm_create_marker options), or only "type" if the types differ. The y coordinates of the area corners are not
+	 * compared, as Dynmap does not keep them.
+	 */
+	public List<String> diff(CHDynmapMarkerState current) {
+		List<String> properties = new ArrayList<>();
+		if (_type != current._type) {
+			properties.add("type");
+			return properties;
+		}
+		if (!Objects.equals(_world, current._world)) {
+			properties.add("world");
+		}
+		if (!Arrays.equals(_x, current._x) || !Arrays.equals(_z, current._z)
+				|| ((_type != MCDynmapMarkerType.AREA) && !Arrays.equals(_y, current._y))) {
+			properties.add(getLocationProperty());
+		}
+		boolean fillChanged = (_fillColor != current._fillColor) || (_fillOpacity != current._fillOpacity);
+		boolean lineChanged = (_lineColor != current._lineColor) || (_lineOpacity != current._lineOpacity) || (_lineWeight != current._lineWeight);
+		switch (_type) {
+			case AREA:
+			case CIRCLE:
+				if ((_type == MCDynmapMarkerType.AREA) && ((_topY != current._topY) || (_bottomY != current._bottomY))) {
+					properties.add("range_y");
+				}
+				if ((_type == MCDynmapMarkerType.CIRCLE) && ((_radiusX != current._radiusX) || (_radiusZ != current._radiusZ))) {
+					properties.add("radius");
+				}
+				if (fillChanged) {
+					properties.add("fill_style");
+				}
+				if (lineChanged) {
+					properties.add("line_style");
+				}
+				if (_boosted != current._boosted) {
+					properties.add("boosted");
+				}
+				break;
+			case ICON:
+				if (!Objects.equals(_icon, current._icon)) {
+					properties.add("icon");
+				}
+				break;
+			case POLYLINE:
+				if (lineChanged) {
+					properties.add("line_style");
+				}
+				break;
+			default:
+				break;
+		}
+		if (!Objects.equals(_label, current._label) || (_labelIsHTML != current._labelIsHTML)) {
+			properties.add("label");
+		}
+		if (!Objects.equals(_description, current._description)) {
+			properties.add("description");
+		}
+		if (_minZoom != current._minZoom) {
+			properties.add("min_zoom");
+		}
+		if (_maxZoom != current._maxZoom) {
+			properties.add("max_zoom");
+		}
+		return properties;
+	}
+
+	/**
+	 * Sets to the marker only the properties of this state which differ from its current state, and returns their
+	 * names (see diff). The marker must have the type and the world of this state.
+	 */
+	public List<String> update(MCDynmapMarker marker, CHDynmapMarkerState current) {
+		List<String> properties = diff(current);
+		if (properties.isEmpty()) {
+			return properties;
+		}
+		MCWorld world = Static.getServer().getWorld(_world);
+		boolean moved = (world != null) && (_x.length > 0) && properties.contains(getLocationProperty());
+		switch (_type) {
+			case AREA:
+				MCDynmapAreaMarker area = (MCDynmapAreaMarker) marker;
+				if (moved) {
+					area.setCorners(getLocations(world));
+				}
+				if (properties.contains("range_y")) {
+					area.setRangeY(_topY, _bottomY);
+				}
+				if (properties.contains("fill_style")) {
+					area.setFillStyle(CHDynmapStaticLayer.getFillStyle(_fillColor, _fillOpacity));
+				}
+				if (properties.contains("line_style")) {
+					area.setLineStyle(CHDynmapStaticLayer.getLineStyle(_lineColor, _lineOpacity, _lineWeight));
+				}
+				if (properties.contains("boosted")) {
+					area.setBoosted(_boosted);
+				}
+				break;
+			case CIRCLE:
+				MCDynmapCircleMarker circle = (MCDynmapCircleMarker) marker;
+				if (moved) {
+					circle.setCenter(getLocations(world)[0]);
+				}
+				if (properties.contains("radius")) {
+					circle.setRadius(_radiusX, _radiusZ);
+				}
+				if (properties.contains("fill_style")) {
+					circle.setFillStyle(CHDynmapStaticLayer.getFillStyle(_fillColor, _fillOpacity));
+				}
+				if (properties.contains("line_style")) {
+					circle.setLineStyle(CHDynmapStaticLayer.getLineStyle(_lineColor, _lineOpacity, _lineWeight));
+				}
+				if (properties.contains("boosted")) {
+					circle.setBoosted(_boosted);
+				}
+				break;
+			case ICON:
+				MCDynmapIconMarker iconMarker = (MCDynmapIconMarker) marker;
+				if (moved) {
+					iconMarker.setLocation(getLocations(world)[0]);
+				}
+				if (properties.contains("icon")) {
+					iconMarker.setIcon(findIcon(marker.getSet()));
+				}
+				break;
+			case POLYLINE:
+				MCDynmapPolyLineMarker polyLine = (MCDynmapPolyLineMarker) marker;
+				if (moved) {
+					polyLine.setCorners(getLocations(world));
+				}
+				if (properties.contains("line_style")) {
+					polyLine.setLineStyle(CHDynmapStaticLayer.getLineStyle(_lineColor, _lineOpacity, _lineWeight));
+				}
+				break;
+			default:
+				break;
+		}
+		if (properties.contains("label")) {
+			marker.setLabel(_label, _labelIsHTML);
+		}
+		if (properties.contains("description")) {
+			marker.setDescription(_description);
+		}
+		if (properties.contains("min_zoom")) {
+			marker.setMinZoom(_minZoom);
+		}
+		if (properties.contains("max_zoom")) {
+			marker.setMaxZoom(_maxZoom);
+		}
+		return properties;
+	}
+
+	private void applyProperties(MCDynmapMarker marker) {
+		switch (_type) {
+			case AREA:
+				MCDynmapAreaMarker area = (MCDynmapAreaMarker) marker;
+				area.setRangeY(_topY, _bottomY);
+				area.setFillStyle(CHDynmapStaticLayer.getFillStyle(_fillColor, _fillOpacity));
+				area.setLineStyle(CHDynmapStaticLayer.getLineStyle(_lineColor, _lineOpacity, _lineWeight));
+				area.setBoosted(_boosted);
+				break;
+			case CIRCLE:
+				MCDynmapCircleMarker circle = (MCDynmapCircleMarker) marker;
+				circle.setFillStyle(CHDynmapStaticLayer.getFillStyle(_fillColor, _fillOpacity));
+				circle.setLineStyle(CHDynmapStaticLayer.getLineStyle(_lineColor, _lineOpacity, _lineWeight));
+				circle.setBoosted(_boosted);
+				break;
+			case POLYLINE:
+				((MCDynmapPolyLineMarker) marker).setLineStyle(CHDynmapStaticLayer.getLineStyle(_lineColor, _lineOpacity, _lineWeight));
+				break;
+			default:
+				break;
+		}
+		if (_description != null) {
+			marker.setDescription(_description);
+		}
+		marker.setMinZoom(_minZoom);
+		marker.setMaxZoom(_maxZoom);
+	}
+
+	/**
+	 * Writes a string which can be null, without the 64 KB limit of writeUTF (the descriptions can be longer).
+	 */
+	public static void writeString(DataOutputStream out, String string) throws IOException {
+		if (string == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	public static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public void write(DataOutputStream out) throws IOException {
+		out.writeUTF(_type.name());
+		out.writeUTF(_id);
+		writeString(out, _label);
+		out.writeBoolean(_labelIsHTML);
+		writeString(out, _description);
+		writeString(out, _world);
+		out.writeInt(_minZoom);
+		out.writeInt(_maxZoom);
+		out.writeInt(_x.length);
+		for (int i = 0; i < _x.length; i++) {
+			out.writeDouble(_x[i]);
+			out.writeDouble(_y[i]);
+			out.writeDouble(_z[i]);
+		}
+		out.writeDouble(_radiusX);
+		out.writeDouble(_radiusZ);
+		out.writeDouble(_topY);
+		out.writeDouble(_bottomY);
+		out.writeInt(_fillColor);
+		out.writeDouble(_fillOpacity);
+		out.writeInt(_lineColor);
+		out.writeDouble(_lineOpacity);
+		out.writeInt(_lineWeight);
+		out.writeBoolean(_boosted);
+		writeString(out, _icon);
+	}
+
+	public static CHDynmapMarkerState read(DataInputStream in) throws IOException {
+		MCDynmapMarkerType type;
+		try {
+			type = MCDynmapMarkerType.valueOf(in.readUTF());
+		} catch (IllegalArgumentException exception) {
+			throw new IOException("Unknown marker type.", exception);
+		}
+		String id = in.readUTF();
+		String label = readString(in);
+		boolean labelIsHTML = in.readBoolean();
+		String description = readString(in);
+		String world = readString(in);
+		int minZoom = in.readInt();
+		int maxZoom = in.readInt();
+		int count = in.readInt();
+		if (count < 0) {
+			throw new IOException("Invalid location count: " + count + ".");
+		}
+		double[] x = new double[count];
+		double[] y = new double[count];
+		double[] z = new double[count];
+		for (int i = 0; i < count; i++) {
+			x[i] = in.readDouble();
+			y[i] = in.readDouble();
+			z[i] = in.readDouble();
+		}
+		return new CHDynmapMarkerState(type, id, label, labelIsHTML, description, world, minZoom, maxZoom, x, y, z,
+				in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(),
+				in.readInt(), in.readDouble(), in.readInt(), in.readDouble(), in.readInt(), in.readBoolean(), readString(in));
+	}
+
+	@Override
+	public boolean equals(Object object) {
+		if (this == object) {
+			return true;
+		}
+		if (!(object instanceof CHDynmapMarkerState)) {
+			return false;
+		}
+		CHDynmapMarkerState other = (CHDynmapMarkerState) object;
+		return (_type == other._type) && Objects.equals(_id, other._id) && Objects.equals(_label, other._label) && (_labelIsHTML == other._labelIsHTML)
+				&& Objects.equals(_description, other._description) && Objects.equals(_world, other._world)
+				&& (_minZoom == other._minZoom) && (_maxZoom == other._maxZoom)
+				&& Arrays.equals(_x, other._x) && Arrays.equals(_y, other._y) && Arrays.equals(_z, other._z)
+				&& (_radiusX == other._radiusX) && (_radiusZ == other._radiusZ) && (_topY == other._topY) && (_bottomY == other._bottomY)
+				&& (_fillColor == other._fillColor) && (_fillOpacity == other._fillOpacity)
+				&& (_lineColor == other._lineColor) && (_lineOpacity == other._lineOpacity) && (_lineWeight == other._lineWeight)
+				&& (_boosted == other._boosted) && Objects.equals(_icon, other._icon);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(_type, _id, _label, _description, _world, Arrays.hashCode(_x), Arrays.hashCode(_z));
+	}
+}
\ No newline at end of file
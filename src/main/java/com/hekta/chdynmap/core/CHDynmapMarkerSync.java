@@ -0,0 +1,160 @@
+package com.hekta.chdynmap.core;
+
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Brings the markers of a markerset to a desired state with the fewest mutations. The desired markers are compared by
+ * ID to the live ones when the sync is built: only the missing markers are created, only the changed properties of the
+ * existing ones are set, and (if asked) the markers which are not desired are deleted. A marker whose type or world
+ * changed is created again. The mutations are then applied at once, or spread over the next ticks by a job.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapMarkerSync {
+
+	private final String _setID;
+	private final boolean _persistent;
+	//the desired states of the markers to create or to update, then the IDs of the markers to delete
+	private final List<CHDynmapMarkerState> _puts;
+	private final List<String> _deletes;
+	private int _created;
+	private int _updated;
+	private int _unchanged;
+
+	/**
+	 * @param desired The desired states of the markers, with distinct IDs.
+	 * @param persistent If the created markers are persistent (if the markerset is persistent and not journaled).
+	 * @param deleteOthers If the markers of the set which are not desired are deleted.
+	 */
+	public CHDynmapMarkerSync(MCDynmapMarkerSet set, Collection<CHDynmapMarkerState> desired, boolean persistent, boolean deleteOthers) {
+		_setID = set.getId();
+		_persistent = persistent;
+		_puts = new ArrayList<>();
+		_deletes = new ArrayList<>();
+		Set<String> desiredIDs = new HashSet<>();
+		for (CHDynmapMarkerState state : desired) {
+			desiredIDs.add(state.getId());
+			MCDynmapMarker marker = set.getMarker(state.getId());
+			if (marker == null) {
+				_puts.add(state);
+				_created++;
+			} else if (state.diff(CHDynmapMarkerState.of(marker)).isEmpty()) {
+				_unchanged++;
+			} else {
+				_puts.add(state);
+				_updated++;
+			}
+		}
+		if (deleteOthers) {
+			for (MCDynmapMarker marker : set.getMarkers()) {
+				if (!desiredIDs.contains(marker.getId())) {
+					_deletes.add(marker.getId());
+				}
+			}
+		}
+	}
+
+	public String getSetID() {
+		return _setID;
+	}
+
+	public int getCreated() {
+		return _created;
+	}
+
+	public int getUpdated() {
+		return _updated;
+	}
+
+	public int getDeleted() {
+		return _deletes.size();
+	}
+
+	public int getUnchanged() {
+		return _unchanged;
+	}
+
+	/**
+	 * Returns the number of markers to create, update or delete.
+	 */
+	public int getMutationCount() {
+		return _deletes.size() + _puts.size();
+	}
+
+	/**
+	 * Applies all the mutations now.
+	 */
+	public void apply() {
+		MCDynmapMarkerSet set = CHDynmapStatic.findMarkerSet(_setID);
+		if (set != null) {
+			for (int i = 0; i < getMutationCount(); i++) {
+				mutate(set, i);
+			}
+		}
+	}
+
+	/**
+	 * Submits a job applying the mutations over the next ticks.
+	 */
+	public CHDynmapJob submit() {
+		return CHDynmapJobRunner.submit(new SyncJob(this));
+	}
+
+	/**
+	 * Applies a mutation, the deletions first so the markers created again do not collide with them. The live marker is
+	 * read again, as it may have changed since the comparison.
+	 */
+	void mutate(MCDynmapMarkerSet set, int index) {
+		if (index < _deletes.size()) {
+			MCDynmapMarker marker = set.getMarker(_deletes.get(index));
+			if (marker != null) {
+				marker.delete();
+			}
+			return;
+		}
+		CHDynmapMarkerState state = _puts.get(index - _deletes.size());
+		MCDynmapMarker marker = set.getMarker(state.getId());
+		if (marker != null) {
+			CHDynmapMarkerState current = CHDynmapMarkerState.of(marker);
+			if ((current.getType() == state.getType()) && Objects.equals(current.getWorld(), state.getWorld())) {
+				state.update(marker, current);
+				return;
+			}
+			marker.delete();
+		}
+		state.create(set, _persistent && set.isPersistent() && !CHDynmapJournal.isJournaled(_setID));
+	}
+
+	private static final class SyncJob extends CHDynmapJob {
+
+		private final CHDynmapMarkerSync _sync;
+		private int _index;
+
+		private SyncJob(CHDynmapMarkerSync sync) {
+			super("sync", sync.getMutationCount());
+			_sync = sync;
+			_index = 0;
+		}
+
+		@Override
+		protected boolean step() {
+			if (_index >= _sync.getMutationCount()) {
+				return false;
+			}
+			MCDynmapMarkerSet set = CHDynmapStatic.findMarkerSet(_sync._setID);
+			if (set == null) {
+				return false;
+			}
+			_sync.mutate(set, _index);
+			_index++;
+			return true;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,500 @@
+package com.hekta.chdynmap.core;
+
+import com.hekta.chdynmap.abstraction.CHDynmapStaticLayer;
+import com.hekta.chdynmap.abstraction.MCDynmapAreaMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapCircleMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapIcon;
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerFillStyle;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerLineStyle;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import com.hekta.chdynmap.abstraction.MCDynmapPolyLineMarker;
+import com.hekta.chdynmap.abstraction.enums.MCDynmapMarkerType;
+import com.laytonsmith.abstraction.MCLocation;
+import com.laytonsmith.abstraction.MCWorld;
+import com.laytonsmith.abstraction.StaticLayer;
+import com.laytonsmith.core.ArgumentValidation;
+import com.laytonsmith.core.ObjectGenerator;
+import com.laytonsmith.core.Static;
+import com.laytonsmith.core.constructs.CArray;
+import com.laytonsmith.core.constructs.CNull;
+import com.laytonsmith.core.constructs.Target;
+import com.laytonsmith.core.exceptions.CRE.CRECastException;
+import com.laytonsmith.core.exceptions.CRE.CREInvalidWorldException;
+import com.laytonsmith.core.exceptions.CRE.CREPluginInternalException;
+import com.laytonsmith.core.natives.interfaces.Mixed;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The resolved options of a marker creation. Templates are parsed once, the world, icon and styles are resolved at
+ * this time, and markers can then be created from them by only applying the differences.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapMarkerTemplate {
+
+	private static final Map<String, CHDynmapMarkerTemplate> TEMPLATES = new TreeMap<>();
+
+	public static final int DEFAULT_FILL_COLOR = 0xFF0000;
+	public static final double DEFAULT_FILL_OPACITY = 0.35;
+	public static final int DEFAULT_LINE_COLOR = 0xFF0000;
+	public static final double DEFAULT_LINE_OPACITY = 0.8;
+	public static final int DEFAULT_LINE_WEIGHT = 3;
+
+	private String _setID;
+	private MCDynmapMarkerType _type;
+	private String _id;
+	private String _idPrefix;
+	private MCWorld _world;
+	private String _label;
+	private boolean _labelIsHTML;
+	private boolean _isPersistent;
+	private MCLocation _center;
+	private MCLocation[] _corners;
+	private MCDynmapIcon _icon;
+	private MCLocation _location;
+	private double _radiusX;
+	private double _radiusZ;
+	private String _description;
+	private MCDynmapMarkerFillStyle _fillStyle;
+	private MCDynmapMarkerLineStyle _lineStyle;
+	private Boolean _boosted;
+	private Integer _minZoom;
+	private Integer _maxZoom;
+	private Double _ttl;
+
+	private CHDynmapMarkerTemplate() {
+		_type = MCDynmapMarkerType.ICON;
+		_labelIsHTML = false;
+		_isPersistent = false;
+		_radiusX = 0;
+		_radiusZ = 0;
+	}
+
+	private CHDynmapMarkerTemplate(CHDynmapMarkerTemplate base) {
+		_setID = base._setID;
+		_type = base._type;
+		_id = base._id;
+		_idPrefix = base._idPrefix;
+		_world = base._world;
+		_label = base._label;
+		_labelIsHTML = base._labelIsHTML;
+		_isPersistent = base._isPersistent;
+		_center = base._center;
+		_corners = base._corners;
+		_icon = base._icon;
+		_location = base._location;
+		_radiusX = base._radiusX;
+		_radiusZ = base._radiusZ;
+		_description = base._description;
+		_fillStyle = base._fillStyle;
+		_lineStyle = base._lineStyle;
+		_boosted = base._boosted;
+		_minZoom = base._minZoom;
+		_maxZoom = base._maxZoom;
+		_ttl = base._ttl;
+	}
+
+	/**
+	 * Parses an option array, the keys are the ones of dm_create_marker, plus "set", "description", "fill_style",
+	 * "line_style", "boosted", "min_zoom", "max_zoom" and "ttl". If a base template is given, only the given keys are
+	 * parsed, the others are inherited.
+	 */
+	public static CHDynmapMarkerTemplate parse(CArray optionArray, CHDynmapMarkerTemplate base, Target t) {
+		CHDynmapMarkerTemplate template = (base != null) ? new CHDynmapMarkerTemplate(base) : new CHDynmapMarkerTemplate();
+		Set<String> keys = optionArray.stringKeySet();
+		//set
+		if (keys.contains("set")) {
+			Mixed set = optionArray.get("set", t);
+			template._setID = (set instanceof CNull) ? null : set.val();
+		}
+		//type
+		if (keys.contains("type")) {
+			if (optionArray.get("type", t) instanceof CNull) {
+				template._type = MCDynmapMarkerType.ICON;
+			} else {
+				try {
+					template._type = MCDynmapMarkerType.valueOf(optionArray.get("type", t).val().toUpperCase());
+				} catch (IllegalArgumentException exception) {
+					throw new CREPluginInternalException("Invalid marker type: " + optionArray.get("type", t).val(), t);
+				}
+			}
+		}
+		//id
+		if (keys.contains("id")) {
+			Mixed id = optionArray.get("id", t);
+			template._id = (id instanceof CNull) ? null : id.val();
+		}
+		//id_prefix
+		if (keys.contains("id_prefix")) {
+			Mixed prefix = optionArray.get("id_prefix", t);
+			template._idPrefix = (prefix instanceof CNull) ? null : prefix.val();
+		}
+		//world
+		boolean worldChanged = false;
+		if (keys.contains("world")) {
+			MCWorld world = Static.getServer().getWorld(optionArray.get("world", t).val());
+			if (world == null) {
+				throw new CREInvalidWorldException("Unknown world: " + optionArray.get("world", t).val(), t);
+			}
+			worldChanged = (template._world != null) && !world.getName().equals(template._world.getName());
+			template._world = world;
+		} else if (template._world == null) {
+			template._world = Static.getServer().getWorlds().get(0);
+		}
+		MCWorld world = template._world;
+		if (worldChanged) {
+			template._center = rebase(template._center, world);
+			template._location = rebase(template._location, world);
+			if (template._corners != null) {
+				MCLocation[] corners = new MCLocation[template._corners.length];
+				for (int i = 0; i < corners.length; i++) {
+					corners[i] = rebase(template._corners[i], world);
+				}
+				template._corners = corners;
+			}
+		}
+		//label
+		if (keys.contains("label")) {
+			template._label = optionArray.get("label", t).val();
+		}
+		//label_is_html
+		if (keys.contains("label_is_html")) {
+			template._labelIsHTML = ArgumentValidation.getBooleanObject(optionArray.get("label_is_html", t), t);
+		}
+		//persistent
+		if (keys.contains("persistent")) {
+			template._isPersistent = ArgumentValidation.getBooleanObject(optionArray.get("persistent", t), t);
+		}
+		//center
+		if (keys.contains("center")) {
+			template._center = ObjectGenerator.GetGenerator().location(optionArray.get("center", t), world, t);
+		}
+		//corners
+		if (keys.contains("corners")) {
+			CArray givenCorners = ArgumentValidation.getArray(optionArray.get("corners", t), t);
+			if (givenCorners.inAssociativeMode()) {
+				throw new CRECastException("The corners array must not be associative.", t);
+			}
+			MCLocation[] corners = new MCLocation[(int) givenCorners.size()];
+			int i = 0;
+			for (Mixed corner : givenCorners.asList()) {
+				corners[i] = ObjectGenerator.GetGenerator().location(corner, world, t);
+				i++;
+			}
+			template._corners = corners;
+		}
+		//icon
+		if (keys.contains("icon")) {
+			Mixed icon = optionArray.get("icon", t);
+			template._icon = (icon instanceof CNull) ? null : CHDynmapStatic.getIcon(icon.val(), t);
+		}
+		//location
+		if (keys.contains("location")) {
+			template._location = ObjectGenerator.GetGenerator().location(optionArray.get("location", t), world, t);
+		}
+		//radius
+		if (keys.contains("radius")) {
+			CArray radius = ArgumentValidation.getArray(optionArray.get("radius", t), t);
+			template._radiusX = ArgumentValidation.getDouble(radius.get("x", t), t);
+			template._radiusZ = ArgumentValidation.getDouble(radius.get("z", t), t);
+		}
+		//description
+		if (keys.contains("description")) {
+			Mixed description = optionArray.get("description", t);
+			template._description = (description instanceof CNull) ? null : description.val();
+		}
+		//fill_style
+		if (keys.contains("fill_style")) {
+			Mixed style = optionArray.get("fill_style", t);
+			if (style instanceof CNull) {
+				template._fillStyle = null;
+			} else {
+				MCDynmapMarkerFillStyle fillStyle = (template._fillStyle != null)
+						? CHDynmapStaticLayer.getFillStyle(template._fillStyle.getIntColor(), template._fillStyle.getOpacity())
+						: CHDynmapStaticLayer.getFillStyle(DEFAULT_FILL_COLOR, DEFAULT_FILL_OPACITY);
+				template._fillStyle = CHDynmapStatic.applyFillStyle(ArgumentValidation.getArray(style, t), fillStyle, t);
+			}
+		}
+		//line_style
+		if (keys.contains("line_style")) {
+			Mixed style = optionArray.get("line_style", t);
+			if (style instanceof CNull) {
+				template._lineStyle = null;
+			} else {
+				MCDynmapMarkerLineStyle lineStyle = (template._lineStyle != null)
+						? CHDynmapStaticLayer.getLineStyle(template._lineStyle.getIntColor(), template._lineStyle.getOpacity(), template._lineStyle.getWeight())
+						: CHDynmapStaticLayer.getLineStyle(DEFAULT_LINE_COLOR, DEFAULT_LINE_OPACITY, DEFAULT_LINE_WEIGHT);
+				template._lineStyle = CHDynmapStatic.applyLineStyle(ArgumentValidation.getArray(style, t), lineStyle, t);
+			}
+		}
+		//boosted
+		if (keys.contains("boosted")) {
+			Mixed boosted = optionArray.get("boosted", t);
+			template._boosted = (boosted instanceof CNull) ? null : ArgumentValidation.getBooleanObject(boosted, t);
+		}
+		//min_zoom
+		if (keys.contains("min_zoom")) {
+			Mixed zoom = optionArray.get("min_zoom", t);
+			template._minZoom = (zoom instanceof CNull) ? null : ArgumentValidation.getInt32(zoom, t);
+		}
+		//max_zoom
+		if (keys.contains("max_zoom")) {
+			Mixed zoom = optionArray.get("max_zoom", t);
+			template._maxZoom = (zoom instanceof CNull) ? null : ArgumentValidation.getInt32(zoom, t);
+		}
+		//ttl
+		if (keys.contains("ttl")) {
+			Mixed ttl = optionArray.get("ttl", t);
+			template._ttl = (ttl instanceof CNull) ? null : ArgumentValidation.getDouble(ttl, t);
+		}
+		return template;
+	}
+
+	private static MCLocation rebase(MCLocation location, MCWorld world) {
+		if (location == null) {
+			return null;
+		} else {
+			return StaticLayer.GetLocation(world, location.getX(), location.getY(), location.getZ());
+		}
+	}
+
+	/**
+	 * Returns a copy of this template with the given overrides applied, or this template if there is nothing to
+	 * override.
+	 */
+	public CHDynmapMarkerTemplate override(CArray overrides, Target t) {
+		if ((overrides == null) || (overrides.size() == 0)) {
+			return this;
+		} else {
+			return parse(overrides, this, t);
+		}
+	}
+
+	public String getSetID() {
+		return _setID;
+	}
+
+	public MCDynmapMarkerType getType() {
+		return _type;
+	}
+
+	public String getId() {
+		return _id;
+	}
+
+	public MCWorld getWorld() {
+		return _world;
+	}
+
+	/**
+	 * Creates a marker in the given set, with the ID of the template. If the template has no ID, the ID is allocated
+	 * from the ID prefix of the template or else the default one of the set (and is not probed, as it is unique).
+	 */
+	public MCDynmapMarker create(MCDynmapMarkerSet set, Target t) {
+		if (_id == null) {
+			String prefix = (_idPrefix != null) ? _idPrefix : CHDynmapIdAllocator.getDefaultPrefix(set.getId());
+			if (prefix != null) {
+				return build(set, CHDynmapIdAllocator.allocate(set, prefix), t);
+			}
+		}
+		return create(set, _id, t);
+	}
+
+	/**
+	 * Creates a marker in the given set, with the given ID (if null, an unique ID is generated by Dynmap).
+	 */
+	public MCDynmapMarker create(MCDynmapMarkerSet set, String id, Target t) {
+		if ((id != null) && (set.getMarker(id) != null)) {
+			throw new CREPluginInternalException("\"" + id + "\" is already an existing marker.", t);
+		}
+		return build(set, id, t);
+	}
+
+	private MCDynmapMarker build(MCDynmapMarkerSet set, String id, Target t) {
+		String label = (_label != null) ? _label : id;
+		//the markers of the journaled sets are persisted by the journal, not by Dynmap
+		boolean isPersistent = _isPersistent && !CHDynmapJournal.isJournaled(set.getId());
+		MCDynmapMarker marker;
+		switch (_type) {
+			case AREA:
+				marker = set.createAreaMarker(id, label, _labelIsHTML, _world, getCorners(), isPersistent);
+				break;
+			case CIRCLE:
+				marker = set.createCircleMarker(id, label, _labelIsHTML, (_center != null) ? _center : _world.getSpawnLocation(), _radiusX, _radiusZ, isPersistent);
+				break;
+			case ICON:
+				marker = set.createIconMarker(id, label, _labelIsHTML, (_location != null) ? _location : _world.getSpawnLocation(), (_icon != null) ? _icon : set.getDefaultIcon(), isPersistent);
+				break;
+			case POLYLINE:
+				marker = set.createPolyLineMarker(id, label, _labelIsHTML, _world, getCorners(), isPersistent);
+				break;
+			default:
+				marker = null;
+				break;
+		}
+		if (marker == null) {
+			throw new CREPluginInternalException("The marker creation failed.", t);
+		}
+		applyProperties(marker);
+		if (_ttl != null) {
+			CHDynmapExpiryWheel.schedule(set.getId(), marker.getId(), CHDynmapExpiryWheel.toTicks(_ttl));
+		}
+		return marker;
+	}
+
+	private MCLocation[] getCorners() {
+		if (_corners != null) {
+			return _corners;
+		} else {
+			return new MCLocation[]{_world.getSpawnLocation()};
+		}
+	}
+
+	private void applyProperties(MCDynmapMarker marker) {
+		if (_description != null) {
+			marker.setDescription(_description);
+		}
+		if (_minZoom != null) {
+			marker.setMinZoom(_minZoom);
+		}
+		if (_maxZoom != null) {
+			marker.setMaxZoom(_maxZoom);
+		}
+		switch (_type) {
+			case AREA:
+				MCDynmapAreaMarker area = (MCDynmapAreaMarker) marker;
+				if (_fillStyle != null) {
+					area.setFillStyle(_fillStyle);
+				}
+				if (_lineStyle != null) {
+					area.setLineStyle(_lineStyle);
+				}
+				if (_boosted != null) {
+					area.setBoosted(_boosted);
+				}
+				break;
+			case CIRCLE:
+				MCDynmapCircleMarker circle = (MCDynmapCircleMarker) marker;
+				if (_fillStyle != null) {
+					circle.setFillStyle(_fillStyle);
+				}
+				if (_lineStyle != null) {
+					circle.setLineStyle(_lineStyle);
+				}
+				if (_boosted != null) {
+					circle.setBoosted(_boosted);
+				}
+				break;
+			case POLYLINE:
+				if (_lineStyle != null) {
+					((MCDynmapPolyLineMarker) marker).setLineStyle(_lineStyle);
+				}
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Returns the state of the marker this template would create in the given set with the given ID, with the unset
+	 * properties at the values Dynmap gives them. The ttl and the persistence are not part of the state.
+	 */
+	public CHDynmapMarkerState toState(MCDynmapMarkerSet set, String id) {
+		MCLocation[] locations;
+		switch (_type) {
+			case AREA:
+			case POLYLINE:
+				locations = getCorners();
+				break;
+			case CIRCLE:
+				locations = new MCLocation[]{(_center != null) ? _center : _world.getSpawnLocation()};
+				break;
+			default:
+				locations = new MCLocation[]{(_location != null) ? _location : _world.getSpawnLocation()};
+				break;
+		}
+		double[] x = new double[locations.length];
+		double[] y = new double[locations.length];
+		double[] z = new double[locations.length];
+		for (int i = 0; i < locations.length; i++) {
+			x[i] = locations[i].getX();
+			y[i] = locations[i].getY();
+			z[i] = locations[i].getZ();
+		}
+		MCDynmapIcon icon = (_icon != null) ? _icon : set.getDefaultIcon();
+		boolean styled = (_type == MCDynmapMarkerType.AREA) || (_type == MCDynmapMarkerType.CIRCLE);
+		boolean lined = styled || (_type == MCDynmapMarkerType.POLYLINE);
+		return new CHDynmapMarkerState(_type, id, (_label != null) ? _label : id, _labelIsHTML, _description, _world.getName(),
+				(_minZoom != null) ? _minZoom : -1, (_maxZoom != null) ? _maxZoom : -1, x, y, z,
+				(_type == MCDynmapMarkerType.CIRCLE) ? _radiusX : 0, (_type == MCDynmapMarkerType.CIRCLE) ? _radiusZ : 0,
+				(_type == MCDynmapMarkerType.AREA) ? 64 : 0, (_type == MCDynmapMarkerType.AREA) ? 64 : 0,
+				!styled ? 0 : (_fillStyle != null) ? _fillStyle.getIntColor() : DEFAULT_FILL_COLOR,
+				!styled ? 0 : (_fillStyle != null) ? _fillStyle.getOpacity() : DEFAULT_FILL_OPACITY,
+				!lined ? 0 : (_lineStyle != null) ? _lineStyle.getIntColor() : DEFAULT_LINE_COLOR,
+				!lined ? 0 : (_lineStyle != null) ? _lineStyle.getOpacity() : DEFAULT_LINE_OPACITY,
+				!lined ? 0 : (_lineStyle != null) ? _lineStyle.getWeight() : DEFAULT_LINE_WEIGHT,
+				styled && (_boosted != null) && _boosted,
+				((_type == MCDynmapMarkerType.ICON) && (icon != null)) ? icon.getId() : null);
+	}
+
+	/**
+	 * Submits a job creating a marker from each template over the next ticks, each in the markerset of its template.
+	 * The markersets deleted in the meantime are skipped.
+	 */
+	public static CHDynmapJob submit(List<CHDynmapMarkerTemplate> templates) {
+		return CHDynmapJobRunner.submit(new CreationJob(templates));
+	}
+
+	private static final class CreationJob extends CHDynmapJob {
+
+		private final List<CHDynmapMarkerTemplate> _templates;
+		private int _index;
+		private MCDynmapMarkerSet _set;
+
+		private CreationJob(List<CHDynmapMarkerTemplate> templates) {
+			super("create", templates.size());
+			_templates = templates;
+			_index = 0;
+		}
+
+		@Override
+		protected boolean step() {
+			if (_index >= _templates.size()) {
+				return false;
+			}
+			CHDynmapMarkerTemplate template = _templates.get(_index);
+			_index++;
+			if ((_set == null) || !_set.getId().equals(template._setID)) {
+				_set = CHDynmapStatic.findMarkerSet(template._setID);
+			}
+			if (_set != null) {
+				template.create(_set, Target.UNKNOWN);
+			}
+			return true;
+		}
+	}
+
+	public static void define(String name, CHDynmapMarkerTemplate template) {
+		TEMPLATES.put(name, template);
+	}
+
+	public static CHDynmapMarkerTemplate get(String name) {
+		return TEMPLATES.get(name);
+	}
+
+	public static boolean remove(String name) {
+		return TEMPLATES.remove(name) != null;
+	}
+
+	public static Set<String> getNames() {
+		return TEMPLATES.keySet();
+	}
+
+	public static void clear() {
+		TEMPLATES.clear();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,123 @@
+package com.hekta.chdynmap.core;
+
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerAPI;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerListener;
+import com.hekta.chdynmap.abstraction.MCDynmapPlayerSet;
+import com.laytonsmith.abstraction.MCOfflinePlayer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The reverse index of the playersets, from the player names (without case, as Dynmap compares them) to the IDs of the
+ * playersets containing them. The index is built by a single scan of the playersets when it is first queried, then
+ * kept up to date by the marker listener.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapPlayerIndex {
+
+	private static boolean built = false;
+
+	//player name -> playerSetIDs
+	private static final Map<String, NavigableSet<String>> PLAYERS = new HashMap<>();
+	//playerSetID -> player names
+	private static final Map<String, Set<String>> MEMBERS = new HashMap<>();
+
+	public static final MCDynmapMarkerListener LISTENER = new MCDynmapMarkerListener() {
+
+		@Override
+		public void playerSetCreated(MCDynmapPlayerSet set) {
+			if (built) {
+				index(set);
+			}
+		}
+
+		@Override
+		public void playerSetChanged(MCDynmapPlayerSet set) {
+			if (built) {
+				index(set);
+			}
+		}
+
+		@Override
+		public void playerSetDeleted(MCDynmapPlayerSet set) {
+			if (built) {
+				unindex(set.getId());
+			}
+		}
+	};
+
+	private CHDynmapPlayerIndex() {
+	}
+
+	private static String normalize(String name) {
+		return name.toLowerCase(Locale.ROOT);
+	}
+
+	private static void index(MCDynmapPlayerSet set) {
+		unindex(set.getId());
+		Set<String> names = new HashSet<>();
+		for (MCOfflinePlayer player : set.getPlayers()) {
+			if (player.getName() != null) {
+				String name = normalize(player.getName());
+				names.add(name);
+				PLAYERS.computeIfAbsent(name, k -> new TreeSet<>()).add(set.getId());
+			}
+		}
+		MEMBERS.put(set.getId(), names);
+	}
+
+	private static void unindex(String setID) {
+		Set<String> names = MEMBERS.remove(setID);
+		if (names != null) {
+			for (String name : names) {
+				NavigableSet<String> setIDs = PLAYERS.get(name);
+				setIDs.remove(setID);
+				if (setIDs.isEmpty()) {
+					PLAYERS.remove(name);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the sorted IDs of the playersets containing the player.
+	 */
+	public static List<String> getPlayerSets(MCDynmapMarkerAPI api, String playerName) {
+		if (!built) {
+			for (MCDynmapPlayerSet set : api.getPlayerSets()) {
+				index(set);
+			}
+			built = true;
+		}
+		NavigableSet<String> setIDs = PLAYERS.get(normalize(playerName));
+		return (setIDs == null) ? new ArrayList<>() : new ArrayList<>(setIDs);
+	}
+
+	/**
+	 * Starts with an empty index, it is built when it is first queried.
+	 */
+	public static void start() {
+		clear();
+	}
+
+	/**
+	 * Drops the index, as the playersets can change while the extension is not loaded.
+	 */
+	public static void stop() {
+		clear();
+	}
+
+	private static void clear() {
+		PLAYERS.clear();
+		MEMBERS.clear();
+		built = false;
+	}
+}
\ No newline at end of file
@@ -8,14 +8,23 @@ import com.hekta.chdynmap.abstraction.MCDynmapIcon;
 import com.hekta.chdynmap.abstraction.MCDynmapIconMarker;
 import com.hekta.chdynmap.abstraction.MCDynmapMarker;
 import com.hekta.chdynmap.abstraction.MCDynmapMarkerAPI;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerFillStyle;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerLineStyle;
 import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
 import com.hekta.chdynmap.abstraction.MCDynmapPlayerSet;
 import com.hekta.chdynmap.abstraction.MCDynmapPolyLineMarker;
+import com.laytonsmith.core.ArgumentValidation;
+import com.laytonsmith.core.ObjectGenerator;
+import com.laytonsmith.core.constructs.CArray;
+import com.laytonsmith.core.constructs.CNull;
 import com.laytonsmith.core.constructs.Target;
 import com.laytonsmith.core.exceptions.CRE.CREFormatException;
 import com.laytonsmith.core.exceptions.CRE.CREInvalidPluginException;
 import com.laytonsmith.core.exceptions.CRE.CRENotFoundException;
 import com.laytonsmith.core.exceptions.CRE.CREPluginInternalException;
+import com.laytonsmith.core.exceptions.CRE.CRERangeException;
+import com.laytonsmith.core.natives.interfaces.Mixed;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 /**
@@ -50,6 +59,28 @@ public final class CHDynmapStatic {
 		}
 	}
 
+	/**
+	 * Returns the marker API, or null if it is not loaded. This is for the code running outside of a function call,
+	 * like the jobs.
+	 */
+	public static MCDynmapMarkerAPI findMarkerAPI() {
+		MCDynmapAPI api = CHDynmap.getDynmapAPI();
+		return (api != null) ? api.getMarkerAPI() : null;
+	}
+
+	/**
+	 * Returns the markerset, or null if it does not exist or if the marker API is not loaded. This is for the code
+	 * running outside of a function call, like the jobs.
+	 */
+	public static MCDynmapMarkerSet findMarkerSet(String setID) {
+		MCDynmapMarkerAPI markerAPI = findMarkerAPI();
+		if (markerAPI != null) {
+			return markerAPI.getMarkerSet(setID);
+		} else {
+			return null;
+		}
+	}
+
 	public static MCDynmapMarker getMarker(String setID, String markerID, Target t) {
 		MCDynmapMarker marker = getMarkerSet(setID, t).getMarker(markerID);
 		if (marker != null) {
@@ -118,4 +149,52 @@ public final class CHDynmapStatic {
 			throw new CREFormatException("A setID must only contain numbers, letters, periods (.) and underscores (_).", t);
 		}
 	}
+
+	/**
+	 * Returns the "spread" key of the option array at the given index of the arguments, false if there is none.
+	 */
+	public static boolean isSpread(Mixed[] args, int index, Target t) {
+		if ((args.length <= index) || (args[index] instanceof CNull)) {
+			return false;
+		}
+		CArray optionArray = ArgumentValidation.getArray(args[index], t);
+		if (optionArray.containsKey("spread")) {
+			return ArgumentValidation.getBooleanObject(optionArray.get("spread", t), t);
+		} else {
+			return false;
+		}
+	}
+
+	public static MCDynmapMarkerFillStyle applyFillStyle(CArray styleArray, MCDynmapMarkerFillStyle fillStyle, Target t) {
+		Set<String> keys = styleArray.stringKeySet();
+		if (keys.contains("color")) {
+			fillStyle.setColor(ObjectGenerator.GetGenerator().color(ArgumentValidation.getArray(styleArray.get("color", t), t), t));
+		}
+		if (keys.contains("opacity")) {
+			fillStyle.setOpacity(getOpacity(styleArray.get("opacity", t), t));
+		}
+		return fillStyle;
+	}
+
+	public static MCDynmapMarkerLineStyle applyLineStyle(CArray styleArray, MCDynmapMarkerLineStyle lineStyle, Target t) {
+		Set<String> keys = styleArray.stringKeySet();
+		if (keys.contains("color")) {
+			lineStyle.setColor(ObjectGenerator.GetGenerator().color(ArgumentValidation.getArray(styleArray.get("color", t), t), t));
+		}
+		if (keys.contains("opacity")) {
+			lineStyle.setOpacity(getOpacity(styleArray.get("opacity", t), t));
+		}
+		if (keys.contains("weight")) {
+			lineStyle.setWeight(ArgumentValidation.getInt32(styleArray.get("weight", t), t));
+		}
+		return lineStyle;
+	}
+
+	private static double getOpacity(Mixed value, Target t) {
+		double opacity = ArgumentValidation.getDouble(value, t);
+		if ((opacity < 0) || (opacity > 1)) {
+			throw new CRERangeException("Opacity must be between 0 and 1 inclusive.", t);
+		}
+		return opacity;
+	}
 }
\ No newline at end of file
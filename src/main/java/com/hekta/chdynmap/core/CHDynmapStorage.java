@@ -0,0 +1,77 @@
+package com.hekta.chdynmap.core;
+
+import com.hekta.chdynmap.abstraction.CHDynmapStaticLayer;
+import com.laytonsmith.core.Static;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Level;
+
+/**
+ * Reads and writes the binary data files of CHDynmap. A file is written next to the previous one, then moved over it,
+ * so a crash during a save never leaves a truncated file.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapStorage {
+
+	public interface Writer {
+
+		public void write(DataOutputStream out) throws IOException;
+	}
+
+	public interface Reader {
+
+		public void read(DataInputStream in) throws IOException;
+	}
+
+	private CHDynmapStorage() {
+	}
+
+	public static File getFile(String name) {
+		return new File(CHDynmapStaticLayer.getDataFolder(), name);
+	}
+
+	/**
+	 * Writes a data file, and returns false (after logging the error) if it failed.
+	 */
+	public static boolean save(String name, Writer writer) {
+		File file = getFile(name);
+		File temp = new File(file.getPath() + ".tmp");
+		try {
+			Files.createDirectories(file.getParentFile().toPath());
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+				writer.write(out);
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		} catch (IOException exception) {
+			Static.getLogger().log(Level.SEVERE, "[CHDynmap] Could not save " + file + ".", exception);
+			return false;
+		}
+	}
+
+	/**
+	 * Reads a data file, and returns false if it does not exist or if it failed (after logging the error).
+	 */
+	public static boolean load(String name, Reader reader) {
+		File file = getFile(name);
+		if (!file.isFile()) {
+			return false;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			reader.read(in);
+			return true;
+		} catch (IOException exception) {
+			Static.getLogger().log(Level.SEVERE, "[CHDynmap] Could not load " + file + ".", exception);
+			return false;
+		}
+	}
+}
\ No newline at end of file
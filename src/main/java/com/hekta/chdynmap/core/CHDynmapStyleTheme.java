@@ -0,0 +1,403 @@
+package com.hekta.chdynmap.core;
+
+import com.hekta.chdynmap.abstraction.CHDynmapStaticLayer;
+import com.hekta.chdynmap.abstraction.MCDynmapAreaMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapCircleMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerFillStyle;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerLineStyle;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerListener;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import com.hekta.chdynmap.abstraction.MCDynmapPolyLineMarker;
+import com.laytonsmith.core.ArgumentValidation;
+import com.laytonsmith.core.constructs.CArray;
+import com.laytonsmith.core.constructs.CNull;
+import com.laytonsmith.core.constructs.Target;
+import com.laytonsmith.core.natives.interfaces.Mixed;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A named set of style settings markers can be bound to. The themes know their markers, and the markers know their
+ * theme, so a theme update is only re-applied to its own markers.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapStyleTheme {
+
+	private static final Map<String, CHDynmapStyleTheme> THEMES = new TreeMap<>();
+	//setID -> markerID -> theme
+	private static final Map<String, Map<String, CHDynmapStyleTheme>> BINDINGS = new HashMap<>();
+
+	public static final MCDynmapMarkerListener LISTENER = new MCDynmapMarkerListener() {
+
+		@Override
+		public void markerMoved(MCDynmapMarker marker, String oldSetID) {
+			CHDynmapStyleTheme theme = unbind(oldSetID, marker.getId());
+			if (theme != null) {
+				bind(marker.getSet().getId(), marker.getId(), theme);
+			}
+		}
+
+		@Override
+		public void markerDeleted(MCDynmapMarker marker) {
+			unbind(marker.getSet().getId(), marker.getId());
+		}
+
+		@Override
+		public void markerSetDeleted(MCDynmapMarkerSet set) {
+			Map<String, CHDynmapStyleTheme> bindings = BINDINGS.remove(set.getId());
+			if (bindings != null) {
+				for (Map.Entry<String, CHDynmapStyleTheme> entry : bindings.entrySet()) {
+					recordUndo(set.getId(), entry.getKey(), entry.getValue());
+					entry.getValue().removeMarker(set.getId(), entry.getKey());
+				}
+			}
+		}
+	};
+
+	private final String _name;
+	private MCDynmapMarkerFillStyle _fillStyle;
+	private MCDynmapMarkerLineStyle _lineStyle;
+	private Boolean _boosted;
+	private Integer _minZoom;
+	private Integer _maxZoom;
+	private Boolean _labelIsHTML;
+	//setID -> markerIDs
+	private final Map<String, Set<String>> _markers;
+	private int _markerCount;
+	private CHDynmapJob _job;
+
+	private CHDynmapStyleTheme(String name) {
+		_name = name;
+		_markers = new HashMap<>();
+		_markerCount = 0;
+	}
+
+	/**
+	 * Parses an option array, the keys are "fill_style", "line_style", "boosted", "min_zoom", "max_zoom" and
+	 * "label_is_html". The settings that are not given are left untouched on the markers.
+	 */
+	private void parse(CArray optionArray, Target t) {
+		Set<String> keys = optionArray.stringKeySet();
+		Mixed value;
+		//fill_style
+		value = keys.contains("fill_style") ? optionArray.get("fill_style", t) : CNull.NULL;
+		_fillStyle = (value instanceof CNull) ? null : CHDynmapStatic.applyFillStyle(ArgumentValidation.getArray(value, t),
+				CHDynmapStaticLayer.getFillStyle(CHDynmapMarkerTemplate.DEFAULT_FILL_COLOR, CHDynmapMarkerTemplate.DEFAULT_FILL_OPACITY), t);
+		//line_style
+		value = keys.contains("line_style") ? optionArray.get("line_style", t) : CNull.NULL;
+		_lineStyle = (value instanceof CNull) ? null : CHDynmapStatic.applyLineStyle(ArgumentValidation.getArray(value, t),
+				CHDynmapStaticLayer.getLineStyle(CHDynmapMarkerTemplate.DEFAULT_LINE_COLOR, CHDynmapMarkerTemplate.DEFAULT_LINE_OPACITY, CHDynmapMarkerTemplate.DEFAULT_LINE_WEIGHT), t);
+		//boosted
+		value = keys.contains("boosted") ? optionArray.get("boosted", t) : CNull.NULL;
+		_boosted = (value instanceof CNull) ? null : ArgumentValidation.getBooleanObject(value, t);
+		//min_zoom
+		value = keys.contains("min_zoom") ? optionArray.get("min_zoom", t) : CNull.NULL;
+		_minZoom = (value instanceof CNull) ? null : ArgumentValidation.getInt32(value, t);
+		//max_zoom
+		value = keys.contains("max_zoom") ? optionArray.get("max_zoom", t) : CNull.NULL;
+		_maxZoom = (value instanceof CNull) ? null : ArgumentValidation.getInt32(value, t);
+		//label_is_html
+		value = keys.contains("label_is_html") ? optionArray.get("label_is_html", t) : CNull.NULL;
+		_labelIsHTML = (value instanceof CNull) ? null : ArgumentValidation.getBooleanObject(value, t);
+	}
+
+	public String getName() {
+		return _name;
+	}
+
+	public int getMarkerCount() {
+		return _markerCount;
+	}
+
+	/**
+	 * Returns the IDs of the bound markers, by markerset ID.
+	 */
+	public Map<String, Set<String>> getMarkers() {
+		return Collections.unmodifiableMap(_markers);
+	}
+
+	/**
+	 * Applies the theme to a marker, the writes are elided if the marker already has the settings.
+	 */
+	public void apply(MCDynmapMarker marker) {
+		if (_minZoom != null) {
+			marker.setMinZoom(_minZoom);
+		}
+		if (_maxZoom != null) {
+			marker.setMaxZoom(_maxZoom);
+		}
+		if (_labelIsHTML != null) {
+			marker.setLabel(marker.getLabel(), _labelIsHTML);
+		}
+		switch (marker.getType()) {
+			case AREA:
+				MCDynmapAreaMarker area = (MCDynmapAreaMarker) marker;
+				if (_fillStyle != null) {
+					area.setFillStyle(_fillStyle);
+				}
+				if (_lineStyle != null) {
+					area.setLineStyle(_lineStyle);
+				}
+				if (_boosted != null) {
+					area.setBoosted(_boosted);
+				}
+				break;
+			case CIRCLE:
+				MCDynmapCircleMarker circle = (MCDynmapCircleMarker) marker;
+				if (_fillStyle != null) {
+					circle.setFillStyle(_fillStyle);
+				}
+				if (_lineStyle != null) {
+					circle.setLineStyle(_lineStyle);
+				}
+				if (_boosted != null) {
+					circle.setBoosted(_boosted);
+				}
+				break;
+			case POLYLINE:
+				if (_lineStyle != null) {
+					((MCDynmapPolyLineMarker) marker).setLineStyle(_lineStyle);
+				}
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Re-applies the theme to all its markers, in a job spread over the ticks. A previous re-application still running
+	 * is cancelled, as this one covers it. Returns null if the theme has no marker.
+	 */
+	private CHDynmapJob reapply() {
+		if (_job != null) {
+			_job.cancel();
+			_job = null;
+		}
+		if (_markerCount == 0) {
+			return null;
+		}
+		String[] setIDs = new String[_markerCount];
+		String[] markerIDs = new String[_markerCount];
+		int i = 0;
+		for (Map.Entry<String, Set<String>> entry : _markers.entrySet()) {
+			for (String markerID : entry.getValue()) {
+				setIDs[i] = entry.getKey();
+				markerIDs[i] = markerID;
+				i++;
+			}
+		}
+		_job = CHDynmapJobRunner.submit(new ReapplyJob(setIDs, markerIDs));
+		return _job;
+	}
+
+	private final class ReapplyJob extends CHDynmapJob {
+
+		private final String[] _setIDs;
+		private final String[] _markerIDs;
+		private int _index;
+		private MCDynmapMarkerSet _set;
+
+		private ReapplyJob(String[] setIDs, String[] markerIDs) {
+			super("theme", setIDs.length);
+			_setIDs = setIDs;
+			_markerIDs = markerIDs;
+			_index = 0;
+		}
+
+		@Override
+		protected boolean step() {
+			if (_index >= _setIDs.length) {
+				return false;
+			}
+			String setID = _setIDs[_index];
+			String markerID = _markerIDs[_index];
+			_index++;
+			//the markers are sorted by set, so the set is only resolved when it changes
+			if ((_set == null) || !_set.getId().equals(setID)) {
+				_set = CHDynmapStatic.findMarkerSet(setID);
+				if (_set == null) {
+					return true;
+				}
+			}
+			if (getTheme(setID, markerID) == CHDynmapStyleTheme.this) {
+				MCDynmapMarker marker = _set.getMarker(markerID);
+				if (marker != null) {
+					apply(marker);
+				} else {
+					unbind(setID, markerID);
+				}
+			}
+			return true;
+		}
+
+		@Override
+		protected void finished() {
+			if (_job == this) {
+				_job = null;
+			}
+		}
+	}
+
+	/**
+	 * Defines a theme, or updates it and re-applies it to its markers. Returns the re-application job, or null if
+	 * there is nothing to re-apply. If a transaction is open and fails, the theme is removed, or its previous settings
+	 * are re-applied.
+	 */
+	public static CHDynmapJob define(String name, CArray optionArray, Target t) {
+		CHDynmapStyleTheme theme = THEMES.get(name);
+		if (theme == null) {
+			CHDynmapStyleTheme created = new CHDynmapStyleTheme(name);
+			created.parse(optionArray, t);
+			THEMES.put(name, created);
+			CHDynmapTransaction.record(() -> {
+				if (THEMES.get(name) == created) {
+					remove(name);
+				}
+			});
+			return null;
+		} else {
+			CHDynmapStyleTheme previous = new CHDynmapStyleTheme(name);
+			previous.copySettings(theme);
+			theme.parse(optionArray, t);
+			CHDynmapStyleTheme updated = theme;
+			CHDynmapTransaction.record(() -> {
+				updated.copySettings(previous);
+				updated.reapply();
+			});
+			return theme.reapply();
+		}
+	}
+
+	private void copySettings(CHDynmapStyleTheme theme) {
+		_fillStyle = theme._fillStyle;
+		_lineStyle = theme._lineStyle;
+		_boosted = theme._boosted;
+		_minZoom = theme._minZoom;
+		_maxZoom = theme._maxZoom;
+		_labelIsHTML = theme._labelIsHTML;
+	}
+
+	/**
+	 * Returns an unnamed theme that is not registered, to apply style settings to markers without binding them.
+	 */
+	public static CHDynmapStyleTheme parse(CArray optionArray, Target t) {
+		CHDynmapStyleTheme theme = new CHDynmapStyleTheme(null);
+		theme.parse(optionArray, t);
+		return theme;
+	}
+
+	public static CHDynmapStyleTheme get(String name) {
+		return THEMES.get(name);
+	}
+
+	/**
+	 * Removes a theme and its bindings, the markers keep their current style.
+	 */
+	public static boolean remove(String name) {
+		CHDynmapStyleTheme theme = THEMES.remove(name);
+		if (theme == null) {
+			return false;
+		}
+		CHDynmapTransaction.record(() -> {
+			//the removed theme still knows its markers
+			Map<String, Set<String>> markers = new HashMap<>(theme._markers);
+			theme._markers.clear();
+			theme._markerCount = 0;
+			THEMES.put(name, theme);
+			for (Map.Entry<String, Set<String>> entry : markers.entrySet()) {
+				for (String markerID : entry.getValue()) {
+					bind(entry.getKey(), markerID, theme);
+				}
+			}
+		});
+		if (theme._job != null) {
+			theme._job.cancel();
+		}
+		for (Map.Entry<String, Set<String>> entry : theme._markers.entrySet()) {
+			Map<String, CHDynmapStyleTheme> bindings = BINDINGS.get(entry.getKey());
+			if (bindings != null) {
+				bindings.keySet().removeAll(entry.getValue());
+				if (bindings.isEmpty()) {
+					BINDINGS.remove(entry.getKey());
+				}
+			}
+		}
+		return true;
+	}
+
+	public static Set<String> getNames() {
+		return THEMES.keySet();
+	}
+
+	public static CHDynmapStyleTheme getTheme(String setID, String markerID) {
+		Map<String, CHDynmapStyleTheme> bindings = BINDINGS.get(setID);
+		if (bindings != null) {
+			return bindings.get(markerID);
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Binds a marker to a theme (replacing its previous binding), without applying the theme.
+	 */
+	public static void bind(String setID, String markerID, CHDynmapStyleTheme theme) {
+		CHDynmapStyleTheme previous = BINDINGS.computeIfAbsent(setID, k -> new HashMap<>()).put(markerID, theme);
+		if (previous != theme) {
+			recordUndo(setID, markerID, previous);
+			if (previous != null) {
+				previous.removeMarker(setID, markerID);
+			}
+			theme._markers.computeIfAbsent(setID, k -> new LinkedHashSet<>()).add(markerID);
+			theme._markerCount++;
+		}
+	}
+
+	/**
+	 * Unbinds a marker from its theme, and returns the theme (or null if the marker was not bound).
+	 */
+	public static CHDynmapStyleTheme unbind(String setID, String markerID) {
+		Map<String, CHDynmapStyleTheme> bindings = BINDINGS.get(setID);
+		if (bindings == null) {
+			return null;
+		}
+		CHDynmapStyleTheme theme = bindings.remove(markerID);
+		if (bindings.isEmpty()) {
+			BINDINGS.remove(setID);
+		}
+		if (theme != null) {
+			recordUndo(setID, markerID, theme);
+			theme.removeMarker(setID, markerID);
+		}
+		return theme;
+	}
+
+	/**
+	 * If a transaction is open, records the previous theme of the marker, so it is bound again if the transaction fails.
+	 */
+	private static void recordUndo(String setID, String markerID, CHDynmapStyleTheme previous) {
+		CHDynmapTransaction.record(() -> {
+			if (previous != null) {
+				bind(setID, markerID, previous);
+			} else {
+				unbind(setID, markerID);
+			}
+		});
+	}
+
+	private void removeMarker(String setID, String markerID) {
+		Set<String> markerIDs = _markers.get(setID);
+		if ((markerIDs != null) && markerIDs.remove(markerID)) {
+			_markerCount--;
+			if (markerIDs.isEmpty()) {
+				_markers.remove(setID);
+			}
+		}
+	}
+}
\ No newline at end of file
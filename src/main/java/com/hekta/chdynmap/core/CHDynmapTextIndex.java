@@ -0,0 +1,275 @@
+package com.hekta.chdynmap.core;
+
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerListener;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * An inverted index of the words of the marker labels and descriptions (without their HTML markup). The words are
+ * sorted, so a query word matches all the words it is a prefix of. The markers of a markerset are indexed when the set
+ * is first searched, then the marker listener keeps the index up to date, a marker being indexed again only if its
+ * label or description changed.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapTextIndex {
+
+	private static final int LABEL_WEIGHT = 3;
+	private static final int DESCRIPTION_WEIGHT = 1;
+	private static final int EXACT_FACTOR = 2;
+
+	private static final Pattern TAG = Pattern.compile("<[^>]*>");
+	private static final Pattern SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+	//word -> document -> weight
+	private static final NavigableMap<String, Map<Document, Integer>> WORDS = new TreeMap<>();
+	//setID -> markerID -> document
+	private static final Map<String, Map<String, Document>> DOCUMENTS = new HashMap<>();
+
+	public static final MCDynmapMarkerListener LISTENER = new MCDynmapMarkerListener() {
+
+		@Override
+		public void markerCreated(MCDynmapMarker marker) {
+			Map<String, Document> documents = DOCUMENTS.get(marker.getSet().getId());
+			if (documents != null) {
+				add(documents, marker);
+			}
+		}
+
+		@Override
+		public void markerChanged(MCDynmapMarker marker) {
+			Map<String, Document> documents = DOCUMENTS.get(marker.getSet().getId());
+			if (documents != null) {
+				Document document = documents.get(marker.getId());
+				if ((document == null) || !document.hasText(marker.getLabel(), marker.getDescription())) {
+					remove(documents, marker.getId());
+					add(documents, marker);
+				}
+			}
+		}
+
+		@Override
+		public void markerMoved(MCDynmapMarker marker, String oldSetID) {
+			Map<String, Document> documents = DOCUMENTS.get(oldSetID);
+			if (documents != null) {
+				remove(documents, marker.getId());
+			}
+			markerCreated(marker);
+		}
+
+		@Override
+		public void markerDeleted(MCDynmapMarker marker) {
+			Map<String, Document> documents = DOCUMENTS.get(marker.getSet().getId());
+			if (documents != null) {
+				remove(documents, marker.getId());
+			}
+		}
+
+		@Override
+		public void markerSetDeleted(MCDynmapMarkerSet set) {
+			Map<String, Document> documents = DOCUMENTS.remove(set.getId());
+			if (documents != null) {
+				for (Document document : documents.values()) {
+					document.unindex();
+				}
+			}
+		}
+	};
+
+	private static final class Document {
+
+		private final String _setID;
+		private final String _markerID;
+		private final String _label;
+		private final String _description;
+		private final Map<String, Integer> _weights;
+
+		private Document(MCDynmapMarker marker) {
+			_setID = marker.getSet().getId();
+			_markerID = marker.getId();
+			_label = marker.getLabel();
+			_description = marker.getDescription();
+			_weights = new HashMap<>();
+			for (String word : tokenize(_label)) {
+				_weights.merge(word, LABEL_WEIGHT, Integer::sum);
+			}
+			for (String word : tokenize(_description)) {
+				_weights.merge(word, DESCRIPTION_WEIGHT, Integer::sum);
+			}
+		}
+
+		private boolean hasText(String label, String description) {
+			return Objects.equals(_label, label) && Objects.equals(_description, description);
+		}
+
+		private void index() {
+			for (Map.Entry<String, Integer> entry : _weights.entrySet()) {
+				WORDS.computeIfAbsent(entry.getKey(), k -> new HashMap<>()).put(this, entry.getValue());
+			}
+		}
+
+		private void unindex() {
+			for (String word : _weights.keySet()) {
+				Map<Document, Integer> documents = WORDS.get(word);
+				if (documents != null) {
+					documents.remove(this);
+					if (documents.isEmpty()) {
+						WORDS.remove(word);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * A search result, the higher the score, the better the marker matches the query.
+	 */
+	public static final class Result {
+
+		private final String _setID;
+		private final String _markerID;
+		private final String _label;
+		private final int _score;
+
+		private Result(Document document, int score) {
+			_setID = document._setID;
+			_markerID = document._markerID;
+			_label = document._label;
+			_score = score;
+		}
+
+		public String getSetID() {
+			return _setID;
+		}
+
+		public String getMarkerID() {
+			return _markerID;
+		}
+
+		public String getLabel() {
+			return _label;
+		}
+
+		public int getScore() {
+			return _score;
+		}
+	}
+
+	private CHDynmapTextIndex() {
+	}
+
+	/**
+	 * Returns the lowercase words of a text, without its HTML markup and entities.
+	 */
+	public static Set<String> tokenize(String text) {
+		Set<String> words = new LinkedHashSet<>();
+		if (text == null) {
+			return words;
+		}
+		String plain = TAG.matcher(text).replaceAll(" ").replace("&nbsp;", " ").replace("&lt;", "<").replace("&gt;", ">")
+				.replace("&quot;", "\"").replace("&#39;", "'").replace("&amp;", "&");
+		for (String word : SEPARATOR.split(plain.toLowerCase(Locale.ROOT))) {
+			if (!word.isEmpty()) {
+				words.add(word);
+			}
+		}
+		return words;
+	}
+
+	private static void add(Map<String, Document> documents, MCDynmapMarker marker) {
+		Document document = new Document(marker);
+		documents.put(document._markerID, document);
+		document.index();
+	}
+
+	private static void remove(Map<String, Document> documents, String markerID) {
+		Document document = documents.remove(markerID);
+		if (document != null) {
+			document.unindex();
+		}
+	}
+
+	private static void ensureIndexed(MCDynmapMarkerSet set) {
+		if (!DOCUMENTS.containsKey(set.getId())) {
+			Map<String, Document> documents = new HashMap<>();
+			for (MCDynmapMarker marker : set.getMarkers()) {
+				add(documents, marker);
+			}
+			DOCUMENTS.put(set.getId(), documents);
+		}
+	}
+
+	/**
+	 * Searches the markers of the given sets, all the words of the query must match (as a prefix of an indexed word).
+	 * The results are sorted by decreasing score, the label matches weighting more than the description ones, and the
+	 * exact words more than the prefixes. A negative limit means no limit.
+	 */
+	public static List<Result> search(String query, Collection<MCDynmapMarkerSet> sets, int limit) {
+		Set<String> setIDs = new LinkedHashSet<>();
+		for (MCDynmapMarkerSet set : sets) {
+			ensureIndexed(set);
+			setIDs.add(set.getId());
+		}
+		Map<Document, Integer> scores = null;
+		for (String term : tokenize(query)) {
+			Map<Document, Integer> termScores = new HashMap<>();
+			for (Map.Entry<String, Map<Document, Integer>> entry : WORDS.subMap(term, true, term + Character.MAX_VALUE, false).entrySet()) {
+				int factor = entry.getKey().equals(term) ? EXACT_FACTOR : 1;
+				for (Map.Entry<Document, Integer> posting : entry.getValue().entrySet()) {
+					if (((scores == null) || scores.containsKey(posting.getKey())) && setIDs.contains(posting.getKey()._setID)) {
+						termScores.merge(posting.getKey(), posting.getValue() * factor, Math::max);
+					}
+				}
+			}
+			if (scores != null) {
+				for (Map.Entry<Document, Integer> entry : termScores.entrySet()) {
+					entry.setValue(entry.getValue() + scores.get(entry.getKey()));
+				}
+			}
+			scores = termScores;
+			if (scores.isEmpty()) {
+				break;
+			}
+		}
+		List<Result> results = new ArrayList<>();
+		if (scores != null) {
+			for (Map.Entry<Document, Integer> entry : scores.entrySet()) {
+				results.add(new Result(entry.getKey(), entry.getValue()));
+			}
+		}
+		results.sort(Comparator.comparingInt(Result::getScore).reversed().thenComparing(Result::getLabel, Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER)));
+		if ((limit >= 0) && (limit < results.size())) {
+			return results.subList(0, limit);
+		}
+		return results;
+	}
+
+	/**
+	 * Starts with an empty index, the markers of a set are indexed when it is first searched.
+	 */
+	public static void start() {
+		WORDS.clear();
+		DOCUMENTS.clear();
+	}
+
+	/**
+	 * Drops the index, as the markers can change while the extension is not loaded.
+	 */
+	public static void stop() {
+		WORDS.clear();
+		DOCUMENTS.clear();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,378 @@
+package com.hekta.chdynmap.core;
+
+import com.hekta.chdynmap.abstraction.MCDynmapIcon;
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerAPI;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerListener;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import com.laytonsmith.core.Static;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.logging.Level;
+
+/**
+ * Makes a group of marker and markerset changes all or nothing. While a transaction is open, each change made through
+ * the abstraction layer is recorded in an undo log, with what is needed to revert it (the state of a marker before it
+ * changes or is deleted, the properties of a markerset, the markerset a marker was moved from). The side tables of
+ * the markers (metadata, theme and template bindings, groups, expirations, quotas) record their own changes with
+ * record(). If the transaction fails, the log is replayed backwards, so Dynmap and the side tables are left as they
+ * were when the transaction began, except for what Dynmap can not undo: the default icon given to a markerset which had
+ * none, and the icons allowed in a markerset which allowed all of them (a warning is logged).
+ * <p>
+ * What only follows the changes is not reverted but sees the reverts as new changes: the indexes, the journal, the
+ * history and the change feed. The events fired during the transaction, and the jobs it started, are not undone. The
+ * transactions can be nested, a failed inner transaction only reverts its own changes.
+ *
+ * @author Hekta
+ */
+public final class CHDynmapTransaction {
+
+	private interface Undo {
+
+		public void undo(MCDynmapMarkerAPI markerAPI);
+	}
+
+	/**
+	 * A change of a side table (the metadata, bindings, groups, expirations or quotas of the markers), reverted even if
+	 * the marker API is not available anymore.
+	 */
+	private static final class SideUndo implements Undo {
+
+		private final Runnable _undo;
+
+		private SideUndo(Runnable undo) {
+			_undo = undo;
+		}
+
+		@Override
+		public void undo(MCDynmapMarkerAPI markerAPI) {
+			_undo.run();
+		}
+	}
+
+	/**
+	 * The properties of a markerset, to restore them or to create the markerset again.
+	 */
+	private static final class SetState {
+
+		private final String _id;
+		private final String _label;
+		private final boolean _persistent;
+		private final boolean _hidden;
+		private final int _priority;
+		private final int _minZoom;
+		private final int _maxZoom;
+		private final Boolean _showLabels;
+		private final String _defaultIcon;
+		//null if the markerset allows all the icons
+		private final Set<String> _allowedIcons;
+
+		private SetState(MCDynmapMarkerSet set) {
+			_id = set.getId();
+			_label = set.getLabel();
+			_persistent = set.isPersistent();
+			_hidden = set.isHiddenByDefault();
+			_priority = set.getLayerPriority();
+			_minZoom = set.getMinZoom();
+			_maxZoom = set.getMaxZoom();
+			_showLabels = set.labelIsShown();
+			MCDynmapIcon defaultIcon = set.getDefaultIcon();
+			_defaultIcon = (defaultIcon != null) ? defaultIcon.getId() : null;
+			if (set.isRestricted()) {
+				_allowedIcons = new HashSet<>();
+				for (MCDynmapIcon icon : set.getAllowedIcons()) {
+					_allowedIcons.add(icon.getId());
+				}
+			} else {
+				_allowedIcons = null;
+			}
+		}
+
+		private MCDynmapMarkerSet create(MCDynmapMarkerAPI markerAPI) {
+			MCDynmapIcon[] allowedIcons = null;
+			if (_allowedIcons != null) {
+				List<MCDynmapIcon> icons = new ArrayList<>();
+				for (String iconID : _allowedIcons) {
+					MCDynmapIcon icon = markerAPI.getIcon(iconID);
+					if (icon != null) {
+						icons.add(icon);
+					}
+				}
+				allowedIcons = icons.toArray(new MCDynmapIcon[icons.size()]);
+			}
+			MCDynmapMarkerSet set = markerAPI.createMarkerSet(_id, _label, allowedIcons, _persistent);
+			if (set != null) {
+				apply(markerAPI, set);
+			}
+			return set;
+		}
+
+		private void apply(MCDynmapMarkerAPI markerAPI, MCDynmapMarkerSet set) {
+			if (!Objects.equals(_label, set.getLabel())) {
+				set.setLabel(_label);
+			}
+			if (_hidden != set.isHiddenByDefault()) {
+				set.setHiddenByDefault(_hidden);
+			}
+			if (_priority != set.getLayerPriority()) {
+				set.setLayerPriority(_priority);
+			}
+			if (_minZoom != set.getMinZoom()) {
+				set.setMinZoom(_minZoom);
+			}
+			if (_maxZoom != set.getMaxZoom()) {
+				set.setMaxZoom(_maxZoom);
+			}
+			if (!Objects.equals(_showLabels, set.labelIsShown())) {
+				set.setlabelIsShown(_showLabels);
+			}
+			MCDynmapIcon currentIcon = set.getDefaultIcon();
+			if ((_defaultIcon != null) && ((currentIcon == null) || !_defaultIcon.equals(currentIcon.getId()))) {
+				MCDynmapIcon defaultIcon = markerAPI.getIcon(_defaultIcon);
+				if (defaultIcon != null) {
+					set.setDefaultIcon(defaultIcon);
+				}
+			} else if ((_defaultIcon == null) && (currentIcon != null)) {
+				Static.getLogger().log(Level.WARNING, "[CHDynmap] Could not revert the default icon of the markerset \"" + _id
+						+ "\", Dynmap can not remove it.");
+			}
+			if ((_allowedIcons == null) && set.isRestricted()) {
+				Static.getLogger().log(Level.WARNING, "[CHDynmap] Could not revert the allowed icons of the markerset \"" + _id
+						+ "\", Dynmap can not allow all the icons again.");
+			}
+			if ((_allowedIcons != null) && set.isRestricted()) {
+				for (MCDynmapIcon icon : set.getAllowedIcons()) {
+					if (!_allowedIcons.contains(icon.getId())) {
+						set.removeAllowedIcon(icon);
+					}
+				}
+				for (String iconID : _allowedIcons) {
+					MCDynmapIcon icon = markerAPI.getIcon(iconID);
+					if ((icon != null) && !set.iconIsAllowed(icon)) {
+						set.addAllowedIcon(icon);
+					}
+				}
+			}
+		}
+	}
+
+	private static final List<Undo> LOG = new ArrayList<>();
+	private static int _depth = 0;
+	private static boolean _reverting = false;
+	private static long _epoch = 0;
+
+	/**
+	 * Returns if the changes are recorded, a transaction is open and is not being reverted.
+	 */
+	public static boolean isRecording() {
+		return (_depth > 0) && !_reverting;
+	}
+
+	/**
+	 * Returns if a failed transaction is being reverted, the side tables must not make new changes from the reverted
+	 * ones (like evicting markers).
+	 */
+	public static boolean isReverting() {
+		return _reverting;
+	}
+
+	/**
+	 * Returns a number changed each time a transaction begins or ends. A side table too large to record each change
+	 * can record its whole state once by epoch instead, at its first change of the epoch.
+	 */
+	public static long getEpoch() {
+		return _epoch;
+	}
+
+	/**
+	 * Brings the marker back to the given state, creating it again if needed.
+	 */
+	private static void restore(MCDynmapMarkerAPI markerAPI, String setID, CHDynmapMarkerState state, boolean persistent) {
+		MCDynmapMarkerSet set = markerAPI.getMarkerSet(setID);
+		if (set == null) {
+			return;
+		}
+		MCDynmapMarker marker = set.getMarker(state.getId());
+		if (marker != null) {
+			CHDynmapMarkerState current = CHDynmapMarkerState.of(marker);
+			if ((current.getType() == state.getType()) && Objects.equals(current.getWorld(), state.getWorld())) {
+				state.update(marker, current);
+				return;
+			}
+			marker.delete();
+		}
+		state.create(set, persistent);
+	}
+
+	public static final MCDynmapMarkerListener LISTENER = new MCDynmapMarkerListener() {
+
+		@Override
+		public void markerCreated(MCDynmapMarker marker) {
+			if (isRecording()) {
+				String setID = marker.getSet().getId();
+				String markerID = marker.getId();
+				LOG.add((MCDynmapMarkerAPI markerAPI) -> {
+					MCDynmapMarkerSet set = markerAPI.getMarkerSet(setID);
+					MCDynmapMarker created = (set != null) ? set.getMarker(markerID) : null;
+					if (created != null) {
+						created.delete();
+					}
+				});
+			}
+		}
+
+		@Override
+		public void markerChanging(MCDynmapMarker marker) {
+			if (isRecording()) {
+				String setID = marker.getSet().getId();
+				CHDynmapMarkerState state = CHDynmapMarkerState.of(marker);
+				boolean persistent = marker.isPersistent();
+				LOG.add((MCDynmapMarkerAPI markerAPI) -> restore(markerAPI, setID, state, persistent));
+			}
+		}
+
+		@Override
+		public void markerMoved(MCDynmapMarker marker, String oldSetID) {
+			if (isRecording()) {
+				String newSetID = marker.getSet().getId();
+				String markerID = marker.getId();
+				LOG.add((MCDynmapMarkerAPI markerAPI) -> {
+					MCDynmapMarkerSet newSet = markerAPI.getMarkerSet(newSetID);
+					MCDynmapMarkerSet oldSet = markerAPI.getMarkerSet(oldSetID);
+					MCDynmapMarker moved = (newSet != null) ? newSet.getMarker(markerID) : null;
+					if ((moved != null) && (oldSet != null)) {
+						moved.setSet(oldSet);
+					}
+				});
+			}
+		}
+
+		@Override
+		public void markerDeleted(MCDynmapMarker marker) {
+			if (isRecording()) {
+				String setID = marker.getSet().getId();
+				CHDynmapMarkerState state = CHDynmapMarkerState.of(marker);
+				boolean persistent = marker.isPersistent();
+				LOG.add((MCDynmapMarkerAPI markerAPI) -> restore(markerAPI, setID, state, persistent));
+			}
+		}
+
+		@Override
+		public void markerSetCreated(MCDynmapMarkerSet set) {
+			if (isRecording()) {
+				String setID = set.getId();
+				LOG.add((MCDynmapMarkerAPI markerAPI) -> {
+					MCDynmapMarkerSet created = markerAPI.getMarkerSet(setID);
+					if (created != null) {
+						created.delete();
+					}
+				});
+			}
+		}
+
+		@Override
+		public void markerSetChanging(MCDynmapMarkerSet set) {
+			if (isRecording()) {
+				SetState state = new SetState(set);
+				LOG.add((MCDynmapMarkerAPI markerAPI) -> {
+					MCDynmapMarkerSet changed = markerAPI.getMarkerSet(state._id);
+					if (changed != null) {
+						state.apply(markerAPI, changed);
+					}
+				});
+			}
+		}
+
+		@Override
+		public void markerSetDeleted(MCDynmapMarkerSet set) {
+			if (isRecording()) {
+				SetState state = new SetState(set);
+				//the markers of a deleted markerset are not notified one by one
+				List<CHDynmapMarkerState> markers = new ArrayList<>();
+				List<Boolean> persistence = new ArrayList<>();
+				for (MCDynmapMarker marker : set.getMarkers()) {
+					markers.add(CHDynmapMarkerState.of(marker));
+					persistence.add(marker.isPersistent());
+				}
+				LOG.add((MCDynmapMarkerAPI markerAPI) -> {
+					MCDynmapMarkerSet created = (markerAPI.getMarkerSet(state._id) == null) ? state.create(markerAPI) : null;
+					if (created != null) {
+						for (int i = 0; i < markers.size(); i++) {
+							markers.get(i).create(created, persistence.get(i));
+						}
+					}
+				});
+			}
+		}
+	};
+
+	private CHDynmapTransaction() {
+	}
+
+	/**
+	 * Opens a transaction (nested in the current one, if any), and returns its savepoint for end().
+	 */
+	public static int begin() {
+		_depth++;
+		_epoch++;
+		return LOG.size();
+	}
+
+	/**
+	 * Closes the transaction opened at the given savepoint. If it failed, the changes made since the savepoint are
+	 * reverted, the newest first. The log is dropped once the outermost transaction is closed.
+	 */
+	public static void end(int savepoint, boolean succeeded) {
+		if (!succeeded) {
+			revert(savepoint);
+		}
+		_depth--;
+		_epoch++;
+		if (_depth == 0) {
+			LOG.clear();
+		}
+	}
+
+	public static boolean isOpen() {
+		return _depth > 0;
+	}
+
+	/**
+	 * Records a change of a side table (not made through the abstraction layer), so it is reverted with the marker
+	 * changes if the transaction fails. Does nothing if no transaction is recording.
+	 */
+	public static void record(Runnable undo) {
+		if (isRecording()) {
+			LOG.add(new SideUndo(undo));
+		}
+	}
+
+	/**
+	 * Returns the number of changes recorded by the open transactions.
+	 */
+	public static int getChangeCount() {
+		return LOG.size();
+	}
+
+	private static void revert(int savepoint) {
+		MCDynmapMarkerAPI markerAPI = CHDynmapStatic.findMarkerAPI();
+		_reverting = true;
+		try {
+			for (int i = LOG.size() - 1; i >= savepoint; i--) {
+				Undo undo = LOG.remove(i);
+				if ((markerAPI != null) || (undo instanceof SideUndo)) {
+					try {
+						undo.undo(markerAPI);
+					} catch (RuntimeException exception) {
+						Static.getLogger().log(Level.WARNING, "[CHDynmap] Could not revert a marker change.", exception);
+					}
+				}
+			}
+		} finally {
+			_reverting = false;
+		}
+	}
+}
\ No newline at end of file
@@ -1,11 +1,16 @@
 package com.hekta.chdynmap.core.events;
 
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.events.MCDynmapJobProgressEvent;
+import com.hekta.chdynmap.abstraction.events.MCDynmapMarkerEvictedEvent;
+import com.hekta.chdynmap.abstraction.events.MCDynmapMarkerExpiredEvent;
 import com.hekta.chdynmap.abstraction.events.MCDynmapWebChatEvent;
 import com.laytonsmith.PureUtilities.Version;
 import com.laytonsmith.annotations.api;
 import com.laytonsmith.core.MSVersion;
 import com.laytonsmith.core.constructs.CArray;
 import com.laytonsmith.core.constructs.CBoolean;
+import com.laytonsmith.core.constructs.CInt;
 import com.laytonsmith.core.constructs.CString;
 import com.laytonsmith.core.constructs.Target;
 import com.laytonsmith.core.events.AbstractEvent;
@@ -102,4 +107,208 @@ public class DynmapEvents {
 			}
 		}
 	}
+
+	@api
+	public static class dm_marker_expired extends AbstractEvent {
+
+		@Override
+		public String getName() {
+			return "dm_marker_expired";
+		}
+
+		@Override
+		public Driver driver() {
+			return Driver.EXTENSION;
+		}
+
+		@Override
+		public BindableEvent convert(CArray manualObject, Target t) {
+			throw new CREBindException("This operation is not supported.", t);
+		}
+
+		@Override
+		public boolean modifyEvent(String key, Mixed value, BindableEvent event) {
+			return false;
+		}
+
+		@Override
+		public String docs() {
+			return "{setid: <macro> | markerid: <macro> | type: <string match>}"
+					+ " Fires when the time to live of a marker expires, just before the marker is deleted."
+					+ " {setid: the ID of the markerset | markerid: the ID of the marker | type: the type of the marker | label: the label of the marker}"
+					+ " {}"
+					+ " {}";
+		}
+
+		@Override
+		public Version since() {
+			return MSVersion.V3_3_1;
+		}
+
+		@Override
+		public boolean matches(Map<String, Mixed> prefilter, BindableEvent event) throws PrefilterNonMatchException {
+			if (event instanceof MCDynmapMarkerExpiredEvent) {
+				MCDynmapMarker marker = ((MCDynmapMarkerExpiredEvent) event).getMarker();
+				Prefilters.match(prefilter, "setid", marker.getSet().getId(), PrefilterType.MACRO);
+				Prefilters.match(prefilter, "markerid", marker.getId(), PrefilterType.MACRO);
+				Prefilters.match(prefilter, "type", marker.getType().name(), PrefilterType.STRING_MATCH);
+				return true;
+			} else {
+				return false;
+			}
+		}
+
+		@Override
+		public Map<String, Mixed> evaluate(BindableEvent event) throws EventException {
+			if (event instanceof MCDynmapMarkerExpiredEvent) {
+				Map<String, Mixed> eventMap = evaluate_helper(event);
+				MCDynmapMarker marker = ((MCDynmapMarkerExpiredEvent) event).getMarker();
+				eventMap.put("setid", new CString(marker.getSet().getId(), Target.UNKNOWN));
+				eventMap.put("markerid", new CString(marker.getId(), Target.UNKNOWN));
+				eventMap.put("type", new CString(marker.getType().name(), Target.UNKNOWN));
+				eventMap.put("label", new CString(marker.getLabel(), Target.UNKNOWN));
+				return eventMap;
+			} else {
+				throw new EventException("Cannot convert to MCDynmapMarkerExpiredEvent.");
+			}
+		}
+	}
+
+	@api
+	public static class dm_marker_evicted extends AbstractEvent {
+
+		@Override
+		public String getName() {
+			return "dm_marker_evicted";
+		}
+
+		@Override
+		public Driver driver() {
+			return Driver.EXTENSION;
+		}
+
+		@Override
+		public BindableEvent convert(CArray manualObject, Target t) {
+			throw new CREBindException("This operation is not supported.", t);
+		}
+
+		@Override
+		public boolean modifyEvent(String key, Mixed value, BindableEvent event) {
+			return false;
+		}
+
+		@Override
+		public String docs() {
+			return "{setid: <macro> | markerid: <macro> | type: <string match> | reason: <string match>}"
+					+ " Fires when a marker is evicted because its markerset exceeds its quota, just before the marker is deleted."
+					+ " {setid: the ID of the markerset | markerid: the ID of the marker | type: the type of the marker | label: the label of the marker | reason: the exceeded limit, markers or vertices}"
+					+ " {}"
+					+ " {}";
+		}
+
+		@Override
+		public Version since() {
+			return MSVersion.V3_3_1;
+		}
+
+		@Override
+		public boolean matches(Map<String, Mixed> prefilter, BindableEvent event) throws PrefilterNonMatchException {
+			if (event instanceof MCDynmapMarkerEvictedEvent) {
+				MCDynmapMarkerEvictedEvent mee = (MCDynmapMarkerEvictedEvent) event;
+				MCDynmapMarker marker = mee.getMarker();
+				Prefilters.match(prefilter, "setid", marker.getSet().getId(), PrefilterType.MACRO);
+				Prefilters.match(prefilter, "markerid", marker.getId(), PrefilterType.MACRO);
+				Prefilters.match(prefilter, "type", marker.getType().name(), PrefilterType.STRING_MATCH);
+				Prefilters.match(prefilter, "reason", mee.getReason(), PrefilterType.STRING_MATCH);
+				return true;
+			} else {
+				return false;
+			}
+		}
+
+		@Override
+		public Map<String, Mixed> evaluate(BindableEvent event) throws EventException {
+			if (event instanceof MCDynmapMarkerEvictedEvent) {
+				Map<String, Mixed> eventMap = evaluate_helper(event);
+				MCDynmapMarkerEvictedEvent mee = (MCDynmapMarkerEvictedEvent) event;
+				MCDynmapMarker marker = mee.getMarker();
+				eventMap.put("setid", new CString(marker.getSet().getId(), Target.UNKNOWN));
+				eventMap.put("markerid", new CString(marker.getId(), Target.UNKNOWN));
+				eventMap.put("type", new CString(marker.getType().name(), Target.UNKNOWN));
+				eventMap.put("label", new CString(marker.getLabel(), Target.UNKNOWN));
+				eventMap.put("reason", new CString(mee.getReason(), Target.UNKNOWN));
+				return eventMap;
+			} else {
+				throw new EventException("Cannot convert to MCDynmapMarkerEvictedEvent.");
+			}
+		}
+	}
+
+	@api
+	public static class dm_job_progress extends AbstractEvent {
+
+		@Override
+		public String getName() {
+			return "dm_job_progress";
+		}
+
+		@Override
+		public Driver driver() {
+			return Driver.EXTENSION;
+		}
+
+		@Override
+		public BindableEvent convert(CArray manualObject, Target t) {
+			throw new CREBindException("This operation is not supported.", t);
+		}
+
+		@Override
+		public boolean modifyEvent(String key, Mixed value, BindableEvent event) {
+			return false;
+		}
+
+		@Override
+		public String docs() {
+			return "{id: <macro> | type: <string match> | state: <string match>}"
+					+ " Fires after each server tick a job advanced in, and once when the job ends."
+					+ " {id: the ID of the job | type: the type of the job | state: the state of the job, RUNNING, DONE, CANCELLED or FAILED"
+					+ " | done: the number of steps done | total: the number of steps, -1 if it is unknown}"
+					+ " {}"
+					+ " {}";
+		}
+
+		@Override
+		public Version since() {
+			return MSVersion.V3_3_1;
+		}
+
+		@Override
+		public boolean matches(Map<String, Mixed> prefilter, BindableEvent event) throws PrefilterNonMatchException {
+			if (event instanceof MCDynmapJobProgressEvent) {
+				MCDynmapJobProgressEvent jpe = (MCDynmapJobProgressEvent) event;
+				Prefilters.match(prefilter, "id", jpe.getJobId(), PrefilterType.MACRO);
+				Prefilters.match(prefilter, "type", jpe.getJobType(), PrefilterType.STRING_MATCH);
+				Prefilters.match(prefilter, "state", jpe.getState(), PrefilterType.STRING_MATCH);
+				return true;
+			} else {
+				return false;
+			}
+		}
+
+		@Override
+		public Map<String, Mixed> evaluate(BindableEvent event) throws EventException {
+			if (event instanceof MCDynmapJobProgressEvent) {
+				Map<String, Mixed> eventMap = evaluate_helper(event);
+				MCDynmapJobProgressEvent jpe = (MCDynmapJobProgressEvent) event;
+				eventMap.put("id", new CInt(jpe.getJobId(), Target.UNKNOWN));
+				eventMap.put("type", new CString(jpe.getJobType(), Target.UNKNOWN));
+				eventMap.put("state", new CString(jpe.getState(), Target.UNKNOWN));
+				eventMap.put("done", new CInt(jpe.getDone(), Target.UNKNOWN));
+				eventMap.put("total", new CInt(jpe.getTotal(), Target.UNKNOWN));
+				return eventMap;
+			} else {
+				throw new EventException("Cannot convert to MCDynmapJobProgressEvent.");
+			}
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,362 @@
+package com.hekta.chdynmap.core.functions;
+
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.core.CHDynmapDescriptionTemplate;
+import com.hekta.chdynmap.core.CHDynmapJob;
+import com.hekta.chdynmap.core.CHDynmapStatic;
+import com.laytonsmith.PureUtilities.Version;
+import com.laytonsmith.annotations.api;
+import com.laytonsmith.core.ArgumentValidation;
+import com.laytonsmith.core.MSVersion;
+import com.laytonsmith.core.constructs.CArray;
+import com.laytonsmith.core.constructs.CBoolean;
+import com.laytonsmith.core.constructs.CInt;
+import com.laytonsmith.core.constructs.CNull;
+import com.laytonsmith.core.constructs.CString;
+import com.laytonsmith.core.constructs.CVoid;
+import com.laytonsmith.core.constructs.Target;
+import com.laytonsmith.core.environments.Environment;
+import com.laytonsmith.core.exceptions.CRE.CRECastException;
+import com.laytonsmith.core.exceptions.CRE.CREFormatException;
+import com.laytonsmith.core.exceptions.CRE.CREInvalidPluginException;
+import com.laytonsmith.core.exceptions.CRE.CRENotFoundException;
+import com.laytonsmith.core.exceptions.CRE.CREPluginInternalException;
+import com.laytonsmith.core.exceptions.CRE.CREThrowable;
+import com.laytonsmith.core.exceptions.ConfigRuntimeException;
+import com.laytonsmith.core.functions.AbstractFunction;
+import com.laytonsmith.core.natives.interfaces.Mixed;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ *
+ * @author Hekta
+ */
+public class DynmapDescriptionTemplates {
+
+	public static String docs() {
+		return "A class of functions to render the descriptions of Dynmap markers from HTML templates.";
+	}
+
+	public static abstract class DynmapDescriptionTemplateFunction extends AbstractFunction {
+
+		@Override
+		public boolean isRestricted() {
+			return true;
+		}
+
+		@Override
+		public Boolean runAsync() {
+			return false;
+		}
+
+		@Override
+		public Version since() {
+			return MSVersion.V3_3_1;
+		}
+	}
+
+	public static CHDynmapDescriptionTemplate getTemplate(String name, Target t) {
+		CHDynmapDescriptionTemplate template = CHDynmapDescriptionTemplate.get(name);
+		if (template != null) {
+			return template;
+		} else {
+			throw new CRENotFoundException("\"" + name + "\" is not an existing description template.", t);
+		}
+	}
+
+	private static Map<String, String> getVariables(Mixed value, Target t) {
+		CArray variableArray = ArgumentValidation.getArray(value, t);
+		Map<String, String> variables = new HashMap<>();
+		for (String key : variableArray.stringKeySet()) {
+			Mixed variable = variableArray.get(key, t);
+			variables.put(key, (variable instanceof CNull) ? null : variable.val());
+		}
+		return variables;
+	}
+
+	@api
+	public static class dm_all_description_templates extends DynmapDescriptionTemplateFunction {
+
+		@Override
+		public String getName() {
+			return "dm_all_description_templates";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{0};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{};
+		}
+
+		@Override
+		public String docs() {
+			return "array {} Returns an array of all description template names.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CArray nameArray = new CArray(t);
+			for (String name : CHDynmapDescriptionTemplate.getNames()) {
+				nameArray.push(new CString(name, t), t);
+			}
+			return nameArray;
+		}
+	}
+
+	@api
+	public static class dm_define_description_template extends DynmapDescriptionTemplateFunction {
+
+		@Override
+		public String getName() {
+			return "dm_define_description_template";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{2};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREFormatException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "int {name, html} Defines (or redefines) a description template, and returns the number of markers whose description is rendered again."
+					+ " In the HTML, {{variable}} is replaced by the value of the variable with the HTML special characters escaped,"
+					+ " and {{{variable}}} by its raw value. The missing variables are rendered as empty strings."
+					+ " The template is compiled once, and when it is redefined, the descriptions of its bound markers are rendered again"
+					+ " in a single pass spread over the next server ticks.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CHDynmapJob job = CHDynmapDescriptionTemplate.define(args[0].val(), args[1].val(), t);
+			return new CInt((job != null) ? job.getTotal() : 0, t);
+		}
+	}
+
+	@api
+	public static class dm_delete_description_template extends DynmapDescriptionTemplateFunction {
+
+		@Override
+		public String getName() {
+			return "dm_delete_description_template";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{1};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CRENotFoundException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "void {name} Deletes a description template. Its markers are unbound, and keep their current description.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			if (!CHDynmapDescriptionTemplate.remove(args[0].val())) {
+				throw new CRENotFoundException("\"" + args[0].val() + "\" is not an existing description template.", t);
+			}
+			return CVoid.VOID;
+		}
+	}
+
+	@api
+	public static class dm_description_template_markers extends DynmapDescriptionTemplateFunction {
+
+		@Override
+		public String getName() {
+			return "dm_description_template_markers";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{1};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CRENotFoundException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "array {name} Returns an associative array of the markers bound to the description template,"
+					+ " where the keys are the markerset IDs, and the values are arrays of marker IDs.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CArray setArray = new CArray(t);
+			for (Map.Entry<String, Set<String>> entry : getTemplate(args[0].val(), t).getMarkers().entrySet()) {
+				CArray markerArray = new CArray(t);
+				for (String markerID : entry.getValue()) {
+					markerArray.push(new CString(markerID, t), t);
+				}
+				setArray.set(entry.getKey(), markerArray, t);
+			}
+			return setArray;
+		}
+	}
+
+	@api
+	public static class dm_marker_description_template extends DynmapDescriptionTemplateFunction {
+
+		@Override
+		public String getName() {
+			return "dm_marker_description_template";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{2};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "string {setID, markerID} Returns the name of the description template the marker is bound to, or null if it is not bound.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarker marker = CHDynmapStatic.getMarker(args[0].val(), args[1].val(), t);
+			CHDynmapDescriptionTemplate template = CHDynmapDescriptionTemplate.getTemplate(args[0].val(), marker.getId());
+			if (template != null) {
+				return new CString(template.getName(), t);
+			} else {
+				return CNull.NULL;
+			}
+		}
+	}
+
+	@api
+	public static class dm_set_marker_description_template extends DynmapDescriptionTemplateFunction {
+
+		@Override
+		public String getName() {
+			return "dm_set_marker_description_template";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{3, 4};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class, CRECastException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "void {setID, markerID, name, [varsArray]} Binds the marker to a description template, and renders its description."
+					+ " The variables are an associative array, if they are not given, the marker keeps the variables of its previous template."
+					+ " If name is null, the marker is unbound from its template, and keeps its current description.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarker marker = CHDynmapStatic.getMarker(args[0].val(), args[1].val(), t);
+			if (args[2] instanceof CNull) {
+				CHDynmapDescriptionTemplate.unbindMarker(args[0].val(), marker.getId());
+			} else {
+				CHDynmapDescriptionTemplate template = getTemplate(args[2].val(), t);
+				Map<String, String> variables = ((args.length == 4) && !(args[3] instanceof CNull)) ? getVariables(args[3], t) : null;
+				CHDynmapDescriptionTemplate.bind(marker, template, variables);
+			}
+			return CVoid.VOID;
+		}
+	}
+
+	@api
+	public static class dm_marker_description_vars extends DynmapDescriptionTemplateFunction {
+
+		@Override
+		public String getName() {
+			return "dm_marker_description_vars";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{2};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "array {setID, markerID} Returns the associative array of the description variables of the marker, or null if it is not bound to a description template.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarker marker = CHDynmapStatic.getMarker(args[0].val(), args[1].val(), t);
+			Map<String, String> variables = CHDynmapDescriptionTemplate.getVariables(args[0].val(), marker.getId());
+			if (variables == null) {
+				return CNull.NULL;
+			}
+			CArray variableArray = new CArray(t);
+			for (Map.Entry<String, String> entry : variables.entrySet()) {
+				variableArray.set(entry.getKey(), new CString(entry.getValue(), t), t);
+			}
+			return variableArray;
+		}
+	}
+
+	@api
+	public static class dm_set_marker_description_vars extends DynmapDescriptionTemplateFunction {
+
+		@Override
+		public String getName() {
+			return "dm_set_marker_description_vars";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{3};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class, CRECastException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "boolean {setID, markerID, varsArray} Updates the description variables of a marker bound to a description template,"
+					+ " and returns if its description was rendered again. The variables not given are kept, and a null value removes a variable."
+					+ " The description is only rendered again if a variable actually changed.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarker marker = CHDynmapStatic.getMarker(args[0].val(), args[1].val(), t);
+			if (CHDynmapDescriptionTemplate.getTemplate(args[0].val(), marker.getId()) == null) {
+				throw new CRENotFoundException("The marker is not bound to a description template.", t);
+			}
+			return CBoolean.get(CHDynmapDescriptionTemplate.setVariables(marker, getVariables(args[2], t)));
+		}
+	}
+}
\ No newline at end of file
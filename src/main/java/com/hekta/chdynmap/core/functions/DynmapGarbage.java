@@ -0,0 +1,251 @@
+package com.hekta.chdynmap.core.functions;
+
+import com.hekta.chdynmap.core.CHDynmapCollector;
+import com.hekta.chdynmap.core.CHDynmapStatic;
+import com.laytonsmith.PureUtilities.Version;
+import com.laytonsmith.annotations.api;
+import com.laytonsmith.core.ArgumentValidation;
+import com.laytonsmith.core.MSVersion;
+import com.laytonsmith.core.constructs.CArray;
+import com.laytonsmith.core.constructs.CBoolean;
+import com.laytonsmith.core.constructs.CDouble;
+import com.laytonsmith.core.constructs.CInt;
+import com.laytonsmith.core.constructs.CString;
+import com.laytonsmith.core.constructs.CVoid;
+import com.laytonsmith.core.constructs.Target;
+import com.laytonsmith.core.environments.Environment;
+import com.laytonsmith.core.exceptions.CRE.CRECastException;
+import com.laytonsmith.core.exceptions.CRE.CREInvalidPluginException;
+import com.laytonsmith.core.exceptions.CRE.CREPluginInternalException;
+import com.laytonsmith.core.exceptions.CRE.CRERangeException;
+import com.laytonsmith.core.exceptions.CRE.CREThrowable;
+import com.laytonsmith.core.exceptions.ConfigRuntimeException;
+import com.laytonsmith.core.functions.AbstractFunction;
+import com.laytonsmith.core.natives.interfaces.Mixed;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * @author Hekta
+ */
+public class DynmapGarbage {
+
+	public static String docs() {
+		return "A class of functions to find and delete the unused icons, markersets and playersets.";
+	}
+
+	public static abstract class DynmapGarbageFunction extends AbstractFunction {
+
+		@Override
+		public boolean isRestricted() {
+			return true;
+		}
+
+		@Override
+		public Boolean runAsync() {
+			return false;
+		}
+
+		@Override
+		public Version since() {
+			return MSVersion.V3_3_1;
+		}
+	}
+
+	private static String getKey(CHDynmapCollector.Kind kind) {
+		switch (kind) {
+			case ICON:
+				return "icons";
+			case MARKERSET:
+				return "markersets";
+			default:
+				return "playersets";
+		}
+	}
+
+	@api
+	public static class dm_gc_report extends DynmapGarbageFunction {
+
+		@Override
+		public String getName() {
+			return "dm_gc_report";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{0};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "array {} Finds the garbage without deleting anything: the custom icons used by no marker and no markerset,"
+					+ " the empty non-persistent markersets, and the empty playersets."
+					+ " Returns an associative array with the \"icons\", \"markersets\" and \"playersets\" keys,"
+					+ " each one being an associative array with a \"collectable\" key (the array of the IDs that would be deleted)"
+					+ " and a \"pending\" key (an associative array of the remaining grace period in seconds by ID)."
+					+ " The grace period of an object starts at the first scan finding it unused, as Dynmap does not keep creation dates"
+					+ " (see {{function|dm_set_gc_settings}}).";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CHDynmapCollector.Report report = CHDynmapCollector.scan(CHDynmapStatic.getMarkerAPI(t));
+			CArray reportArray = new CArray(t);
+			for (CHDynmapCollector.Kind kind : CHDynmapCollector.Kind.values()) {
+				CArray kindArray = new CArray(t);
+				CArray collectableArray = new CArray(t);
+				for (String id : report.getCollectable(kind)) {
+					collectableArray.push(new CString(id, t), t);
+				}
+				kindArray.set("collectable", collectableArray, t);
+				CArray pendingArray = new CArray(t);
+				for (Map.Entry<String, Long> entry : report.getPending(kind).entrySet()) {
+					pendingArray.set(entry.getKey(), new CDouble(entry.getValue() / 1000.0, t), t);
+				}
+				kindArray.set("pending", pendingArray, t);
+				reportArray.set(getKey(kind), kindArray, t);
+			}
+			return reportArray;
+		}
+	}
+
+	@api
+	public static class dm_collect_garbage extends DynmapGarbageFunction {
+
+		@Override
+		public String getName() {
+			return "dm_collect_garbage";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{0};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "int {} Finds the garbage like {{function|dm_gc_report}}, and submits a job deleting the collectable objects"
+					+ " over the next server ticks, within the job budget. Returns the job ID."
+					+ " Each object is checked again just before its deletion, so the ones used in the meantime are kept.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			return new CInt(CHDynmapCollector.collect(CHDynmapStatic.getMarkerAPI(t)).getId(), t);
+		}
+	}
+
+	@api
+	public static class dm_gc_settings extends DynmapGarbageFunction {
+
+		@Override
+		public String getName() {
+			return "dm_gc_settings";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{0};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{};
+		}
+
+		@Override
+		public String docs() {
+			return "array {} Returns the settings of the garbage collection, as an associative array with the \"icons\", \"markersets\" and \"playersets\" keys"
+					+ " (see {{function|dm_set_gc_settings}}).";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CArray settingsArray = new CArray(t);
+			for (CHDynmapCollector.Kind kind : CHDynmapCollector.Kind.values()) {
+				CArray kindArray = new CArray(t);
+				kindArray.set("enabled", CBoolean.get(CHDynmapCollector.isEnabled(kind)), t);
+				kindArray.set("grace", new CDouble(CHDynmapCollector.getGrace(kind) / 1000.0, t), t);
+				CArray protectedArray = new CArray(t);
+				for (String id : CHDynmapCollector.getProtected(kind)) {
+					protectedArray.push(new CString(id, t), t);
+				}
+				kindArray.set("protected", protectedArray, t);
+				settingsArray.set(getKey(kind), kindArray, t);
+			}
+			return settingsArray;
+		}
+	}
+
+	@api
+	public static class dm_set_gc_settings extends DynmapGarbageFunction {
+
+		@Override
+		public String getName() {
+			return "dm_set_gc_settings";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{1};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CRECastException.class, CRERangeException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "void {settingsArray} Sets the settings of the garbage collection."
+					+ " The array can have the \"icons\", \"markersets\" and \"playersets\" keys, each one being an associative array of settings,"
+					+ " the settings not given are not changed. ---- The settings are:"
+					+ " <li>KEY - DEFAULT - DESCRIPTION - COMMENT</li>"
+					+ " <li>enabled - true - if the objects of this kind are collected</li>"
+					+ " <li>grace - " + (CHDynmapCollector.DEFAULT_GRACE / 1000) + " - the time in seconds an object must stay unused before being collected</li>"
+					+ " <li>protected - empty - the array of the IDs never collected - an ID ending with * protects all the IDs starting with it</li>";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CArray settingsArray = ArgumentValidation.getArray(args[0], t);
+			for (CHDynmapCollector.Kind kind : CHDynmapCollector.Kind.values()) {
+				String key = getKey(kind);
+				if (!settingsArray.containsKey(key)) {
+					continue;
+				}
+				CArray kindArray = ArgumentValidation.getArray(settingsArray.get(key, t), t);
+				if (kindArray.containsKey("enabled")) {
+					CHDynmapCollector.setEnabled(kind, ArgumentValidation.getBooleanObject(kindArray.get("enabled", t), t));
+				}
+				if (kindArray.containsKey("grace")) {
+					double grace = ArgumentValidation.getDouble(kindArray.get("grace", t), t);
+					if (grace < 0) {
+						throw new CRERangeException("The grace period can't be negative.", t);
+					}
+					CHDynmapCollector.setGrace(kind, (long) (grace * 1000));
+				}
+				if (kindArray.containsKey("protected")) {
+					List<String> ids = new ArrayList<>();
+					for (Mixed id : ArgumentValidation.getArray(kindArray.get("protected", t), t).asList()) {
+						ids.add(id.val());
+					}
+					CHDynmapCollector.setProtected(kind, ids);
+				}
+			}
+			return CVoid.VOID;
+		}
+	}
+}
\ No newline at end of file
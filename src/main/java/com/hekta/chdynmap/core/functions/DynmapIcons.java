@@ -1,7 +1,10 @@
 package com.hekta.chdynmap.core.functions;
 
 import com.hekta.chdynmap.abstraction.MCDynmapIcon;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerAPI;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
 import com.hekta.chdynmap.abstraction.enums.MCDynmapIconSize;
+import com.hekta.chdynmap.core.CHDynmapIconIndex;
 import com.hekta.chdynmap.core.CHDynmapStatic;
 import com.laytonsmith.PureUtilities.Common.StringUtils;
 import com.laytonsmith.PureUtilities.Version;
@@ -10,6 +13,8 @@ import com.laytonsmith.core.MSVersion;
 import com.laytonsmith.core.Security;
 import com.laytonsmith.core.constructs.CArray;
 import com.laytonsmith.core.constructs.CBoolean;
+import com.laytonsmith.core.constructs.CInt;
+import com.laytonsmith.core.constructs.CNull;
 import com.laytonsmith.core.constructs.CString;
 import com.laytonsmith.core.constructs.CVoid;
 import com.laytonsmith.core.constructs.Target;
@@ -27,6 +32,8 @@ import com.laytonsmith.core.natives.interfaces.Mixed;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 
 /**
  *
@@ -176,7 +183,7 @@ public class DynmapIcons {
 
 		@Override
 		public Integer[] numArgs() {
-			return new Integer[]{1};
+			return new Integer[]{1, 2};
 		}
 
 		@Override
@@ -186,7 +193,10 @@ public class DynmapIcons {
 
 		@Override
 		public String docs() {
-			return "void {iconID} Deletes an icon (can't be used on builtin icons).";
+			return "void {iconID, [replacementIconID]} Deletes an icon (can't be used on builtin icons)."
+					+ " If the icon is used by markers or is the default icon of markersets, the deletion is refused,"
+					+ " unless a replacement icon is given, then they are changed to use it before the icon is deleted."
+					+ " If a marker can not use the replacement icon (its markerset does not allow it), the icon is not deleted.";
 		}
 
 		@Override
@@ -194,9 +204,33 @@ public class DynmapIcons {
 			MCDynmapIcon icon = CHDynmapStatic.getIcon(args[0].val(), t);
 			if (icon.isBuiltIn()) {
 				throw new CREPluginInternalException("Builtin icons can't be deleted.", t);
-			} else {
-				icon.delete();
 			}
+			MCDynmapMarkerAPI markerAPI = CHDynmapStatic.getMarkerAPI(t);
+			CHDynmapIconIndex.Usage usage = CHDynmapIconIndex.getUsage(markerAPI, icon.getId());
+			if (usage.isInUse()) {
+				if ((args.length == 1) || (args[1] instanceof CNull)) {
+					throw new CREPluginInternalException("The icon is used by " + usage.getMarkerCount() + " markers and "
+							+ usage.getDefaultSets().size() + " markersets, a replacement icon must be given.", t);
+				}
+				MCDynmapIcon replacement = CHDynmapStatic.getIcon(args[1].val(), t);
+				if (replacement.getId().equals(icon.getId())) {
+					throw new CREPluginInternalException("The replacement icon can't be the deleted icon.", t);
+				}
+				//checked before any change, a restricted markerset refuses the icons it does not allow
+				for (String setID : usage.getMarkers().keySet()) {
+					MCDynmapMarkerSet set = markerAPI.getMarkerSet(setID);
+					if ((set != null) && set.isRestricted() && !set.iconIsAllowed(replacement)) {
+						throw new CREPluginInternalException("The markerset \"" + setID + "\" does not allow the replacement icon.", t);
+					}
+				}
+				int reassigned = CHDynmapIconIndex.reassign(markerAPI, icon.getId(), replacement);
+				usage = CHDynmapIconIndex.getUsage(markerAPI, icon.getId());
+				if (usage.isInUse()) {
+					throw new CREPluginInternalException("Only " + reassigned + " markers could use the replacement icon, "
+							+ usage.getMarkerCount() + " markers still use the icon, it was not deleted.", t);
+				}
+			}
+			icon.delete();
 			return CVoid.VOID;
 		}
 	}
@@ -220,6 +254,53 @@ public class DynmapIcons {
 		}
 	}
 
+	@api
+	public static class dm_icon_usage extends DynmapIconGetterFunction {
+
+		@Override
+		public String getName() {
+			return "dm_icon_usage";
+		}
+
+		@Override
+		public String docs() {
+			return "array {iconID} Returns an associative array describing where the icon is used:"
+					+ " \"allowed\" is the array of the IDs of the markersets allowing the icon (the unrestricted markersets are not listed),"
+					+ " \"default\" is the array of the IDs of the markersets having it as default icon,"
+					+ " \"markers\" is an associative array of the IDs of the markers using it by markerset ID,"
+					+ " and \"count\" is the number of these markers."
+					+ " The usage is indexed when it is first queried, then the index is kept up to date as the markers and markersets are changed through CHDynmap.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapIcon icon = CHDynmapStatic.getIcon(args[0].val(), t);
+			CHDynmapIconIndex.Usage usage = CHDynmapIconIndex.getUsage(CHDynmapStatic.getMarkerAPI(t), icon.getId());
+			CArray usageArray = new CArray(t);
+			CArray allowedArray = new CArray(t);
+			for (String setID : usage.getAllowingSets()) {
+				allowedArray.push(new CString(setID, t), t);
+			}
+			usageArray.set("allowed", allowedArray, t);
+			CArray defaultArray = new CArray(t);
+			for (String setID : usage.getDefaultSets()) {
+				defaultArray.push(new CString(setID, t), t);
+			}
+			usageArray.set("default", defaultArray, t);
+			CArray markersArray = new CArray(t);
+			for (Map.Entry<String, List<String>> entry : usage.getMarkers().entrySet()) {
+				CArray markerArray = new CArray(t);
+				for (String markerID : entry.getValue()) {
+					markerArray.push(new CString(markerID, t), t);
+				}
+				markersArray.set(entry.getKey(), markerArray, t);
+			}
+			usageArray.set("markers", markersArray, t);
+			usageArray.set("count", new CInt(usage.getMarkerCount(), t), t);
+			return usageArray;
+		}
+	}
+
 	@api
 	public static class dm_set_icon_image extends DynmapIconFunction {
 
@@ -0,0 +1,226 @@
+package com.hekta.chdynmap.core.functions;
+
+import com.hekta.chdynmap.core.CHDynmapJob;
+import com.hekta.chdynmap.core.CHDynmapJobRunner;
+import com.laytonsmith.PureUtilities.Version;
+import com.laytonsmith.annotations.api;
+import com.laytonsmith.core.ArgumentValidation;
+import com.laytonsmith.core.MSVersion;
+import com.laytonsmith.core.constructs.CArray;
+import com.laytonsmith.core.constructs.CBoolean;
+import com.laytonsmith.core.constructs.CDouble;
+import com.laytonsmith.core.constructs.CInt;
+import com.laytonsmith.core.constructs.CNull;
+import com.laytonsmith.core.constructs.CString;
+import com.laytonsmith.core.constructs.CVoid;
+import com.laytonsmith.core.constructs.Target;
+import com.laytonsmith.core.environments.Environment;
+import com.laytonsmith.core.exceptions.CRE.CRECastException;
+import com.laytonsmith.core.exceptions.CRE.CRERangeException;
+import com.laytonsmith.core.exceptions.CRE.CREThrowable;
+import com.laytonsmith.core.exceptions.ConfigRuntimeException;
+import com.laytonsmith.core.functions.AbstractFunction;
+import com.laytonsmith.core.natives.interfaces.Mixed;
+
+/**
+ *
+ * @author Hekta
+ */
+public class DynmapJobs {
+
+	public static String docs() {
+		return "A class of functions to manage the jobs running the heavy CHDynmap operations over the server ticks.";
+	}
+
+	public static abstract class DynmapJobFunction extends AbstractFunction {
+
+		@Override
+		public boolean isRestricted() {
+			return true;
+		}
+
+		@Override
+		public Boolean runAsync() {
+			return false;
+		}
+
+		@Override
+		public Version since() {
+			return MSVersion.V3_3_1;
+		}
+	}
+
+	@api
+	public static class dm_all_jobs extends DynmapJobFunction {
+
+		@Override
+		public String getName() {
+			return "dm_all_jobs";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{0};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{};
+		}
+
+		@Override
+		public String docs() {
+			return "array {} Returns an array of the IDs of the running jobs, in their submission order.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CArray jobArray = new CArray(t);
+			for (CHDynmapJob job : CHDynmapJobRunner.getJobs()) {
+				jobArray.push(new CInt(job.getId(), t), t);
+			}
+			return jobArray;
+		}
+	}
+
+	@api
+	public static class dm_cancel_job extends DynmapJobFunction {
+
+		@Override
+		public String getName() {
+			return "dm_cancel_job";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{1};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CRECastException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "boolean {jobID} Cancels a running job, and returns false if the job is not running."
+					+ " The work already done is not reverted.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CHDynmapJob job = CHDynmapJobRunner.get(ArgumentValidation.getInt32(args[0], t));
+			if (job == null) {
+				return CBoolean.FALSE;
+			}
+			job.cancel();
+			return CBoolean.TRUE;
+		}
+	}
+
+	@api
+	public static class dm_job_budget extends DynmapJobFunction {
+
+		@Override
+		public String getName() {
+			return "dm_job_budget";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{0};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{};
+		}
+
+		@Override
+		public String docs() {
+			return "double {} Returns the time the jobs can use at each server tick, in milliseconds (" + CHDynmapJobRunner.DEFAULT_BUDGET + " by default).";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			return new CDouble(CHDynmapJobRunner.getBudget(), t);
+		}
+	}
+
+	@api
+	public static class dm_job_info extends DynmapJobFunction {
+
+		@Override
+		public String getName() {
+			return "dm_job_info";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{1};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CRECastException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "array {jobID} Returns an array describing a running job, or null if the job is not running (or has ended)."
+					+ " The array has the \"id\", \"type\" (copy, create, delete, move, restyle, theme, ...), \"state\", \"done\" (the number of steps done)"
+					+ " and \"total\" (the number of steps, -1 if it is unknown) keys."
+					+ " The progress and the end of the jobs are also reported by the dm_job_progress event.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CHDynmapJob job = CHDynmapJobRunner.get(ArgumentValidation.getInt32(args[0], t));
+			if (job == null) {
+				return CNull.NULL;
+			}
+			CArray jobArray = new CArray(t);
+			jobArray.set("id", new CInt(job.getId(), t), t);
+			jobArray.set("type", new CString(job.getType(), t), t);
+			jobArray.set("state", new CString(job.getState().name(), t), t);
+			jobArray.set("done", new CInt(job.getDone(), t), t);
+			jobArray.set("total", new CInt(job.getTotal(), t), t);
+			return jobArray;
+		}
+	}
+
+	@api
+	public static class dm_set_job_budget extends DynmapJobFunction {
+
+		@Override
+		public String getName() {
+			return "dm_set_job_budget";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{1};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CRECastException.class, CRERangeException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "void {milliseconds} Sets the time the jobs can use at each server tick, in milliseconds."
+					+ " The budget is shared equally between the running jobs, and each job still does at least one step by tick.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			double budget = ArgumentValidation.getDouble(args[0], t);
+			if (budget <= 0) {
+				throw new CRERangeException("The budget must be positive.", t);
+			}
+			CHDynmapJobRunner.setBudget(budget);
+			return CVoid.VOID;
+		}
+	}
+}
\ No newline at end of file
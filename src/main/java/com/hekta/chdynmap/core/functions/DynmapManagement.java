@@ -1,6 +1,9 @@
 package com.hekta.chdynmap.core.functions;
 
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerAPI;
+import com.hekta.chdynmap.core.CHDynmapJournal;
 import com.hekta.chdynmap.core.CHDynmapStatic;
+import com.hekta.chdynmap.core.CHDynmapTransaction;
 import com.laytonsmith.PureUtilities.Version;
 import com.laytonsmith.abstraction.MCPlayer;
 import com.laytonsmith.abstraction.MCWorld;
@@ -8,7 +11,11 @@ import com.laytonsmith.annotations.api;
 import com.laytonsmith.core.ArgumentValidation;
 import com.laytonsmith.core.MSVersion;
 import com.laytonsmith.core.ObjectGenerator;
+import com.laytonsmith.core.constructs.CArray;
 import com.laytonsmith.core.constructs.CBoolean;
+import com.laytonsmith.core.constructs.CClosure;
+import com.laytonsmith.core.constructs.CInt;
+import com.laytonsmith.core.constructs.CString;
 import com.laytonsmith.core.constructs.CVoid;
 import com.laytonsmith.core.constructs.Target;
 import com.laytonsmith.core.environments.CommandHelperEnvironment;
@@ -17,8 +24,10 @@ import com.laytonsmith.core.exceptions.CRE.CRECastException;
 import com.laytonsmith.core.exceptions.CRE.CREFormatException;
 import com.laytonsmith.core.exceptions.CRE.CREInvalidPluginException;
 import com.laytonsmith.core.exceptions.CRE.CREInvalidWorldException;
+import com.laytonsmith.core.exceptions.CRE.CREPluginInternalException;
 import com.laytonsmith.core.exceptions.CRE.CREThrowable;
 import com.laytonsmith.core.exceptions.ConfigRuntimeException;
+import com.laytonsmith.core.exceptions.FunctionReturnException;
 import com.laytonsmith.core.functions.AbstractFunction;
 import com.laytonsmith.core.natives.interfaces.Mixed;
 
@@ -460,4 +469,385 @@ public class DynmapManagement {
 			return CBoolean.get(CHDynmapStatic.getDynmapAPI(t).markerAPIInitialized());
 		}
 	}
+
+	@api
+	public static class dm_write_elision_stats extends AbstractFunction {
+
+		@Override
+		public String getName() {
+			return "dm_write_elision_stats";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{0};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class};
+		}
+
+		@Override
+		public boolean isRestricted() {
+			return true;
+		}
+
+		@Override
+		public Boolean runAsync() {
+			return false;
+		}
+
+		@Override
+		public String docs() {
+			return "array {} Returns an array with the write elision status (\"enabled\" key) and the number of marker and markerset writes"
+					+ " skipped because they changed nothing (\"elided\" key).";
+		}
+
+		@Override
+		public Version since() {
+			return MSVersion.V3_3_1;
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarkerAPI markerAPI = CHDynmapStatic.getMarkerAPI(t);
+			CArray stats = new CArray(t);
+			stats.set("enabled", CBoolean.get(markerAPI.isWriteElisionEnabled()), t);
+			stats.set("elided", new CInt(markerAPI.getElidedWrites(), t), t);
+			return stats;
+		}
+	}
+
+	@api
+	public static class dm_set_write_elision extends AbstractFunction {
+
+		@Override
+		public String getName() {
+			return "dm_set_write_elision";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{1, 2};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRECastException.class};
+		}
+
+		@Override
+		public boolean isRestricted() {
+			return true;
+		}
+
+		@Override
+		public Boolean runAsync() {
+			return false;
+		}
+
+		@Override
+		public String docs() {
+			return "void {boolean, [resetCounter]} Sets if the marker and markerset writes that change nothing are skipped (enabled by default)."
+					+ " Locations, corners, radius and opacities are compared with an epsilon of 1.0E-6."
+					+ " If resetCounter is true, the counter of skipped writes is reset.";
+		}
+
+		@Override
+		public Version since() {
+			return MSVersion.V3_3_1;
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarkerAPI markerAPI = CHDynmapStatic.getMarkerAPI(t);
+			markerAPI.setWriteElisionEnabled(ArgumentValidation.getBooleanObject(args[0], t));
+			if ((args.length == 2) && ArgumentValidation.getBooleanObject(args[1], t)) {
+				markerAPI.resetElidedWrites();
+			}
+			return CVoid.VOID;
+		}
+	}
+
+	@api
+	public static class dm_interning_stats extends AbstractFunction {
+
+		@Override
+		public String getName() {
+			return "dm_interning_stats";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{0};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class};
+		}
+
+		@Override
+		public boolean isRestricted() {
+			return true;
+		}
+
+		@Override
+		public Boolean runAsync() {
+			return false;
+		}
+
+		@Override
+		public String docs() {
+			return "array {} Returns an array with the string interning status (\"enabled\" key), the number of strings in the pool (\"pooled\" key),"
+					+ " the number of strings replaced by their pooled instance (\"hits\" key),"
+					+ " and an estimation of the bytes saved by not retaining the duplicates, counting two bytes by character (\"saved_bytes\" key).";
+		}
+
+		@Override
+		public Version since() {
+			return MSVersion.V3_3_1;
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarkerAPI markerAPI = CHDynmapStatic.getMarkerAPI(t);
+			CArray stats = new CArray(t);
+			stats.set("enabled", CBoolean.get(markerAPI.isInterningEnabled()), t);
+			stats.set("pooled", new CInt(markerAPI.getInternedStrings(), t), t);
+			stats.set("hits", new CInt(markerAPI.getInterningHits(), t), t);
+			stats.set("saved_bytes", new CInt(markerAPI.getInterningSavedBytes(), t), t);
+			return stats;
+		}
+	}
+
+	@api
+	public static class dm_set_interning extends AbstractFunction {
+
+		@Override
+		public String getName() {
+			return "dm_set_interning";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{1, 2};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRECastException.class};
+		}
+
+		@Override
+		public boolean isRestricted() {
+			return true;
+		}
+
+		@Override
+		public Boolean runAsync() {
+			return false;
+		}
+
+		@Override
+		public String docs() {
+			return "void {boolean, [resetCounters]} Sets if the labels, descriptions, world names and markerset IDs given to Dynmap"
+					+ " are deduplicated through a weak pool of canonical strings (disabled by default)."
+					+ " A pooled string is released once nothing references it anymore, and disabling the interning empties the pool."
+					+ " Only the strings written after it is enabled are deduplicated."
+					+ " If resetCounters is true, the hits and saved bytes counters are reset.";
+		}
+
+		@Override
+		public Version since() {
+			return MSVersion.V3_3_1;
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarkerAPI markerAPI = CHDynmapStatic.getMarkerAPI(t);
+			markerAPI.setInterningEnabled(ArgumentValidation.getBooleanObject(args[0], t));
+			if ((args.length == 2) && ArgumentValidation.getBooleanObject(args[1], t)) {
+				markerAPI.resetInterningStats();
+			}
+			return CVoid.VOID;
+		}
+	}
+
+	@api
+	public static class dm_journal_stats extends AbstractFunction {
+
+		@Override
+		public String getName() {
+			return "dm_journal_stats";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{0};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{};
+		}
+
+		@Override
+		public boolean isRestricted() {
+			return true;
+		}
+
+		@Override
+		public Boolean runAsync() {
+			return false;
+		}
+
+		@Override
+		public String docs() {
+			return "array {} Returns an array with the IDs of the journaled markersets (\"sets\" key), the number of journaled markers (\"markers\" key),"
+					+ " the number of records appended since the last compaction (\"records\" key), the number of records and snapshots"
+					+ " waiting to be written (\"pending\" key), the size of the journal in bytes (\"bytes\" key),"
+					+ " and the number of compactions done since the startup (\"compactions\" key).";
+		}
+
+		@Override
+		public Version since() {
+			return MSVersion.V3_3_1;
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CArray stats = new CArray(t);
+			CArray sets = new CArray(t);
+			for (String setID : CHDynmapJournal.getJournaledSets()) {
+				sets.push(new CString(setID, t), t);
+			}
+			stats.set("sets", sets, t);
+			stats.set("markers", new CInt(CHDynmapJournal.getMarkerCount(), t), t);
+			stats.set("records", new CInt(CHDynmapJournal.getRecordCount(), t), t);
+			stats.set("pending", new CInt(CHDynmapJournal.getPendingCount(), t), t);
+			stats.set("bytes", new CInt(CHDynmapJournal.getJournalSize(), t), t);
+			stats.set("compactions", new CInt(CHDynmapJournal.getCompactionCount(), t), t);
+			return stats;
+		}
+	}
+
+	@api
+	public static class dm_compact_journal extends AbstractFunction {
+
+		@Override
+		public String getName() {
+			return "dm_compact_journal";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{0};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{};
+		}
+
+		@Override
+		public boolean isRestricted() {
+			return true;
+		}
+
+		@Override
+		public Boolean runAsync() {
+			return false;
+		}
+
+		@Override
+		public String docs() {
+			return "void {} Queues a compaction of the marker journal: a snapshot of the journaled markers is taken,"
+					+ " and the background writer replaces the snapshot file with it and starts a new journal."
+					+ " The journal is also compacted automatically when it has many more records than markers, and at shutdown.";
+		}
+
+		@Override
+		public Version since() {
+			return MSVersion.V3_3_1;
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CHDynmapJournal.compact();
+			return CVoid.VOID;
+		}
+	}
+
+	@api
+	public static class dm_transaction extends AbstractFunction {
+
+		@Override
+		public String getName() {
+			return "dm_transaction";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{1};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CRECastException.class};
+		}
+
+		@Override
+		public boolean isRestricted() {
+			return true;
+		}
+
+		@Override
+		public Boolean runAsync() {
+			return false;
+		}
+
+		@Override
+		public String docs() {
+			return "mixed {closure} Executes the closure as a transaction on the markers and markersets, and returns what the closure returns."
+					+ " Each change made by the closure is recorded with what is needed to revert it: the marker creations, changes, moves and deletions,"
+					+ " the markerset creations, changes and deletions, and the changes of the marker metadata, style themes and their bindings,"
+					+ " description templates and their bindings, marker groups, times to live and markerset quotas."
+					+ " If the closure throws an exception, all its changes are reverted, the newest first, before the exception is rethrown."
+					+ " Dynmap can not remove the default icon of a markerset, nor allow all the icons again in a markerset, so giving a default icon"
+					+ " to a markerset which had none, or restricting the icons of a markerset which allowed all of them, are not reverted (a warning is logged)."
+					+ " The events fired during the transaction (like dm_marker_evicted), the jobs it started and the marker IDs it allocated are not reverted"
+					+ " either, and the journal, the history, the change feed and the indexes record the reverts as new changes."
+					+ " The changes and their reverts are made in the same server tick, but the web clients receive both."
+					+ " The transactions can be nested, a failed inner transaction only reverts its own changes."
+					+ " The changes spread over the next server ticks (see {{function|dm_job_info}}) are not part of the transaction.";
+		}
+
+		@Override
+		public Version since() {
+			return MSVersion.V3_3_1;
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			if (!(args[0] instanceof CClosure)) {
+				throw new CRECastException("Expecting a closure.", t);
+			}
+			Mixed result = CVoid.VOID;
+			boolean succeeded = false;
+			int savepoint = CHDynmapTransaction.begin();
+			try {
+				try {
+					((CClosure) args[0]).execute();
+				} catch (FunctionReturnException exception) {
+					result = exception.getReturn();
+				}
+				succeeded = true;
+			} finally {
+				CHDynmapTransaction.end(savepoint, succeeded);
+			}
+			return result;
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,390 @@
+package com.hekta.chdynmap.core.functions;
+
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerAPI;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import com.hekta.chdynmap.core.CHDynmapGeoJson;
+import com.hekta.chdynmap.core.CHDynmapMarkerArchive;
+import com.hekta.chdynmap.core.CHDynmapMarkerDefinitions;
+import com.hekta.chdynmap.core.CHDynmapStatic;
+import com.laytonsmith.PureUtilities.Version;
+import com.laytonsmith.abstraction.MCWorld;
+import com.laytonsmith.annotations.api;
+import com.laytonsmith.core.ArgumentValidation;
+import com.laytonsmith.core.MSVersion;
+import com.laytonsmith.core.Security;
+import com.laytonsmith.core.Static;
+import com.laytonsmith.core.constructs.CArray;
+import com.laytonsmith.core.constructs.CInt;
+import com.laytonsmith.core.constructs.CNull;
+import com.laytonsmith.core.constructs.CString;
+import com.laytonsmith.core.constructs.CVoid;
+import com.laytonsmith.core.constructs.Target;
+import com.laytonsmith.core.environments.Environment;
+import com.laytonsmith.core.exceptions.CRE.CRECastException;
+import com.laytonsmith.core.exceptions.CRE.CREIOException;
+import com.laytonsmith.core.exceptions.CRE.CREInvalidPluginException;
+import com.laytonsmith.core.exceptions.CRE.CREInvalidWorldException;
+import com.laytonsmith.core.exceptions.CRE.CRENotFoundException;
+import com.laytonsmith.core.exceptions.CRE.CREPluginInternalException;
+import com.laytonsmith.core.exceptions.CRE.CRESecurityException;
+import com.laytonsmith.core.exceptions.CRE.CREThrowable;
+import com.laytonsmith.core.exceptions.ConfigRuntimeException;
+import com.laytonsmith.core.functions.AbstractFunction;
+import com.laytonsmith.core.natives.interfaces.Mixed;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ *
+ * @author Hekta
+ */
+public class DynmapMarkerFiles {
+
+	public static String docs() {
+		return "A class of functions to export markersets to files, to import them back, and to manage the marker definition files.";
+	}
+
+	public static abstract class DynmapMarkerFileFunction extends AbstractFunction {
+
+		@Override
+		public boolean isRestricted() {
+			return true;
+		}
+
+		@Override
+		public Boolean runAsync() {
+			return false;
+		}
+
+		@Override
+		public Version since() {
+			return MSVersion.V3_3_1;
+		}
+	}
+
+	/**
+	 * Returns the file at the given path, relative to the script, if the security settings allow to access it.
+	 */
+	public static File getFile(String path, Target t) {
+		File file = new File(t.file().getParentFile(), path);
+		if (!Security.CheckSecurity(file.getAbsolutePath())) {
+			throw new CRESecurityException("You do not have permission to access the file '" + file.getAbsolutePath() + "'", t);
+		}
+		return file;
+	}
+
+	private static CArray getOptions(Mixed[] args, int index, Target t) {
+		if ((args.length > index) && !(args[index] instanceof CNull)) {
+			return ArgumentValidation.getArray(args[index], t);
+		} else {
+			return null;
+		}
+	}
+
+	@api
+	public static class dm_export_markersets extends DynmapMarkerFileFunction {
+
+		@Override
+		public String getName() {
+			return "dm_export_markersets";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{2, 3};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class, CRECastException.class, CRESecurityException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "int {setIDs, file, [optionArray]} Exports the markersets (an array of IDs, or null for all the markersets) to a binary archive,"
+					+ " with their properties and all their markers, and returns the ID of the export job."
+					+ " The markers are read over the next server ticks within the job budget, then the archive is written on a background thread,"
+					+ " the job is done once the file is written. The archive is versioned, each string is written once in a string table,"
+					+ " and the coordinates are delta-encoded. ---- The options are:"
+					+ " <li>KEY - DEFAULT - DESCRIPTION - COMMENT</li>"
+					+ " <li>compress - true - if the archive is deflated</li>";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarkerAPI markerAPI = CHDynmapStatic.getMarkerAPI(t);
+			List<MCDynmapMarkerSet> sets;
+			if (args[0] instanceof CNull) {
+				sets = Arrays.asList(markerAPI.getMarkerSets());
+			} else {
+				sets = new ArrayList<>();
+				for (Mixed setID : ArgumentValidation.getArray(args[0], t).asList()) {
+					sets.add(CHDynmapStatic.getMarkerSet(setID.val(), t));
+				}
+			}
+			File file = getFile(args[1].val(), t);
+			CArray optionArray = getOptions(args, 2, t);
+			boolean compress = (optionArray == null) || !optionArray.containsKey("compress")
+					|| ArgumentValidation.getBooleanObject(optionArray.get("compress", t), t);
+			return new CInt(CHDynmapMarkerArchive.export(sets, file, compress).getId(), t);
+		}
+	}
+
+	@api
+	public static class dm_import_markersets extends DynmapMarkerFileFunction {
+
+		@Override
+		public String getName() {
+			return "dm_import_markersets";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{1, 2};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRECastException.class, CREIOException.class, CRESecurityException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "int {file, [optionArray]} Imports the markersets of an archive written by {{function|dm_export_markersets}},"
+					+ " and returns the ID of the import job. The archive is mapped in memory and decoded on a background thread,"
+					+ " then the markers are created over the next server ticks within the job budget."
+					+ " The missing markersets are created with their exported properties, the existing ones keep their properties."
+					+ " The markers are persistent if they were, and if their markerset is persistent and not journaled. ---- The options are:"
+					+ " <li>KEY - DEFAULT - DESCRIPTION - COMMENT</li>"
+					+ " <li>sets - null - the array of the markerset IDs to import - null imports all the markersets of the archive</li>"
+					+ " <li>overwrite - true - if the existing markers with the same IDs are updated - else they are kept as they are</li>";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CHDynmapStatic.getMarkerAPI(t);
+			File file = getFile(args[0].val(), t);
+			CArray optionArray = getOptions(args, 1, t);
+			Set<String> setIDs = null;
+			boolean overwrite = true;
+			if (optionArray != null) {
+				if (optionArray.containsKey("sets") && !(optionArray.get("sets", t) instanceof CNull)) {
+					setIDs = new HashSet<>();
+					for (Mixed setID : ArgumentValidation.getArray(optionArray.get("sets", t), t).asList()) {
+						setIDs.add(setID.val());
+					}
+				}
+				if (optionArray.containsKey("overwrite")) {
+					overwrite = ArgumentValidation.getBooleanObject(optionArray.get("overwrite", t), t);
+				}
+			}
+			try {
+				return new CInt(CHDynmapMarkerArchive.load(file, setIDs, overwrite).getId(), t);
+			} catch (IOException exception) {
+				throw new CREIOException("Could not read the archive: " + exception.getMessage(), t);
+			}
+		}
+	}
+
+	@api
+	public static class dm_export_geojson extends DynmapMarkerFileFunction {
+
+		@Override
+		public String getName() {
+			return "dm_export_geojson";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{2};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class, CRESecurityException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "int {setID, file} Exports the markers of the markerset to a GeoJSON file, as a FeatureCollection, and returns the ID of the export job."
+					+ " The markers are read over the next server ticks within the job budget, and streamed to the file by a background thread."
+					+ " The areas are written as Polygons, the polylines as LineStrings, and the icon and circle markers as Points"
+					+ " (with \"radius\", \"radius_x\" and \"radius_z\" properties for the circles)."
+					+ " The positions are [x, z] for the Polygons, and [x, z, y] for the others."
+					+ " The properties are \"name\" (the label), \"description\", \"world\", \"icon\", and the simplestyle properties"
+					+ " (\"stroke\", \"stroke-opacity\", \"stroke-width\", \"fill\" and \"fill-opacity\").";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarkerSet set = CHDynmapStatic.getMarkerSet(args[0].val(), t);
+			return new CInt(CHDynmapGeoJson.export(set, getFile(args[1].val(), t)).getId(), t);
+		}
+	}
+
+	@api
+	public static class dm_import_geojson extends DynmapMarkerFileFunction {
+
+		@Override
+		public String getName() {
+			return "dm_import_geojson";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{2, 3};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class, CRECastException.class, CREInvalidWorldException.class, CRESecurityException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "int {setID, file, [optionArray]} Imports the features of a GeoJSON file (a FeatureCollection or a single Feature) in the markerset,"
+					+ " and returns the ID of the import job. The file is parsed incrementally on a background thread, one feature at a time,"
+					+ " so the memory used does not depend on its size, and the markers are created in batches over the next server ticks within the job budget."
+					+ " The positions are read as [x, z] or [x, z, y]. The Polygons become area markers (the holes are ignored),"
+					+ " the LineStrings polylines, and the Points icon markers, or circle markers if they have a \"radius\" property"
+					+ " (or \"radius_x\" and \"radius_z\" properties). Each part of a Multi geometry or a GeometryCollection becomes a marker,"
+					+ " with the ID suffixed by \"_\" and its index (except the first one). The styles are read from the simplestyle properties"
+					+ " (\"stroke\", \"stroke-opacity\", \"stroke-width\", \"fill\" and \"fill-opacity\")."
+					+ " The existing markers with the same IDs are updated. ---- The options are:"
+					+ " <li>KEY - DEFAULT - DESCRIPTION - COMMENT</li>"
+					+ " <li>world - the first world - the world of the markers</li>"
+					+ " <li>y - 64 - the y coordinate of the positions without one</li>"
+					+ " <li>id_property - null - the property giving the marker IDs - if null, the feature IDs are used, and the features without ID get an ID generated by Dynmap</li>"
+					+ " <li>label_property - name - the property giving the marker labels - the markers without label are labelled with their ID</li>"
+					+ " <li>description_property - description - the property giving the marker descriptions</li>"
+					+ " <li>icon - null - the icon of the icon markers - if null, the \"icon\" property is used, or the default icon of the markerset</li>"
+					+ " <li>persistent - false - if the markers are persistent</li>";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarkerSet set = CHDynmapStatic.getMarkerSet(args[0].val(), t);
+			File file = getFile(args[1].val(), t);
+			CArray optionArray = getOptions(args, 2, t);
+			MCWorld world;
+			if ((optionArray != null) && optionArray.containsKey("world")) {
+				world = Static.getServer().getWorld(optionArray.get("world", t).val());
+				if (world == null) {
+					throw new CREInvalidWorldException("Unknown world: " + optionArray.get("world", t).val(), t);
+				}
+			} else {
+				world = Static.getServer().getWorlds().get(0);
+			}
+			CHDynmapGeoJson.Options options = new CHDynmapGeoJson.Options(world.getName());
+			if (optionArray != null) {
+				if (optionArray.containsKey("y")) {
+					options.setY(ArgumentValidation.getDouble(optionArray.get("y", t), t));
+				}
+				if (optionArray.containsKey("id_property")) {
+					Mixed property = optionArray.get("id_property", t);
+					options.setIdProperty((property instanceof CNull) ? null : property.val());
+				}
+				if (optionArray.containsKey("label_property")) {
+					Mixed property = optionArray.get("label_property", t);
+					options.setLabelProperty((property instanceof CNull) ? null : property.val());
+				}
+				if (optionArray.containsKey("description_property")) {
+					Mixed property = optionArray.get("description_property", t);
+					options.setDescriptionProperty((property instanceof CNull) ? null : property.val());
+				}
+				if (optionArray.containsKey("icon")) {
+					Mixed icon = optionArray.get("icon", t);
+					options.setIcon((icon instanceof CNull) ? null : CHDynmapStatic.getIcon(icon.val(), t).getId());
+				}
+				if (optionArray.containsKey("persistent")) {
+					options.setPersistent(ArgumentValidation.getBooleanObject(optionArray.get("persistent", t), t));
+				}
+			}
+			return new CInt(CHDynmapGeoJson.load(set, file, options).getId(), t);
+		}
+	}
+
+	@api
+	public static class dm_marker_definitions extends DynmapMarkerFileFunction {
+
+		@Override
+		public String getName() {
+			return "dm_marker_definitions";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{0};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{};
+		}
+
+		@Override
+		public String docs() {
+			return "array {} Returns an associative array of the loaded marker definition files (in the \"definitions\" folder of the extension),"
+					+ " with the array of the IDs of the markersets they define. Each file is a JSON object of markerset IDs to markerset definitions,"
+					+ " with the keys \"label\", \"persistent\", \"priority\", \"hidden\", \"min_zoom\", \"max_zoom\", \"show_labels\","
+					+ " and \"markers\", an object of marker IDs to the options of the markers (the ones of {{function|dm_create_marker}},"
+					+ " the ID, the ttl and the persistence are ignored). The files are loaded at startup and watched: when a file changes,"
+					+ " its markersets are compared to the live ones, and only the needed markers are created, updated and deleted"
+					+ " (over the next server ticks within the job budget). The markersets no longer defined by their file are deleted."
+					+ " A file saved without changes is skipped.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CArray files = new CArray(t);
+			for (Map.Entry<String, Set<String>> entry : CHDynmapMarkerDefinitions.getFiles().entrySet()) {
+				CArray sets = new CArray(t);
+				for (String setID : entry.getValue()) {
+					sets.push(new CString(setID, t), t);
+				}
+				files.set(entry.getKey(), sets, t);
+			}
+			return files;
+		}
+	}
+
+	@api
+	public static class dm_reload_marker_definitions extends DynmapMarkerFileFunction {
+
+		@Override
+		public String getName() {
+			return "dm_reload_marker_definitions";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{0};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREPluginInternalException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "void {} Reads all the marker definition files again (see {{function|dm_marker_definitions}}), even the unchanged ones,"
+					+ " so the markers modified since by scripts are brought back to their definition. The files are read in the background,"
+					+ " and applied at the next server ticks.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			if (!CHDynmapMarkerDefinitions.reload()) {
+				throw new CREPluginInternalException("The marker definitions are not watched.", t);
+			}
+			return CVoid.VOID;
+		}
+	}
+}
\ No newline at end of file
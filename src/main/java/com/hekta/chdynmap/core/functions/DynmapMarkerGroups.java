@@ -0,0 +1,470 @@
+package com.hekta.chdynmap.core.functions;
+
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import com.hekta.chdynmap.core.CHDynmapMarkerCopier;
+import com.hekta.chdynmap.core.CHDynmapMarkerGroup;
+import com.hekta.chdynmap.core.CHDynmapMarkerJob;
+import com.hekta.chdynmap.core.CHDynmapStatic;
+import com.hekta.chdynmap.core.CHDynmapStyleTheme;
+import com.laytonsmith.PureUtilities.Version;
+import com.laytonsmith.annotations.api;
+import com.laytonsmith.core.ArgumentValidation;
+import com.laytonsmith.core.MSVersion;
+import com.laytonsmith.core.constructs.CArray;
+import com.laytonsmith.core.constructs.CInt;
+import com.laytonsmith.core.constructs.CNull;
+import com.laytonsmith.core.constructs.CString;
+import com.laytonsmith.core.constructs.CVoid;
+import com.laytonsmith.core.constructs.Target;
+import com.laytonsmith.core.environments.Environment;
+import com.laytonsmith.core.exceptions.CRE.CRECastException;
+import com.laytonsmith.core.exceptions.CRE.CREFormatException;
+import com.laytonsmith.core.exceptions.CRE.CREInvalidPluginException;
+import com.laytonsmith.core.exceptions.CRE.CRENotFoundException;
+import com.laytonsmith.core.exceptions.CRE.CREPluginInternalException;
+import com.laytonsmith.core.exceptions.CRE.CRERangeException;
+import com.laytonsmith.core.exceptions.CRE.CREThrowable;
+import com.laytonsmith.core.exceptions.ConfigRuntimeException;
+import com.laytonsmith.core.functions.AbstractFunction;
+import com.laytonsmith.core.natives.interfaces.Mixed;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ *
+ * @author Hekta
+ */
+public class DynmapMarkerGroups {
+
+	public static String docs() {
+		return "A class of functions to manage nested groups of Dynmap markers.";
+	}
+
+	public static abstract class DynmapMarkerGroupFunction extends AbstractFunction {
+
+		@Override
+		public boolean isRestricted() {
+			return true;
+		}
+
+		@Override
+		public Boolean runAsync() {
+			return false;
+		}
+
+		@Override
+		public Version since() {
+			return MSVersion.V3_3_1;
+		}
+	}
+
+	public static CHDynmapMarkerGroup getGroup(String name, Target t) {
+		CHDynmapMarkerGroup group = CHDynmapMarkerGroup.get(name);
+		if (group != null) {
+			return group;
+		} else {
+			throw new CRENotFoundException("\"" + name + "\" is not an existing marker group.", t);
+		}
+	}
+
+	private static boolean isRecursive(Mixed[] args, int index, Target t) {
+		return (args.length <= index) || ArgumentValidation.getBooleanObject(args[index], t);
+	}
+
+	@api
+	public static class dm_all_marker_groups extends DynmapMarkerGroupFunction {
+
+		@Override
+		public String getName() {
+			return "dm_all_marker_groups";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{0};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{};
+		}
+
+		@Override
+		public String docs() {
+			return "array {} Returns an array of all marker group names.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CArray groupArray = new CArray(t);
+			for (String name : CHDynmapMarkerGroup.getNames()) {
+				groupArray.push(new CString(name, t), t);
+			}
+			return groupArray;
+		}
+	}
+
+	@api
+	public static class dm_create_marker_group extends DynmapMarkerGroupFunction {
+
+		@Override
+		public String getName() {
+			return "dm_create_marker_group";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{1, 2};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREPluginInternalException.class, CRENotFoundException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "void {name, [parent]} Creates a marker group, as a subgroup of the parent group if it is given and not null."
+					+ " The groups and the membership of the persistent markers are kept across restarts.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CHDynmapMarkerGroup parent = ((args.length == 1) || (args[1] instanceof CNull)) ? null : getGroup(args[1].val(), t);
+			if (CHDynmapMarkerGroup.create(args[0].val(), parent) == null) {
+				throw new CREPluginInternalException("\"" + args[0].val() + "\" is already an existing marker group.", t);
+			}
+			return CVoid.VOID;
+		}
+	}
+
+	@api
+	public static class dm_delete_marker_group extends DynmapMarkerGroupFunction {
+
+		@Override
+		public String getName() {
+			return "dm_delete_marker_group";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{1, 2};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CRENotFoundException.class, CRECastException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "int {name, [deleteMarkers]} Deletes a marker group and its subgroups, and returns the number of markers deleted."
+					+ " If deleteMarkers is true, the markers of the groups are deleted too, else (by default) they are kept and do not belong to a group anymore.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CHDynmapMarkerGroup group = getGroup(args[0].val(), t);
+			long deleted = 0;
+			if ((args.length == 2) && ArgumentValidation.getBooleanObject(args[1], t)) {
+				deleted = CHDynmapMarkerJob.run(group.resolve(true), CHDynmapMarkerJob.DELETE);
+			}
+			group.remove();
+			return new CInt(deleted, t);
+		}
+	}
+
+	@api
+	public static class dm_marker_group extends DynmapMarkerGroupFunction {
+
+		@Override
+		public String getName() {
+			return "dm_marker_group";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{2};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "string {setID, markerID} Returns the name of the group the marker belongs to, or null if it does not belong to a group.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarker marker = CHDynmapStatic.getMarker(args[0].val(), args[1].val(), t);
+			CHDynmapMarkerGroup group = CHDynmapMarkerGroup.getGroup(args[0].val(), marker.getId());
+			if (group != null) {
+				return new CString(group.getName(), t);
+			} else {
+				return CNull.NULL;
+			}
+		}
+	}
+
+	@api
+	public static class dm_set_marker_group extends DynmapMarkerGroupFunction {
+
+		@Override
+		public String getName() {
+			return "dm_set_marker_group";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{3};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "void {setID, markerID, name} Puts the marker in a group, removing it from its previous group (a marker belongs to one group at most)."
+					+ " If name is null, the marker is removed from its group. The marker stays in its group when it is moved to another markerset.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarker marker = CHDynmapStatic.getMarker(args[0].val(), args[1].val(), t);
+			if (args[2] instanceof CNull) {
+				CHDynmapMarkerGroup.unbind(args[0].val(), marker.getId());
+			} else {
+				CHDynmapMarkerGroup.bind(marker, getGroup(args[2].val(), t));
+			}
+			return CVoid.VOID;
+		}
+	}
+
+	@api
+	public static class dm_marker_group_children extends DynmapMarkerGroupFunction {
+
+		@Override
+		public String getName() {
+			return "dm_marker_group_children";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{1};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CRENotFoundException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "array {name} Returns an array of the names of the direct subgroups of the marker group.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CArray childArray = new CArray(t);
+			for (CHDynmapMarkerGroup child : getGroup(args[0].val(), t).getChildren()) {
+				childArray.push(new CString(child.getName(), t), t);
+			}
+			return childArray;
+		}
+	}
+
+	@api
+	public static class dm_marker_group_markers extends DynmapMarkerGroupFunction {
+
+		@Override
+		public String getName() {
+			return "dm_marker_group_markers";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{1, 2};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CRENotFoundException.class, CRECastException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "array {name, [recursive]} Returns an associative array of the markers of the group, and of its subgroups if recursive is true (the default),"
+					+ " where the keys are the markerset IDs, and the values are arrays of marker IDs.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CHDynmapMarkerGroup group = getGroup(args[0].val(), t);
+			CArray setArray = new CArray(t);
+			for (CHDynmapMarkerGroup member : isRecursive(args, 1, t) ? group.getDescendants() : Collections.singletonList(group)) {
+				for (Map.Entry<String, Set<String>> entry : member.getMarkers().entrySet()) {
+					CArray markerArray;
+					if (setArray.containsKey(entry.getKey())) {
+						markerArray = (CArray) setArray.get(entry.getKey(), t);
+					} else {
+						markerArray = new CArray(t);
+						setArray.set(entry.getKey(), markerArray, t);
+					}
+					for (String markerID : entry.getValue()) {
+						markerArray.push(new CString(markerID, t), t);
+					}
+				}
+			}
+			return setArray;
+		}
+	}
+
+	@api
+	public static class dm_marker_group_parent extends DynmapMarkerGroupFunction {
+
+		@Override
+		public String getName() {
+			return "dm_marker_group_parent";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{1};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CRENotFoundException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "string {name} Returns the name of the parent of the marker group, or null if it is a top group.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CHDynmapMarkerGroup parent = getGroup(args[0].val(), t).getParent();
+			if (parent != null) {
+				return new CString(parent.getName(), t);
+			} else {
+				return CNull.NULL;
+			}
+		}
+	}
+
+	@api
+	public static class dm_set_marker_group_parent extends DynmapMarkerGroupFunction {
+
+		@Override
+		public String getName() {
+			return "dm_set_marker_group_parent";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{2};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CRENotFoundException.class, CRERangeException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "void {name, parent} Moves the marker group (with its subgroups) under another group, or makes it a top group if parent is null."
+					+ " The parent can not be the group itself or one of its subgroups.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CHDynmapMarkerGroup group = getGroup(args[0].val(), t);
+			CHDynmapMarkerGroup parent = (args[1] instanceof CNull) ? null : getGroup(args[1].val(), t);
+			if ((parent != null) && group.isAncestorOf(parent)) {
+				throw new CRERangeException("A marker group can not be put under itself or one of its subgroups.", t);
+			}
+			group.setParent(parent);
+			return CVoid.VOID;
+		}
+	}
+
+	@api
+	public static class dm_move_marker_group extends DynmapMarkerGroupFunction {
+
+		@Override
+		public String getName() {
+			return "dm_move_marker_group";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{2, 3};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class, CRECastException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "int {name, setID, [recursive]} Moves the markers of the group, and of its subgroups if recursive is true (the default), to the markerset,"
+					+ " and returns the number of markers moved. The markers stay in their groups, and the ones whose ID is already used in the markerset are skipped.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CHDynmapMarkerGroup group = getGroup(args[0].val(), t);
+			MCDynmapMarkerSet set = CHDynmapStatic.getMarkerSet(args[1].val(), t);
+			List<MCDynmapMarker> markers = group.resolve(isRecursive(args, 2, t));
+			return new CInt(CHDynmapMarkerJob.run(markers, CHDynmapMarkerCopier.moveTo(set.getId())), t);
+		}
+	}
+
+	@api
+	public static class dm_style_marker_group extends DynmapMarkerGroupFunction {
+
+		@Override
+		public String getName() {
+			return "dm_style_marker_group";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{2, 3};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CRENotFoundException.class, CRECastException.class, CREFormatException.class, CRERangeException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "int {name, styleArray, [recursive]} Applies style settings to the markers of the group, and of its subgroups if recursive is true (the default),"
+					+ " and returns the number of markers styled. The style array takes the keys of {{function|dm_define_style_theme}},"
+					+ " so the zoom levels of the group are changed with the \"min_zoom\" and \"max_zoom\" keys."
+					+ " The markers are not bound to a theme, and the writes changing nothing are skipped.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CHDynmapMarkerGroup group = getGroup(args[0].val(), t);
+			CHDynmapStyleTheme style = CHDynmapStyleTheme.parse(ArgumentValidation.getArray(args[1], t), t);
+			List<MCDynmapMarker> markers = group.resolve(isRecursive(args, 2, t));
+			return new CInt(CHDynmapMarkerJob.run(markers, marker -> {
+				style.apply(marker);
+				return true;
+			}), t);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,338 @@
+package com.hekta.chdynmap.core.functions;
+
+import com.hekta.chdynmap.abstraction.CHDynmapStaticLayer;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import com.hekta.chdynmap.abstraction.enums.MCDynmapMarkerType;
+import com.hekta.chdynmap.core.CHDynmapMarkerHistory;
+import com.hekta.chdynmap.core.CHDynmapMarkerState;
+import com.hekta.chdynmap.core.CHDynmapStatic;
+import com.laytonsmith.PureUtilities.Version;
+import com.laytonsmith.annotations.api;
+import com.laytonsmith.core.ArgumentValidation;
+import com.laytonsmith.core.MSVersion;
+import com.laytonsmith.core.ObjectGenerator;
+import com.laytonsmith.core.constructs.CArray;
+import com.laytonsmith.core.constructs.CBoolean;
+import com.laytonsmith.core.constructs.CClosure;
+import com.laytonsmith.core.constructs.CDouble;
+import com.laytonsmith.core.constructs.CInt;
+import com.laytonsmith.core.constructs.CNull;
+import com.laytonsmith.core.constructs.CString;
+import com.laytonsmith.core.constructs.CVoid;
+import com.laytonsmith.core.constructs.Target;
+import com.laytonsmith.core.environments.Environment;
+import com.laytonsmith.core.exceptions.CRE.CRECastException;
+import com.laytonsmith.core.exceptions.CRE.CREInvalidPluginException;
+import com.laytonsmith.core.exceptions.CRE.CRENotFoundException;
+import com.laytonsmith.core.exceptions.CRE.CREPluginInternalException;
+import com.laytonsmith.core.exceptions.CRE.CRERangeException;
+import com.laytonsmith.core.exceptions.CRE.CREThrowable;
+import com.laytonsmith.core.exceptions.ConfigRuntimeException;
+import com.laytonsmith.core.exceptions.FunctionReturnException;
+import com.laytonsmith.core.functions.AbstractFunction;
+import com.laytonsmith.core.natives.interfaces.Mixed;
+import java.util.List;
+import java.util.Set;
+
+/**
+ *
+ * @author Hekta
+ */
+public class DynmapMarkerHistory {
+
+	public static String docs() {
+		return "A class of functions to record the history of the markers of markersets, to read it and to restore a markerset as it was.";
+	}
+
+	public static abstract class DynmapMarkerHistoryFunction extends AbstractFunction {
+
+		@Override
+		public boolean isRestricted() {
+			return true;
+		}
+
+		@Override
+		public Boolean runAsync() {
+			return false;
+		}
+
+		@Override
+		public Version since() {
+			return MSVersion.V3_3_1;
+		}
+	}
+
+	private static String getHistorySetID(Mixed setID, Target t) {
+		if (!CHDynmapMarkerHistory.hasHistory(setID.val())) {
+			throw new CRENotFoundException("The markerset \"" + setID.val() + "\" has no history.", t);
+		}
+		return setID.val();
+	}
+
+	private static CArray getLocation(CHDynmapMarkerState state, int index, Target t) {
+		CArray location = new CArray(t);
+		location.set("x", new CDouble(state.getX(index), t), t);
+		location.set("y", new CDouble(state.getY(index), t), t);
+		location.set("z", new CDouble(state.getZ(index), t), t);
+		location.set("world", (state.getWorld() != null) ? new CString(state.getWorld(), t) : CNull.NULL, t);
+		return location;
+	}
+
+	/**
+	 * Returns the marker state as an associative array, with the keys of the getters of the markers.
+	 */
+	private static CArray toArray(CHDynmapMarkerState state, Target t) {
+		CArray markerArray = new CArray(t);
+		markerArray.set("id", new CString(state.getId(), t), t);
+		markerArray.set("type", new CString(state.getType().name(), t), t);
+		markerArray.set("world", (state.getWorld() != null) ? new CString(state.getWorld(), t) : CNull.NULL, t);
+		markerArray.set("label", new CString(state.getLabel(), t), t);
+		markerArray.set("label_is_html", CBoolean.get(state.isLabelHTML()), t);
+		markerArray.set("description", (state.getDescription() != null) ? new CString(state.getDescription(), t) : CNull.NULL, t);
+		markerArray.set("min_zoom", new CInt(state.getMinZoom(), t), t);
+		markerArray.set("max_zoom", new CInt(state.getMaxZoom(), t), t);
+		switch (state.getType()) {
+			case AREA:
+			case POLYLINE:
+				CArray corners = new CArray(t);
+				for (int i = 0; i < state.getLocationCount(); i++) {
+					corners.push(getLocation(state, i, t), t);
+				}
+				markerArray.set("corners", corners, t);
+				break;
+			case CIRCLE:
+				markerArray.set("center", getLocation(state, 0, t), t);
+				CArray radius = new CArray(t);
+				radius.set("x", new CDouble(state.getRadiusX(), t), t);
+				radius.set("z", new CDouble(state.getRadiusZ(), t), t);
+				markerArray.set("radius", radius, t);
+				break;
+			case ICON:
+				markerArray.set("location", getLocation(state, 0, t), t);
+				markerArray.set("icon", (state.getIcon() != null) ? new CString(state.getIcon(), t) : CNull.NULL, t);
+				break;
+			default:
+				break;
+		}
+		MCDynmapMarkerType type = state.getType();
+		if (type == MCDynmapMarkerType.AREA) {
+			CArray range = new CArray(t);
+			range.set("bottom", new CDouble(state.getBottomY(), t), t);
+			range.set("top", new CDouble(state.getTopY(), t), t);
+			markerArray.set("range_y", range, t);
+		}
+		if ((type == MCDynmapMarkerType.AREA) || (type == MCDynmapMarkerType.CIRCLE)) {
+			CArray fillStyle = new CArray(t);
+			fillStyle.set("color", ObjectGenerator.GetGenerator().color(CHDynmapStaticLayer.getFillStyle(state.getFillColor(), state.getFillOpacity()).getColor(), t), t);
+			fillStyle.set("opacity", new CDouble(state.getFillOpacity(), t), t);
+			markerArray.set("fill_style", fillStyle, t);
+			markerArray.set("boosted", CBoolean.get(state.isBoosted()), t);
+		}
+		if (type != MCDynmapMarkerType.ICON) {
+			CArray lineStyle = new CArray(t);
+			lineStyle.set("color", ObjectGenerator.GetGenerator().color(CHDynmapStaticLayer.getLineStyle(state.getLineColor(), state.getLineOpacity(), state.getLineWeight()).getColor(), t), t);
+			lineStyle.set("opacity", new CDouble(state.getLineOpacity(), t), t);
+			lineStyle.set("weight", new CInt(state.getLineWeight(), t), t);
+			markerArray.set("line_style", lineStyle, t);
+		}
+		return markerArray;
+	}
+
+	@api
+	public static class dm_markerset_history_recorded extends DynmapMarkerHistoryFunction {
+
+		@Override
+		public String getName() {
+			return "dm_markerset_history_recorded";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{1};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "boolean {setID} Returns if the history of the markers of the markerset is recorded.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			return CBoolean.get(CHDynmapMarkerHistory.isRecorded(CHDynmapStatic.getMarkerSet(args[0].val(), t).getId()));
+		}
+	}
+
+	@api
+	public static class dm_set_markerset_history_recorded extends DynmapMarkerHistoryFunction {
+
+		@Override
+		public String getName() {
+			return "dm_set_markerset_history_recorded";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{2};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class, CRECastException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "void {setID, boolean} Sets if the history of the markers of the markerset is recorded (this is kept across restarts)."
+					+ " The recording starts with a snapshot of all the markers, then at the end of each server tick, only the changed properties"
+					+ " of the markers changed during the tick are written, in a file by markerset in the \"history\" folder of the extension."
+					+ " A snapshot is written again every 1000 changes, and when the server starts. When the recording is stopped,"
+					+ " the history already written is kept.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarkerSet set = CHDynmapStatic.getMarkerSet(args[0].val(), t);
+			CHDynmapMarkerHistory.setRecorded(set, ArgumentValidation.getBooleanObject(args[1], t));
+			return CVoid.VOID;
+		}
+	}
+
+	@api
+	public static class dm_marker_history extends DynmapMarkerHistoryFunction {
+
+		@Override
+		public String getName() {
+			return "dm_marker_history";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{3, 5};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CRENotFoundException.class, CRECastException.class, CRERangeException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "int {setID, markerID, [from, to], callback} Reads the recorded changes of the marker between both times"
+					+ " (in milliseconds, as given by {{function|time}}, by default from the start of the history to now) on a background thread,"
+					+ " and returns the ID of the read job. Once they are read, the callback closure is executed on the server thread"
+					+ " with an array of the changes, the oldest first."
+					+ " Each change is an associative array with the \"time\", the \"type\" (CREATED, UPDATED or DELETED), the changed \"properties\""
+					+ " of an update (corners, center, location, radius, range_y, fill_style, line_style, boosted, icon, label, description,"
+					+ " min_zoom, max_zoom, world, or type if the marker was created again with another type), and the \"marker\" after the change"
+					+ " (an associative array with the keys id, type, world, label, label_is_html, description, min_zoom, max_zoom, and"
+					+ " corners, center, location, radius, range_y, fill_style, line_style, boosted and icon depending on the type of the marker),"
+					+ " null if it was deleted. The history is read from the last snapshot before the start time, and the markerset may no longer exist."
+					+ " If the history can not be read, the job fails and the callback is not executed.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			String setID = getHistorySetID(args[0], t);
+			long from = 0;
+			long to = Long.MAX_VALUE;
+			if (args.length == 5) {
+				if (!(args[2] instanceof CNull)) {
+					from = ArgumentValidation.getInt(args[2], t);
+				}
+				if (!(args[3] instanceof CNull)) {
+					to = ArgumentValidation.getInt(args[3], t);
+				}
+			}
+			if (from > to) {
+				throw new CRERangeException("The start time must not be after the end time.", t);
+			}
+			if (!(args[args.length - 1] instanceof CClosure)) {
+				throw new CRECastException("Expecting a closure.", t);
+			}
+			CClosure callback = (CClosure) args[args.length - 1];
+			return new CInt(CHDynmapMarkerHistory.readHistory(setID, args[1].val(), from, to, (List<CHDynmapMarkerHistory.Entry> entries) -> {
+				CArray history = new CArray(t);
+				for (CHDynmapMarkerHistory.Entry entry : entries) {
+					CArray entryArray = new CArray(t);
+					entryArray.set("time", new CInt(entry.getTime(), t), t);
+					CArray properties = new CArray(t);
+					String type;
+					if (entry.getPrevious() == null) {
+						type = "CREATED";
+					} else if (entry.getState() == null) {
+						type = "DELETED";
+					} else {
+						type = "UPDATED";
+						for (String property : entry.getState().diff(entry.getPrevious())) {
+							properties.push(new CString(property, t), t);
+						}
+					}
+					entryArray.set("type", new CString(type, t), t);
+					entryArray.set("properties", properties, t);
+					entryArray.set("marker", (entry.getState() != null) ? toArray(entry.getState(), t) : CNull.NULL, t);
+					history.push(entryArray, t);
+				}
+				try {
+					callback.execute(history);
+				} catch (FunctionReturnException exception) {
+					//the returned value is ignored
+				} catch (ConfigRuntimeException exception) {
+					ConfigRuntimeException.HandleUncaughtException(exception, environment);
+				}
+			}).getId(), t);
+		}
+	}
+
+	@api
+	public static class dm_restore_markerset_at extends DynmapMarkerHistoryFunction {
+
+		@Override
+		public String getName() {
+			return "dm_restore_markerset_at";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{3, 4};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class, CRECastException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "int {setID, time, targetSetID, [optionArray]} Rebuilds the markers of the markerset as they were at the given time"
+					+ " (in milliseconds, as given by {{function|time}}) from its history, and brings the markers of the target markerset"
+					+ " (which can be the same markerset) to that state with the fewest changes, as {{function|dm_sync_markerset}} does:"
+					+ " the markers which did not exist at that time are deleted from the target markerset. Returns the ID of the restore job."
+					+ " The history is read on a background thread from the last snapshot before the time, then it is compared to the live markers"
+					+ " and the changes are spread over the next server ticks. If the history can not be read, the job fails and nothing is changed."
+					+ " ---- The option array is associative and not required, and all its keys are optional."
+					+ " <li>KEY - DEFAULT - DESCRIPTION - COMMENT</li>"
+					+ " <li>persistent - false - sets if the created markers are persistent, the target markerset must be persistent</li>";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			String setID = getHistorySetID(args[0], t);
+			long time = ArgumentValidation.getInt(args[1], t);
+			MCDynmapMarkerSet target = CHDynmapStatic.getMarkerSet(args[2].val(), t);
+			boolean persistent = false;
+			if ((args.length > 3) && !(args[3] instanceof CNull)) {
+				CArray optionArray = ArgumentValidation.getArray(args[3], t);
+				Set<String> keys = optionArray.stringKeySet();
+				if (keys.contains("persistent")) {
+					persistent = ArgumentValidation.getBooleanObject(optionArray.get("persistent", t), t);
+				}
+			}
+			return new CInt(CHDynmapMarkerHistory.restore(setID, time, target, persistent).getId(), t);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,288 @@
+package com.hekta.chdynmap.core.functions;
+
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import com.hekta.chdynmap.core.CHDynmapMarkerMeta;
+import com.hekta.chdynmap.core.CHDynmapStatic;
+import com.laytonsmith.PureUtilities.Version;
+import com.laytonsmith.annotations.api;
+import com.laytonsmith.core.MSVersion;
+import com.laytonsmith.core.constructs.CArray;
+import com.laytonsmith.core.constructs.CBoolean;
+import com.laytonsmith.core.constructs.CDouble;
+import com.laytonsmith.core.constructs.CInt;
+import com.laytonsmith.core.constructs.CNull;
+import com.laytonsmith.core.constructs.CString;
+import com.laytonsmith.core.constructs.CVoid;
+import com.laytonsmith.core.constructs.Target;
+import com.laytonsmith.core.environments.Environment;
+import com.laytonsmith.core.exceptions.CRE.CRECastException;
+import com.laytonsmith.core.exceptions.CRE.CREInvalidPluginException;
+import com.laytonsmith.core.exceptions.CRE.CRENotFoundException;
+import com.laytonsmith.core.exceptions.CRE.CREPluginInternalException;
+import com.laytonsmith.core.exceptions.CRE.CREThrowable;
+import com.laytonsmith.core.exceptions.ConfigRuntimeException;
+import com.laytonsmith.core.functions.AbstractFunction;
+import com.laytonsmith.core.natives.interfaces.Mixed;
+import java.util.Map;
+
+/**
+ *
+ * @author Hekta
+ */
+public class DynmapMarkerMeta {
+
+	public static String docs() {
+		return "A class of functions to attach key-value metadata to Dynmap markers, and to find the markers by their metadata.";
+	}
+
+	public static abstract class DynmapMarkerMetaFunction extends AbstractFunction {
+
+		@Override
+		public boolean isRestricted() {
+			return true;
+		}
+
+		@Override
+		public Boolean runAsync() {
+			return false;
+		}
+
+		@Override
+		public Version since() {
+			return MSVersion.V3_3_1;
+		}
+	}
+
+	private static Object getValue(Mixed value, Target t) {
+		if (value instanceof CNull) {
+			return null;
+		} else if (value instanceof CString) {
+			return value.val();
+		} else if (value instanceof CInt) {
+			return ((CInt) value).getInt();
+		} else if (value instanceof CDouble) {
+			return ((CDouble) value).getDouble();
+		} else if (value instanceof CBoolean) {
+			return ((CBoolean) value).getBoolean();
+		} else {
+			throw new CRECastException("The metadata values must be strings, integers, doubles or booleans.", t);
+		}
+	}
+
+	private static Mixed toMixed(Object value, Target t) {
+		if (value == null) {
+			return CNull.NULL;
+		} else if (value instanceof Long) {
+			return new CInt((Long) value, t);
+		} else if (value instanceof Double) {
+			return new CDouble((Double) value, t);
+		} else if (value instanceof Boolean) {
+			return CBoolean.get((Boolean) value);
+		} else {
+			return new CString((String) value, t);
+		}
+	}
+
+	@api
+	public static class dm_marker_meta extends DynmapMarkerMetaFunction {
+
+		@Override
+		public String getName() {
+			return "dm_marker_meta";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{2, 3};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "mixed {setID, markerID, [key]} Returns the value of the metadata key of the marker, or null if it is not set."
+					+ " If the key is not given, returns an associative array of all the metadata of the marker.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarker marker = CHDynmapStatic.getMarker(args[0].val(), args[1].val(), t);
+			if (args.length == 3) {
+				return toMixed(CHDynmapMarkerMeta.get(args[0].val(), marker.getId(), args[2].val()), t);
+			}
+			CArray metaArray = new CArray(t);
+			for (Map.Entry<String, Object> entry : CHDynmapMarkerMeta.getAll(args[0].val(), marker.getId()).entrySet()) {
+				metaArray.set(entry.getKey(), toMixed(entry.getValue(), t), t);
+			}
+			return metaArray;
+		}
+	}
+
+	@api
+	public static class dm_set_marker_meta extends DynmapMarkerMetaFunction {
+
+		@Override
+		public String getName() {
+			return "dm_set_marker_meta";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{4};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class, CRECastException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "void {setID, markerID, key, value} Sets the value of the metadata key of the marker (a string, an integer, a double or a boolean),"
+					+ " or removes the key if the value is null. The metadata follows the marker when it is moved to another markerset,"
+					+ " and is removed with the marker or its markerset. The metadata of the persistent markers (and of the markers"
+					+ " of the journaled markersets) is saved, and loaded again when the server starts. The change is reverted"
+					+ " if the enclosing {{function|dm_transaction}} fails.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarker marker = CHDynmapStatic.getMarker(args[0].val(), args[1].val(), t);
+			CHDynmapMarkerMeta.set(marker, args[2].val(), getValue(args[3], t));
+			return CVoid.VOID;
+		}
+	}
+
+	@api
+	public static class dm_markers_by_meta extends DynmapMarkerMetaFunction {
+
+		@Override
+		public String getName() {
+			return "dm_markers_by_meta";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{3};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "array {setID, key, value} Returns an array of the IDs of the markers of the markerset whose metadata key has the given value"
+					+ " (the values are compared by their string form). If the key is indexed (see {{function|dm_add_marker_meta_index}}),"
+					+ " the markers are looked up directly, else the metadata of all the markers of the markerset is read.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarkerSet set = CHDynmapStatic.getMarkerSet(args[0].val(), t);
+			CArray markerIDs = new CArray(t);
+			for (String markerID : CHDynmapMarkerMeta.find(set, args[1].val(), args[2].val())) {
+				markerIDs.push(new CString(markerID, t), t);
+			}
+			return markerIDs;
+		}
+	}
+
+	@api
+	public static class dm_marker_meta_indexes extends DynmapMarkerMetaFunction {
+
+		@Override
+		public String getName() {
+			return "dm_marker_meta_indexes";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{0};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{};
+		}
+
+		@Override
+		public String docs() {
+			return "array {} Returns an array of the indexed metadata keys.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CArray keys = new CArray(t);
+			for (String key : CHDynmapMarkerMeta.getIndexedKeys()) {
+				keys.push(new CString(key, t), t);
+			}
+			return keys;
+		}
+	}
+
+	@api
+	public static class dm_add_marker_meta_index extends DynmapMarkerMetaFunction {
+
+		@Override
+		public String getName() {
+			return "dm_add_marker_meta_index";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{1};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{};
+		}
+
+		@Override
+		public String docs() {
+			return "boolean {key} Indexes the metadata key for all the markersets, so {{function|dm_markers_by_meta}} finds the markers"
+					+ " with a value of this key without reading the metadata of all the markers. Returns false if the key was already indexed."
+					+ " The index is built from the current metadata, is kept up to date, and is saved.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			return CBoolean.get(CHDynmapMarkerMeta.addIndex(args[0].val()));
+		}
+	}
+
+	@api
+	public static class dm_remove_marker_meta_index extends DynmapMarkerMetaFunction {
+
+		@Override
+		public String getName() {
+			return "dm_remove_marker_meta_index";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{1};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{};
+		}
+
+		@Override
+		public String docs() {
+			return "boolean {key} Stops indexing the metadata key, and returns false if it was not indexed. The metadata is kept.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			return CBoolean.get(CHDynmapMarkerMeta.removeIndex(args[0].val()));
+		}
+	}
+}
\ No newline at end of file
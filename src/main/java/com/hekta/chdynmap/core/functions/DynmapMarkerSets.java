@@ -1,7 +1,20 @@
 package com.hekta.chdynmap.core.functions;
 
 import com.hekta.chdynmap.abstraction.MCDynmapIcon;
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerAPI;
 import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import com.hekta.chdynmap.core.CHDynmapChangeFeed;
+import com.hekta.chdynmap.core.CHDynmapIdAllocator;
+import com.hekta.chdynmap.core.CHDynmapJob;
+import com.hekta.chdynmap.core.CHDynmapJournal;
+import com.hekta.chdynmap.core.CHDynmapMarkerCopier;
+import com.hekta.chdynmap.core.CHDynmapMarkerFilter;
+import com.hekta.chdynmap.core.CHDynmapMarkerJob;
+import com.hekta.chdynmap.core.CHDynmapMarkerQuota;
+import com.hekta.chdynmap.core.CHDynmapMarkerState;
+import com.hekta.chdynmap.core.CHDynmapMarkerSync;
+import com.hekta.chdynmap.core.CHDynmapMarkerTemplate;
 import com.hekta.chdynmap.core.CHDynmapStatic;
 import com.laytonsmith.PureUtilities.Version;
 import com.laytonsmith.annotations.api;
@@ -14,14 +27,20 @@ import com.laytonsmith.core.environments.Environment;
 import com.laytonsmith.core.exceptions.CRE.CRECastException;
 import com.laytonsmith.core.exceptions.CRE.CREFormatException;
 import com.laytonsmith.core.exceptions.CRE.CREInvalidPluginException;
+import com.laytonsmith.core.exceptions.CRE.CREInvalidWorldException;
 import com.laytonsmith.core.exceptions.CRE.CRENotFoundException;
 import com.laytonsmith.core.exceptions.CRE.CREPluginInternalException;
+import com.laytonsmith.core.exceptions.CRE.CRERangeException;
 import com.laytonsmith.core.exceptions.CRE.CREThrowable;
 import com.laytonsmith.core.exceptions.ConfigRuntimeException;
 import com.laytonsmith.core.functions.AbstractFunction;
 import com.laytonsmith.core.natives.interfaces.Mixed;
 ;
+import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -234,6 +253,75 @@ public class DynmapMarkerSets {
 		}
 	}
 
+	@api
+	public static class dm_clone_markerset extends DynmapMarkerSetFunction {
+
+		@Override
+		public String getName() {
+			return "dm_clone_markerset";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{2, 3};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class, CRECastException.class, CREFormatException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "string {setID, newSetID, [optionArray]} Creates a copy of a markerset and returns its ID."
+					+ " The allowed icons, default icon, layer priority, zoom levels, hide by default and label visibility are copied,"
+					+ " then the markers are copied like with {{function|dm_copy_markers}}."
+					+ " ---- The option array is associative and not required, and all its keys are optional."
+					+ " <li>KEY - DEFAULT - DESCRIPTION - COMMENT</li>"
+					+ " <li>filter - null - the filter of the markers to copy - see {{function|dm_copy_markers}}</li>"
+					+ " <li>label - the markerset label - the new markerset label</li>"
+					+ " <li>markers - true - sets if the markers are copied</li>"
+					+ " <li>persistent - the markerset persistence - sets if the new markerset is persistent</li>"
+					+ " <li>spread - false - spreads the copy of the markers over the next server ticks</li>";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarkerSet set = CHDynmapStatic.getMarkerSet(args[0].val(), t);
+			String newSetID = args[1].val();
+			CHDynmapStatic.testDynmapIDValidity(newSetID, t);
+			MCDynmapMarkerAPI markerAPI = CHDynmapStatic.getMarkerAPI(t);
+			if (markerAPI.getMarkerSet(newSetID) != null) {
+				throw new CREPluginInternalException("\"" + newSetID + "\" is already an existing markerset.", t);
+			}
+			CArray optionArray;
+			if ((args.length == 2) || (args[2] instanceof CNull)) {
+				optionArray = new CArray(t);
+			} else {
+				optionArray = ArgumentValidation.getArray(args[2], t);
+			}
+			Set<String> keys = optionArray.stringKeySet();
+			String label = keys.contains("label") ? optionArray.get("label", t).val() : set.getLabel();
+			boolean persistent = keys.contains("persistent") ? ArgumentValidation.getBooleanObject(optionArray.get("persistent", t), t) : set.isPersistent();
+			boolean copyMarkers = keys.contains("markers") ? ArgumentValidation.getBooleanObject(optionArray.get("markers", t), t) : true;
+			CHDynmapMarkerFilter filter = keys.contains("filter") ? CHDynmapMarkerFilter.parse(optionArray.get("filter", t), t) : CHDynmapMarkerFilter.ALL;
+			MCDynmapMarkerSet newSet = CHDynmapMarkerCopier.cloneSet(markerAPI, set, newSetID, label, persistent);
+			if (newSet == null) {
+				throw new CREPluginInternalException("The markerset creation failed.", t);
+			}
+			if (copyMarkers) {
+				List<MCDynmapMarker> markers = filter.select(set);
+				CHDynmapMarkerJob.Operation copy = CHDynmapMarkerCopier.copyTo(newSetID, true);
+				if (CHDynmapStatic.isSpread(args, 2, t)) {
+					CHDynmapMarkerJob.submit("clone", set, markers, copy);
+				} else {
+					CHDynmapMarkerJob.run(markers, copy);
+				}
+			}
+			return new CString(newSet.getId(), t);
+		}
+	}
+
 	@api
 	public static class dm_delete_markerset extends DynmapMarkerSetFunction {
 
@@ -244,23 +332,121 @@ public class DynmapMarkerSets {
 
 		@Override
 		public Integer[] numArgs() {
-			return new Integer[]{1};
+			return new Integer[]{1, 2};
 		}
 
 		@Override
 		public Class<? extends CREThrowable>[] thrown() {
-			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class};
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRECastException.class};
 		}
 
 		@Override
 		public String docs() {
-			return "void {setID} Deletes a marker set.";
+			return "mixed {setID, [optionArray]} Deletes a marker set."
+					+ " If the deletion is spread, the markers are deleted over the next server ticks, then the markerset is deleted,"
+					+ " and the ID of the job is returned (see {{function|dm_job_info}}). If the job is cancelled, the markerset and its remaining markers are kept."
+					+ " ---- The option array is associative and not required, and all its keys are optional."
+					+ " <li>KEY - DEFAULT - DESCRIPTION - COMMENT</li>"
+					+ " <li>spread - false - spreads the deletion over the next server ticks</li>";
 		}
 
 		@Override
 		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
-			CHDynmapStatic.getMarkerSet(args[0].val(), t).delete();
-			return CVoid.VOID;
+			MCDynmapMarkerSet set = CHDynmapStatic.getMarkerSet(args[0].val(), t);
+			if (!CHDynmapStatic.isSpread(args, 1, t)) {
+				set.delete();
+				return CVoid.VOID;
+			}
+			String setID = set.getId();
+			CHDynmapJob job = CHDynmapMarkerJob.submit("delete", set, Arrays.asList(set.getMarkers()), CHDynmapMarkerJob.DELETE, () -> {
+				MCDynmapMarkerSet remaining = CHDynmapStatic.findMarkerSet(setID);
+				if (remaining != null) {
+					remaining.delete();
+				}
+			});
+			return new CInt(job.getId(), t);
+		}
+	}
+
+	@api
+	public static class dm_sync_markerset extends DynmapMarkerSetFunction {
+
+		@Override
+		public String getName() {
+			return "dm_sync_markerset";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{2, 3};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class, CRECastException.class, CREFormatException.class, CREInvalidWorldException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "array {setID, desiredMarkers, [optionArray]} Brings the markers of the markerset to the desired state with the fewest changes,"
+					+ " and returns an associative array with the number of markers \"created\", \"updated\", \"deleted\" and \"unchanged\","
+					+ " and the \"job\" ID if the changes are spread (else null). The desired markers are an array of option arrays"
+					+ " (with the keys of {{function|dm_create_marker}}, the ttl is ignored), associative by marker ID or each with an \"id\" key."
+					+ " They are compared by ID to the live markers (geometry, label, description, styles, icon and zoom levels):"
+					+ " only the missing markers are created, only the changed properties of the others are set,"
+					+ " and a marker whose type or world changed is created again. All the desired markers are validated before any change."
+					+ " ---- The option array is associative and not required, and all its keys are optional."
+					+ " <li>KEY - DEFAULT - DESCRIPTION - COMMENT</li>"
+					+ " <li>delete - true - sets if the markers which are not desired are deleted</li>"
+					+ " <li>persistent - false - sets if the created markers are persistent, the markerset must be persistent</li>"
+					+ " <li>spread - false - spreads the changes over the next server ticks - the comparison is done at once</li>";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarkerSet set = CHDynmapStatic.getMarkerSet(args[0].val(), t);
+			CArray desiredArray = ArgumentValidation.getArray(args[1], t);
+			CArray optionArray;
+			if ((args.length == 2) || (args[2] instanceof CNull)) {
+				optionArray = new CArray(t);
+			} else {
+				optionArray = ArgumentValidation.getArray(args[2], t);
+			}
+			Set<String> keys = optionArray.stringKeySet();
+			boolean delete = keys.contains("delete") ? ArgumentValidation.getBooleanObject(optionArray.get("delete", t), t) : true;
+			boolean persistent = keys.contains("persistent") ? ArgumentValidation.getBooleanObject(optionArray.get("persistent", t), t) : false;
+			Map<String, CHDynmapMarkerState> desired = new LinkedHashMap<>();
+			for (String key : desiredArray.stringKeySet()) {
+				CArray markerArray = ArgumentValidation.getArray(desiredArray.get(key, t), t);
+				String markerID;
+				if (desiredArray.inAssociativeMode()) {
+					markerID = key;
+				} else if (markerArray.containsKey("id") && !(markerArray.get("id", t) instanceof CNull)) {
+					markerID = markerArray.get("id", t).val();
+				} else {
+					throw new CREFormatException("The desired marker at index " + key + " has no ID.", t);
+				}
+				if (desired.containsKey(markerID)) {
+					throw new CREFormatException("The marker \"" + markerID + "\" is desired twice.", t);
+				}
+				desired.put(markerID, CHDynmapMarkerTemplate.parse(markerArray, null, t).toState(set, markerID));
+			}
+			CHDynmapMarkerSync sync = new CHDynmapMarkerSync(set, desired.values(), persistent, delete);
+			Mixed job = CNull.NULL;
+			if (sync.getMutationCount() > 0) {
+				if (CHDynmapStatic.isSpread(args, 2, t)) {
+					job = new CInt(sync.submit().getId(), t);
+				} else {
+					sync.apply();
+				}
+			}
+			CArray result = new CArray(t);
+			result.set("created", new CInt(sync.getCreated(), t), t);
+			result.set("updated", new CInt(sync.getUpdated(), t), t);
+			result.set("deleted", new CInt(sync.getDeleted(), t), t);
+			result.set("unchanged", new CInt(sync.getUnchanged(), t), t);
+			result.set("job", job, t);
+			return result;
 		}
 	}
 
@@ -622,6 +808,140 @@ public class DynmapMarkerSets {
 		}
 	}
 
+	@api
+	public static class dm_markerset_journaled extends DynmapMarkerSetGetterFunction {
+
+		@Override
+		public String getName() {
+			return "dm_markerset_journaled";
+		}
+
+		@Override
+		public String docs() {
+			return "boolean {setID} Returns if the markers of the markerset are persisted by the CHDynmap journal"
+					+ " (see {{function|dm_set_markerset_journaled}}).";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			return CBoolean.get(CHDynmapJournal.isJournaled(CHDynmapStatic.getMarkerSet(args[0].val(), t).getId()));
+		}
+	}
+
+	@api
+	public static class dm_set_markerset_journaled extends DynmapMarkerSetSetterFunction {
+
+		@Override
+		public String getName() {
+			return "dm_set_markerset_journaled";
+		}
+
+		@Override
+		public String docs() {
+			return "void {setID, boolean} Sets if the markers of the markerset are persisted by CHDynmap instead of Dynmap."
+					+ " Dynmap rewrites its whole marker file each time a persistent marker changes, so this is meant for the sets"
+					+ " with many frequently updated markers: each creation, change and deletion is appended to a binary journal"
+					+ " by a background thread, the journal is periodically compacted into a snapshot, and both are replayed at startup"
+					+ " (the non-persistent set is created again with its label if needed, but not its other properties)."
+					+ " The markers created by CHDynmap in a journaled set are non-persistent for Dynmap, the existing persistent markers"
+					+ " stay persistent and are journaled too. When the journaling is disabled, the non-persistent markers of the set"
+					+ " are not created again at the next startup.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CHDynmapJournal.setJournaled(CHDynmapStatic.getMarkerSet(args[0].val(), t), ArgumentValidation.getBooleanObject(args[1], t));
+			return CVoid.VOID;
+		}
+	}
+
+	@api
+	public static class dm_markerset_version extends DynmapMarkerSetGetterFunction {
+
+		@Override
+		public String getName() {
+			return "dm_markerset_version";
+		}
+
+		@Override
+		public String docs() {
+			return "array {setID} Returns the version of the markerset as an associative array with the keys \"version\", incremented"
+					+ " by each change made to its markers through CHDynmap, and \"epoch\". The versions are not kept after a restart or"
+					+ " once the markerset is deleted, they then start again from 0 in a new epoch. See {{function|dm_markerset_changes_since}}.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			String setID = CHDynmapStatic.getMarkerSet(args[0].val(), t).getId();
+			CArray version = new CArray(t);
+			version.set("version", new CInt(CHDynmapChangeFeed.getVersion(setID), t), t);
+			version.set("epoch", new CInt(CHDynmapChangeFeed.getEpoch(setID), t), t);
+			return version;
+		}
+	}
+
+	@api
+	public static class dm_markerset_changes_since extends DynmapMarkerSetFunction {
+
+		@Override
+		public String getName() {
+			return "dm_markerset_changes_since";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{3};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class, CRECastException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "array {setID, version, epoch} Returns the changes made to the markers of the markerset after the given version"
+					+ " of the given epoch (see {{function|dm_markerset_version}}), as an associative array with the keys \"version\""
+					+ " and \"epoch\" (the current ones), \"resync\" and \"changes\". The changes are ordered from the oldest, each is an"
+					+ " associative array with the keys \"version\", \"type\" (CREATED, UPDATED, DELETED or MOVED), \"marker\" (the marker ID), \"properties\""
+					+ " (the array of the changed properties of an UPDATED change, like \"label\" or \"corners\"), \"from\" and \"to\""
+					+ " (the markersets of a MOVED change) and \"time\". The successive updates of a marker are merged in a single change."
+					+ " Only the last " + CHDynmapChangeFeed.CAPACITY + " changes of each markerset are kept: if some changes after the version"
+					+ " are no longer kept (or if the version is unknown, or if the epoch is not the current one, like after a restart or if"
+					+ " the markerset was deleted since), \"resync\" is true and \"changes\" is empty, the markerset must then be read again.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			String setID = CHDynmapStatic.getMarkerSet(args[0].val(), t).getId();
+			List<CHDynmapChangeFeed.Change> changes = CHDynmapChangeFeed.getChangesSince(setID, ArgumentValidation.getInt(args[2], t), ArgumentValidation.getInt(args[1], t));
+			CArray changeArray = new CArray(t);
+			if (changes != null) {
+				for (CHDynmapChangeFeed.Change change : changes) {
+					CArray changeInfos = new CArray(t);
+					changeInfos.set("version", new CInt(change.getVersion(), t), t);
+					changeInfos.set("type", new CString(change.getType().name(), t), t);
+					changeInfos.set("marker", new CString(change.getMarkerID(), t), t);
+					CArray properties = new CArray(t);
+					for (String property : change.getProperties()) {
+						properties.push(new CString(property, t), t);
+					}
+					changeInfos.set("properties", properties, t);
+					changeInfos.set("from", (change.getFrom() != null) ? new CString(change.getFrom(), t) : CNull.NULL, t);
+					changeInfos.set("to", (change.getTo() != null) ? new CString(change.getTo(), t) : CNull.NULL, t);
+					changeInfos.set("time", new CInt(change.getTime(), t), t);
+					changeArray.push(changeInfos, t);
+				}
+			}
+			CArray result = new CArray(t);
+			result.set("version", new CInt(CHDynmapChangeFeed.getVersion(setID), t), t);
+			result.set("epoch", new CInt(CHDynmapChangeFeed.getEpoch(setID), t), t);
+			result.set("resync", CBoolean.get(changes == null), t);
+			result.set("changes", changeArray, t);
+			return result;
+		}
+	}
+
 	@api
 	public static class dm_markerset_show_labels extends DynmapMarkerSetGetterFunction {
 
@@ -674,4 +994,187 @@ public class DynmapMarkerSets {
 			return CVoid.VOID;
 		}
 	}
+
+	@api
+	public static class dm_markerset_quota extends DynmapMarkerSetGetterFunction {
+
+		@Override
+		public String getName() {
+			return "dm_markerset_quota";
+		}
+
+		@Override
+		public String docs() {
+			return "array {setID} Returns the quota of the markerset, or null if it has none."
+					+ " The array has the \"max_markers\", \"max_vertices\" and \"policy\" keys of {{function|dm_set_markerset_quota}},"
+					+ " plus the \"markers\" and \"vertices\" keys (the current counts).";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarkerSet set = CHDynmapStatic.getMarkerSet(args[0].val(), t);
+			CHDynmapMarkerQuota quota = CHDynmapMarkerQuota.get(set.getId());
+			if (quota == null) {
+				return CNull.NULL;
+			}
+			CArray quotaArray = new CArray(t);
+			quotaArray.set("max_markers", new CInt(quota.getMaxMarkers(), t), t);
+			quotaArray.set("max_vertices", new CInt(quota.getMaxVertices(), t), t);
+			quotaArray.set("policy", new CString(quota.getPolicy().name(), t), t);
+			quotaArray.set("markers", new CInt(quota.getMarkerCount(), t), t);
+			quotaArray.set("vertices", new CInt(quota.getVertexCount(), t), t);
+			return quotaArray;
+		}
+	}
+
+	@api
+	public static class dm_set_markerset_quota extends DynmapMarkerSetFunction {
+
+		@Override
+		public String getName() {
+			return "dm_set_markerset_quota";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{2};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class, CRECastException.class, CREFormatException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "int {setID, quotaArray} Sets the quota of the markerset, and returns the number of markers evicted at once to respect it."
+					+ " Null removes the quota. When a marker created, changed or moved through CHDynmap makes the markerset exceed its quota,"
+					+ " markers are evicted (a dm_marker_evicted event is fired before each deletion)."
+					+ " ---- The quota array is associative, and all its keys are optional."
+					+ " <li>KEY - DEFAULT - DESCRIPTION - COMMENT</li>"
+					+ " <li>max_markers - -1 - the maximum number of markers, -1 for no limit</li>"
+					+ " <li>max_vertices - -1 - the maximum number of vertices, -1 for no limit - the area and polyline markers count their corners, the other markers count one</li>"
+					+ " <li>policy - LRU - the markers evicted first, can be LRU (the least recently created or changed) or OLDEST (the least recently created)</li>";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarkerSet set = CHDynmapStatic.getMarkerSet(args[0].val(), t);
+			if (args[1] instanceof CNull) {
+				CHDynmapMarkerQuota.remove(set.getId());
+				return new CInt(0, t);
+			}
+			CArray quotaArray = ArgumentValidation.getArray(args[1], t);
+			Set<String> keys = quotaArray.stringKeySet();
+			int maxMarkers = keys.contains("max_markers") ? ArgumentValidation.getInt32(quotaArray.get("max_markers", t), t) : -1;
+			int maxVertices = keys.contains("max_vertices") ? ArgumentValidation.getInt32(quotaArray.get("max_vertices", t), t) : -1;
+			CHDynmapMarkerQuota.Policy policy;
+			if (keys.contains("policy")) {
+				try {
+					policy = CHDynmapMarkerQuota.Policy.valueOf(quotaArray.get("policy", t).val().toUpperCase());
+				} catch (IllegalArgumentException exception) {
+					throw new CREFormatException("Invalid quota policy: " + quotaArray.get("policy", t).val() + ".", t);
+				}
+			} else {
+				policy = CHDynmapMarkerQuota.Policy.LRU;
+			}
+			return new CInt(CHDynmapMarkerQuota.set(set, maxMarkers, maxVertices, policy), t);
+		}
+	}
+
+	@api
+	public static class dm_allocate_marker_ids extends DynmapMarkerSetFunction {
+
+		@Override
+		public String getName() {
+			return "dm_allocate_marker_ids";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{2, 3};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class, CRECastException.class, CRERangeException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "mixed {setID, prefix, [count]} Allocates a marker ID made of the prefix followed by a number (for example \"claim_Notch_12\"), and returns it."
+					+ " If count is given, a range of count consecutive IDs is reserved, and an array of them is returned."
+					+ " The numbers are given by a counter for each prefix of the markerset, seeded once from the IDs of the markers of the set"
+					+ " made of the prefix followed by digits, and moved forward when markers are created through CHDynmap with such an ID."
+					+ " The IDs are not allocated twice while the server runs, even if the markers are deleted or not created, but the"
+					+ " counters are not saved: after a restart, the numbers after the highest one still used by a marker can be given again.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarkerSet set = CHDynmapStatic.getMarkerSet(args[0].val(), t);
+			String prefix = args[1].val();
+			if (args.length == 2) {
+				return new CString(CHDynmapIdAllocator.allocate(set, prefix), t);
+			}
+			int count = ArgumentValidation.getInt32(args[2], t);
+			if (count < 1) {
+				throw new CRERangeException("The count must be positive.", t);
+			}
+			long first = CHDynmapIdAllocator.allocate(set, prefix, count);
+			CArray idArray = new CArray(t);
+			for (long number = first; number < first + count; number++) {
+				idArray.push(new CString(prefix + number, t), t);
+			}
+			return idArray;
+		}
+	}
+
+	@api
+	public static class dm_markerset_id_prefix extends DynmapMarkerSetGetterFunction {
+
+		@Override
+		public String getName() {
+			return "dm_markerset_id_prefix";
+		}
+
+		@Override
+		public String docs() {
+			return "string {setID} Returns the default prefix of the IDs allocated for the markers created without ID in the markerset,"
+					+ " or null if the IDs are generated by Dynmap.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarkerSet set = CHDynmapStatic.getMarkerSet(args[0].val(), t);
+			String prefix = CHDynmapIdAllocator.getDefaultPrefix(set.getId());
+			if (prefix != null) {
+				return new CString(prefix, t);
+			} else {
+				return CNull.NULL;
+			}
+		}
+	}
+
+	@api
+	public static class dm_set_markerset_id_prefix extends DynmapMarkerSetSetterFunction {
+
+		@Override
+		public String getName() {
+			return "dm_set_markerset_id_prefix";
+		}
+
+		@Override
+		public String docs() {
+			return "void {setID, prefix} Sets the default prefix of the IDs allocated for the markers created without ID and without \"id_prefix\" option in the markerset"
+					+ " (see {{function|dm_allocate_marker_ids}}). If prefix is null, the IDs are generated by Dynmap.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarkerSet set = CHDynmapStatic.getMarkerSet(args[0].val(), t);
+			CHDynmapIdAllocator.setDefaultPrefix(set.getId(), (args[1] instanceof CNull) ? null : args[1].val());
+			return CVoid.VOID;
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,245 @@
+package com.hekta.chdynmap.core.functions;
+
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import com.hekta.chdynmap.core.CHDynmapMarkerTemplate;
+import com.hekta.chdynmap.core.CHDynmapStatic;
+import com.laytonsmith.PureUtilities.Version;
+import com.laytonsmith.annotations.api;
+import com.laytonsmith.core.ArgumentValidation;
+import com.laytonsmith.core.MSVersion;
+import com.laytonsmith.core.constructs.CArray;
+import com.laytonsmith.core.constructs.CInt;
+import com.laytonsmith.core.constructs.CNull;
+import com.laytonsmith.core.constructs.CString;
+import com.laytonsmith.core.constructs.CVoid;
+import com.laytonsmith.core.constructs.Target;
+import com.laytonsmith.core.environments.Environment;
+import com.laytonsmith.core.exceptions.CRE.CRECastException;
+import com.laytonsmith.core.exceptions.CRE.CREFormatException;
+import com.laytonsmith.core.exceptions.CRE.CREInvalidPluginException;
+import com.laytonsmith.core.exceptions.CRE.CREInvalidWorldException;
+import com.laytonsmith.core.exceptions.CRE.CRENotFoundException;
+import com.laytonsmith.core.exceptions.CRE.CREPluginInternalException;
+import com.laytonsmith.core.exceptions.CRE.CREThrowable;
+import com.laytonsmith.core.exceptions.ConfigRuntimeException;
+import com.laytonsmith.core.functions.AbstractFunction;
+import com.laytonsmith.core.natives.interfaces.Mixed;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * @author Hekta
+ */
+public class DynmapMarkerTemplates {
+
+	public static String docs() {
+		return "A class of functions to manage reusable templates of Dynmap markers.";
+	}
+
+	public static abstract class DynmapMarkerTemplateFunction extends AbstractFunction {
+
+		@Override
+		public boolean isRestricted() {
+			return true;
+		}
+
+		@Override
+		public Boolean runAsync() {
+			return false;
+		}
+
+		@Override
+		public Version since() {
+			return MSVersion.V3_3_1;
+		}
+	}
+
+	public static CHDynmapMarkerTemplate getTemplate(String name, Target t) {
+		CHDynmapMarkerTemplate template = CHDynmapMarkerTemplate.get(name);
+		if (template != null) {
+			return template;
+		} else {
+			throw new CRENotFoundException("\"" + name + "\" is not an existing marker template.", t);
+		}
+	}
+
+	@api
+	public static class dm_all_marker_templates extends DynmapMarkerTemplateFunction {
+
+		@Override
+		public String getName() {
+			return "dm_all_marker_templates";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{0};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{};
+		}
+
+		@Override
+		public String docs() {
+			return "array {} Returns an array of all marker template names.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CArray templateArray = new CArray(t);
+			for (String name : CHDynmapMarkerTemplate.getNames()) {
+				templateArray.push(new CString(name, t), t);
+			}
+			return templateArray;
+		}
+	}
+
+	@api
+	public static class dm_define_marker_template extends DynmapMarkerTemplateFunction {
+
+		@Override
+		public String getName() {
+			return "dm_define_marker_template";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{2};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class, CRECastException.class, CREFormatException.class, CREInvalidWorldException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "void {name, optionArray} Defines (or redefines) a marker template."
+					+ " The option array takes the keys of {{function|dm_create_marker}}, plus the \"set\" key (the ID of the markerset"
+					+ " the markers are created in, optional if it is given when creating the markers)."
+					+ " The options are validated once, and the world, icon and styles are resolved at this time.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CHDynmapMarkerTemplate template = CHDynmapMarkerTemplate.parse(ArgumentValidation.getArray(args[1], t), null, t);
+			if (template.getSetID() != null) {
+				CHDynmapStatic.getMarkerSet(template.getSetID(), t);
+			}
+			CHDynmapMarkerTemplate.define(args[0].val(), template);
+			return CVoid.VOID;
+		}
+	}
+
+	@api
+	public static class dm_delete_marker_template extends DynmapMarkerTemplateFunction {
+
+		@Override
+		public String getName() {
+			return "dm_delete_marker_template";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{1};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CRENotFoundException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "void {name} Deletes a marker template. The markers created from it are not affected.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			if (!CHDynmapMarkerTemplate.remove(args[0].val())) {
+				throw new CRENotFoundException("\"" + args[0].val() + "\" is not an existing marker template.", t);
+			}
+			return CVoid.VOID;
+		}
+	}
+
+	@api
+	public static class dm_create_from_template extends DynmapMarkerTemplateFunction {
+
+		@Override
+		public String getName() {
+			return "dm_create_from_template";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{1, 2, 3};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class, CRECastException.class, CREFormatException.class, CREInvalidWorldException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "mixed {name, [overrides]} Creates a marker from a template and returns its ID."
+					+ " The overrides are an associative array taking the same keys as the template, only the given keys are parsed."
+					+ " If overrides is a normal array of override arrays, a marker is created for each of them, and an array of the IDs is returned"
+					+ " (or the ID of the job, if the creation is spread over the ticks, see {{function|dm_job_info}})."
+					+ " ---- The option array is associative and not required, and all its keys are optional."
+					+ " <li>KEY - DEFAULT - DESCRIPTION - COMMENT</li>"
+					+ " <li>spread - false - spreads the creation over the next server ticks, the overrides are all validated at once - only for the bulk creation</li>";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CHDynmapMarkerTemplate template = getTemplate(args[0].val(), t);
+			if ((args.length == 1) || (args[1] instanceof CNull)) {
+				return new CString(create(template, null, t), t);
+			}
+			CArray overrides = ArgumentValidation.getArray(args[1], t);
+			if (overrides.inAssociativeMode()) {
+				return new CString(create(template, overrides, t), t);
+			}
+			if (CHDynmapStatic.isSpread(args, 2, t)) {
+				List<CHDynmapMarkerTemplate> instances = new ArrayList<>();
+				MCDynmapMarkerSet set = null;
+				for (Mixed override : overrides.asList()) {
+					CHDynmapMarkerTemplate instance = template.override(ArgumentValidation.getArray(override, t), t);
+					if ((set == null) || !set.getId().equals(instance.getSetID())) {
+						set = getMarkerSet(instance, t);
+					}
+					instances.add(instance);
+				}
+				return new CInt(CHDynmapMarkerTemplate.submit(instances).getId(), t);
+			}
+			//bulk creation, the markersets are only resolved when they change
+			CArray idArray = new CArray(t);
+			MCDynmapMarkerSet set = null;
+			for (Mixed override : overrides.asList()) {
+				CHDynmapMarkerTemplate instance = template.override(ArgumentValidation.getArray(override, t), t);
+				if ((set == null) || !set.getId().equals(instance.getSetID())) {
+					set = getMarkerSet(instance, t);
+				}
+				idArray.push(new CString(instance.create(set, t).getId(), t), t);
+			}
+			return idArray;
+		}
+
+		private static String create(CHDynmapMarkerTemplate template, CArray overrides, Target t) {
+			CHDynmapMarkerTemplate instance = template.override(overrides, t);
+			return instance.create(getMarkerSet(instance, t), t).getId();
+		}
+
+		private static MCDynmapMarkerSet getMarkerSet(CHDynmapMarkerTemplate template, Target t) {
+			if (template.getSetID() == null) {
+				throw new CREPluginInternalException("No markerset given for the marker, neither in the template, nor in the overrides.", t);
+			}
+			return CHDynmapStatic.getMarkerSet(template.getSetID(), t);
+		}
+	}
+}
\ No newline at end of file
@@ -10,7 +10,14 @@ import com.hekta.chdynmap.abstraction.MCDynmapMarkerLineStyle;
 import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
 import com.hekta.chdynmap.abstraction.MCDynmapPolyLineMarker;
 import com.hekta.chdynmap.abstraction.enums.MCDynmapMarkerType;
+import com.hekta.chdynmap.core.CHDynmapExpiryWheel;
+import com.hekta.chdynmap.core.CHDynmapIdIndex;
+import com.hekta.chdynmap.core.CHDynmapMarkerCopier;
+import com.hekta.chdynmap.core.CHDynmapMarkerFilter;
+import com.hekta.chdynmap.core.CHDynmapMarkerJob;
+import com.hekta.chdynmap.core.CHDynmapMarkerTemplate;
 import com.hekta.chdynmap.core.CHDynmapStatic;
+import com.hekta.chdynmap.core.CHDynmapTextIndex;
 import com.laytonsmith.PureUtilities.Common.StringUtils;
 import com.laytonsmith.PureUtilities.Version;
 import com.laytonsmith.abstraction.MCLocation;
@@ -19,7 +26,6 @@ import com.laytonsmith.annotations.api;
 import com.laytonsmith.core.ArgumentValidation;
 import com.laytonsmith.core.MSVersion;
 import com.laytonsmith.core.ObjectGenerator;
-import com.laytonsmith.core.Static;
 import com.laytonsmith.core.constructs.CArray;
 import com.laytonsmith.core.constructs.CBoolean;
 import com.laytonsmith.core.constructs.CDouble;
@@ -35,13 +41,14 @@ import com.laytonsmith.core.exceptions.CRE.CREInvalidPluginException;
 import com.laytonsmith.core.exceptions.CRE.CREInvalidWorldException;
 import com.laytonsmith.core.exceptions.CRE.CRENotFoundException;
 import com.laytonsmith.core.exceptions.CRE.CREPluginInternalException;
-import com.laytonsmith.core.exceptions.CRE.CRERangeException;
 import com.laytonsmith.core.exceptions.CRE.CREThrowable;
 import com.laytonsmith.core.exceptions.ConfigRuntimeException;
 import com.laytonsmith.core.functions.AbstractFunction;
 import com.laytonsmith.core.natives.interfaces.Mixed;
-
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 
 /**
  *
@@ -160,6 +167,271 @@ public class DynmapMarkers {
 		}
 	}
 
+	@api
+	public static class dm_find_markers extends DynmapMarkerFunction {
+
+		private static final String[] FIELDS = {"description", "id", "label", "location", "max_zoom", "min_zoom", "persistent", "set", "type", "world"};
+
+		@Override
+		public String getName() {
+			return "dm_find_markers";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{2, 3, 4};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class, CRECastException.class, CREFormatException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "array {setID, filterArray, [sort], [limit]} Returns the markers of the markerset (or of all the markersets if setID is null) matching the filter."
+					+ " If the filter has no \"fields\" key, an array of the marker IDs is returned,"
+					+ " else an array of associative arrays with the given fields (the default fields are \"set\" and \"id\" if setID is null)."
+					+ " The fields can be " + StringUtils.Join(FIELDS, ", ", ", or ", " or ") + " (location is the location of the icon markers, or the center of the circle markers)."
+					+ " Sort is one of the fields (except description and location), prefixed by \"-\" for a descending order, and limit is the maximum number of markers returned."
+					+ " The candidate markers are taken from the given IDs, the ID index, the theme or group index, or the markers of the given types,"
+					+ " then the other criteria are tested, the cheapest first."
+					+ " ---- The filter is an associative array, all its keys are optional (an unknown key throws a FormatException), and null matches all the markers."
+					+ " <li>KEY - DESCRIPTION</li>"
+					+ " <li>bounds - an array with the x1, z1, x2 and z2 keys, the markers must intersect this rectangle</li>"
+					+ " <li>description - a text the description must contain, ignoring case</li>"
+					+ " <li>group - a marker group, the markers of its subgroups match too</li>"
+					+ " <li>ids - an array of marker IDs</li>"
+					+ " <li>label - a regular expression the label must match</li>"
+					+ " <li>max_zoom - a zoom level, or an array with the optional min and max keys</li>"
+					+ " <li>min_zoom - a zoom level, or an array with the optional min and max keys</li>"
+					+ " <li>persistent - if the markers are persistent</li>"
+					+ " <li>prefix - the prefix of the marker IDs</li>"
+					+ " <li>theme - a style theme the markers are bound to</li>"
+					+ " <li>type - a marker type, or an array of them</li>"
+					+ " <li>world - the world name</li>";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CHDynmapMarkerFilter filter = CHDynmapMarkerFilter.parse(args[1], t, "fields");
+			List<MCDynmapMarker> markers = new ArrayList<>();
+			if (args[0] instanceof CNull) {
+				for (MCDynmapMarkerSet set : CHDynmapStatic.getMarkerAPI(t).getMarkerSets()) {
+					markers.addAll(filter.select(set));
+				}
+			} else {
+				markers.addAll(filter.select(CHDynmapStatic.getMarkerSet(args[0].val(), t)));
+			}
+			if ((args.length > 2) && !(args[2] instanceof CNull)) {
+				markers.sort(getComparator(args[2].val(), t));
+			}
+			if (args.length > 3) {
+				int limit = ArgumentValidation.getInt32(args[3], t);
+				if ((limit >= 0) && (limit < markers.size())) {
+					markers = markers.subList(0, limit);
+				}
+			}
+			String[] fields = null;
+			if (args[1] instanceof CArray) {
+				CArray filterArray = (CArray) args[1];
+				if (filterArray.containsKey("fields")) {
+					List<Mixed> fieldList = ArgumentValidation.getArray(filterArray.get("fields", t), t).asList();
+					fields = new String[fieldList.size()];
+					for (int i = 0; i < fields.length; i++) {
+						fields[i] = fieldList.get(i).val();
+						if (Arrays.binarySearch(FIELDS, fields[i]) < 0) {
+							throw new CREFormatException("Invalid marker field: " + fields[i] + ".", t);
+						}
+					}
+				}
+			}
+			if ((fields == null) && (args[0] instanceof CNull)) {
+				fields = new String[]{"set", "id"};
+			}
+			CArray markerArray = new CArray(t);
+			for (MCDynmapMarker marker : markers) {
+				markerArray.push((fields != null) ? project(marker, fields, t) : new CString(marker.getId(), t), t);
+			}
+			return markerArray;
+		}
+
+		private static Comparator<MCDynmapMarker> getComparator(String sort, Target t) {
+			boolean descending = sort.startsWith("-");
+			Comparator<MCDynmapMarker> comparator;
+			switch (descending ? sort.substring(1) : sort) {
+				case "id":
+					comparator = Comparator.comparing(MCDynmapMarker::getId);
+					break;
+				case "label":
+					comparator = Comparator.comparing(MCDynmapMarker::getLabel, String.CASE_INSENSITIVE_ORDER);
+					break;
+				case "max_zoom":
+					comparator = Comparator.comparingInt(MCDynmapMarker::getMaxZoom);
+					break;
+				case "min_zoom":
+					comparator = Comparator.comparingInt(MCDynmapMarker::getMinZoom);
+					break;
+				case "persistent":
+					comparator = Comparator.comparing(MCDynmapMarker::isPersistent);
+					break;
+				case "set":
+					comparator = Comparator.comparing(marker -> marker.getSet().getId());
+					break;
+				case "type":
+					comparator = Comparator.comparing(MCDynmapMarker::getType);
+					break;
+				case "world":
+					comparator = Comparator.comparing(MCDynmapMarker::getNormalizedWorld);
+					break;
+				default:
+					throw new CREFormatException("Invalid sort field: " + sort + ".", t);
+			}
+			return descending ? comparator.reversed() : comparator;
+		}
+
+		private static CArray project(MCDynmapMarker marker, String[] fields, Target t) {
+			CArray fieldArray = new CArray(t);
+			for (String field : fields) {
+				Mixed value;
+				switch (field) {
+					case "description":
+						value = (marker.getDescription() != null) ? new CString(marker.getDescription(), t) : CNull.NULL;
+						break;
+					case "id":
+						value = new CString(marker.getId(), t);
+						break;
+					case "label":
+						value = new CString(marker.getLabel(), t);
+						break;
+					case "location":
+						if (marker.getType() == MCDynmapMarkerType.ICON) {
+							value = ObjectGenerator.GetGenerator().location(((MCDynmapIconMarker) marker).getLocation());
+						} else if (marker.getType() == MCDynmapMarkerType.CIRCLE) {
+							value = ObjectGenerator.GetGenerator().location(((MCDynmapCircleMarker) marker).getCenter());
+						} else {
+							value = CNull.NULL;
+						}
+						break;
+					case "max_zoom":
+						value = new CInt(marker.getMaxZoom(), t);
+						break;
+					case "min_zoom":
+						value = new CInt(marker.getMinZoom(), t);
+						break;
+					case "persistent":
+						value = CBoolean.get(marker.isPersistent());
+						break;
+					case "set":
+						value = new CString(marker.getSet().getId(), t);
+						break;
+					case "type":
+						value = new CString(marker.getType().name(), t);
+						break;
+					case "world":
+						value = new CString(marker.getNormalizedWorld(), t);
+						break;
+					default:
+						value = CNull.NULL;
+						break;
+				}
+				fieldArray.set(field, value, t);
+			}
+			return fieldArray;
+		}
+	}
+
+	@api
+	public static class dm_search_markers extends DynmapMarkerFunction {
+
+		@Override
+		public String getName() {
+			return "dm_search_markers";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{1, 2, 3};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class, CRECastException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "array {query, [sets], [limit]} Searches the markers whose label or description contain all the words of the query,"
+					+ " in the given array of markerset IDs (or in all the markersets if it is null or not given), and returns at most limit results (all if it is not given or negative)."
+					+ " Each result is an associative array with the \"set\", \"id\", \"label\" and \"score\" keys, and the results are sorted by decreasing score."
+					+ " The words are searched without case and HTML markup, each query word matches the words it is a prefix of,"
+					+ " and the words of the labels and the exact words score higher."
+					+ " The markers of a markerset are indexed when it is first searched, then the index is kept up to date as the markers are changed through CHDynmap.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			List<MCDynmapMarkerSet> sets;
+			if ((args.length == 1) || (args[1] instanceof CNull)) {
+				sets = Arrays.asList(CHDynmapStatic.getMarkerAPI(t).getMarkerSets());
+			} else {
+				sets = new ArrayList<>();
+				for (Mixed setID : ArgumentValidation.getArray(args[1], t).asList()) {
+					sets.add(CHDynmapStatic.getMarkerSet(setID.val(), t));
+				}
+			}
+			int limit = (args.length == 3) ? ArgumentValidation.getInt32(args[2], t) : -1;
+			CArray resultArray = new CArray(t);
+			for (CHDynmapTextIndex.Result result : CHDynmapTextIndex.search(args[0].val(), sets, limit)) {
+				CArray markerArray = new CArray(t);
+				markerArray.set("set", new CString(result.getSetID(), t), t);
+				markerArray.set("id", new CString(result.getMarkerID(), t), t);
+				markerArray.set("label", new CString(result.getLabel(), t), t);
+				markerArray.set("score", new CInt(result.getScore(), t), t);
+				resultArray.push(markerArray, t);
+			}
+			return resultArray;
+		}
+	}
+
+	@api
+	public static class dm_markers_with_prefix extends DynmapMarkerFunction {
+
+		@Override
+		public String getName() {
+			return "dm_markers_with_prefix";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{2, 3};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class, CRECastException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "array {setID, prefix, [limit]} Returns an array of the IDs of the markers of the markerset starting with the prefix, sorted,"
+					+ " and at most limit IDs if it is given and positive."
+					+ " The IDs of each markerset are indexed when first queried, then the index is kept up to date as the markers are created,"
+					+ " moved and deleted through CHDynmap, so the cost only depends on the number of IDs returned.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarkerSet set = CHDynmapStatic.getMarkerSet(args[0].val(), t);
+			int limit = (args.length == 3) ? ArgumentValidation.getInt32(args[2], t) : -1;
+			CArray markerArray = new CArray(t);
+			for (String id : CHDynmapIdIndex.getIds(set, args[1].val(), (limit > 0) ? limit : -1)) {
+				markerArray.push(new CString(id, t), t);
+			}
+			return markerArray;
+		}
+	}
+
 	@api
 	public static class dm_create_marker extends DynmapMarkerFunction {
 
@@ -183,15 +455,23 @@ public class DynmapMarkers {
 			return "string {setID, [optionArray]} Creates a marker and returns its ID."
 					+ " ---- The option array is associative and not required, and all its keys are optional."
 					+ " <li>KEY - DEFAULT - DESCRIPTION - COMMENT</li>"
+					+ " <li>boosted - false - sets if the marker resolution is boosted - only for area and circle markers</li>"
 					+ " <li>center - world spawn - the center of the marker - only for circle markers, world is ignored</li>"
 					+ " <li>corners - world spawn - the corners of the marker - only for area or polyline markers, world is ignored (and also y for area markers)</li>"
+					+ " <li>description - null - the description of the marker (in HTML)</li>"
+					+ " <li>fill_style - Dynmap default - the fill style array of the marker (see {{function|dm_set_marker_fill_style}}) - only for area and circle markers</li>"
 					+ " <li>icon - null - the icon ID of the marker, null for the markerset default icon - only for icon markers</li>"
-					+ " <li>id - random - ID of the marker, must be unique within the set, if null or not given, an unique ID is generated</li>"
+					+ " <li>id - random - ID of the marker, must be unique within the set, if null or not given, an unique ID is generated (see id_prefix)</li>"
+					+ " <li>id_prefix - markerset default - if no ID is given, the ID is allocated as this prefix followed by a number, unique for the prefix within the set (see {{function|dm_allocate_marker_ids}}) - if null and the markerset has no default prefix, the ID is generated by Dynmap</li>"
 					+ " <li>label - markerID - the label of the marker</li>"
 					+ " <li>label_is_html - false - sets if the label is processing as HTML</li>"
+					+ " <li>line_style - Dynmap default - the line style array of the marker (see {{function|dm_set_marker_line_style}}) - only for area, circle and polyline markers</li>"
 					+ " <li>location - world spawn - the location of the marker - only for icon markers, world is ignored</li>"
+					+ " <li>max_zoom - -1 - the maximum zoom level of the marker</li>"
+					+ " <li>min_zoom - -1 - the minimum zoom level of the marker</li>"
 					+ " <li>persistent - false - sets if the label is persistent (saved and reloaded on restart), the markerset must be persistent - can not be changed later</li>"
 					+ " <li>radius - 0 0 - the radius of the marker - only for circle markers</li>"
+					+ " <li>ttl - null - the time to live of the marker in seconds, it is deleted when it expires (see {{function|dm_set_marker_ttl}})</li>"
 					+ " <li>type - ICON - the type of the marker, can be one of " + StringUtils.Join(MCDynmapMarkerType.values(), ", ", ", or ", " or ") + " - can not be changed later</li>"
 					+ " <li>world - first world - the world of the marker</li>";
 		}
@@ -206,166 +486,8 @@ public class DynmapMarkers {
 			} else {
 				optionArray = ArgumentValidation.getArray(args[1], t);
 			}
-			Set<String> keys = optionArray.stringKeySet();
-			//set optional values
-			//type
-			MCDynmapMarkerType type;
-			if ((!keys.contains("type")) || (optionArray.get("type", t) instanceof CNull)) {
-				type = MCDynmapMarkerType.ICON;
-			} else {
-				try {
-					type = MCDynmapMarkerType.valueOf(optionArray.get("type", t).val().toUpperCase());
-				} catch (IllegalArgumentException exception) {
-					throw new CREPluginInternalException("Invalid marker type: " + optionArray.get("type", t).val(), t);
-				}
-			}
-			//id
-			String id;
-			if (keys.contains("id")) {
-				id = optionArray.get("id", t).val();
-				if (set.getMarker(id) != null) {
-					throw new CREPluginInternalException("\"" + id + "\" is already an existing marker.", t);
-				}
-			} else {
-				id = null;
-			}
-			//world
-			MCWorld world;
-			if (keys.contains("world")) {
-				world = Static.getServer().getWorld(optionArray.get("world", t).val());
-				if (world == null) {
-					throw new CREInvalidWorldException("Unknown world: " + optionArray.get("world", t).val(), t);
-				}
-			} else {
-				world = Static.getServer().getWorlds().get(0);
-			}
-			//label
-			String label;
-			if (keys.contains("label")) {
-				label = optionArray.get("label", t).val();
-			} else {
-				label = id;
-			}
-			//label_is_html
-			boolean labelIsHTML;
-			if (keys.contains("label_is_html")) {
-				labelIsHTML = ArgumentValidation.getBooleanObject(optionArray.get("label_is_html", t), t);
-			} else {
-				labelIsHTML = false;
-			}
-			//persistent
-			boolean isPersistent;
-			if (keys.contains("persistent")) {
-				isPersistent = ArgumentValidation.getBooleanObject(optionArray.get("persistent", t), t);
-			} else {
-				isPersistent = false;
-			}
-			//center
-			MCLocation center;
-			if (type == MCDynmapMarkerType.CIRCLE) {
-				if (keys.contains("center")) {
-					center = ObjectGenerator.GetGenerator().location(optionArray.get("center", t), world, t);
-				} else {
-					center = world.getSpawnLocation();
-				}
-			} else {
-				center = null;
-			}
-			//corners
-			MCLocation[] corners;
-			if (type == MCDynmapMarkerType.AREA) {
-				if (keys.contains("corners")) {
-					CArray givenCorners = ArgumentValidation.getArray(optionArray.get("corners", t), t);
-					corners = new MCLocation[(int) givenCorners.size()];
-					if (givenCorners.inAssociativeMode()) {
-						throw new CRECastException("The corners array must not be associative.", t);
-					}
-					int i = 0;
-					for (Mixed corner : givenCorners.asList()) {
-						corners[i] = ObjectGenerator.GetGenerator().location(corner, world, t);
-						i++;
-					}
-				} else {
-					corners = new MCLocation[]{world.getSpawnLocation()};
-				}
-			} else if (type == MCDynmapMarkerType.POLYLINE) {
-				if (keys.contains("corners")) {
-					CArray givenCorners = ArgumentValidation.getArray(optionArray.get("corners", t), t);
-					corners = new MCLocation[(int) givenCorners.size()];
-					if (givenCorners.inAssociativeMode()) {
-						throw new CRECastException("The corners array must not be associative.", t);
-					}
-					int i = 0;
-					for (Mixed corner : givenCorners.asList()) {
-						corners[i] = ObjectGenerator.GetGenerator().location(corner, world, t);
-						i++;
-					}
-				} else {
-					corners = new MCLocation[]{world.getSpawnLocation()};
-				}
-			} else {
-				corners = null;
-			}
-			//icon
-			MCDynmapIcon icon;
-			if (type == MCDynmapMarkerType.ICON) {
-				if (keys.contains("icon")) {
-					icon = CHDynmapStatic.getIcon(optionArray.get("icon", t).val(), t);
-				} else {
-					icon = set.getDefaultIcon();
-				}
-			} else {
-				icon = null;
-			}
-			//location
-			MCLocation iconLocation;
-			if (type == MCDynmapMarkerType.ICON) {
-				if (keys.contains("location")) {
-					iconLocation = ObjectGenerator.GetGenerator().location(optionArray.get("location", t), world, t);
-				} else {
-					iconLocation = world.getSpawnLocation();
-				}
-			} else {
-				iconLocation = null;
-			}
-			//radius
-			double radiusX;
-			double radiusZ;
-			if (type == MCDynmapMarkerType.CIRCLE) {
-				if (keys.contains("radius")) {
-					CArray radius = ArgumentValidation.getArray(optionArray.get("radius", t), t);
-					radiusX = ArgumentValidation.getDouble(radius.get("x", t), t);
-					radiusZ = ArgumentValidation.getDouble(radius.get("z", t), t);
-				} else {
-					radiusX = 0;
-					radiusZ = 0;
-				}
-			} else {
-				radiusX = 0;
-				radiusZ = 0;
-			}
 			//create the marker
-			MCDynmapMarker marker;
-			switch (type) {
-				case AREA:
-					marker = set.createAreaMarker(id, label, labelIsHTML, world, corners, isPersistent);
-					break;
-				case CIRCLE:
-					marker = set.createCircleMarker(id, label, labelIsHTML, center, radiusX, radiusZ, isPersistent);
-					break;
-				case ICON:
-					marker = set.createIconMarker(id, label, labelIsHTML, iconLocation, icon, isPersistent);
-					break;
-				case POLYLINE:
-					marker = set.createPolyLineMarker(id, label, labelIsHTML, world, corners, isPersistent);
-					break;
-				default:
-					marker = null;
-					break;
-			}
-			if (marker == null) {
-				throw new CREPluginInternalException("The marker creation failed.", t);
-			}
+			MCDynmapMarker marker = CHDynmapMarkerTemplate.parse(optionArray, null, t).create(set, t);
 			return new CString(marker.getId(), t);
 		}
 	}
@@ -400,6 +522,197 @@ public class DynmapMarkers {
 		}
 	}
 
+	@api
+	public static class dm_delete_markers extends DynmapMarkerFunction {
+
+		@Override
+		public String getName() {
+			return "dm_delete_markers";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{1, 2, 3};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class, CRECastException.class, CREFormatException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "int {setID, [filter], [optionArray]} Deletes the markers of a markerset matching the filter,"
+					+ " and returns the number of markers deleted (or the ID of the job, if the deletion is spread over the ticks, see {{function|dm_job_info}})."
+					+ " The filter is the same as in {{function|dm_copy_markers}}."
+					+ " ---- The option array is associative and not required, and all its keys are optional."
+					+ " <li>KEY - DEFAULT - DESCRIPTION - COMMENT</li>"
+					+ " <li>spread - false - spreads the deletion over the next server ticks</li>";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarkerSet set = CHDynmapStatic.getMarkerSet(args[0].val(), t);
+			CHDynmapMarkerFilter filter = (args.length > 1) ? CHDynmapMarkerFilter.parse(args[1], t) : CHDynmapMarkerFilter.ALL;
+			List<MCDynmapMarker> markers = filter.select(set);
+			if (CHDynmapStatic.isSpread(args, 2, t)) {
+				return new CInt(CHDynmapMarkerJob.submit("delete", set, markers, CHDynmapMarkerJob.DELETE).getId(), t);
+			} else {
+				return new CInt(CHDynmapMarkerJob.run(markers, CHDynmapMarkerJob.DELETE), t);
+			}
+		}
+	}
+
+	@api
+	public static class dm_delete_markers_with_prefix extends DynmapMarkerFunction {
+
+		@Override
+		public String getName() {
+			return "dm_delete_markers_with_prefix";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{2, 3};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class, CRECastException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "int {setID, prefix, [optionArray]} Deletes the markers of the markerset whose ID starts with the prefix,"
+					+ " and returns the number of markers deleted (or the ID of the job, if the deletion is spread over the ticks, see {{function|dm_job_info}})."
+					+ " The markers are found with the index of {{function|dm_markers_with_prefix}}."
+					+ " ---- The option array is associative and not required, and all its keys are optional."
+					+ " <li>KEY - DEFAULT - DESCRIPTION - COMMENT</li>"
+					+ " <li>spread - false - spreads the deletion over the next server ticks</li>";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarkerSet set = CHDynmapStatic.getMarkerSet(args[0].val(), t);
+			List<MCDynmapMarker> markers = CHDynmapIdIndex.getMarkers(set, args[1].val(), -1);
+			if (CHDynmapStatic.isSpread(args, 2, t)) {
+				return new CInt(CHDynmapMarkerJob.submit("delete", set, markers, CHDynmapMarkerJob.DELETE).getId(), t);
+			} else {
+				return new CInt(CHDynmapMarkerJob.run(markers, CHDynmapMarkerJob.DELETE), t);
+			}
+		}
+	}
+
+	@api
+	public static class dm_copy_markers extends DynmapMarkerFunction {
+
+		@Override
+		public String getName() {
+			return "dm_copy_markers";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{2, 3, 4};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class, CRECastException.class, CREFormatException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "int {setID, newSetID, [filter], [optionArray]} Copies the markers of a markerset to another one, with the same IDs,"
+					+ " and returns the number of markers copied (or the ID of the job, if the copy is spread over the ticks, see {{function|dm_job_info}})."
+					+ " The geometry, styles, zoom levels and descriptions of the markers are copied."
+					+ " The markers whose ID is already used in the new markerset are skipped."
+					+ " ---- The filter is an associative array, all its keys are optional (an unknown key throws a FormatException), and null matches all the markers."
+					+ " <li>KEY - DESCRIPTION</li>"
+					+ " <li>ids - an array of marker IDs</li>"
+					+ " <li>label - a regular expression the label must match</li>"
+					+ " <li>persistent - if the markers are persistent</li>"
+					+ " <li>type - a marker type, or an array of them</li>"
+					+ " <li>world - the world name</li>"
+					+ " The keys of the filter of {{function|dm_find_markers}} are also supported."
+					+ " The option array is associative and not required, and all its keys are optional."
+					+ " <li>KEY - DEFAULT - DESCRIPTION - COMMENT</li>"
+					+ " <li>persistent - true - sets if the copies are persistent - only if the source marker and the new markerset are persistent, and the new markerset is not journaled</li>"
+					+ " <li>spread - false - spreads the copy over the next server ticks</li>";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarkerSet set = CHDynmapStatic.getMarkerSet(args[0].val(), t);
+			MCDynmapMarkerSet newSet = CHDynmapStatic.getMarkerSet(args[1].val(), t);
+			if (set.getId().equals(newSet.getId())) {
+				throw new CREPluginInternalException("The markersets must be different.", t);
+			}
+			CHDynmapMarkerFilter filter = (args.length > 2) ? CHDynmapMarkerFilter.parse(args[2], t) : CHDynmapMarkerFilter.ALL;
+			boolean persistent = true;
+			if ((args.length > 3) && !(args[3] instanceof CNull)) {
+				CArray optionArray = ArgumentValidation.getArray(args[3], t);
+				if (optionArray.containsKey("persistent")) {
+					persistent = ArgumentValidation.getBooleanObject(optionArray.get("persistent", t), t);
+				}
+			}
+			List<MCDynmapMarker> markers = filter.select(set);
+			CHDynmapMarkerJob.Operation copy = CHDynmapMarkerCopier.copyTo(newSet.getId(), persistent);
+			if (CHDynmapStatic.isSpread(args, 3, t)) {
+				return new CInt(CHDynmapMarkerJob.submit("copy", set, markers, copy).getId(), t);
+			} else {
+				return new CInt(CHDynmapMarkerJob.run(markers, copy), t);
+			}
+		}
+	}
+
+	@api
+	public static class dm_move_markers extends DynmapMarkerFunction {
+
+		@Override
+		public String getName() {
+			return "dm_move_markers";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{2, 3, 4};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class, CRECastException.class, CREFormatException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "int {setID, newSetID, [filter], [optionArray]} Moves the markers of a markerset to another one,"
+					+ " and returns the number of markers moved (or the ID of the job, if the move is spread over the ticks, see {{function|dm_job_info}})."
+					+ " The markers whose ID is already used in the new markerset are skipped."
+					+ " The filter is the same as in {{function|dm_copy_markers}}."
+					+ " ---- The option array is associative and not required, and all its keys are optional."
+					+ " <li>KEY - DEFAULT - DESCRIPTION - COMMENT</li>"
+					+ " <li>spread - false - spreads the move over the next server ticks</li>";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarkerSet set = CHDynmapStatic.getMarkerSet(args[0].val(), t);
+			MCDynmapMarkerSet newSet = CHDynmapStatic.getMarkerSet(args[1].val(), t);
+			if (set.getId().equals(newSet.getId())) {
+				throw new CREPluginInternalException("The markersets must be different.", t);
+			}
+			CHDynmapMarkerFilter filter = (args.length > 2) ? CHDynmapMarkerFilter.parse(args[2], t) : CHDynmapMarkerFilter.ALL;
+			List<MCDynmapMarker> markers = filter.select(set);
+			CHDynmapMarkerJob.Operation move = CHDynmapMarkerCopier.moveTo(newSet.getId());
+			if (CHDynmapStatic.isSpread(args, 3, t)) {
+				return new CInt(CHDynmapMarkerJob.submit("move", set, markers, move).getId(), t);
+			} else {
+				return new CInt(CHDynmapMarkerJob.run(markers, move), t);
+			}
+		}
+	}
+
 	@api
 	public static class dm_marker_boosted extends DynmapMarkerGetterFunction {
 
@@ -679,7 +992,6 @@ public class DynmapMarkers {
 		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
 			MCDynmapMarker marker = CHDynmapStatic.getMarker(args[0].val(), args[1].val(), t);
 			CArray styleArray = ArgumentValidation.getArray(args[2], t);
-			Set<String> keys = styleArray.stringKeySet();
 			MCDynmapMarkerFillStyle fillStyle;
 			switch (marker.getType()) {
 				case AREA:
@@ -691,17 +1003,7 @@ public class DynmapMarkers {
 				default:
 					throw new CRENotFoundException("There is no existing area or circle markers with this id.", t);
 			}
-			if (keys.contains("color")) {
-				fillStyle.setColor(ObjectGenerator.GetGenerator().color(ArgumentValidation.getArray(styleArray.get("color", t), t), t));
-			}
-			if (keys.contains("opacity")) {
-				double opacity = ArgumentValidation.getDouble(styleArray.get("opacity", t), t);
-				if ((opacity < 0) || (opacity > 1)) {
-					throw new CRERangeException("Opacity must be between 0 and 1 inclusive.", t);
-				} else {
-					fillStyle.setOpacity(opacity);
-				}
-			}
+			CHDynmapStatic.applyFillStyle(styleArray, fillStyle, t);
 			switch (marker.getType()) {
 				case AREA:
 					((MCDynmapAreaMarker) marker).setFillStyle(fillStyle);
@@ -890,7 +1192,6 @@ public class DynmapMarkers {
 		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
 			MCDynmapMarker marker = CHDynmapStatic.getMarker(args[0].val(), args[1].val(), t);
 			CArray styleArray = ArgumentValidation.getArray(args[2], t);
-			Set<String> keys = styleArray.stringKeySet();
 			MCDynmapMarkerLineStyle lineStyle;
 			switch (marker.getType()) {
 				case AREA:
@@ -905,20 +1206,7 @@ public class DynmapMarkers {
 				default:
 					throw new CRENotFoundException("There is no existing area, circle or polyline markers with this id.", t);
 			}
-			if (keys.contains("color")) {
-				lineStyle.setColor(ObjectGenerator.GetGenerator().color(ArgumentValidation.getArray(styleArray.get("color", t), t), t));
-			}
-			if (keys.contains("opacity")) {
-				double opacity = ArgumentValidation.getDouble(styleArray.get("opacity", t), t);
-				if ((opacity < 0) || (opacity > 1)) {
-					throw new CRERangeException("Opacity must be between 0 and 1 inclusive.", t);
-				} else {
-					lineStyle.setOpacity(opacity);
-				}
-			}
-			if (keys.contains("weight")) {
-				lineStyle.setWeight(ArgumentValidation.getInt32(styleArray.get("weight", t), t));
-			}
+			CHDynmapStatic.applyLineStyle(styleArray, lineStyle, t);
 			switch (marker.getType()) {
 				case AREA:
 					((MCDynmapAreaMarker) marker).setLineStyle(lineStyle);
@@ -1259,4 +1547,56 @@ public class DynmapMarkers {
 			return CVoid.VOID;
 		}
 	}
+
+	@api
+	public static class dm_marker_ttl extends DynmapMarkerGetterFunction {
+
+		@Override
+		public String getName() {
+			return "dm_marker_ttl";
+		}
+
+		@Override
+		public String docs() {
+			return "double {setID, markerID} Returns the remaining time to live of the marker in seconds, or null if it has none.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarker marker = CHDynmapStatic.getMarker(args[0].val(), args[1].val(), t);
+			long ticks = CHDynmapExpiryWheel.getRemainingTicks(args[0].val(), marker.getId());
+			if (ticks != -1) {
+				return new CDouble((double) ticks / CHDynmapExpiryWheel.TICKS_PER_SECOND, t);
+			} else {
+				return CNull.NULL;
+			}
+		}
+	}
+
+	@api
+	public static class dm_set_marker_ttl extends DynmapMarkerSetterFunction {
+
+		@Override
+		public String getName() {
+			return "dm_set_marker_ttl";
+		}
+
+		@Override
+		public String docs() {
+			return "void {setID, markerID, seconds} Sets the time to live of the marker, it is deleted when it expires."
+					+ " Null removes the time to live. The time is counted in server ticks, so it is rounded up to the next tick,"
+					+ " and the expired markers are deleted in a batch once a tick. A dm_marker_expired event is fired before the deletion.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarker marker = CHDynmapStatic.getMarker(args[0].val(), args[1].val(), t);
+			if (args[2] instanceof CNull) {
+				CHDynmapExpiryWheel.cancel(args[0].val(), marker.getId());
+			} else {
+				CHDynmapExpiryWheel.schedule(args[0].val(), marker.getId(), CHDynmapExpiryWheel.toTicks(ArgumentValidation.getDouble(args[2], t)));
+			}
+			return CVoid.VOID;
+		}
+	}
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package com.hekta.chdynmap.core.functions;
 
 import com.hekta.chdynmap.abstraction.MCDynmapPlayerSet;
+import com.hekta.chdynmap.core.CHDynmapPlayerIndex;
 import com.hekta.chdynmap.core.CHDynmapStatic;
 import com.laytonsmith.PureUtilities.Version;
 import com.laytonsmith.abstraction.MCOfflinePlayer;
@@ -327,6 +328,52 @@ public class DynmapPlayerSets {
 		}
 	}
 
+	@api
+	public static class dm_player_playersets extends DynmapPlayerSetFunction {
+
+		@Override
+		public String getName() {
+			return "dm_player_playersets";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{0, 1};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CREPlayerOfflineException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "array {[playerName]} Returns an array containing the IDs of the playersets the player is in."
+					+ " This will not throw a PlayerOfflineException (except from console), the name is compared without case."
+					+ " The playersets are indexed when it is first called, then the index is kept up to date as the playersets are changed through CHDynmap.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			String playerName;
+			if (args.length == 0) {
+				MCPlayer psender = environment.getEnv(CommandHelperEnvironment.class).GetPlayer();
+				if (psender == null) {
+					throw new CREPlayerOfflineException("No player was specified!", t);
+				} else {
+					playerName = psender.getName();
+				}
+			} else {
+				playerName = args[0].val();
+			}
+			CArray setArray = new CArray(t);
+			for (String setID : CHDynmapPlayerIndex.getPlayerSets(CHDynmapStatic.getMarkerAPI(t), playerName)) {
+				setArray.push(new CString(setID, t), t);
+			}
+			return setArray;
+		}
+	}
+
 	@api
 	public static class dm_set_pis_in_playerset extends DynmapPlayerSetFunction {
 
@@ -0,0 +1,337 @@
+package com.hekta.chdynmap.core.functions;
+
+import com.hekta.chdynmap.abstraction.MCDynmapMarker;
+import com.hekta.chdynmap.abstraction.MCDynmapMarkerSet;
+import com.hekta.chdynmap.core.CHDynmapJob;
+import com.hekta.chdynmap.core.CHDynmapMarkerFilter;
+import com.hekta.chdynmap.core.CHDynmapMarkerJob;
+import com.hekta.chdynmap.core.CHDynmapStatic;
+import com.hekta.chdynmap.core.CHDynmapStyleTheme;
+import com.laytonsmith.PureUtilities.Version;
+import com.laytonsmith.annotations.api;
+import com.laytonsmith.core.ArgumentValidation;
+import com.laytonsmith.core.MSVersion;
+import com.laytonsmith.core.constructs.CArray;
+import com.laytonsmith.core.constructs.CInt;
+import com.laytonsmith.core.constructs.CNull;
+import com.laytonsmith.core.constructs.CString;
+import com.laytonsmith.core.constructs.CVoid;
+import com.laytonsmith.core.constructs.Target;
+import com.laytonsmith.core.environments.Environment;
+import com.laytonsmith.core.exceptions.CRE.CRECastException;
+import com.laytonsmith.core.exceptions.CRE.CREFormatException;
+import com.laytonsmith.core.exceptions.CRE.CREInvalidPluginException;
+import com.laytonsmith.core.exceptions.CRE.CRENotFoundException;
+import com.laytonsmith.core.exceptions.CRE.CREPluginInternalException;
+import com.laytonsmith.core.exceptions.CRE.CRERangeException;
+import com.laytonsmith.core.exceptions.CRE.CREThrowable;
+import com.laytonsmith.core.exceptions.ConfigRuntimeException;
+import com.laytonsmith.core.functions.AbstractFunction;
+import com.laytonsmith.core.natives.interfaces.Mixed;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ *
+ * @author Hekta
+ */
+public class DynmapStyleThemes {
+
+	public static String docs() {
+		return "A class of functions to manage the style themes of Dynmap markers.";
+	}
+
+	public static abstract class DynmapStyleThemeFunction extends AbstractFunction {
+
+		@Override
+		public boolean isRestricted() {
+			return true;
+		}
+
+		@Override
+		public Boolean runAsync() {
+			return false;
+		}
+
+		@Override
+		public Version since() {
+			return MSVersion.V3_3_1;
+		}
+	}
+
+	public static CHDynmapStyleTheme getTheme(String name, Target t) {
+		CHDynmapStyleTheme theme = CHDynmapStyleTheme.get(name);
+		if (theme != null) {
+			return theme;
+		} else {
+			throw new CRENotFoundException("\"" + name + "\" is not an existing style theme.", t);
+		}
+	}
+
+	@api
+	public static class dm_all_style_themes extends DynmapStyleThemeFunction {
+
+		@Override
+		public String getName() {
+			return "dm_all_style_themes";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{0};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{};
+		}
+
+		@Override
+		public String docs() {
+			return "array {} Returns an array of all style theme names.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CArray themeArray = new CArray(t);
+			for (String name : CHDynmapStyleTheme.getNames()) {
+				themeArray.push(new CString(name, t), t);
+			}
+			return themeArray;
+		}
+	}
+
+	@api
+	public static class dm_apply_style_theme extends DynmapStyleThemeFunction {
+
+		@Override
+		public String getName() {
+			return "dm_apply_style_theme";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{2, 3, 4};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class, CRECastException.class, CREFormatException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "int {name, setID, [filter], [optionArray]} Binds the markers of a markerset matching the filter to a style theme, and applies the theme to them."
+					+ " Returns the number of markers restyled (or the ID of the job, if the restyle is spread over the ticks, see {{function|dm_job_info}})."
+					+ " The filter is the same as in {{function|dm_copy_markers}}."
+					+ " ---- The option array is associative and not required, and all its keys are optional."
+					+ " <li>KEY - DEFAULT - DESCRIPTION - COMMENT</li>"
+					+ " <li>spread - false - spreads the restyle over the next server ticks - the markers are not restyled anymore if the theme is deleted</li>";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CHDynmapStyleTheme theme = getTheme(args[0].val(), t);
+			MCDynmapMarkerSet set = CHDynmapStatic.getMarkerSet(args[1].val(), t);
+			CHDynmapMarkerFilter filter = (args.length > 2) ? CHDynmapMarkerFilter.parse(args[2], t) : CHDynmapMarkerFilter.ALL;
+			List<MCDynmapMarker> markers = filter.select(set);
+			String setID = set.getId();
+			CHDynmapMarkerJob.Operation restyle = marker -> {
+				if (CHDynmapStyleTheme.get(theme.getName()) != theme) {
+					return false;
+				}
+				CHDynmapStyleTheme.bind(setID, marker.getId(), theme);
+				theme.apply(marker);
+				return true;
+			};
+			if (CHDynmapStatic.isSpread(args, 3, t)) {
+				return new CInt(CHDynmapMarkerJob.submit("restyle", set, markers, restyle).getId(), t);
+			} else {
+				return new CInt(CHDynmapMarkerJob.run(markers, restyle), t);
+			}
+		}
+	}
+
+	@api
+	public static class dm_define_style_theme extends DynmapStyleThemeFunction {
+
+		@Override
+		public String getName() {
+			return "dm_define_style_theme";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{2};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CRECastException.class, CREFormatException.class, CRERangeException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "int {name, optionArray} Defines (or redefines) a style theme, and returns the number of markers it is re-applied to."
+					+ " The option array can have the following keys (the settings not given are left untouched on the markers):"
+					+ " <ul><li>boosted: if the area and circle markers are boosted;</li>"
+					+ " <li>fill_style: the fill style of the area and circle markers, an array with the \"color\" and \"opacity\" keys;</li>"
+					+ " <li>label_is_html: if the labels of the markers are HTML markup;</li>"
+					+ " <li>line_style: the line style of the area, circle and polyline markers, an array with the \"color\", \"opacity\" and \"weight\" keys;</li>"
+					+ " <li>max_zoom: the maximum zoom level the markers are shown at;</li>"
+					+ " <li>min_zoom: the minimum zoom level the markers are shown at.</li></ul>"
+					+ " When a theme is redefined, it is re-applied to its bound markers only, in a single pass spread over the next server ticks.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CHDynmapJob job = CHDynmapStyleTheme.define(args[0].val(), ArgumentValidation.getArray(args[1], t), t);
+			return new CInt((job != null) ? job.getTotal() : 0, t);
+		}
+	}
+
+	@api
+	public static class dm_delete_style_theme extends DynmapStyleThemeFunction {
+
+		@Override
+		public String getName() {
+			return "dm_delete_style_theme";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{1};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CRENotFoundException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "void {name} Deletes a style theme. Its markers are unbound, and keep their current style.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			if (!CHDynmapStyleTheme.remove(args[0].val())) {
+				throw new CRENotFoundException("\"" + args[0].val() + "\" is not an existing style theme.", t);
+			}
+			return CVoid.VOID;
+		}
+	}
+
+	@api
+	public static class dm_marker_theme extends DynmapStyleThemeFunction {
+
+		@Override
+		public String getName() {
+			return "dm_marker_theme";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{2};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "string {setID, markerID} Returns the name of the style theme the marker is bound to, or null if it is not bound.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarker marker = CHDynmapStatic.getMarker(args[0].val(), args[1].val(), t);
+			CHDynmapStyleTheme theme = CHDynmapStyleTheme.getTheme(args[0].val(), marker.getId());
+			if (theme != null) {
+				return new CString(theme.getName(), t);
+			} else {
+				return CNull.NULL;
+			}
+		}
+	}
+
+	@api
+	public static class dm_set_marker_theme extends DynmapStyleThemeFunction {
+
+		@Override
+		public String getName() {
+			return "dm_set_marker_theme";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{3};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CREInvalidPluginException.class, CREPluginInternalException.class, CRENotFoundException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "void {setID, markerID, name} Binds the marker to a style theme, and applies the theme to it."
+					+ " If name is null, the marker is unbound from its theme, and keeps its current style.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			MCDynmapMarker marker = CHDynmapStatic.getMarker(args[0].val(), args[1].val(), t);
+			String setID = args[0].val();
+			if (args[2] instanceof CNull) {
+				CHDynmapStyleTheme.unbind(setID, marker.getId());
+			} else {
+				CHDynmapStyleTheme theme = getTheme(args[2].val(), t);
+				CHDynmapStyleTheme.bind(setID, marker.getId(), theme);
+				theme.apply(marker);
+			}
+			return CVoid.VOID;
+		}
+	}
+
+	@api
+	public static class dm_theme_markers extends DynmapStyleThemeFunction {
+
+		@Override
+		public String getName() {
+			return "dm_theme_markers";
+		}
+
+		@Override
+		public Integer[] numArgs() {
+			return new Integer[]{1};
+		}
+
+		@Override
+		public Class<? extends CREThrowable>[] thrown() {
+			return new Class[]{CRENotFoundException.class};
+		}
+
+		@Override
+		public String docs() {
+			return "array {name} Returns an associative array of the markers bound to the style theme,"
+					+ " where the keys are the markerset IDs, and the values are arrays of marker IDs.";
+		}
+
+		@Override
+		public Mixed exec(Target t, Environment environment, Mixed... args) throws ConfigRuntimeException {
+			CArray setArray = new CArray(t);
+			for (Map.Entry<String, Set<String>> entry : getTheme(args[0].val(), t).getMarkers().entrySet()) {
+				CArray markerArray = new CArray(t);
+				for (String markerID : entry.getValue()) {
+					markerArray.push(new CString(markerID, t), t);
+				}
+				setArray.set(entry.getKey(), markerArray, t);
+			}
+			return setArray;
+		}
+	}
+}
\ No newline at end of file